@@ -309,7 +309,12 @@ public abstract class AbstractSEPAGV extends HBCIJobImpl
         {
             try
             {
-                this.generator = SEPAGeneratorFactory.get(this, this.getPainVersion());
+                // Optional den Streaming-Generator verwenden, falls es fuer die PAIN-Version einen gibt
+                if (HBCIUtils.getParam("sepa.pain.streaming","0").equals("1"))
+                    this.generator = SEPAGeneratorFactory.getStreaming(this.getPainJobName(), this.getPainVersion());
+
+                if (this.generator == null)
+                    this.generator = SEPAGeneratorFactory.get(this, this.getPainVersion());
             }
             catch (Exception e)
             {
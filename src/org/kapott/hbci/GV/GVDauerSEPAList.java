@@ -24,10 +24,11 @@ package org.kapott.hbci.GV;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Properties;
 
-import org.kapott.hbci.GV.parsers.ISEPAParser;
-import org.kapott.hbci.GV.parsers.SEPAParserFactory;
+import org.kapott.hbci.GV.parsers.SEPAStreamParser;
+import org.kapott.hbci.GV.parsers.SepaRecord;
 import org.kapott.hbci.GV_Result.GVRDauerList;
 import org.kapott.hbci.comm.Comm;
 import org.kapott.hbci.exceptions.HBCI_Exception;
@@ -103,15 +104,19 @@ public final class GVDauerSEPAList extends AbstractSEPAGV
 
         entry.other=new Konto();
         
-        String sepadescr = result.getProperty(header+".sepadescr");
-        PainVersion version = PainVersion.byURN(sepadescr);
-        ISEPAParser parser = SEPAParserFactory.get(version);
-        ArrayList<Properties> sepaResults = new ArrayList<Properties>();
+        final List<SepaRecord> sepaResults = new ArrayList<SepaRecord>();
         String pain = result.getProperty(header+".sepapain");
         try
         {
             // Encoding siehe GVTermUebSEPAList
-            parser.parse(new ByteArrayInputStream(pain.getBytes(Comm.ENCODING)), sepaResults);
+            // Die PAIN-Version ermittelt der Parser selbst aus dem Namespace
+            SEPAStreamParser parser = new SEPAStreamParser();
+            parser.parse(new ByteArrayInputStream(pain.getBytes(Comm.ENCODING)), new SEPAStreamParser.Handler() {
+                public void handle(SepaRecord record)
+                {
+                    sepaResults.add(record);
+                }
+            });
         }
         catch(Exception e)
         {
@@ -119,17 +124,17 @@ public final class GVDauerSEPAList extends AbstractSEPAGV
         }
 
         if(sepaResults.isEmpty()) return;
-        Properties sepaResult = sepaResults.get(0);
-        entry.other.iban = sepaResult.getProperty("dst.iban");
-        entry.other.bic = sepaResult.getProperty("dst.bic");
-        entry.other.name = sepaResult.getProperty("dst.name");
-        entry.pmtinfid = sepaResult.getProperty("pmtinfid");
-        entry.purposecode = sepaResult.getProperty("purposecode");
+        SepaRecord sepaResult = sepaResults.get(0);
+        entry.other.iban = sepaResult.dstiban;
+        entry.other.bic = sepaResult.dstbic;
+        entry.other.name = sepaResult.dstname;
+        entry.pmtinfid = sepaResult.pmtinfid;
+        entry.purposecode = sepaResult.purposecode;
         
         entry.value=new Value(
-                        sepaResult.getProperty("value"),
-                        sepaResult.getProperty("curr"));
-        entry.addUsage(sepaResult.getProperty("usage"));
+                        SepaUtil.format(sepaResult.value),
+                        sepaResult.curr);
+        entry.addUsage(sepaResult.usage);
  
         String st;
         entry.orderid=result.getProperty(header+".orderid");
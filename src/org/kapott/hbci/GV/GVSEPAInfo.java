@@ -92,5 +92,8 @@ public class GVSEPAInfo
         		}
         	}
         }
+        
+        // den index ueber die konten neu aufbauen
+        getMainPassport().setUPD(upd);
     }
 }
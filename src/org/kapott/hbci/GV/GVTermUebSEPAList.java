@@ -24,15 +24,15 @@ package org.kapott.hbci.GV;
 import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Properties;
 
-import org.kapott.hbci.GV.parsers.ISEPAParser;
-import org.kapott.hbci.GV.parsers.SEPAParserFactory;
+import org.kapott.hbci.GV.parsers.SEPAStreamParser;
+import org.kapott.hbci.GV.parsers.SepaRecord;
 import org.kapott.hbci.GV_Result.GVRTermUebList;
 import org.kapott.hbci.comm.Comm;
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIHandler;
-import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.LogFilter;
 import org.kapott.hbci.sepa.PainVersion;
 import org.kapott.hbci.sepa.PainVersion.Type;
@@ -104,10 +104,7 @@ public final class GVTermUebSEPAList extends AbstractSEPAGV
 
         entry.other=new Konto();
         
-        String sepadescr = result.getProperty(header+".sepadescr");
-        PainVersion version = PainVersion.byURN(sepadescr);
-        ISEPAParser parser = SEPAParserFactory.get(version);
-        ArrayList<Properties> sepaResults = new ArrayList<Properties>();
+        final List<SepaRecord> sepaResults = new ArrayList<SepaRecord>();
         String pain = result.getProperty(header+".sepapain");
         try
         {
@@ -121,7 +118,14 @@ public final class GVTermUebSEPAList extends AbstractSEPAGV
             // beim Empfang vom Server kamen, wenn der XML-Parser sie kriegt. Er macht dann die Conversion Byte->String
             // korrekt basierend auf dem im XML angegebenen Header.
             // Siehe auch AbstractSEPAGenerator#marshal
-            parser.parse(new ByteArrayInputStream(pain.getBytes(Comm.ENCODING)), sepaResults);
+            // Die PAIN-Version ermittelt der Parser selbst aus dem Namespace
+            SEPAStreamParser parser = new SEPAStreamParser();
+            parser.parse(new ByteArrayInputStream(pain.getBytes(Comm.ENCODING)), new SEPAStreamParser.Handler() {
+                public void handle(SepaRecord record)
+                {
+                    sepaResults.add(record);
+                }
+            });
         }
         catch(Exception e)
         {
@@ -129,17 +133,17 @@ public final class GVTermUebSEPAList extends AbstractSEPAGV
         }
 
         if(sepaResults.isEmpty()) return;
-        Properties sepaResult = sepaResults.get(0);
-        entry.other.iban = sepaResult.getProperty("dst.iban");
-        entry.other.bic = sepaResult.getProperty("dst.bic");
-        entry.other.name = sepaResult.getProperty("dst.name");
+        SepaRecord sepaResult = sepaResults.get(0);
+        entry.other.iban = sepaResult.dstiban;
+        entry.other.bic = sepaResult.dstbic;
+        entry.other.name = sepaResult.dstname;
         entry.value=new Value(
-                        sepaResult.getProperty("value"),
-                        sepaResult.getProperty("curr"));
-        entry.addUsage(sepaResult.getProperty("usage"));
+                        SepaUtil.format(sepaResult.value),
+                        sepaResult.curr);
+        entry.addUsage(sepaResult.usage);
  
         entry.orderid=result.getProperty(header+".orderid");
-        entry.date = HBCIUtils.string2DateISO(sepaResult.getProperty("date"));
+        entry.date = sepaResult.date;
         
         entry.can_change = result.getProperty(header+".canchange")==null || result.getProperty(header+".canchange").equals("J");
         entry.can_delete = result.getProperty(header+".candel")==null || result.getProperty(header+".candel").equals("J");
@@ -22,16 +22,10 @@
 package org.kapott.hbci.GV;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Properties;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.kapott.hbci.GV_Result.HBCIJobResult;
 import org.kapott.hbci.GV_Result.HBCIJobResultImpl;
@@ -40,6 +34,7 @@ import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.exceptions.InvalidArgumentException;
 import org.kapott.hbci.exceptions.InvalidUserDataException;
 import org.kapott.hbci.exceptions.JobNotSupportedException;
+import org.kapott.hbci.manager.HBCIContext;
 import org.kapott.hbci.manager.HBCIHandler;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
@@ -75,22 +70,20 @@ public abstract class HBCIJobImpl
     private boolean executed;
     private int contentCounter;       /* Zhler, wie viele Rckgabedaten bereits in outStore eingetragen wurden 
                                            (entspricht der anzahl der antwort-segmente!)*/
-    private Hashtable<String, String[][]> constraints;    /* Festlegungen, welche Parameter eine Anwendung setzen muss, wie diese im
+    private JobParamSchema schema;    /* Festlegungen, welche Parameter eine Anwendung setzen muss, wie diese im
                                          HBCI-Kernel umgesetzt werden und welche default-Werte vorgesehen sind; 
-                                         die Hashtable hat als Schlssel einen String, der angibt, wie ein Wert aus einer
-                                         Anwendung heraus zu setzen ist. Der dazugehrige Value ist ein Array. Jedes Element
-                                         dieses Arrays ist ein String[2], wobei das erste Element angibt, wie der Pfadname heisst,
-                                         unter dem der anwendungs-definierte Wert abzulegen ist, das zweite Element gibt den
-                                         default-Wert an, falls fr diesen Namen *kein* Wert angebeben wurde. Ist der default-
+                                         das Schema enthlt fr jeden Namen, unter dem ein Wert aus einer Anwendung heraus
+                                         zu setzen ist, die Pfadnamen, unter denen der anwendungs-definierte Wert abzulegen
+                                         ist, sowie jeweils den default-Wert, falls fr diesen Namen *kein* Wert angebeben
+                                         wurde. Auerdem den Logfilter-Level und ob der Parameter indiziert ist. Ist der default-
                                          Wert="", so kann das Syntaxelement weggelassen werden. Ist der default-Wert=null,
-                                         so *muss* die Anwendung einen Wert spezifizieren */
-    private Hashtable<String, Integer> logFilterLevels; /* hier wird fr jeden hl-param-name gespeichert, ob der dazugehrige wert
-                                          ber den logfilter-Mechanimus geschtzt werden soll */
+                                         so *muss* die Anwendung einen Wert spezifizieren.
+                                         Das Schema ist pro GV-Klasse und Segment-Version gecached und wird von
+                                         allen Instanzen gemeinsam verwendet */
+    private JobParamSchema.Builder schemaBuilder; /* sammelt die addConstraint()-Aufrufe des Konstruktors */
     
     private String externalId;
     
-    private HashSet<String> indexedConstraints;
-    
     protected HBCIJobImpl(HBCIHandler parentHandler,String jobnameLL,HBCIJobResultImpl jobResult)
     {
         findSpecNameForGV(jobnameLL,parentHandler);
@@ -103,9 +96,7 @@ public abstract class HBCIJobImpl
         this.jobResult.setParentJob(this);
         
         this.contentCounter=0;
-        this.constraints=new Hashtable<String, String[][]>();
-        this.logFilterLevels=new Hashtable<String, Integer>();
-        this.indexedConstraints=new HashSet<String>();
+        this.schemaBuilder=new JobParamSchema.Builder(getClass(),this.name);
         this.executed=false;
         
         this.parentHandler=parentHandler;
@@ -283,23 +274,10 @@ public abstract class HBCIJobImpl
         this.llParams.setProperty(newName,value);
       }
 
-      // Destination-Namen in den LowLevel-Parameter auf den neuen Namen umbiegen
-      Enumeration<String> e = constraints.keys();
-      while (e.hasMoreElements())
-      {
-        String frontendName = e.nextElement();
-        String[][] values = constraints.get(frontendName);
-        for (int i=0;i<values.length;++i)
-        {
-          String[] value = values[i];
-          // value[0] ist das Target
-          if (!value[0].startsWith(oldName))
-            continue;
-
-          // Hier ersetzen wir z.Bsp. "TAN2Step5.process" gegen "TAN2Step3.process"
-          value[0] = value[0].replaceFirst(oldName,this.name);
-        }
-      }
+      // Destination-Namen in den LowLevel-Parameter auf den neuen Namen umbiegen.
+      // Aus z.Bsp. "TAN2Step5.process" wird "TAN2Step3.process". Das gecachte Schema
+      // wird von anderen Jobs verwendet, daher bekommt dieser Job eine eigene Kopie.
+      this.schema = getSchema().rename(this.name);
     }
     
     public int getMaxNumberPerMsg()
@@ -411,60 +389,48 @@ public abstract class HBCIJobImpl
 
     protected void addConstraint(String frontendName,String destinationName,String defValue,int logFilterLevel,boolean indexed)
     {
-        // value ist array:(lowlevelparamname, defaultvalue)
-        String[] value=new String[2];
-        value[0]=getName()+"."+destinationName;
-        value[1]=defValue;
-
-        // alle schon gespeicherten "ziel-lowlevelparameternamen" fr den gewnschten
-        // frontend-namen suchen
-        String[][] values=(constraints.get(frontendName));
-
-        if (values==null) {
-            // wenn es noch keine gibt, ein neues frontend-ding anlegen //FIXME: was ist ein "frontend-ding"?
-            values=new String[1][];
-            values[0]=value;
-        } else {
-            ArrayList<String[]> a=new ArrayList<String[]>(Arrays.asList(values));
-            a.add(value);
-            values=(a.toArray(values));
-        }
-
-        constraints.put(frontendName,values);
-        
-        if (indexed) {
-            indexedConstraints.add(frontendName);
-        }
-        
-        if (logFilterLevel>0) {
-        	logFilterLevels.put(frontendName,new Integer(logFilterLevel));
+        // nach dem Konstruktor hinzugefuegte Parameter erweitern das bisherige Schema
+        if (schemaBuilder==null)
+            schemaBuilder=new JobParamSchema.Builder(schema);
+        schemaBuilder.add(frontendName,destinationName,defValue,logFilterLevel,indexed);
+    }
+    
+    /* liefert das parameter-schema. beim ersten aufruf nach dem konstruktor
+       wird es aus den addConstraint()-aufrufen erzeugt bzw. aus dem cache geholt */
+    private JobParamSchema getSchema()
+    {
+        if (schemaBuilder!=null) {
+            schema=schemaBuilder.build();
+            schemaBuilder=null;
         }
+        return schema;
     }
     
+    /* prueft, ob alle pflichtparameter gesetzt sind. die parameter werden in der
+       reihenfolge geprueft, in der sie per addConstraint() registriert wurden
+       (frueher in der zufaelligen reihenfolge der hashtable), fehlen mehrere,
+       wird also immer der zuerst registrierte gemeldet */
     public void verifyConstraints()
     {
         HBCIPassportInternal passport=getMainPassport();
         
         // durch alle gespeicherten constraints durchlaufen
-        for (Iterator<String> i=constraints.keySet().iterator();i.hasNext();) {
+        JobParamSchema.Param[] params=getSchema().getParams();
+        for (int i=0;i<params.length;i++) {
+            JobParamSchema.Param param=params[i];
             // den frontendnamen fr das constraint ermitteln
-            String     frontendName=(i.next());
-            
-            // dazu alle ziel-lowlevelparameter mit default-wert extrahieren
-            String[][] values=(constraints.get(frontendName));
+            String     frontendName=param.name;
 
             // durch alle ziel-lowlevel-parameternamen durchlaufen, die gesetzt werden mssen
-            for (int j=0;j<values.length;j++) {
-            	//Array mit Pfadname und default Wert 
-                String[] value=values[j];
+            for (int j=0;j<param.destinations.length;j++) {
                 // lowlevel-name (Pfadname) des parameters (z.B. wird Frontendname src.bic zum Pfad My.bic
-                String   destination=value[0];
+                String   destination=param.destinations[j];
                 // default-wert des parameters, wenn keiner angegeben wurde
-                String   defValue=value[1];
+                String   defValue=param.defValues[j];
 
                 String   givenContent=getLowlevelParam(destination);
-                if (givenContent==null && indexedConstraints.contains(frontendName)) {
-                    givenContent = getLowlevelParam(insertIndex(destination, 0));
+                if (givenContent==null && param.indexed) {
+                    givenContent = getLowlevelParam(param.getDestination(j,0));
                 }
 
                 String   content=null;
@@ -512,7 +478,7 @@ public abstract class HBCIJobImpl
         SEG seg=null;
         try {
             MsgGen gen=getParentHandler().getMsgGen();
-            seg=SEGFactory.getInstance().createSEG(getName(),getName(),null,0,gen.getSyntax());
+            seg=SEGFactory.getInstance().createSEG(getName(),getName(),null,0,gen.getGrammar());
             for (Enumeration e=getLowlevelParams().propertyNames();e.hasMoreElements();) {
                 String key=(String)e.nextElement();
                 String value=getLowlevelParams().getProperty(key);
@@ -645,7 +611,7 @@ public abstract class HBCIJobImpl
     
     protected boolean acceptsParam(String hlParamName)
     {
-    	return constraints.get(hlParamName)!=null;
+    	return getSchema().get(hlParamName)!=null;
     }
 
     /** <p>Setzen eines Job-Parameters. Fr alle Highlevel-Jobs ist in der Package-Beschreibung zum
@@ -680,48 +646,52 @@ public abstract class HBCIJobImpl
         @param index Der index oder <code>null</code>, wenn kein Index gewnscht ist
         @param value Wert, auf den der Parameter gesetzt werden soll */
     @Override
-    public void setParam(String paramName,Integer index,String value)
+    public void setParam(final String paramName,final Integer index,final String value)
     {
-    	// wenn der Parameter einen LogFilter-Level gesetzt hat, dann den
-    	// betreffenden Wert zum Logfilter hinzufgen
-    	Integer logFilterLevel=logFilterLevels.get(paramName);
-    	if (logFilterLevel!=null && logFilterLevel.intValue()!=0) {
-    		LogFilter.getInstance().addSecretData(value,"X",logFilterLevel.intValue());
-    	}
+        // kann auch aus einem thread ohne gebundenen kontext aufgerufen werden
+        HBCIContext.bind(getParentHandler().getContext(),new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                Integer idx=index;
+                String  v=value;
+                
+                // wenn der Parameter einen LogFilter-Level gesetzt hat, dann den
+                // betreffenden Wert zum Logfilter hinzufgen
+                JobParamSchema.Param param=getSchema().get(paramName);
+                if (param!=null && param.logFilterLevel!=0) {
+                    LogFilter.getInstance().addSecretData(getMainPassport(),v,"X",param.logFilterLevel);
+                }
 
-        String[][]           destinations=constraints.get(paramName);
-        HBCIPassportInternal passport=getMainPassport();
+                HBCIPassportInternal passport=getMainPassport();
         
-        if (destinations==null) {
-            String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_NOTNEEDED",new String[] {paramName,getName()});
-            if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
-                throw new InvalidUserDataException(msg);
-            destinations=new String[0][];
-        }
+                if (param==null) {
+                    String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_NOTNEEDED",new String[] {paramName,getName()});
+                    if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
+                        throw new InvalidUserDataException(msg);
+                }
         
-        if (value==null || value.length()==0) {
-            String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_EMPTY",new String[] {paramName,getName()});
-            if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
-                throw new InvalidUserDataException(msg);
-            value="";
-        }
+                if (v==null || v.length()==0) {
+                    String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_EMPTY",new String[] {paramName,getName()});
+                    if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
+                        throw new InvalidUserDataException(msg);
+                    v="";
+                }
         
-        if (index!=null && !indexedConstraints.contains(paramName)) {
-            String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_NOTINDEXED",new String[] {paramName,getName()});
-            if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
-                throw new InvalidUserDataException(msg);
-        }
-
-        for (int i=0;i<destinations.length;i++) {
-            String[] valuePair=destinations[i];
-            String   lowlevelname=valuePair[0];
+                if (idx!=null && (param==null || !param.indexed)) {
+                    String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_NOTINDEXED",new String[] {paramName,getName()});
+                    if (!HBCIUtilsInternal.ignoreError(passport,"client.errors.ignoreWrongJobDataErrors",msg))
+                        throw new InvalidUserDataException(msg);
+                    idx=null;
+                }
 
-            if (index != null && indexedConstraints.contains(paramName)) {
-                lowlevelname = insertIndex(lowlevelname, index);
+                if (param!=null) {
+                    for (int i=0;i<param.destinations.length;i++) {
+                        setLowlevelParam(param.getDestination(i,idx),v);
+                    }
+                }
+                return null;
             }
-            
-            setLowlevelParam(lowlevelname,value);
-        }
+        });
     }
     
     public void setContinueOffset(int loop)
@@ -769,11 +739,11 @@ public abstract class HBCIJobImpl
         boolean needs=false;
 
         if (executed) {
-            HBCIRetVal retval=null;
-            int        num=jobResult.getRetNumber();
+            // getRetVal(i) kopiert jedesmal alle Rckgabecodes - daher einmal holen
+            HBCIRetVal[] retvals=jobResult.jobStatus.getRetVals();
 
-            for (int i=0;i<num;i++) {
-                retval=jobResult.getRetVal(i);
+            for (int i=0;i<retvals.length;i++) {
+                HBCIRetVal retval=retvals[i];
                 
                 if (retval.code.equals("3040") && retval.params.length!=0 && (--loop)==0) {
                     needs=true;
@@ -790,11 +760,11 @@ public abstract class HBCIJobImpl
        zurck */
     private String getContinueOffset(int loop)
     {
-        String ret=null;
-        int    num=jobResult.getRetNumber();
+        String       ret=null;
+        HBCIRetVal[] retvals=jobResult.jobStatus.getRetVals();
         
-        for (int i=0;i<num;i++) {
-            HBCIRetVal retval=jobResult.getRetVal(i);
+        for (int i=0;i<retvals.length;i++) {
+            HBCIRetVal retval=retvals[i];
 
             if (retval.code.equals("3040") && retval.params.length!=0 && (--loop)==0) {
                 ret=retval.params[0];
@@ -816,43 +786,16 @@ public abstract class HBCIJobImpl
             Properties result=status.getData();
 
             // nachsehen, welche antwortsegmente ueberhaupt
-            // zu diesem task gehoeren
-            
-            // res-num --> segmentheader (wird fr sortierung der 
-            // antwort-segmente bentigt)
-            Hashtable<Integer,String> keyHeaders=new Hashtable<Integer, String>();
-            for (Enumeration i=result.keys();i.hasMoreElements();) {
-                String key=(String)(i.nextElement());
-                if (key.startsWith("GVRes")&&
-                    key.endsWith(".SegHead.ref")) {
-                    
-                    String segref=result.getProperty(key);
-                    if ((Integer.parseInt(segref))-offset==idx) {
-                        // nummer des antwortsegments ermitteln
-                        int resnum=0;
-                        if (key.startsWith("GVRes_")) {
-                            resnum=Integer.parseInt(key.substring(key.indexOf('_')+1,key.indexOf('.')));
-                        }
-                        
-                        keyHeaders.put(
-                            new Integer(resnum),
-                            key.substring(0,key.length()-(".SegHead.ref").length()));
-                    }
-                }
-            }
+            // zu diesem task gehoeren. der index ueber die antwort wird
+            // nur einmal pro nachricht erzeugt und liefert die
+            // segment-header bereits in der reihenfolge des eintreffens
+            List<String> headers=status.getResponseIndex().getHeaders(idx+offset);
             
             saveBasicValues(result,idx+offset);
             saveReturnValues(status,idx+offset);
             
-            // segment-header-namen der antwortsegmente in der reihenfolge des
-            // eintreffens sortieren
-            Object[] resnums=keyHeaders.keySet().toArray(new Object[0]);
-            Arrays.sort(resnums);
-
             // alle antwortsegmente durchlaufen
-            for (int i=0;i<resnums.length;i++) {
-                // dabei reihenfolge des eintreffens beachten
-                String header=keyHeaders.get(resnums[i]);
+            for (String header:headers) {
                 
                 extractPlaintextResults(status,header,contentCounter);
                 extractResults(status,header,contentCounter++);
@@ -899,15 +842,10 @@ public abstract class HBCIJobImpl
      */
     protected void saveReturnValues(HBCIMsgStatus status,int sref)
     {
-        HBCIRetVal[] retVals=status.segStatus.getRetVals();
-        String       segref=Integer.toString(sref);
+        List<HBCIRetVal> retVals=status.getResponseIndex().getRetVals(Integer.toString(sref));
         
-        for (int i=0;i<retVals.length;i++) {
-            HBCIRetVal rv=retVals[i];
-            
-            if (rv.segref!=null && rv.segref.equals(segref)) {
-                jobResult.jobStatus.addRetVal(rv);
-            }
+        for (HBCIRetVal rv:retVals) {
+            jobResult.jobStatus.addRetVal(rv);
         }
         
         /* bei Jobs, die mehrere Nachrichten bentigt haben, bewirkt das, dass nur
@@ -928,15 +866,23 @@ public abstract class HBCIJobImpl
 
     private void extractPlaintextResults(HBCIMsgStatus status,String header,int idx)
     {
-        Properties result=status.getData();
-        for (Enumeration e=result.keys();e.hasMoreElements();) {
-            String key=(String)(e.nextElement());
-            if (key.startsWith(header+".")) {
-                jobResult.storeResult(HBCIUtilsInternal.withCounter("content",idx)+
-                                      "."+
-                                      key.substring(header.length()+1),result.getProperty(key));
+        Properties   result=status.getData();
+        List<String> keys=status.getResponseIndex().getKeys(header);
+        if (keys==null) {
+            // header liegt nicht auf oberster ebene - dann alle schluessel durchsuchen
+            keys=new ArrayList<String>();
+            for (Enumeration e=result.keys();e.hasMoreElements();) {
+                String key=(String)(e.nextElement());
+                if (key.startsWith(header+".")) {
+                    keys.add(key);
+                }
             }
         }
+
+        String prefix=HBCIUtilsInternal.withCounter("content",idx)+".";
+        for (String key:keys) {
+            jobResult.storeResult(prefix+key.substring(header.length()+1),result.getProperty(key));
+        }
     }
 
     public HBCIJobResult getJobResult()
@@ -1041,11 +987,11 @@ public abstract class HBCIJobImpl
 
     protected void checkAccountCRC(String frontendname)
     {
-        String[][] data=constraints.get(frontendname+".blz");
-        if (data!=null && data.length!=0) {
+        JobParamSchema.Param data=getSchema().get(frontendname+".blz");
+        if (data!=null && data.destinations.length!=0) {
         	// wenn es tatsaechlich einen frontendparamter der form acc.blz gibt,
         	// brauchen wir zunaechst den "basis-namen" ("acc")
-            String paramname=data[0][0];
+            String paramname=data.destinations[0];
             String lowlevelHeader=paramname.substring(0,paramname.lastIndexOf(".KIK.blz"));
 
             // basierend auf dem basis-namen blz/number holen
@@ -1056,9 +1002,9 @@ public abstract class HBCIJobImpl
         }
         
         // analoges fuer die IBAN
-        String[][] data2=constraints.get(frontendname+".iban");
-        if (data2!=null && data2.length!=0) {
-            String paramname=data2[0][0];
+        JobParamSchema.Param data2=getSchema().get(frontendname+".iban");
+        if (data2!=null && data2.destinations.length!=0) {
+            String paramname=data2.destinations[0];
             String lowlevelHeader=paramname.substring(0,paramname.lastIndexOf(".iban"));
 
             String iban=llParams.getProperty(lowlevelHeader+".iban");
@@ -1182,16 +1128,4 @@ public abstract class HBCIJobImpl
         
         return found;
     }
-    
-    private static final Pattern INDEX_PATTERN = Pattern.compile("(\\w+\\.\\w+\\.\\w+)(\\.\\w+)?");
-    private String insertIndex(String key, Integer index)
-    {
-        if (index != null) {
-            Matcher m = INDEX_PATTERN.matcher(key);
-            if (m.matches()) {
-                return m.group(1) + '[' + index + ']' + (m.group(2) != null ? m.group(2) : "");
-            }
-        }
-        return key;
-    }
 }
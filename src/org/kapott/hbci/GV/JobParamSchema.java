@@ -0,0 +1,287 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Kompiliertes Parameter-Schema eines Geschaeftsvorfalls.
+ *
+ * Bisher hat jede Job-Instanz im Konstruktor per
+ * {@link HBCIJobImpl#addConstraint(String, String, String, int, boolean)}
+ * eigene Hashtables mit den Ziel-Parametern, Default-Werten, Logfilter-Leveln
+ * und indizierten Parametern aufgebaut, obwohl diese fuer alle Instanzen einer
+ * GV-Klasse in derselben Segment-Version gleich sind. Das Schema wird jetzt
+ * beim ersten Job einmal kompiliert und danach von allen Instanzen gemeinsam
+ * verwendet. Die Ziel-Namen sind vorberechnet, inclusive der Stelle, an der
+ * bei indizierten Parametern der Index eingefuegt wird.
+ *
+ * Da die Konstruktoren der Jobs weiterhin {@code addConstraint} aufrufen,
+ * vergleicht der {@link Builder} die Aufrufe nur mit dem gecachten Schema.
+ * Weicht eine Instanz ab (z.B. weil ein Default-Wert aus den BPD stammt),
+ * erhaelt sie ein eigenes, nicht gecachtes Schema.
+ *
+ * Das Schema legt nur fest, welche Parameter es gibt. Die Werte selbst
+ * speichert der Job weiterhin in seinen Lowlevel-Parametern.
+ *
+ * Das Schema ist nach dem Erzeugen unveraenderlich und damit thread-safe.
+ * Die Klasse ist nur fuer die interne Verwendung durch die Jobs gedacht.
+ */
+final class JobParamSchema
+{
+    private final static Pattern INDEX_PATTERN = Pattern.compile("(\\w+\\.\\w+\\.\\w+)(\\.\\w+)?");
+
+    // "GVUeb:Ueb5" -> Schema
+    private final static ConcurrentHashMap<String,JobParamSchema> cache = new ConcurrentHashMap<String,JobParamSchema>();
+
+    private final String name;
+    private final Constraint[] constraints;
+    private final Param[] params;
+    private final Map<String,Param> byName;
+
+    /**
+     * Ein Aufruf von addConstraint.
+     */
+    private final static class Constraint
+    {
+        private final String frontendName;
+        private final String destinationName;
+        private final String defValue;
+        private final int logFilterLevel;
+        private final boolean indexed;
+
+        private Constraint(String frontendName,String destinationName,String defValue,int logFilterLevel,boolean indexed)
+        {
+            this.frontendName=frontendName;
+            this.destinationName=destinationName;
+            this.defValue=defValue;
+            this.logFilterLevel=logFilterLevel;
+            this.indexed=indexed;
+        }
+
+        private boolean matches(String frontendName,String destinationName,String defValue,int logFilterLevel,boolean indexed)
+        {
+            return this.frontendName.equals(frontendName) &&
+                   this.destinationName.equals(destinationName) &&
+                   (this.defValue==null ? defValue==null : this.defValue.equals(defValue)) &&
+                   this.logFilterLevel==logFilterLevel &&
+                   this.indexed==indexed;
+        }
+    }
+
+    /**
+     * Ein Highlevel-Parameter mit allen zugehoerigen Lowlevel-Zielen.
+     */
+    final static class Param
+    {
+        final String name;
+        final String[] destinations;
+        final String[] defValues;
+        final boolean indexed;
+        final int logFilterLevel;
+
+        // pro Ziel der Teil vor und nach dem Index, null wenn der Name keinen Index erlaubt
+        private final String[][] indexParts;
+
+        private Param(String name,List<String[]> values,boolean indexed,int logFilterLevel)
+        {
+            this.name=name;
+            this.indexed=indexed;
+            this.logFilterLevel=logFilterLevel;
+            this.destinations=new String[values.size()];
+            this.defValues=new String[values.size()];
+            this.indexParts=new String[values.size()][];
+            for (int i=0;i<destinations.length;i++) {
+                String[] value=values.get(i);
+                destinations[i]=value[0];
+                defValues[i]=value[1];
+
+                Matcher m=INDEX_PATTERN.matcher(value[0]);
+                if (m.matches())
+                    indexParts[i]=new String[] {m.group(1),(m.group(2)!=null)?m.group(2):""};
+            }
+        }
+
+        /**
+         * Liefert den Lowlevel-Namen des Ziels mit eingefuegtem Index.
+         * Aus "UebSEPA1.sepa.btg.value" wird bei Index 2 "UebSEPA1.sepa.btg[2].value".
+         * @param i Nummer des Ziels.
+         * @param index der Index oder <code>null</code>.
+         * @return der Lowlevel-Name.
+         */
+        String getDestination(int i,Integer index)
+        {
+            String[] parts=indexParts[i];
+            if (index==null || parts==null)
+                return destinations[i];
+            return parts[0]+'['+index+']'+parts[1];
+        }
+    }
+
+    /**
+     * ct.
+     * @param name der Job-Name mit Versionsnummer.
+     * @param constraints die Aufrufe von addConstraint in der Reihenfolge des Konstruktors.
+     */
+    private JobParamSchema(String name,Constraint[] constraints)
+    {
+        this.name=name;
+        this.constraints=constraints;
+
+        // Mehrere Ziele pro Frontend-Name zusammenfassen
+        Map<String,List<String[]>> values=new LinkedHashMap<String,List<String[]>>();
+        Map<String,Boolean> indexed=new HashMap<String,Boolean>();
+        Map<String,Integer> levels=new HashMap<String,Integer>();
+        for (Constraint c:constraints) {
+            List<String[]> list=values.get(c.frontendName);
+            if (list==null) {
+                list=new ArrayList<String[]>();
+                values.put(c.frontendName,list);
+            }
+            list.add(new String[] {name+"."+c.destinationName,c.defValue});
+
+            if (c.indexed)
+                indexed.put(c.frontendName,Boolean.TRUE);
+            if (c.logFilterLevel>0)
+                levels.put(c.frontendName,Integer.valueOf(c.logFilterLevel));
+        }
+
+        this.params=new Param[values.size()];
+        this.byName=new HashMap<String,Param>();
+        int pos=0;
+        for (Map.Entry<String,List<String[]>> e:values.entrySet()) {
+            String frontendName=e.getKey();
+            Integer level=levels.get(frontendName);
+            Param p=new Param(frontendName,e.getValue(),
+                              indexed.containsKey(frontendName),
+                              (level!=null)?level.intValue():0);
+            params[pos++]=p;
+            byName.put(frontendName,p);
+        }
+    }
+
+    /**
+     * Liefert den Parameter mit dem angegebenen Frontend-Namen.
+     * @param frontendName der Name des Parameters (z.B. "btg.value").
+     * @return der Parameter oder <code>null</code>, wenn der Job ihn nicht kennt.
+     */
+    Param get(String frontendName)
+    {
+        return byName.get(frontendName);
+    }
+
+    /**
+     * Liefert alle Parameter in der Reihenfolge, in der sie registriert wurden.
+     * @return die Parameter. Das Array darf nicht veraendert werden.
+     */
+    Param[] getParams()
+    {
+        return params;
+    }
+
+    /**
+     * Liefert eine Kopie des Schemas fuer einen neuen Job-Namen.
+     * Wird bei einer nachtraeglich geaenderten Segment-Version benoetigt,
+     * da die Ziel-Namen den Job-Namen enthalten.
+     * @param newName der neue Job-Name mit Versionsnummer.
+     * @return das neue Schema. Es wird nicht gecached.
+     */
+    JobParamSchema rename(String newName)
+    {
+        return new JobParamSchema(newName,constraints);
+    }
+
+    /**
+     * Sammelt die addConstraint-Aufrufe einer Job-Instanz.
+     */
+    final static class Builder
+    {
+        private final String key;
+        private final JobParamSchema expected;
+        private final String name;
+
+        private List<Constraint> own;
+        private int pos;
+
+        /**
+         * Erzeugt einen Builder fuer einen neuen Job.
+         * @param type die Klasse des Jobs.
+         * @param name der Job-Name mit Versionsnummer.
+         */
+        Builder(Class<?> type,String name)
+        {
+            this.key=type.getName()+":"+name;
+            this.expected=cache.get(this.key);
+            this.name=name;
+            if (this.expected==null)
+                this.own=new ArrayList<Constraint>();
+        }
+
+        /**
+         * Erzeugt einen Builder, der ein bestehendes Schema erweitert.
+         * Das Ergebnis wird nicht gecached.
+         * @param schema das bisherige Schema.
+         */
+        Builder(JobParamSchema schema)
+        {
+            this.key=null;
+            this.expected=schema;
+            this.name=schema.name;
+            this.pos=schema.constraints.length;
+        }
+
+        /**
+         * Registriert einen Parameter.
+         * Solange die Aufrufe mit dem gecachten Schema uebereinstimmen, wird nur gezaehlt.
+         */
+        void add(String frontendName,String destinationName,String defValue,int logFilterLevel,boolean indexed)
+        {
+            if (own==null) {
+                Constraint[] list=expected.constraints;
+                if (pos<list.length && list[pos].matches(frontendName,destinationName,defValue,logFilterLevel,indexed)) {
+                    pos++;
+                    return;
+                }
+
+                // Abweichung - ab hier eigenes Schema
+                own=new ArrayList<Constraint>(Arrays.asList(list).subList(0,pos));
+            }
+            own.add(new Constraint(frontendName,destinationName,defValue,logFilterLevel,indexed));
+        }
+
+        /**
+         * Liefert das fertige Schema.
+         * @return das gecachte Schema, wenn alle Aufrufe damit uebereinstimmen,
+         * sonst ein neues.
+         */
+        JobParamSchema build()
+        {
+            if (own==null) {
+                if (pos==expected.constraints.length)
+                    return expected;
+                own=Arrays.asList(expected.constraints).subList(0,pos);
+            }
+
+            JobParamSchema schema=new JobParamSchema(name,own.toArray(new Constraint[own.size()]));
+
+            // Erste Instanz - wurde das Schema parallel schon von einem anderen
+            // Job eingetragen, bleibt dessen Version im Cache
+            if (expected==null)
+                cache.putIfAbsent(key,schema);
+            return schema;
+        }
+    }
+}
@@ -1,20 +1,13 @@
 package org.kapott.hbci.GV.generators;
 
-import java.io.File;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.logging.Logger;
 
-import javax.xml.XMLConstants;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
-import javax.xml.transform.Source;
-import javax.xml.transform.stream.StreamSource;
 import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
 
-import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.sepa.JAXBCache;
 import org.kapott.hbci.sepa.PainVersion;
 
 /**
@@ -39,16 +32,18 @@ public abstract class AbstractSEPAGenerator implements ISEPAGenerator
      */
     protected void marshal(JAXBElement e, OutputStream os, boolean validate) throws Exception
     {
-        JAXBContext jaxbContext = JAXBContext.newInstance(e.getDeclaredType());
-        Marshaller marshaller = jaxbContext.createMarshaller();
+        // Der Marshaller wird pro Thread wiederverwendet. Daher muessen alle
+        // Properties hier jedesmal gesetzt werden
+        Marshaller marshaller = JAXBCache.getMarshaller(e.getDeclaredType());
         
         // Wir verwenden hier hart UTF-8. Siehe http://www.onlinebanking-forum.de/forum/topic.php?p=107420#real107420
         marshaller.setProperty(Marshaller.JAXB_ENCODING, ENCODING);
 
         // Siehe https://groups.google.com/d/msg/hbci4java/RYHCai_TzHM/72Bx51B9bXUJ
-        if (System.getProperty("sepa.pain.formatted","false").equalsIgnoreCase("true"))
-            marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+        boolean formatted = System.getProperty("sepa.pain.formatted","false").equalsIgnoreCase("true");
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.valueOf(formatted));
 
+        Schema schema = null;
         PainVersion version = this.getPainVersion();
         if (version != null)
         {
@@ -59,36 +54,13 @@ public abstract class AbstractSEPAGenerator implements ISEPAGenerator
                 marshaller.setProperty(Marshaller.JAXB_SCHEMA_LOCATION,schemaLocation);
             }
 
-            String file = version.getFile();
-            if (file != null)
+            if (validate && version.getFile() != null)
             {
-                if (validate)
-                {
-                    Source source  = null;
-                    InputStream is = this.getClass().getClassLoader().getResourceAsStream(file);
-
-                    if (is != null)
-                    {
-                        source = new StreamSource(is);
-                    }
-                    else
-                    {
-                        // Fallback auf File-Objekt
-                        File f = new File(file);
-                        if (f.isFile() && f.canRead())
-                            source = new StreamSource(f);
-                    }
-
-                    if (source == null)
-                        throw new HBCI_Exception("schema validation activated against " + file + " - but schema file could not be found");
-
-                    LOG.fine("activating schema validation against " + file);
-                    SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-                    Schema schema = schemaFactory.newSchema(source);
-                    marshaller.setSchema(schema);
-                }
+                LOG.fine("activating schema validation against " + version.getFile());
+                schema = JAXBCache.getSchema(version);
             }
         }
+        marshaller.setSchema(schema);
 
         marshaller.marshal(e, os);
     }
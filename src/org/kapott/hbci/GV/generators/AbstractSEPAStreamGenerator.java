@@ -0,0 +1,286 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+
+import org.kapott.hbci.exceptions.InvalidArgumentException;
+import org.kapott.hbci.sepa.JAXBCache;
+import org.kapott.hbci.sepa.PainVersion;
+
+/**
+ * Abstrakte Basis-Implementierung der Streaming-SEPA-Generatoren.
+ *
+ * Die Klasse implementiert auch {@link ISEPAGenerator}, sodass die
+ * Streaming-Generatoren anstelle der JAXB-Generatoren verwendet werden koennen.
+ * Um das identische XML wie der JAXB-Marshaller zu erzeugen, werden leere
+ * Elemente als "&lt;Nm/&gt;" geschrieben, Elemente ohne Wert weggelassen und
+ * bei formatierter Ausgabe genauso eingerueckt.
+ *
+ * WICHTIG: Diese Klasse sowie die Ableitungen sollten auch ohne initialisiertes HBCI-System
+ * funktionieren, um das XML ohne HBCI-Handler erstellen zu koennen. Daher sollte auf die
+ * Verwendung von "HBCIUtils" & Co verzichtet werden. Das ist auch der Grund, warum hier
+ * das Java-Logging verwendet wird und nicht das HBCI4Java-eigene.
+ */
+public abstract class AbstractSEPAStreamGenerator implements ISEPAGenerator, ISEPAStreamGenerator
+{
+    private final static Logger LOG                = Logger.getLogger(AbstractSEPAStreamGenerator.class.getName());
+
+    private final static String XSI                = "http://www.w3.org/2001/XMLSchema-instance";
+    private final static String INDENT             = "    ";
+    private final static String HEADER             = "<?xml version=\"1.0\" encoding=\"" + ENCODING + "\" standalone=\"yes\"?>";
+
+    private final static XMLOutputFactory FACTORY  = XMLOutputFactory.newInstance();
+
+    /**
+     * @see org.kapott.hbci.GV.generators.ISEPAGenerator#generate(java.util.Properties, java.io.OutputStream, boolean)
+     */
+    @Override
+    public void generate(Properties sepaParams, OutputStream os, boolean validate) throws Exception
+    {
+        SepaOrder order = SepaOrder.fromProperties(sepaParams);
+        Iterable<SepaTransaction> transactions = SepaTransaction.fromProperties(sepaParams);
+
+        PainVersion version = this.getPainVersion();
+        Schema schema = validate ? JAXBCache.getSchema(version) : null;
+        if (schema == null)
+        {
+            this.generate(order, transactions, os);
+            return;
+        }
+
+        // Beim Validieren erst in einen Puffer schreiben, damit bei einem
+        // Fehler kein ungueltiges XML im Stream landet
+        LOG.fine("activating schema validation against " + version.getFile());
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        this.generate(order, transactions, bos);
+        schema.newValidator().validate(new StreamSource(new ByteArrayInputStream(bos.toByteArray())));
+        bos.writeTo(os);
+    }
+
+    /**
+     * Ermittelt Anzahl und Summe der Transaktionen.
+     * @param transactions die Transaktionen.
+     * @return Anzahl und Summe.
+     */
+    protected Totals sum(Iterable<SepaTransaction> transactions)
+    {
+        Totals totals = new Totals();
+        String curr = null;
+        for (SepaTransaction t : transactions)
+        {
+            // Sicherstellen, dass alle Transaktionen die gleiche Waehrung verwenden
+            if (curr != null)
+            {
+                if (!curr.equals(t.curr))
+                    throw new InvalidArgumentException("mixed currencies on multiple transactions");
+            }
+            else
+            {
+                curr = t.curr;
+            }
+
+            totals.count++;
+            totals.sum = totals.sum.add(t.value);
+        }
+        return totals;
+    }
+
+    /**
+     * Oeffnet den XML-Writer und schreibt den XML-Header und das Root-Element.
+     * @param os der Stream.
+     * @return der Writer.
+     * @throws Exception
+     */
+    protected PainWriter open(OutputStream os) throws Exception
+    {
+        // Die XML-Deklaration schreiben wir selbst, da StAX kein "standalone" kennt
+        os.write(HEADER.getBytes(ENCODING));
+
+        boolean formatted = System.getProperty("sepa.pain.formatted","false").equalsIgnoreCase("true");
+        PainWriter w = new PainWriter(FACTORY.createXMLStreamWriter(os, ENCODING), formatted);
+        w.startDocument(this.getPainVersion());
+        return w;
+    }
+
+    /**
+     * Anzahl und Summe der Transaktionen.
+     */
+    protected static class Totals
+    {
+        /**
+         * Anzahl der Transaktionen.
+         */
+        public int count = 0;
+
+        /**
+         * Summe der Betraege.
+         */
+        public BigDecimal sum = BigDecimal.ZERO;
+    }
+
+    /**
+     * Duenner Wrapper um den {@link XMLStreamWriter}, der die Eigenheiten des
+     * JAXB-Marshallers nachbildet.
+     */
+    protected static class PainWriter
+    {
+        private final XMLStreamWriter writer;
+        private final boolean formatted;
+
+        private int depth      = 0;
+        private String pending = null; // geoeffnetes Element, fuer das noch nichts geschrieben wurde
+
+        private PainWriter(XMLStreamWriter writer, boolean formatted)
+        {
+            this.writer    = writer;
+            this.formatted = formatted;
+        }
+
+        private void startDocument(PainVersion version) throws XMLStreamException
+        {
+            String urn = version.getURN();
+            this.indent();
+            this.writer.setDefaultNamespace(urn);
+            this.writer.writeStartElement(urn,"Document");
+            this.writer.writeDefaultNamespace(urn);
+
+            String schemaLocation = version.getSchemaLocation();
+            if (schemaLocation != null)
+            {
+                this.writer.writeNamespace("xsi",XSI);
+                this.writer.writeAttribute("xsi",XSI,"schemaLocation",schemaLocation);
+            }
+            this.depth++;
+        }
+
+        /**
+         * Oeffnet ein Element.
+         * @param name der Name des Elements.
+         * @throws XMLStreamException
+         */
+        public void start(String name) throws XMLStreamException
+        {
+            this.flush();
+            this.indent();
+            this.pending = name;
+            this.depth++;
+        }
+
+        /**
+         * Schliesst das zuletzt geoeffnete Element.
+         * @throws XMLStreamException
+         */
+        public void end() throws XMLStreamException
+        {
+            this.depth--;
+            if (this.pending != null)
+            {
+                this.writer.writeEmptyElement(this.pending);
+                this.pending = null;
+                return;
+            }
+            this.indent();
+            this.writer.writeEndElement();
+        }
+
+        /**
+         * Schreibt ein Element mit Text-Inhalt.
+         * @param name der Name des Elements.
+         * @param value der Wert. Ist er NULL, wird das Element weggelassen.
+         * @throws XMLStreamException
+         */
+        public void element(String name, String value) throws XMLStreamException
+        {
+            if (value == null)
+                return;
+
+            this.flush();
+            this.indent();
+            this.writer.writeStartElement(name);
+            this.writer.writeCharacters(value);
+            this.writer.writeEndElement();
+        }
+
+        /**
+         * Schreibt einen Betrag mit der Waehrung als Attribut "Ccy".
+         * @param name der Name des Elements.
+         * @param value der Betrag.
+         * @param curr die Waehrung.
+         * @throws XMLStreamException
+         */
+        public void amount(String name, BigDecimal value, String curr) throws XMLStreamException
+        {
+            this.flush();
+            this.indent();
+            this.writer.writeStartElement(name);
+            this.writer.writeAttribute("Ccy",curr);
+            this.writer.writeCharacters(format(value));
+            this.writer.writeEndElement();
+        }
+
+        /**
+         * Schliesst das Root-Element und den Writer. Der Stream bleibt offen.
+         * @throws XMLStreamException
+         */
+        public void close() throws XMLStreamException
+        {
+            this.depth--;
+            this.indent();
+            this.writer.writeEndElement();
+            if (this.formatted)
+                this.writer.writeCharacters("\n");
+            this.writer.writeEndDocument();
+            this.writer.flush();
+            this.writer.close();
+        }
+
+        private void flush() throws XMLStreamException
+        {
+            if (this.pending == null)
+                return;
+            this.writer.writeStartElement(this.pending);
+            this.pending = null;
+        }
+
+        private void indent() throws XMLStreamException
+        {
+            if (!this.formatted)
+                return;
+
+            // Der JAXB-Marshaller rueckt nur um (Tiefe % 8) Stufen ein und
+            // beginnt ab Tiefe 8 wieder am Zeilenanfang. Das machen wir genauso,
+            // damit das XML identisch ist.
+            StringBuilder sb = new StringBuilder("\n");
+            for (int i=0;i<this.depth % 8;++i)
+                sb.append(INDENT);
+            this.writer.writeCharacters(sb.toString());
+        }
+    }
+
+    /**
+     * Formatiert den Betrag so wie JAXB - also ohne Exponent.
+     * @param value der Betrag.
+     * @return der formatierte Betrag.
+     */
+    protected static String format(BigDecimal value)
+    {
+        return value != null ? value.toPlainString() : null;
+    }
+}
@@ -0,0 +1,40 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.io.OutputStream;
+
+import org.kapott.hbci.sepa.PainVersion;
+
+/**
+ * Interface fuer SEPA-Generatoren, die das XML direkt per StAX schreiben,
+ * statt zuvor einen JAXB-Objektbaum aufzubauen. Damit lassen sich auch
+ * Sammelauftraege mit sehr vielen Transaktionen erzeugen, ohne alle
+ * Transaktionen gleichzeitig im Speicher halten zu muessen.
+ *
+ * Das erzeugte XML ist identisch mit dem des JAXB-Generators der gleichen
+ * PAIN-Version.
+ */
+public interface ISEPAStreamGenerator
+{
+    /**
+     * Schreibt den Auftrag als SEPA-XML in den Stream.
+     * @param order die Auftragsdaten.
+     * @param transactions die Transaktionen. Da NbOfTxs und CtrlSum im Header
+     * vor den Transaktionen stehen, wird die Liste zweimal durchlaufen.
+     * @param os der Stream.
+     * @throws Exception
+     */
+    public void generate(SepaOrder order, Iterable<SepaTransaction> transactions, OutputStream os) throws Exception;
+
+    /**
+     * Liefert die PAIN-Version des Generators.
+     * @return die PAIN-Version.
+     */
+    public PainVersion getPainVersion();
+}
@@ -53,5 +53,31 @@ public class SEPAGeneratorFactory
         Class cl = Class.forName(className);
         return (ISEPAGenerator) cl.newInstance();
     }
+    
+    /**
+     * Gibt den passenden Streaming-SEPA-Generator fuer die angegebene PAIN-Version.
+     * Streaming-Generatoren schreiben das XML direkt per StAX und existieren
+     * nur fuer einzelne PAIN-Versionen.
+     * @param jobname der Job-Name. Z.Bsp. "UebSEPA".
+     * @param version die PAIN-Version.
+     * @return der Generator oder NULL, wenn fuer die PAIN-Version keiner existiert.
+     * @throws IllegalAccessException 
+     * @throws InstantiationException 
+     */
+    public static AbstractSEPAStreamGenerator getStreaming(String jobname, PainVersion version) throws InstantiationException, IllegalAccessException
+    {
+        String className = version.getStreamGeneratorClass(jobname);
+        try
+        {
+            Class<?> cl = Class.forName(className);
+            LOG.fine("using streaming SEPA creator: " + className);
+            return (AbstractSEPAStreamGenerator) cl.newInstance();
+        }
+        catch (ClassNotFoundException e)
+        {
+            LOG.fine("no streaming SEPA creator found: " + className);
+            return null;
+        }
+    }
 	
 }
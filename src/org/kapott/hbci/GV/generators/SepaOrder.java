@@ -0,0 +1,95 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.util.Properties;
+
+import org.kapott.hbci.GV.SepaUtil;
+
+/**
+ * Die Auftragsdaten eines SEPA-Auftrages fuer die Streaming-Generatoren
+ * ({@link ISEPAStreamGenerator}). Das sind alle Angaben, die fuer alle
+ * Transaktionen des Auftrages gleich sind.
+ */
+public class SepaOrder
+{
+    /**
+     * Message-ID.
+     */
+    public String sepaid;
+
+    /**
+     * Payment-Information-ID. Wenn sie fehlt, wird die Message-ID verwendet.
+     */
+    public String pmtinfid;
+
+    /**
+     * Name des eigenen Kontos.
+     */
+    public String name;
+
+    /**
+     * IBAN des eigenen Kontos.
+     */
+    public String iban;
+
+    /**
+     * BIC des eigenen Kontos. Optional.
+     */
+    public String bic;
+
+    /**
+     * Ausfuehrungsdatum im Format "yyyy-MM-dd". Nur bei Ueberweisungen.
+     */
+    public String date;
+
+    /**
+     * Faelligkeitsdatum im Format "yyyy-MM-dd". Nur bei Lastschriften.
+     */
+    public String targetdate;
+
+    /**
+     * Sammelbuchung ja/nein. NULL, wenn nicht angegeben.
+     */
+    public Boolean batchbook;
+
+    /**
+     * Lastschrift-Art ("CORE", "COR1", "B2B"). Nur bei Lastschriften.
+     */
+    public String type;
+
+    /**
+     * Sequenz-Typ ("FRST", "RCUR", ...). Nur bei Lastschriften.
+     */
+    public String sequencetype;
+
+    /**
+     * Liefert die Auftragsdaten aus den SEPA-Parametern eines Geschaeftsvorfalls.
+     * @param sepaParams die SEPA-Parameter.
+     * @return die Auftragsdaten.
+     */
+    public static SepaOrder fromProperties(Properties sepaParams)
+    {
+        SepaOrder o = new SepaOrder();
+        o.sepaid       = sepaParams.getProperty("sepaid");
+        o.pmtinfid     = sepaParams.getProperty("pmtinfid");
+        o.name         = sepaParams.getProperty("src.name");
+        o.iban         = sepaParams.getProperty("src.iban");
+        o.bic          = sepaParams.getProperty("src.bic");
+        o.date         = sepaParams.getProperty("date");
+        o.targetdate   = sepaParams.getProperty("targetdate");
+        o.type         = sepaParams.getProperty("type");
+        o.sequencetype = sepaParams.getProperty("sequencetype");
+
+        String batch = SepaUtil.getProperty(sepaParams,"batchbook",null);
+        if (batch != null)
+            o.batchbook = Boolean.valueOf(batch.equals("1"));
+
+        return o;
+    }
+}
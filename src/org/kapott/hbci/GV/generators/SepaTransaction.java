@@ -0,0 +1,149 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.math.BigDecimal;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Properties;
+
+import org.kapott.hbci.GV.SepaUtil;
+
+/**
+ * Eine einzelne Transaktion eines SEPA-Auftrages fuer die
+ * Streaming-Generatoren ({@link ISEPAStreamGenerator}).
+ * Die Namen der Attribute entsprechen denen der SEPA-Parameter
+ * ohne das Prefix "dst." bzw. "btg.".
+ */
+public class SepaTransaction
+{
+    /**
+     * Name des Gegenkontos.
+     */
+    public String name;
+
+    /**
+     * IBAN des Gegenkontos.
+     */
+    public String iban;
+
+    /**
+     * BIC des Gegenkontos. Optional.
+     */
+    public String bic;
+
+    /**
+     * Betrag.
+     */
+    public BigDecimal value;
+
+    /**
+     * Waehrung des Betrages.
+     */
+    public String curr;
+
+    /**
+     * Verwendungszweck. Optional.
+     */
+    public String usage;
+
+    /**
+     * End-to-End-ID. Optional.
+     */
+    public String endtoendid;
+
+    /**
+     * Purpose-Code. Optional.
+     */
+    public String purposecode;
+
+    /**
+     * Glaeubiger-ID. Nur bei Lastschriften.
+     */
+    public String creditorid;
+
+    /**
+     * Mandats-ID. Nur bei Lastschriften.
+     */
+    public String mandateid;
+
+    /**
+     * Datum der Mandats-Unterschrift im Format "yyyy-MM-dd". Nur bei Lastschriften.
+     */
+    public String manddateofsig;
+
+    /**
+     * true, wenn das Mandat geaendert wurde. Nur bei Lastschriften.
+     */
+    public boolean amendmandindic;
+
+    /**
+     * Liefert die Transaktionen aus den SEPA-Parametern eines Geschaeftsvorfalls.
+     * Die Transaktionen werden erst beim Iterieren gelesen, die Liste kann
+     * beliebig oft durchlaufen werden.
+     * @param sepaParams die SEPA-Parameter.
+     * @return die Transaktionen.
+     */
+    public static Iterable<SepaTransaction> fromProperties(final Properties sepaParams)
+    {
+        final Integer maxIndex = SepaUtil.maxIndex(sepaParams);
+        return new Iterable<SepaTransaction>()
+        {
+            @Override
+            public Iterator<SepaTransaction> iterator()
+            {
+                return new Iterator<SepaTransaction>()
+                {
+                    private int next = 0;
+
+                    @Override
+                    public boolean hasNext()
+                    {
+                        return next <= (maxIndex != null ? maxIndex.intValue() : 0);
+                    }
+
+                    @Override
+                    public SepaTransaction next()
+                    {
+                        if (!hasNext())
+                            throw new NoSuchElementException();
+
+                        // Ohne indizierte Parameter gibt es genau eine Transaktion ohne Index
+                        Integer index = maxIndex != null ? Integer.valueOf(next) : null;
+                        next++;
+                        return create(sepaParams,index);
+                    }
+
+                    @Override
+                    public void remove()
+                    {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+        };
+    }
+
+    private static SepaTransaction create(Properties sepaParams, Integer index)
+    {
+        SepaTransaction t = new SepaTransaction();
+        t.name           = sepaParams.getProperty(SepaUtil.insertIndex("dst.name", index));
+        t.iban           = sepaParams.getProperty(SepaUtil.insertIndex("dst.iban", index));
+        t.bic            = sepaParams.getProperty(SepaUtil.insertIndex("dst.bic", index));
+        t.value          = new BigDecimal(sepaParams.getProperty(SepaUtil.insertIndex("btg.value", index)));
+        t.curr           = sepaParams.getProperty(SepaUtil.insertIndex("btg.curr", index));
+        t.usage          = sepaParams.getProperty(SepaUtil.insertIndex("usage", index));
+        t.endtoendid     = sepaParams.getProperty(SepaUtil.insertIndex("endtoendid", index));
+        t.purposecode    = sepaParams.getProperty(SepaUtil.insertIndex("purposecode", index));
+        t.creditorid     = sepaParams.getProperty(SepaUtil.insertIndex("creditorid", index));
+        t.mandateid      = sepaParams.getProperty(SepaUtil.insertIndex("mandateid", index));
+        t.manddateofsig  = sepaParams.getProperty(SepaUtil.insertIndex("manddateofsig", index));
+        t.amendmandindic = Boolean.valueOf(sepaParams.getProperty(SepaUtil.insertIndex("amendmandindic", index))).booleanValue();
+        return t;
+    }
+}
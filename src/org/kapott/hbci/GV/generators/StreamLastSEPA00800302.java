@@ -0,0 +1,203 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.io.OutputStream;
+
+import org.kapott.hbci.GV.AbstractSEPAGV;
+import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.sepa.PainVersion;
+import org.kapott.hbci.sepa.jaxb.pain_008_003_02.SequenceType1Code;
+
+/**
+ * Streaming-SEPA-Generator fuer pain.008.003.02.
+ * Erzeugt das gleiche XML wie {@link GenLastSEPA00800302}.
+ */
+public class StreamLastSEPA00800302 extends AbstractSEPAStreamGenerator
+{
+    /**
+     * @see org.kapott.hbci.GV.generators.ISEPAStreamGenerator#getPainVersion()
+     */
+    @Override
+    public PainVersion getPainVersion()
+    {
+        return PainVersion.PAIN_008_003_02;
+    }
+
+    /**
+     * @see org.kapott.hbci.GV.generators.ISEPAStreamGenerator#generate(org.kapott.hbci.GV.generators.SepaOrder, java.lang.Iterable, java.io.OutputStream)
+     */
+    @Override
+    public void generate(SepaOrder order, Iterable<SepaTransaction> transactions, OutputStream os) throws Exception
+    {
+        // Wirft bei ungueltigem Sequenz-Typ die gleiche Exception wie der JAXB-Generator
+        String seqTp = SequenceType1Code.fromValue(order.sequencetype).value();
+
+        Totals totals = this.sum(transactions);
+        String nbOfTxs = String.valueOf(totals.count);
+        String ctrlSum = format(totals.sum);
+
+        PainWriter w = this.open(os);
+        w.start("CstmrDrctDbtInitn");
+
+        //Group Header
+        w.start("GrpHdr");
+        w.element("MsgId", order.sepaid);
+        w.element("CreDtTm", SepaUtil.createCalendar(null).toXMLFormat());
+        w.element("NbOfTxs", nbOfTxs);
+        w.element("CtrlSum", ctrlSum);
+        w.start("InitgPty");
+        w.element("Nm", order.name);
+        w.end();
+        w.end();
+
+        //Payment Information
+        w.start("PmtInf");
+        w.element("PmtInfId", order.pmtinfid != null && order.pmtinfid.length() > 0 ? order.pmtinfid : order.sepaid);
+        w.element("PmtMtd", "DD");
+        if (order.batchbook != null)
+            w.element("BtchBookg", order.batchbook.toString());
+        w.element("NbOfTxs", nbOfTxs);
+        w.element("CtrlSum", ctrlSum);
+
+        w.start("PmtTpInf");
+        w.start("SvcLvl");
+        w.element("Cd", "SEPA");
+        w.end();
+        w.start("LclInstrm");
+        w.element("Cd", order.type);
+        w.end();
+        w.element("SeqTp", seqTp);
+        w.end();
+
+        w.element("ReqdColltnDt", SepaUtil.createCalendar(order.targetdate).toXMLFormat());
+
+        w.start("Cdtr");
+        w.element("Nm", order.name);
+        w.end();
+
+        w.start("CdtrAcct");
+        w.start("Id");
+        w.element("IBAN", order.iban);
+        w.end();
+        w.end();
+
+        w.start("CdtrAgt");
+        w.start("FinInstnId");
+        if (order.bic != null && order.bic.length() > 0) // BIC ist inzwischen optional
+        {
+            w.element("BIC", order.bic);
+        }
+        else
+        {
+            w.start("Othr");
+            w.element("Id", "NOTPROVIDED");
+            w.end();
+        }
+        w.end();
+        w.end();
+
+        //Payment Information - ChargeBearer
+        w.element("ChrgBr", "SLEV");
+
+        //Payment Information - Direct Debit Transaction Information
+        for (SepaTransaction t : transactions)
+        {
+            this.writeTransaction(w, t);
+        }
+
+        w.end(); // PmtInf
+        w.end(); // CstmrDrctDbtInitn
+        w.close();
+    }
+
+    private void writeTransaction(PainWriter w, SepaTransaction t) throws Exception
+    {
+        w.start("DrctDbtTxInf");
+
+        w.start("PmtId");
+        w.element("EndToEndId", t.endtoendid != null && t.endtoendid.length() > 0 ? t.endtoendid : AbstractSEPAGV.ENDTOEND_ID_NOTPROVIDED);
+        w.end();
+
+        w.amount("InstdAmt", t.value, "EUR");
+
+        w.start("DrctDbtTx");
+        w.start("MndtRltdInf");
+        w.element("MndtId", t.mandateid);
+        w.element("DtOfSgntr", SepaUtil.createCalendar(t.manddateofsig).toXMLFormat());
+        w.element("AmdmntInd", String.valueOf(t.amendmandindic));
+        if (t.amendmandindic)
+        {
+            w.start("AmdmntInfDtls");
+            w.start("OrgnlDbtrAgt");
+            w.start("FinInstnId");
+            w.start("Othr");
+            w.element("Id", "SMNDA");
+            w.end();
+            w.end();
+            w.end();
+            w.end();
+        }
+        w.end(); // MndtRltdInf
+
+        w.start("CdtrSchmeId");
+        w.start("Id");
+        w.start("PrvtId");
+        w.start("Othr");
+        w.element("Id", t.creditorid);
+        w.start("SchmeNm");
+        w.element("Prtry", "SEPA");
+        w.end();
+        w.end();
+        w.end();
+        w.end();
+        w.end(); // CdtrSchmeId
+        w.end(); // DrctDbtTx
+
+        w.start("DbtrAgt");
+        w.start("FinInstnId");
+        if (t.bic != null && t.bic.length() > 0)
+        {
+            w.element("BIC", t.bic);
+        }
+        else
+        {
+            w.start("Othr");
+            w.element("Id", "NOTPROVIDED");
+            w.end();
+        }
+        w.end();
+        w.end();
+
+        w.start("Dbtr");
+        w.element("Nm", t.name);
+        w.end();
+
+        w.start("DbtrAcct");
+        w.start("Id");
+        w.element("IBAN", t.iban);
+        w.end();
+        w.end();
+
+        if (t.purposecode != null && t.purposecode.length() > 0)
+        {
+            w.start("Purp");
+            w.element("Cd", t.purposecode);
+            w.end();
+        }
+
+        if (t.usage != null && t.usage.length() > 0)
+        {
+            w.start("RmtInf");
+            w.element("Ustrd", t.usage);
+            w.end();
+        }
+
+        w.end();
+    }
+}
@@ -0,0 +1,167 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.generators;
+
+import java.io.OutputStream;
+
+import org.kapott.hbci.GV.AbstractSEPAGV;
+import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.sepa.PainVersion;
+
+/**
+ * Streaming-SEPA-Generator fuer pain.001.003.03.
+ * Erzeugt das gleiche XML wie {@link GenUebSEPA00100303}.
+ */
+public class StreamUebSEPA00100303 extends AbstractSEPAStreamGenerator
+{
+    /**
+     * @see org.kapott.hbci.GV.generators.ISEPAStreamGenerator#getPainVersion()
+     */
+    @Override
+    public PainVersion getPainVersion()
+    {
+        return PainVersion.PAIN_001_003_03;
+    }
+
+    /**
+     * @see org.kapott.hbci.GV.generators.ISEPAStreamGenerator#generate(org.kapott.hbci.GV.generators.SepaOrder, java.lang.Iterable, java.io.OutputStream)
+     */
+    @Override
+    public void generate(SepaOrder order, Iterable<SepaTransaction> transactions, OutputStream os) throws Exception
+    {
+        Totals totals = this.sum(transactions);
+        String nbOfTxs = String.valueOf(totals.count);
+        String ctrlSum = format(totals.sum);
+
+        PainWriter w = this.open(os);
+        w.start("CstmrCdtTrfInitn");
+
+        //Group Header
+        w.start("GrpHdr");
+        w.element("MsgId", order.sepaid);
+        w.element("CreDtTm", SepaUtil.createCalendar(null).toXMLFormat());
+        w.element("NbOfTxs", nbOfTxs);
+        w.element("CtrlSum", ctrlSum);
+        w.start("InitgPty");
+        w.element("Nm", order.name);
+        w.end();
+        w.end();
+
+        //Payment Information
+        w.start("PmtInf");
+        w.element("PmtInfId", order.pmtinfid != null && order.pmtinfid.length() > 0 ? order.pmtinfid : order.sepaid);
+        w.element("PmtMtd", "TRF");
+        if (order.batchbook != null)
+            w.element("BtchBookg", order.batchbook.toString());
+        w.element("NbOfTxs", nbOfTxs);
+        w.element("CtrlSum", ctrlSum);
+
+        w.start("PmtTpInf");
+        w.start("SvcLvl");
+        w.element("Cd", "SEPA");
+        w.end();
+        w.end();
+
+        w.element("ReqdExctnDt", SepaUtil.createCalendar(order.date != null ? order.date : SepaUtil.DATE_UNDEFINED).toXMLFormat());
+
+        //Payment Information - Debtor
+        w.start("Dbtr");
+        w.element("Nm", order.name);
+        w.end();
+
+        //Payment Information - DebtorAccount
+        w.start("DbtrAcct");
+        w.start("Id");
+        w.element("IBAN", order.iban);
+        w.end();
+        w.end();
+
+        //Payment Information - DebtorAgent
+        w.start("DbtrAgt");
+        w.start("FinInstnId");
+        if (order.bic != null && order.bic.length() > 0) // BIC ist inzwischen optional
+        {
+            w.element("BIC", order.bic);
+        }
+        else
+        {
+            w.start("Othr");
+            w.element("Id", "NOTPROVIDED");
+            w.end();
+        }
+        w.end();
+        w.end();
+
+        //Payment Information - ChargeBearer
+        w.element("ChrgBr", "SLEV");
+
+        //Payment Information - Credit Transfer Transaction Information
+        for (SepaTransaction t : transactions)
+        {
+            this.writeTransaction(w, t);
+        }
+
+        w.end(); // PmtInf
+        w.end(); // CstmrCdtTrfInitn
+        w.close();
+    }
+
+    private void writeTransaction(PainWriter w, SepaTransaction t) throws Exception
+    {
+        w.start("CdtTrfTxInf");
+
+        //Payment Information - Credit Transfer Transaction Information - Payment Identification
+        w.start("PmtId");
+        w.element("EndToEndId", t.endtoendid != null && t.endtoendid.length() > 0 ? t.endtoendid : AbstractSEPAGV.ENDTOEND_ID_NOTPROVIDED);
+        w.end();
+
+        //Payment Information - Credit Transfer Transaction Information - Amount
+        w.start("Amt");
+        w.amount("InstdAmt", t.value, "EUR");
+        w.end();
+
+        //Payment Information - Credit Transfer Transaction Information - Creditor Agent
+        if (t.bic != null && t.bic.length() > 0) // BIC ist inzwischen optional
+        {
+            w.start("CdtrAgt");
+            w.start("FinInstnId");
+            w.element("BIC", t.bic);
+            w.end();
+            w.end();
+        }
+
+        //Payment Information - Credit Transfer Transaction Information - Creditor
+        w.start("Cdtr");
+        w.element("Nm", t.name);
+        w.end();
+
+        //Payment Information - Credit Transfer Transaction Information - Creditor Account
+        w.start("CdtrAcct");
+        w.start("Id");
+        w.element("IBAN", t.iban);
+        w.end();
+        w.end();
+
+        if (t.purposecode != null && t.purposecode.length() > 0)
+        {
+            w.start("Purp");
+            w.element("Cd", t.purposecode);
+            w.end();
+        }
+
+        //Payment Information - Credit Transfer Transaction Information - Usage
+        if (t.usage != null && t.usage.length() > 0)
+        {
+            w.start("RmtInf");
+            w.element("Ustrd", t.usage);
+            w.end();
+        }
+
+        w.end();
+    }
+}
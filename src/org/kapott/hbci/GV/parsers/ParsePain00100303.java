@@ -4,10 +4,10 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
 
-import javax.xml.bind.JAXB;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.sepa.JAXBCache;
 import org.kapott.hbci.sepa.jaxb.pain_001_003_03.ActiveOrHistoricCurrencyAndAmountSEPA;
 import org.kapott.hbci.sepa.jaxb.pain_001_003_03.CreditTransferTransactionInformationSCT;
 import org.kapott.hbci.sepa.jaxb.pain_001_003_03.CustomerCreditTransferInitiationV03;
@@ -29,7 +29,7 @@ public class ParsePain00100303 extends AbstractSepaParser
     public void parse(InputStream xml, List<Properties> sepaResults)
     {
         
-        Document doc = JAXB.unmarshal(xml, Document.class);
+        Document doc = JAXBCache.unmarshal(xml, Document.class);
         CustomerCreditTransferInitiationV03 pain = doc.getCstmrCdtTrfInitn();
         
         if (pain == null)
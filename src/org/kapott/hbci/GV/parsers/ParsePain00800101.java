@@ -4,10 +4,10 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
 
-import javax.xml.bind.JAXB;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.sepa.JAXBCache;
 import org.kapott.hbci.sepa.jaxb.pain_008_001_01.DirectDebitTransactionInformation2;
 import org.kapott.hbci.sepa.jaxb.pain_008_001_01.Document;
 import org.kapott.hbci.sepa.jaxb.pain_008_001_01.EuroMax9Amount;
@@ -26,7 +26,7 @@ public class ParsePain00800101 extends AbstractSepaParser
     public void parse(InputStream xml, List<Properties> sepaResults)
     {
         
-        Document doc = JAXB.unmarshal(xml, Document.class);
+        Document doc = JAXBCache.unmarshal(xml, Document.class);
         Pain00800101 pain = doc.getPain00800101();
                 
         PaymentInstructionInformation5 pmtInf = pain.getPmtInf();
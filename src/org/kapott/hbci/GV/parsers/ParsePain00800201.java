@@ -4,10 +4,10 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Properties;
 
-import javax.xml.bind.JAXB;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.sepa.JAXBCache;
 import org.kapott.hbci.sepa.jaxb.pain_008_002_01.CurrencyAndAmountSDD;
 import org.kapott.hbci.sepa.jaxb.pain_008_002_01.DirectDebitTransactionInformationSDD;
 import org.kapott.hbci.sepa.jaxb.pain_008_002_01.Document;
@@ -27,7 +27,7 @@ public class ParsePain00800201 extends AbstractSepaParser
     public void parse(InputStream xml, List<Properties> sepaResults)
     {
         
-        Document doc = JAXB.unmarshal(xml, Document.class);
+        Document doc = JAXBCache.unmarshal(xml, Document.class);
         Pain00800101 pain = doc.getPain00800101();
                 
         List<PaymentInstructionInformationSDD> pmtInfs = pain.getPmtInf();
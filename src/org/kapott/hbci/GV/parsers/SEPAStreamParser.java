@@ -0,0 +1,363 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.parsers;
+
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.xml.datatype.DatatypeFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.kapott.hbci.GV.SepaUtil;
+import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.sepa.PainVersion;
+
+/**
+ * StAX-basierter Parser fuer pain.001- und pain.008-Dokumente.
+ *
+ * Im Gegensatz zu den JAXB-Parsern ({@link SEPAParserFactory}) wird das
+ * Dokument nicht komplett in einen Objektbaum geladen. Stattdessen wird
+ * es einmal sequentiell gelesen und jede Transaktion als {@link SepaRecord}
+ * an einen {@link Handler} uebergeben, sobald sie vollstaendig gelesen ist.
+ * Die PAIN-Version wird dabei aus dem Namespace des Root-Elements ermittelt.
+ *
+ * Da sich die Element-Namen der bekannten PAIN-Versionen bei den hier
+ * gelesenen Angaben nicht unterscheiden, kommt der Parser mit einer
+ * Implementierung fuer alle Versionen aus.
+ *
+ * Instanzen sind nicht thread-safe.
+ */
+public class SEPAStreamParser extends AbstractSepaParser
+{
+    /**
+     * Callback, an den der Parser die gelesenen Transaktionen uebergibt.
+     */
+    public static interface Handler
+    {
+        /**
+         * Wird fuer jede gelesene Transaktion aufgerufen.
+         * @param record die Transaktion.
+         */
+        public void handle(SepaRecord record);
+    }
+
+    private static enum Target
+    {
+        PMTINFID,
+        SRC_NAME,
+        SRC_IBAN,
+        SRC_BIC,
+        DST_NAME,
+        DST_IBAN,
+        DST_BIC,
+        VALUE,
+        USAGE,
+        DATE,
+        ENDTOENDID,
+        PURPOSECODE,
+        LAST_TYPE,
+        CREDITORID,
+        MANDATEID,
+        MANDDATEOFSIG,
+        SEQUENCETYPE,
+        TARGETDATE,
+    }
+
+    private final static XMLInputFactory FACTORY = XMLInputFactory.newInstance();
+
+    // Pfade relativ zum Element unterhalb von "Document" ("CstmrCdtTrfInitn", "CstmrDrctDbtInitn", ...)
+    private final static Map<String,Target> HEADER = new HashMap<String,Target>();
+
+    // Pfade relativ zum Transaktions-Element ("CdtTrfTxInf", "DrctDbtTxInf")
+    private final static Map<String,Target> TX     = new HashMap<String,Target>();
+
+    static
+    {
+        // Keine DTDs und externen Entities - das XML kommt von der Bank
+        FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD,Boolean.FALSE);
+        FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,Boolean.FALSE);
+
+        HEADER.put("GrpHdr/InitgPty/Nm",                   Target.SRC_NAME);
+        HEADER.put("PmtInf/PmtInfId",                      Target.PMTINFID);
+        HEADER.put("PmtInf/ReqdExctnDt",                   Target.DATE);
+        HEADER.put("PmtInf/ReqdColltnDt",                  Target.TARGETDATE);
+        HEADER.put("PmtInf/PmtTpInf/SeqTp",                Target.SEQUENCETYPE);
+        HEADER.put("PmtInf/PmtTpInf/LclInstrm/Cd",         Target.LAST_TYPE);
+
+        // Ueberweisung: Auftraggeber ist der Debitor. Lastschrift: der Kreditor
+        HEADER.put("PmtInf/DbtrAcct/Id/IBAN",              Target.SRC_IBAN);
+        HEADER.put("PmtInf/CdtrAcct/Id/IBAN",              Target.SRC_IBAN);
+        HEADER.put("PmtInf/DbtrAgt/FinInstnId/BIC",        Target.SRC_BIC);
+        HEADER.put("PmtInf/CdtrAgt/FinInstnId/BIC",        Target.SRC_BIC);
+        HEADER.put("PmtInf/CdtrSchmeId/Id/PrvtId/Othr/Id", Target.CREDITORID);
+
+        TX.put("PmtId/EndToEndId",                         Target.ENDTOENDID);
+        TX.put("Amt/InstdAmt",                             Target.VALUE);
+        TX.put("InstdAmt",                                 Target.VALUE);
+        TX.put("RmtInf/Ustrd",                             Target.USAGE);
+        TX.put("Purp/Cd",                                  Target.PURPOSECODE);
+        TX.put("Cdtr/Nm",                                  Target.DST_NAME);
+        TX.put("Dbtr/Nm",                                  Target.DST_NAME);
+        TX.put("CdtrAcct/Id/IBAN",                         Target.DST_IBAN);
+        TX.put("DbtrAcct/Id/IBAN",                         Target.DST_IBAN);
+        TX.put("CdtrAgt/FinInstnId/BIC",                   Target.DST_BIC);
+        TX.put("DbtrAgt/FinInstnId/BIC",                   Target.DST_BIC);
+        TX.put("DrctDbtTx/CdtrSchmeId/Id/PrvtId/Othr/Id",  Target.CREDITORID);
+        TX.put("DrctDbtTx/CdtrSchmeId/Id/PrvtId/OthrId/Id",Target.CREDITORID); // pain.008.001.01
+        TX.put("DrctDbtTx/MndtRltdInf/MndtId",             Target.MANDATEID);
+        TX.put("DrctDbtTx/MndtRltdInf/DtOfSgntr",          Target.MANDDATEOFSIG);
+    }
+
+    private DatatypeFactory datatypeFactory = null;
+
+    /**
+     * Parst das SEPA-XML und uebergibt die Transaktionen an den Handler.
+     * @param xml der Stream mit den XML-Daten. Er wird nicht geschlossen.
+     * @param handler der Handler.
+     * @return die aus dem Namespace ermittelte PAIN-Version oder NULL, wenn das
+     * Dokument keinen Namespace besitzt.
+     */
+    public PainVersion parse(InputStream xml, Handler handler)
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            reader = FACTORY.createXMLStreamReader(xml);
+            return this.parse(reader,handler);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new HBCI_Exception("Error parsing SEPA pain document",e);
+        }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException e)
+                {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * @see org.kapott.hbci.GV.parsers.ISEPAParser#parse(java.io.InputStream, java.util.List)
+     */
+    public void parse(InputStream xml, final List<Properties> target)
+    {
+        final SimpleDateFormat df = new SimpleDateFormat(SepaUtil.DATE_FORMAT);
+        this.parse(xml,new Handler() {
+            public void handle(SepaRecord record)
+            {
+                Properties prop = new Properties();
+                put(prop,Names.PMTINFID,     record.pmtinfid);
+                put(prop,Names.SRC_NAME,     record.srcname);
+                put(prop,Names.SRC_IBAN,     record.srciban);
+                put(prop,Names.SRC_BIC,      record.srcbic);
+                put(prop,Names.DST_NAME,     record.dstname);
+                put(prop,Names.DST_IBAN,     record.dstiban);
+                put(prop,Names.DST_BIC,      record.dstbic);
+                put(prop,Names.VALUE,        SepaUtil.format(record.value));
+                put(prop,Names.CURR,         record.curr);
+                put(prop,Names.USAGE,        record.usage);
+                put(prop,Names.DATE,         format(df,record.date));
+                put(prop,Names.ENDTOENDID,   record.endtoendid);
+                put(prop,Names.PURPOSECODE,  record.purposecode);
+                put(prop,Names.LAST_TYPE,    record.type);
+                put(prop,Names.CREDITORID,   record.creditorid);
+                put(prop,Names.MANDATEID,    record.mandateid);
+                put(prop,Names.MANDDATEOFSIG,format(df,record.manddateofsig));
+                put(prop,Names.SEQUENCETYPE, record.sequencetype);
+                put(prop,Names.TARGETDATE,   format(df,record.targetdate));
+                target.add(prop);
+            }
+        });
+    }
+
+    private PainVersion parse(XMLStreamReader reader, Handler handler) throws XMLStreamException
+    {
+        PainVersion version = null;
+
+        SepaRecord header  = new SepaRecord(); // Angaben aus GrpHdr und PmtInf
+        SepaRecord current = null;             // die gerade gelesene Transaktion
+
+        StringBuilder path = new StringBuilder();
+        int[] marks        = new int[16];      // Pfad-Laengen der offenen Elemente
+        int depth          = 0;
+        int txLen          = -1;               // Pfad-Laenge des Transaktions-Elements
+
+        while (reader.hasNext())
+        {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT)
+            {
+                depth++;
+                if (depth == 1)
+                {
+                    // "Document" - daraus ermitteln wir die Version
+                    String uri = reader.getNamespaceURI();
+                    if (uri != null && uri.length() > 0)
+                        version = PainVersion.byURN(uri);
+                    continue;
+                }
+                if (depth == 2)
+                    continue;
+
+                if (depth - 2 >= marks.length)
+                {
+                    int[] m = new int[marks.length * 2];
+                    System.arraycopy(marks,0,m,0,marks.length);
+                    marks = m;
+                }
+                marks[depth - 2] = path.length();
+                if (path.length() > 0)
+                    path.append('/');
+                String name = reader.getLocalName();
+                path.append(name);
+
+                Target t = null;
+                SepaRecord r = null;
+                if (current != null)
+                {
+                    t = TX.get(path.substring(txLen + 1));
+                    r = current;
+                }
+                else if (depth == 4 && (name.equals("CdtTrfTxInf") || name.equals("DrctDbtTxInf")))
+                {
+                    current = new SepaRecord();
+                    txLen = path.length();
+                }
+                else if (depth == 3 && name.equals("PmtInf"))
+                {
+                    // Neue Payment-Information. Der Name stammt aus dem Group-Header
+                    SepaRecord h = new SepaRecord();
+                    h.srcname = header.srcname;
+                    header = h;
+                }
+                else
+                {
+                    t = HEADER.get(path.toString());
+                    r = header;
+                }
+
+                if (t != null)
+                {
+                    // Liest den Text bis zum End-Tag. Der Pfad muss daher hier gekuerzt werden
+                    this.apply(t,r,reader);
+                    path.setLength(marks[depth - 2]);
+                    depth--;
+                }
+            }
+            else if (event == XMLStreamConstants.END_ELEMENT)
+            {
+                if (current != null && path.length() == txLen)
+                {
+                    current.pmtinfid     = header.pmtinfid;
+                    current.srcname      = header.srcname;
+                    current.srciban      = header.srciban;
+                    current.srcbic       = header.srcbic;
+                    current.date         = header.date;
+                    current.targetdate   = header.targetdate;
+                    current.sequencetype = header.sequencetype;
+                    current.type         = header.type;
+
+                    // Die Glaeubiger-ID kann auf Auftrags- oder Transaktionsebene stehen
+                    if (current.creditorid == null)
+                        current.creditorid = header.creditorid;
+
+                    handler.handle(current);
+                    current = null;
+                    txLen = -1;
+                }
+
+                if (depth > 2)
+                    path.setLength(marks[depth - 2]);
+                depth--;
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Liest den Text des aktuellen Elements in das Attribut der Transaktion.
+     * @param t das Ziel.
+     * @param r die Transaktion.
+     * @param reader der Reader. Er steht danach auf dem End-Tag.
+     * @throws XMLStreamException
+     */
+    private void apply(Target t, SepaRecord r, XMLStreamReader reader) throws XMLStreamException
+    {
+        if (t == Target.VALUE)
+            r.curr = reader.getAttributeValue(null,"Ccy");
+
+        String text = reader.getElementText();
+        switch (t)
+        {
+            case PMTINFID:      r.pmtinfid      = text; break;
+            case SRC_NAME:      r.srcname       = text; break;
+            case SRC_IBAN:      r.srciban       = text; break;
+            case SRC_BIC:       r.srcbic        = text; break;
+            case DST_NAME:      r.dstname       = text; break;
+            case DST_IBAN:      r.dstiban       = text; break;
+            case DST_BIC:       r.dstbic        = text; break;
+            case VALUE:         r.value         = new BigDecimal(text.trim()); break;
+            case USAGE:         r.usage         = text; break;
+            case DATE:          r.date          = this.toDate(text); break;
+            case ENDTOENDID:    r.endtoendid    = text; break;
+            case PURPOSECODE:   r.purposecode   = text; break;
+            case LAST_TYPE:     r.type          = text; break;
+            case CREDITORID:    r.creditorid    = text; break;
+            case MANDATEID:     r.mandateid     = text; break;
+            case MANDDATEOFSIG: r.manddateofsig = this.toDate(text); break;
+            case SEQUENCETYPE:  r.sequencetype  = text; break;
+            case TARGETDATE:    r.targetdate    = this.toDate(text); break;
+        }
+    }
+
+    /**
+     * Wandelt ein XML-Datum in ein Date-Objekt - so wie es auch JAXB tut.
+     * @param text das XML-Datum.
+     * @return das Datum.
+     */
+    private Date toDate(String text)
+    {
+        text = text.trim();
+        if (text.length() == 0)
+            return null;
+
+        try
+        {
+            if (this.datatypeFactory == null)
+                this.datatypeFactory = DatatypeFactory.newInstance();
+            return this.datatypeFactory.newXMLGregorianCalendar(text).toGregorianCalendar().getTime();
+        }
+        catch (Exception e)
+        {
+            throw new HBCI_Exception("invalid date in SEPA pain document: " + text,e);
+        }
+    }
+
+    private static String format(SimpleDateFormat df, Date date)
+    {
+        return date != null ? df.format(date) : null;
+    }
+}
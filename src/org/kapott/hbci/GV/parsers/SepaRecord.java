@@ -0,0 +1,115 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV.parsers;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Eine einzelne Transaktion aus einem SEPA-XML-Dokument, wie sie vom
+ * {@link SEPAStreamParser} geliefert wird. Die Attribute entsprechen
+ * den Schluesseln aus {@link ISEPAParser.Names}. Nicht vorhandene
+ * Angaben sind NULL.
+ */
+public class SepaRecord
+{
+    /**
+     * Payment-Information-ID.
+     */
+    public String pmtinfid;
+
+    /**
+     * Name des Auftraggebers.
+     */
+    public String srcname;
+
+    /**
+     * IBAN des Auftraggeber-Kontos.
+     */
+    public String srciban;
+
+    /**
+     * BIC des Auftraggeber-Kontos.
+     */
+    public String srcbic;
+
+    /**
+     * Name des Gegenkontos.
+     */
+    public String dstname;
+
+    /**
+     * IBAN des Gegenkontos.
+     */
+    public String dstiban;
+
+    /**
+     * BIC des Gegenkontos.
+     */
+    public String dstbic;
+
+    /**
+     * Betrag.
+     */
+    public BigDecimal value;
+
+    /**
+     * Waehrung.
+     */
+    public String curr;
+
+    /**
+     * Verwendungszweck.
+     */
+    public String usage;
+
+    /**
+     * Ausfuehrungsdatum. Nur bei Ueberweisungen.
+     */
+    public Date date;
+
+    /**
+     * End-to-End-ID.
+     */
+    public String endtoendid;
+
+    /**
+     * Purpose-Code.
+     */
+    public String purposecode;
+
+    /**
+     * Lastschrift-Art (CORE, COR1, B2B). Nur bei Lastschriften.
+     */
+    public String type;
+
+    /**
+     * Glaeubiger-ID. Nur bei Lastschriften.
+     */
+    public String creditorid;
+
+    /**
+     * Mandats-ID. Nur bei Lastschriften.
+     */
+    public String mandateid;
+
+    /**
+     * Datum der Mandats-Unterschrift. Nur bei Lastschriften.
+     */
+    public Date manddateofsig;
+
+    /**
+     * Sequenz-Typ. Nur bei Lastschriften.
+     */
+    public String sequencetype;
+
+    /**
+     * Faelligkeitsdatum. Nur bei Lastschriften.
+     */
+    public Date targetdate;
+}
@@ -22,6 +22,7 @@
 package org.kapott.hbci.GV_Result;
 
 import java.io.Serializable;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -36,7 +37,8 @@ import org.kapott.hbci.passport.HBCIPassport;
 import org.kapott.hbci.structures.Konto;
 import org.kapott.hbci.structures.Saldo;
 import org.kapott.hbci.structures.Value;
-import org.kapott.hbci.swift.Swift;
+import org.kapott.hbci.swift.SwiftMultiTag;
+import org.kapott.hbci.swift.SwiftTokenizer;
 
 /** <p>Ergebnisse der Abfrage von Kontoumsatzinformationen.
     Ein Objekt dieser Klasse entspricht einen Kontoauszug.
@@ -223,13 +225,48 @@ public class GVRKUms
         }
     }
 
-    private StringBuffer bufferMT940;
-    private StringBuffer bufferMT942;
+    /** Kann mit {@link GVRKUms#setDayListener(GVRKUms.DayListener)} registriert
+        werden, um die Buchungstage schon whrend des Abrufs zu verarbeiten.
+        Werden die Umstze vom Kreditinstitut in mehreren Nachrichten geliefert
+        (Aufsetzpunkt), wird jeder Buchungstag gemeldet, sobald er vollstndig
+        empfangen wurde - und nicht erst am Ende des Dialoges. */
+    public static interface DayListener
+    {
+        /** Wird fr jeden vollstndig geparsten Buchungstag aufgerufen.
+            Der Aufruf erfolgt in dem Thread, der den Dialog ausfhrt.
+            @param day der Buchungstag.
+            @param booked <code>true</code> fr gebuchte Umstze (MT940), <code>false</code>
+                          fr vorgemerkte Umstze (MT942). */
+        public void dayParsed(BTag day,boolean booked);
+    }
+
+    /* Zustand des Parsers fuer MT940 bzw. MT942. Im Puffer steht nur noch der
+     * Teil der Daten, der noch nicht geparst werden konnte - i.d.R. der letzte,
+     * noch nicht vollstaendig empfangene Buchungstag */
+    private static class MT94xStream
+        implements Serializable
+    {
+        private final boolean      booked;
+        private final StringBuffer buffer;
+        private final List<BTag>   tage;
+        // beim inkrementellen Parsen ist ein Fehler aufgetreten - dann wird erst
+        // am Ende nochmal geparst, damit der Fehler wie gewohnt gemeldet wird
+        private boolean broken;
+        // die Daten im Puffer wurden bereits komplett geparst
+        private boolean complete;
+
+        private MT94xStream(boolean booked)
+        {
+            this.booked=booked;
+            this.buffer=new StringBuffer();
+            this.tage=new ArrayList<BTag>();
+        }
+    }
 
-    private List<BTag> tageMT940;
-    private List<BTag> tageMT942;
+    private MT94xStream mt940;
+    private MT94xStream mt942;
 
-    private boolean parsed;
+    private transient DayListener listener;
 
     /** Dieses Feld enthlt einen String, der den nicht-auswertbaren Teil der Kontoauszge
      * enthlt. Es dient nur zu Debugging-Zwecken und sollte eigentlich immer <code>null</code>
@@ -244,26 +281,35 @@ public class GVRKUms
 
     public GVRKUms()
     {
-        bufferMT940=new StringBuffer();
-        bufferMT942=new StringBuffer();
-
-        tageMT940=new ArrayList<BTag>();
-        tageMT942=new ArrayList<BTag>();
+        mt940=new MT94xStream(true);
+        mt942=new MT94xStream(false);
 
         restMT940=new StringBuffer();
         restMT942=new StringBuffer();
+    }
 
-        parsed=false;
+    /** Registriert einen Listener, der ber jeden geparsten Buchungstag
+        informiert wird.
+        @param listener der Listener oder <code>null</code>. */
+    public void setDayListener(DayListener listener)
+    {
+        this.listener=listener;
     }
 
+    /** Fgt weitere MT940-Daten hinzu. Alle darin vollstndig enthaltenen
+        Buchungstage werden sofort geparst.
+        @param data die MT940-Daten. */
     public void appendMT940Data(String data)
     {
-        this.bufferMT940.append(data);
+        append(mt940,restMT940,data);
     }
 
+    /** Fgt weitere MT942-Daten hinzu. Alle darin vollstndig enthaltenen
+        Buchungstage werden sofort geparst.
+        @param data die MT942-Daten. */
     public void appendMT942Data(String data)
     {
-        this.bufferMT942.append(data);
+        append(mt942,restMT942,data);
     }
 
     /** Gibt die Umsatzinformationen gruppiert nach Buchungstagen zurck.
@@ -271,7 +317,7 @@ public class GVRKUms
     public List<BTag> getDataPerDay()
     {
         verifyMT94xParsing("getDataPerDay()");
-        return tageMT940;
+        return mt940.tage;
     }
 
     /** Gibt alle Transaktionsdatenstze in einer "flachen" Struktur zurck.
@@ -283,7 +329,7 @@ public class GVRKUms
         verifyMT94xParsing("getFlatData()");
 
         List<UmsLine> result=new ArrayList<UmsLine>();
-        for (Iterator<BTag> i=tageMT940.iterator(); i.hasNext(); ) {
+        for (Iterator<BTag> i=mt940.tage.iterator(); i.hasNext(); ) {
             BTag tag= i.next();
             result.addAll(tag.lines);
         }
@@ -298,7 +344,7 @@ public class GVRKUms
         verifyMT94xParsing("getFlatDataUnbooked()");
 
         List<UmsLine> result=new ArrayList<UmsLine>();
-        for (Iterator<BTag> i=tageMT942.iterator(); i.hasNext(); ) {
+        for (Iterator<BTag> i=mt942.tage.iterator(); i.hasNext(); ) {
             BTag tag= i.next();
             result.addAll(tag.lines);
         }
@@ -331,10 +377,11 @@ public class GVRKUms
 
     private void verifyMT94xParsing(String where)
     {
-        if (!parsed) {
-            parseMT94x(bufferMT940, tageMT940, restMT940);
-            parseMT94x(bufferMT942, tageMT942, restMT942);
-        }
+        // der Rest in den Puffern ist jetzt auf jeden Fall komplett
+        if (!mt940.complete)
+            parseMT94x(mt940, restMT940, true);
+        if (!mt942.complete)
+            parseMT94x(mt942, restMT942, true);
 
         if (restMT940!=null && restMT940.length()!=0) {
             HBCIUtils.log(
@@ -359,399 +406,496 @@ public class GVRKUms
         }
     }
 
-    private void parseMT94x(StringBuffer buffer, List<BTag> tage, StringBuffer rest)
+    private void append(MT94xStream stream, StringBuffer rest, String data)
     {
+        stream.buffer.append(data);
+        stream.complete=false;
+        if (!stream.broken) {
+            parseMT94x(stream, rest, false);
+        }
+    }
+
+    /* parst die vollstaendigen Buchungstage im Puffer. Ist "complete" gesetzt,
+     * ist auch der letzte Buchungstag im Puffer vollstaendig */
+    private void parseMT94x(MT94xStream stream, StringBuffer rest, boolean complete)
+    {
+        StringBuffer buffer=stream.buffer;
+        if (complete) {
+            stream.complete=true;
+        }
+        if (buffer.length()==0) {
+            return;
+        }
         HBCIUtils.log("now parsing MT94x data", HBCIUtils.LOG_DEBUG);
-        parsed=true;
 
+        String       data=buffer.toString();
+        MT94xHandler handler=new MT94xHandler(stream);
         try {
-            SimpleDateFormat dateFormat=new SimpleDateFormat("yyMMdd");
-            HBCIPassport     passport=getPassport();
-
-            // split into "buchungstage"
-            while (buffer.length()!=0) {
-                String st_tag=Swift.getOneBlock(buffer);
-                if (st_tag==null) {
-                    break;
-                }
-
-                GVRKUms.BTag btag=new GVRKUms.BTag();
+            int pos=SwiftTokenizer.tokenize(data,0,complete,handler);
+            buffer.delete(0,pos);
+        } catch (Exception e) {
+            // die bereits geparsten Buchungstage aus dem Puffer entfernen
+            buffer.setLength(0);
+            buffer.append(data.substring(handler.blockStart));
+
+            if (!complete) {
+                // Fehler erst melden, wenn die Umsaetze abgefragt werden
+                HBCIUtils.log("MT94x data could not be parsed incrementally, will retry when all data is available: "+e,HBCIUtils.LOG_DEBUG);
+                stream.broken=true;
+                return;
+            }
 
-                // extract konto data
-                String konto_info=Swift.getTagValue(st_tag,"25",0);
-                int pos=konto_info.indexOf("/");
-                String blz;
-                String number;
-                String iban;
-                String curr;
+            HBCIUtils.log("There is unparsed MT94x data - an exception occured while parsing",HBCIUtils.LOG_ERR);
+            HBCIUtils.log("current MT94x buffer: "+buffer,HBCIUtils.LOG_DEBUG2);
+            throw new HBCI_Exception(e);
+        } finally {
+            // der Rest steht erst fest, wenn alle Daten da sind
+            if (complete) {
+                rest.setLength(0);
+                rest.append(buffer.toString());
+            }
+        }
+    }
 
-                if (pos!=-1) {
-                    blz=konto_info.substring(0,pos);
-                    number=konto_info.substring(pos+1);
-                    iban="";
-                    curr="";
+    /**
+     * Erzeugt die Buchungstage aus den Tags, die der {@link SwiftTokenizer}
+     * meldet. Ein Block (beginnend mit :20:) entspricht einem Buchungstag.
+     */
+    private class MT94xHandler
+        implements SwiftTokenizer.Handler
+    {
+        private final MT94xStream      stream;
+        private final SimpleDateFormat dateFormat;
+        private final HBCIPassport     passport;
+        private final SwiftMultiTag    multi;
+
+        private int     blockStart;
+        private BTag    btag;
+        private UmsLine line;
+        private long    saldo;
+        private String  st_end;
+        private char    endtype;
+
+        private MT94xHandler(MT94xStream stream)
+        {
+            this.stream=stream;
+            this.dateFormat=new SimpleDateFormat("yyMMdd");
+            this.passport=getPassport();
+            this.multi=new SwiftMultiTag();
+        }
 
-                    for (pos=number.length();pos>0;pos--) {
-                        char ch=number.charAt(pos-1);
+        public void startBlock(String data,int start)
+        {
+            this.blockStart=start;
+            this.btag=new GVRKUms.BTag();
+            this.btag.endtype='F';
+            this.line=null;
+            this.saldo=0;
+            this.st_end=null;
+            this.endtype='F';
+        }
 
-                        if (ch>='0' && ch<='9')
-                            break;
-                    }
+        public void tag(String data,String tag,int start,int end)
+        {
+            UmsLine prev=this.line;
+            this.line=null;
 
-                    if (pos<number.length()) {
-                        curr=number.substring(pos);
-                        number=number.substring(0,pos);
-                    }
-                } else {
-                    blz="";
-                    number="";
-                    iban=konto_info;
-                    curr="";
+            if (tag.equals("25")) {
+                if (btag.my==null)
+                    parseKonto(data.substring(start,end));
+            } else if (tag.equals("28C")) {
+                // extract "auszugsnummer"
+                if (btag.counter==null)
+                    btag.counter=data.substring(start,end);
+            } else if (tag.equals("60F")) {
+                // extract "anfangssaldo"
+                if (btag.start==null || btag.starttype=='M')
+                    parseStart(data.substring(start,end),'F');
+            } else if (tag.equals("60M")) {
+                if (btag.start==null)
+                    parseStart(data.substring(start,end),'M');
+            } else if (tag.equals("61")) {
+                this.line=parseUmsLine(data.substring(start,end));
+                btag.addLine(this.line);
+            } else if (tag.equals("86")) {
+                // gehoert zum direkt davor stehenden :61:
+                if (prev!=null)
+                    parseMulti(prev,data,start,end);
+            } else if (tag.equals("62F")) {
+                // extract "schlusssaldo"
+                if (st_end==null || endtype=='M') {
+                    st_end=data.substring(start,end);
+                    endtype='F';
                 }
-
-                btag.my=new Konto();
-                btag.my.blz=blz;
-                btag.my.number=number;
-                btag.my.iban=iban;
-                btag.my.curr=curr;
-                if (passport!=null) {
-                    passport.fillAccountInfo(btag.my);
+            } else if (tag.equals("62M")) {
+                if (st_end==null) {
+                    st_end=data.substring(start,end);
+                    endtype='M';
                 }
+            }
+        }
 
-                // extract "auszugsnummer"
-                btag.counter=Swift.getTagValue(st_tag,"28C",0);
+        public void endBlock(String data,int end)
+        {
+            if (btag.my==null)
+                throw new HBCI_Exception("missing account information (:25:) in MT94x data");
 
-                // extract "anfangssaldo"
-                String st_start=Swift.getTagValue(st_tag,"60F",0);
-                char   starttype='F';
-                if (st_start==null) {
-                    st_start=Swift.getTagValue(st_tag,"60M",0);
-                    starttype='M';
-                }
-                if (st_start!=null) {
-                    // Tag 60 (Anfangssaldo) gibt es in MT942 nicht,
-                    // darum wird btag.start nur in MT940 gefllt
+            if (st_end!=null) {
+                // Tag 62 (Schlusssaldo) gibt es in MT942 nicht,
+                // darum wird btag.end nur in MT940 gefllt
 
-                    btag.start=new Saldo();
-                    btag.starttype=starttype;
+                btag.end=new Saldo();
+                btag.endtype=endtype;
 
-                    String cd=st_start.substring(0,1);
+                String cd=st_end.substring(0,1);
 
-                    try {
-                        btag.start.timestamp=dateFormat.parse(st_start.substring(1,7));
-                    } catch (Exception e) {
-                        btag.start.timestamp=null;
-                    }
+                try {
+                    btag.end.timestamp=dateFormat.parse(st_end.substring(1,7));
+                } catch (Exception e) {
+                    btag.end.timestamp=null;
+                }
 
-                    // hier aus dem CD-Indikator und dem absoluten Saldo-Betrag
-                    // einen String fr den Saldo-Betrag zusamennbauen
-                    btag.start.value=new Value(
-                        (cd.equals("D")?"-":"")+st_start.substring(10).replace(',','.'),
-                        st_start.substring(7,10));
+                // set default values for optional non-given bdates
+                if (btag.start != null && btag.start.timestamp==null) {
+                    btag.start.timestamp=btag.end.timestamp;
+                }
+                for (Iterator<UmsLine> j=btag.lines.iterator(); j.hasNext(); ) {
+                    UmsLine line= j.next();
+                    if (line.bdate==null) {
+                        line.bdate=btag.end.timestamp;
+                    }
                 }
 
-                // looping to get all "umsaetze"
+                btag.end.value=new Value(
+                        (cd.equals("D")?"-":"")+st_end.substring(10).replaceAll("\\s","").replace(',','.'),
+                        st_end.substring(7,10));
+            }
 
-                // TODO: beim MT942 (btag.start==null) msste als Initialwert
-                // fuer den Saldo hier eigentlich der Abschluss-Saldo aus den
-                // gebuchten Umstzen verwendet werden (den habe ich an dieser
-                // Stelle aber nicht so ohne weiteres)
-                long saldo = (btag.start!=null)?btag.start.value.getLongValue():0;
-                int  ums_counter=0;
+            // Now check if the end balance (Schlusssaldo) equals balance of last statement. If not, the bank sent a wrong start balance
+            // and we have to re-calculate the balances for each statement
+            int numLines = btag.lines.size();
+            if(numLines > 0 && btag.end != null) {
+                UmsLine lastLine = btag.lines.get(numLines-1);
+                saldo = btag.end.value.getLongValue();
+                if(lastLine.saldo.value.getLongValue() != saldo) {
+                    for(int i=numLines-1; i>=0; i--) {
+                        lastLine = btag.lines.get(i);
+                        lastLine.saldo.value = new Value(saldo, btag.end.value.getCurr());
+                        saldo -= lastLine.value.getLongValue();
+                    }
+                }
+            }
+
+            stream.tage.add(btag);
+            if (listener!=null) {
+                listener.dayParsed(btag,stream.booked);
+            }
+            btag=null;
+        }
 
-                while (true) {
-                    String st_ums=Swift.getTagValue(st_tag,"61",ums_counter);
-                    if (st_ums==null)
+        private void parseKonto(String konto_info)
+        {
+            // extract konto data
+            int pos=konto_info.indexOf("/");
+            String blz;
+            String number;
+            String iban;
+            String curr;
+
+            if (pos!=-1) {
+                blz=konto_info.substring(0,pos);
+                number=konto_info.substring(pos+1);
+                iban="";
+                curr="";
+
+                for (pos=number.length();pos>0;pos--) {
+                    char ch=number.charAt(pos-1);
+
+                    if (ch>='0' && ch<='9')
                         break;
+                }
 
-                    GVRKUms.UmsLine line=new GVRKUms.UmsLine();
+                if (pos<number.length()) {
+                    curr=number.substring(pos);
+                    number=number.substring(0,pos);
+                }
+            } else {
+                blz="";
+                number="";
+                iban=konto_info;
+                curr="";
+            }
 
-                    // extract valuta
-                    line.valuta=dateFormat.parse(st_ums.substring(0,6));
+            btag.my=new Konto();
+            btag.my.blz=blz;
+            btag.my.number=number;
+            btag.my.iban=iban;
+            btag.my.curr=curr;
+            if (passport!=null) {
+                passport.fillAccountInfo(btag.my);
+            }
+        }
 
-                    // extract bdate
-                    int next=0;
-                    if (st_ums.charAt(6)>'9') {
-                        // [2012-01-27 - Patch von Frank/Pecunia]
-                        // beim :61er Tag ist das Buchungsdatum optional. Wenn es nicht gesetzt ist, muss das Buchungsdatum des
-                        // Umsatzes z.B. aus :60F kommen
-                        if (btag.start !=  null && btag.start.timestamp != null) line.bdate = btag.start.timestamp;
-                        else line.bdate=line.valuta;
+        private void parseStart(String st_start,char starttype)
+        {
+            // Tag 60 (Anfangssaldo) gibt es in MT942 nicht,
+            // darum wird btag.start nur in MT940 gefllt
 
-                        next=6;
+            btag.start=new Saldo();
+            btag.starttype=starttype;
 
-                    } else {
-                        line.bdate=dateFormat.parse(st_ums.substring(0,2)+
-                            st_ums.substring(6,10));
-
-                        // wenn bdate und valuta um mehr als einen monat voneinander
-                        // abweichen, dann ist das jahr des bdate falsch (1.1.2005 vs. 31.12.2004)
-                        // korrektur des bdate-jahres in die richtige richtung notwendig
-                        // FE: ein Monat reicht nicht, es sollte schon ein halbes Jahr sein - es gab verschiedene Probleme mit Umsaetzen im falschen Jahr!!
-                        // http://www.onlinebanking-forum.de/phpBB2/viewtopic.php?p=75348
-                        if (Math.abs(line.bdate.getTime()-line.valuta.getTime())>180L*24*3600*1000) {
-                            int diff;
-
-                            if (line.bdate.before(line.valuta)) {
-                                diff=+1;
-                            } else {
-                                diff=-1;
-                            }
-                            Calendar cal=Calendar.getInstance();
-                            cal.setTime(line.bdate);
-                            cal.set(Calendar.YEAR,cal.get(Calendar.YEAR)+diff);
-                            line.bdate=cal.getTime();
-                        }
-
-                        next=10;
-                    }
+            String cd=st_start.substring(0,1);
 
-                    // extract credit/debit
-                    String cd;
-                    if (st_ums.charAt(next)=='C' || st_ums.charAt(next)=='D') {
-                        line.isStorno=false;
-                        cd=st_ums.substring(next,next+1);
-                        next++;
-                    } else {
-                        line.isStorno=true;
-                        cd=st_ums.substring(next+1,next+2);
-                        next+=2;
-                    }
+            try {
+                btag.start.timestamp=dateFormat.parse(st_start.substring(1,7));
+            } catch (Exception e) {
+                btag.start.timestamp=null;
+            }
 
-                    // skip part of currency
-                    char currpart=st_ums.charAt(next);
-                    if (currpart>'9')
-                        next++;
-
-                    line.value=new Value();
-
-                    // TODO: bei einem MT942 wird die waehrung hier automatisch auf EUR
-                    // gesetzt, weil die auto-erkennung (anhand des anfangssaldos) hier nicht
-                    // funktioniert, weil es im MT942 keinen anfangssaldo gibt
-                    line.value.setCurr((btag.start!=null)?btag.start.value.getCurr():"EUR");
-
-                    // extract value and skip code
-                    int    npos=st_ums.indexOf("N",next);
-                    // welcher Code (C/D) zeigt einen negativen Buchungsbetrag
-                    // an? Bei einer "normalen" Buchung ist das D(ebit). Bei
-                    // einer Storno-Buchung ist der Betrag allerdings negativ,
-                    // wenn eine ehemalige Gutschrift (Credit) storniert wird,
-                    // in dem Fall wre als "C" der Indikator fr den negativen
-                    // Buchungsbetrag
-                    String negValueIndikator=line.isStorno?"C":"D";
-                    line.value.setValue(
-                        HBCIUtilsInternal.string2Long(
-                            (cd.equals(negValueIndikator)?"-":"") + st_ums.substring(next,npos).replace(',','.'),
-                            100));
-                    next=npos+4;
-
-                    // update saldo
-                    saldo+=line.value.getLongValue();
-
-                    line.saldo=new Saldo();
-                    line.saldo.timestamp=line.bdate;
-                    // TODO: bei einem MT942 wird die waehrung hier automatisch auf EUR
-                    // gesetzt, weil die auto-erkennung (anhand des anfangssaldos) hier nicht
-                    // funktioniert, weil es im MT942 keinen anfangssaldo gibt
-                    line.saldo.value=new Value(saldo, (btag.start!=null)?btag.start.value.getCurr():"EUR");
-
-                    // extract customerref
-                    npos=st_ums.indexOf("//",next);
-                    if (npos==-1)
-                        npos=st_ums.indexOf("\r\n",next);
-                    if (npos==-1)
-                        npos=st_ums.length();
-                    line.customerref=st_ums.substring(next,npos);
-                    next=npos;
-
-                    // check for instref
-                    if (next<st_ums.length() && st_ums.substring(next,next+2).equals("//")) {
-                        // extract instref
-                        next+=2;
-                        npos=st_ums.indexOf("\r\n",next);
-                        if (npos==-1)
-                            npos=st_ums.length();
-                        line.instref=st_ums.substring(next,npos);
-                        next=npos+2;
-                    }
-                    if (line.instref==null)
-                        line.instref="";
-
-                    // check for additional information
-                    if (next<st_ums.length() && st_ums.charAt(next)=='\r') {
-                        next+=2;
-
-                        // extract orig Value
-                        pos=st_ums.indexOf("/OCMT/",next);
-                        if (pos!=-1) {
-                            int slashpos=st_ums.indexOf("/",pos+9);
-                            if (slashpos==-1)
-                                slashpos=st_ums.length();
-
-                            try
-                            {
-                              line.orig_value=new Value(
-                                  st_ums.substring(pos+9,slashpos).replace(',','.'),
-                                  st_ums.substring(pos+6,pos+9));
-                            }
-                            catch (NumberFormatException nfe)
-                            {
-                              // Der Betrag darf fehlen. Tolerieren wir
-                            }
-                        }
-
-                        // extract charge Value
-                        pos=st_ums.indexOf("/CHGS/",next);
-                        if (pos!=-1) {
-                            int slashpos=st_ums.indexOf("/",pos+9);
-                            if (slashpos==-1)
-                                slashpos=st_ums.length();
-
-                            try
-                            {
-                              line.charge_value=new Value(
-                                  st_ums.substring(pos+9,slashpos).replace(',','.'),
-                                  st_ums.substring(pos+6,pos+9));
-                            }
-                            catch (NumberFormatException nfe)
-                            {
-                              // Der Betrag darf fehlen. Tolerieren wir
-                            }
-                        }
-                    }
+            // hier aus dem CD-Indikator und dem absoluten Saldo-Betrag
+            // einen String fr den Saldo-Betrag zusamennbauen
+            btag.start.value=new Value(
+                (cd.equals("D")?"-":"")+st_start.substring(10).replace(',','.'),
+                st_start.substring(7,10));
+
+            // TODO: beim MT942 (btag.start==null) msste als Initialwert
+            // fuer den Saldo hier eigentlich der Abschluss-Saldo aus den
+            // gebuchten Umstzen verwendet werden (den habe ich an dieser
+            // Stelle aber nicht so ohne weiteres)
+            saldo=btag.start.value.getLongValue();
+        }
 
-                    String st_multi=Swift.getTagValue(st_tag,"86",ums_counter);
-                    if (st_multi!=null) {
-                        line.gvcode=st_multi.substring(0,3);
-                        st_multi=Swift.packMulti(st_multi.substring(3));
-
-                        if (!line.gvcode.equals("999")) {
-                            line.isSepa = line.gvcode.startsWith("1");
-                            line.text=Swift.getMultiTagValue(st_multi,"00");
-                            line.primanota=Swift.getMultiTagValue(st_multi,"10");
-                            for (int i=0;i<10;i++) {
-                                line.addUsage(Swift.getMultiTagValue(st_multi,Integer.toString(20+i)));
-                            }
-
-                            Konto acc=new Konto();
-                            acc.blz=Swift.getMultiTagValue(st_multi,"30");
-                            acc.number=Swift.getMultiTagValue(st_multi,"31");
-                            
-                            // fuer den Fall, dass in der BLZ sowas hier drin steht: "GENODEF1S06 SVWZ+ ja"
-                            // Siehe http://www.onlinebanking-forum.de/phpBB2/viewtopic.php?t=16182
-                            if (acc.blz != null)
-                            {
-                                int space = acc.blz.indexOf(" ");
-                                if (space != -1)
-                                {
-                                    HBCIUtils.log("blz/bic \"" + acc.blz + "\" contains invalid chars, trimming after first space", HBCIUtils.LOG_DEBUG);
-                                    acc.blz = acc.blz.substring(0,space);
-                                }
-                            }
-
-                            if (line.isSepa)
-                            {
-                              acc.bic = acc.blz;
-                              acc.iban = acc.number;
-                            }
-
-                            acc.name=Swift.getMultiTagValue(st_multi,"32");
-                            acc.name2=Swift.getMultiTagValue(st_multi,"33");
-                            if (acc.blz!=null ||
-                                    acc.number!=null ||
-                                    acc.name!=null ||
-                                    acc.name2!=null) {
-
-                                if (acc.blz==null)
-                                    acc.blz="";
-                                if (acc.number==null)
-                                    acc.number="";
-                                if (acc.name==null)
-                                    acc.name="";
-                                line.other=acc;
-                            }
-
-                            line.addkey=Swift.getMultiTagValue(st_multi,"34");
-                            for (int i=0;i<4;i++) {
-                                line.addUsage(Swift.getMultiTagValue(st_multi,Integer.toString(60+i)));
-                            }
-                        } else {
-                            line.additional=st_multi;
-                        }
+        private UmsLine parseUmsLine(String st_ums)
+        {
+            GVRKUms.UmsLine line=new GVRKUms.UmsLine();
+
+            // extract valuta
+            line.valuta=parseDate(st_ums.substring(0,6));
+
+            // extract bdate
+            int next=0;
+            if (st_ums.charAt(6)>'9') {
+                // [2012-01-27 - Patch von Frank/Pecunia]
+                // beim :61er Tag ist das Buchungsdatum optional. Wenn es nicht gesetzt ist, muss das Buchungsdatum des
+                // Umsatzes z.B. aus :60F kommen
+                if (btag.start !=  null && btag.start.timestamp != null) line.bdate = btag.start.timestamp;
+                else line.bdate=line.valuta;
+
+                next=6;
+
+            } else {
+                line.bdate=parseDate(st_ums.substring(0,2)+
+                    st_ums.substring(6,10));
+
+                // wenn bdate und valuta um mehr als einen monat voneinander
+                // abweichen, dann ist das jahr des bdate falsch (1.1.2005 vs. 31.12.2004)
+                // korrektur des bdate-jahres in die richtige richtung notwendig
+                // FE: ein Monat reicht nicht, es sollte schon ein halbes Jahr sein - es gab verschiedene Probleme mit Umsaetzen im falschen Jahr!!
+                // http://www.onlinebanking-forum.de/phpBB2/viewtopic.php?p=75348
+                if (Math.abs(line.bdate.getTime()-line.valuta.getTime())>180L*24*3600*1000) {
+                    int diff;
+
+                    if (line.bdate.before(line.valuta)) {
+                        diff=+1;
+                    } else {
+                        diff=-1;
                     }
-
-                    btag.addLine(line);
-                    ums_counter++;
+                    Calendar cal=Calendar.getInstance();
+                    cal.setTime(line.bdate);
+                    cal.set(Calendar.YEAR,cal.get(Calendar.YEAR)+diff);
+                    line.bdate=cal.getTime();
                 }
 
-                // extract "schlusssaldo"
+                next=10;
+            }
 
-                String st_end=Swift.getTagValue(st_tag,"62F",0);
-                char   endtype='F';
-                btag.endtype='F';
-                if (st_end==null) {
-                    st_end=Swift.getTagValue(st_tag,"62M",0);
-                    endtype='M';
-                }
-                if (st_end!=null) {
-                    // Tag 62 (Schlusssaldo) gibt es in MT942 nicht,
-                    // darum wird btag.end nur in MT940 gefllt
+            // extract credit/debit
+            String cd;
+            if (st_ums.charAt(next)=='C' || st_ums.charAt(next)=='D') {
+                line.isStorno=false;
+                cd=st_ums.substring(next,next+1);
+                next++;
+            } else {
+                line.isStorno=true;
+                cd=st_ums.substring(next+1,next+2);
+                next+=2;
+            }
 
-                    btag.end=new Saldo();
-                    btag.endtype=endtype;
+            // skip part of currency
+            char currpart=st_ums.charAt(next);
+            if (currpart>'9')
+                next++;
+
+            line.value=new Value();
+
+            // TODO: bei einem MT942 wird die waehrung hier automatisch auf EUR
+            // gesetzt, weil die auto-erkennung (anhand des anfangssaldos) hier nicht
+            // funktioniert, weil es im MT942 keinen anfangssaldo gibt
+            line.value.setCurr((btag.start!=null)?btag.start.value.getCurr():"EUR");
+
+            // extract value and skip code
+            int    npos=st_ums.indexOf("N",next);
+            // welcher Code (C/D) zeigt einen negativen Buchungsbetrag
+            // an? Bei einer "normalen" Buchung ist das D(ebit). Bei
+            // einer Storno-Buchung ist der Betrag allerdings negativ,
+            // wenn eine ehemalige Gutschrift (Credit) storniert wird,
+            // in dem Fall wre als "C" der Indikator fr den negativen
+            // Buchungsbetrag
+            String negValueIndikator=line.isStorno?"C":"D";
+            line.value.setValue(
+                HBCIUtilsInternal.string2Long(
+                    (cd.equals(negValueIndikator)?"-":"") + st_ums.substring(next,npos).replace(',','.'),
+                    100));
+            next=npos+4;
+
+            // update saldo
+            saldo+=line.value.getLongValue();
+
+            line.saldo=new Saldo();
+            line.saldo.timestamp=line.bdate;
+            // TODO: bei einem MT942 wird die waehrung hier automatisch auf EUR
+            // gesetzt, weil die auto-erkennung (anhand des anfangssaldos) hier nicht
+            // funktioniert, weil es im MT942 keinen anfangssaldo gibt
+            line.saldo.value=new Value(saldo, (btag.start!=null)?btag.start.value.getCurr():"EUR");
+
+            // extract customerref
+            npos=st_ums.indexOf("//",next);
+            if (npos==-1)
+                npos=st_ums.indexOf("\r\n",next);
+            if (npos==-1)
+                npos=st_ums.length();
+            line.customerref=st_ums.substring(next,npos);
+            next=npos;
+
+            // check for instref
+            if (next<st_ums.length() && st_ums.substring(next,next+2).equals("//")) {
+                // extract instref
+                next+=2;
+                npos=st_ums.indexOf("\r\n",next);
+                if (npos==-1)
+                    npos=st_ums.length();
+                line.instref=st_ums.substring(next,npos);
+                next=npos+2;
+            }
+            if (line.instref==null)
+                line.instref="";
 
-                    String cd=st_end.substring(0,1);
+            // check for additional information
+            if (next<st_ums.length() && st_ums.charAt(next)=='\r') {
+                next+=2;
 
-                    try {
-                        btag.end.timestamp=dateFormat.parse(st_end.substring(1,7));
-                    } catch (Exception e) {
-                        btag.end.timestamp=null;
+                // extract orig Value
+                int pos=st_ums.indexOf("/OCMT/",next);
+                if (pos!=-1) {
+                    int slashpos=st_ums.indexOf("/",pos+9);
+                    if (slashpos==-1)
+                        slashpos=st_ums.length();
+
+                    try
+                    {
+                      line.orig_value=new Value(
+                          st_ums.substring(pos+9,slashpos).replace(',','.'),
+                          st_ums.substring(pos+6,pos+9));
+                    }
+                    catch (NumberFormatException nfe)
+                    {
+                      // Der Betrag darf fehlen. Tolerieren wir
                     }
+                }
 
-                    // set default values for optional non-given bdates
-                    if (btag.start != null && btag.start.timestamp==null) {
-                        btag.start.timestamp=btag.end.timestamp;
+                // extract charge Value
+                pos=st_ums.indexOf("/CHGS/",next);
+                if (pos!=-1) {
+                    int slashpos=st_ums.indexOf("/",pos+9);
+                    if (slashpos==-1)
+                        slashpos=st_ums.length();
+
+                    try
+                    {
+                      line.charge_value=new Value(
+                          st_ums.substring(pos+9,slashpos).replace(',','.'),
+                          st_ums.substring(pos+6,pos+9));
                     }
-                    for (Iterator<UmsLine> j=btag.lines.iterator(); j.hasNext(); ) {
-                        UmsLine line= j.next();
-                        if (line.bdate==null) {
-                            line.bdate=btag.end.timestamp;
-                        }
+                    catch (NumberFormatException nfe)
+                    {
+                      // Der Betrag darf fehlen. Tolerieren wir
                     }
+                }
+            }
 
-                    btag.end.value=new Value(
-                            (cd.equals("D")?"-":"")+st_end.substring(10).replaceAll("\\s","").replace(',','.'),
-                            st_end.substring(7,10));
+            return line;
+        }
+
+        private void parseMulti(UmsLine line,String data,int start,int end)
+        {
+            if (end-start<3)
+                throw new HBCI_Exception("invalid :86: tag in MT94x data");
+
+            line.gvcode=data.substring(start,start+3);
+            multi.parse(data,start+3,end);
+
+            if (!line.gvcode.equals("999")) {
+                line.isSepa = line.gvcode.startsWith("1");
+                line.text=multi.getValue(0);
+                line.primanota=multi.getValue(10);
+                for (int i=0;i<10;i++) {
+                    line.addUsage(multi.getValue(20+i));
                 }
 
-                // Now check if the end balance (Schlusssaldo) equals balance of last statement. If not, the bank sent a wrong start balance
-                // and we have to re-calculate the balances for each statement
-                int numLines = btag.lines.size();
-                if(numLines > 0 && btag.end != null) {
-                    UmsLine lastLine = btag.lines.get(numLines-1);
-                    saldo = btag.end.value.getLongValue();
-                    if(lastLine.saldo.value.getLongValue() != saldo) {
-                        for(int i=numLines-1; i>=0; i--) {
-                            lastLine = btag.lines.get(i);
-                            lastLine.saldo.value = new Value(saldo, btag.end.value.getCurr());
-                            saldo -= lastLine.value.getLongValue();
-                        }
+                Konto acc=new Konto();
+                acc.blz=multi.getValue(30);
+                acc.number=multi.getValue(31);
+                
+                // fuer den Fall, dass in der BLZ sowas hier drin steht: "GENODEF1S06 SVWZ+ ja"
+                // Siehe http://www.onlinebanking-forum.de/phpBB2/viewtopic.php?t=16182
+                if (acc.blz != null)
+                {
+                    int space = acc.blz.indexOf(" ");
+                    if (space != -1)
+                    {
+                        HBCIUtils.log("blz/bic \"" + acc.blz + "\" contains invalid chars, trimming after first space", HBCIUtils.LOG_DEBUG);
+                        acc.blz = acc.blz.substring(0,space);
                     }
                 }
 
-                tage.add(btag);
-                buffer.delete(0,st_tag.length());
+                if (line.isSepa)
+                {
+                  acc.bic = acc.blz;
+                  acc.iban = acc.number;
+                }
+
+                acc.name=multi.getValue(32);
+                acc.name2=multi.getValue(33);
+                if (acc.blz!=null ||
+                        acc.number!=null ||
+                        acc.name!=null ||
+                        acc.name2!=null) {
+
+                    if (acc.blz==null)
+                        acc.blz="";
+                    if (acc.number==null)
+                        acc.number="";
+                    if (acc.name==null)
+                        acc.name="";
+                    line.other=acc;
+                }
+
+                line.addkey=multi.getValue(34);
+                for (int i=0;i<4;i++) {
+                    line.addUsage(multi.getValue(60+i));
+                }
+            } else {
+                line.additional=multi.toString();
             }
+        }
 
-            // remove this debugging output
-            // HBCIUtils.log("Parsing of MT940 ok until now; unparsed data: "+buffer,HBCIUtils.LOG_DEBUG2);
-        } catch (Exception e) {
-            HBCIUtils.log("There is unparsed MT94x data - an exception occured while parsing",HBCIUtils.LOG_ERR);
-            HBCIUtils.log("current MT94x buffer: "+buffer,HBCIUtils.LOG_DEBUG2);
-            throw new HBCI_Exception(e);
-        } finally {
-            rest.setLength(0);
-            rest.append(buffer.toString());
+        private Date parseDate(String st)
+        {
+            try {
+                return dateFormat.parse(st);
+            } catch (ParseException e) {
+                throw new HBCI_Exception(e);
+            }
         }
     }
 }
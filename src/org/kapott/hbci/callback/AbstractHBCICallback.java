@@ -24,6 +24,7 @@ package org.kapott.hbci.callback;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
+import org.kapott.hbci.manager.LogDispatcher;
 import org.kapott.hbci.passport.HBCIPassport;
 
 /** Diese Klasse dient als Basisklasse fr allen Callback-Klassen. Eine Anwendung sollte
@@ -50,11 +51,11 @@ public abstract class AbstractHBCICallback
         SimpleDateFormat df=new SimpleDateFormat("yyyy.MM.dd HH:mm:ss.SSS");
         ret.append("[").append(df.format(date)).append("] ");
         
-        Thread thread=Thread.currentThread();
+        Thread thread=LogDispatcher.getOriginThread();
         ret.append("[").append(thread.getThreadGroup().getName());
         ret.append("/").append(thread.getName()).append("] ");
         
-        String classname=trace.getClassName();
+        String classname=(trace!=null)?trace.getClassName():null;
         String hbciname="org.kapott.hbci.";
         if (classname!=null && classname.startsWith(hbciname))
             ret.append(classname.substring((hbciname).length())).append(": ");
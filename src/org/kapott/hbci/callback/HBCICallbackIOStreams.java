@@ -123,7 +123,7 @@ public class HBCICallbackIOStreams
                         if (!st.equals(st2))
                             throw new InvalidUserDataException(HBCIUtilsInternal.getLocMsg("EXCMSG_PWDONTMATCH"));
                     }
-                    logfilter.addSecretData(st,"X",LogFilter.FILTER_SECRETS);
+                    logfilter.addSecretData(passport,st,"X",LogFilter.FILTER_SECRETS);
                     retData.replace(0,retData.length(),st);
                     break;
     
@@ -143,7 +143,7 @@ public class HBCICallbackIOStreams
                     getOutStream().print(msg+": ");
                     getOutStream().flush();
                     String secret=getInStream().readLine();
-                    logfilter.addSecretData(secret,"X",LogFilter.FILTER_SECRETS);
+                    logfilter.addSecretData(passport,secret,"X",LogFilter.FILTER_SECRETS);
                     retData.replace(0,retData.length(),secret);
                     break;
     
@@ -170,9 +170,9 @@ public class HBCICallbackIOStreams
                         st=retData.toString();
                     
                     if (reason==NEED_BLZ) {
-                    	logfilter.addSecretData(st,"X",LogFilter.FILTER_MOST);
+                    	logfilter.addSecretData(passport,st,"X",LogFilter.FILTER_MOST);
                     } else if (reason==NEED_USERID || reason==NEED_CUSTOMERID || reason==NEED_PROXY_USER) {
-                    	logfilter.addSecretData(st,"X",LogFilter.FILTER_IDS);
+                    	logfilter.addSecretData(passport,st,"X",LogFilter.FILTER_IDS);
                     }
                     
                     retData.replace(0,retData.length(),st);
@@ -236,8 +236,8 @@ public class HBCICallbackIOStreams
                         s=number;
                     number=s;
                     
-                    logfilter.addSecretData(blz,"X",LogFilter.FILTER_MOST);
-                    logfilter.addSecretData(number,"X",LogFilter.FILTER_IDS);
+                    logfilter.addSecretData(passport,blz,"X",LogFilter.FILTER_MOST);
+                    logfilter.addSecretData(passport,number,"X",LogFilter.FILTER_IDS);
     
                     retData.replace(0,retData.length(),blz+"|"+number);
                     break;
@@ -251,7 +251,7 @@ public class HBCICallbackIOStreams
                     String newiban=getInStream().readLine();
                     if (newiban.length()!=0 && !newiban.equals(iban)) {
                     	retData.replace(0,retData.length(),newiban);
-                    	logfilter.addSecretData(newiban,"X",LogFilter.FILTER_IDS);
+                    	logfilter.addSecretData(passport,newiban,"X",LogFilter.FILTER_IDS);
                     }
                     break;
     
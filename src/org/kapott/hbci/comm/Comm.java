@@ -22,8 +22,6 @@
 package org.kapott.hbci.comm;
 
 import java.lang.reflect.Constructor;
-import java.util.ArrayList;
-import java.util.StringTokenizer;
 
 import org.kapott.hbci.callback.HBCICallback;
 import org.kapott.hbci.exceptions.CanNotParseMessageException;
@@ -34,9 +32,12 @@ import org.kapott.hbci.manager.HBCIUtilsInternal;
 import org.kapott.hbci.manager.IHandlerData;
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.passport.HBCIPassportInternal;
+import org.kapott.hbci.protocol.ElementDef;
 import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.protocol.factory.MSGFactory;
-import org.kapott.hbci.rewrite.Rewrite;
+import org.kapott.hbci.rewrite.RewriteContext;
+import org.kapott.hbci.rewrite.RewritePipeline;
 
 public abstract class Comm
 {
@@ -49,7 +50,7 @@ public abstract class Comm
     private   HBCIPassportInternal parentPassport;
     
     protected abstract void ping(MSG msg);
-    protected abstract StringBuffer pong(MsgGen gen);
+    protected abstract String pong(MsgGen gen);
     protected abstract void closeConnection();
         
     protected Comm(HBCIPassportInternal parentPassport)
@@ -62,6 +63,14 @@ public abstract class Comm
     }
 
     public MSG pingpong(String msgName, MSG msg)
+    {
+        return pingpong(msgName,msg,null);
+    }
+
+    /** Sendet eine Nachricht und liefert die geparste Antwort. Die Daten fuer
+        die Rewriter der Antwort kommen aus <code>ctx</code> (darf
+        <code>null</code> sein). */
+    public MSG pingpong(String msgName, MSG msg, RewriteContext ctx)
     {
         IHandlerData handler=getParentPassport().getParentHandlerData();
         MsgGen       gen=handler.getMsgGen();
@@ -73,48 +82,39 @@ public abstract class Comm
 
         // nachricht empfangen
         HBCIUtilsInternal.getCallback().status(getParentPassport(),HBCICallback.STATUS_MSG_RECV,null);
-        String st = pong(gen).toString();
+        String st = pong(gen);
         HBCIUtilsInternal.getCallback().status(getParentPassport(),HBCICallback.STATUS_MSG_RAW_RECV,st);
 
-        HBCIUtils.log("received message: "+st,HBCIUtils.LOG_DEBUG2);
+        if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+            HBCIUtils.log("received message: "+st,HBCIUtils.LOG_DEBUG2);
         MSG retmsg=null;
 
         try {
-            // erzeugen der liste aller rewriter
-            String rewriters_st=HBCIUtils.getParam("kernel.rewriter");
-            ArrayList<Rewrite> al=new ArrayList<Rewrite>();
-            StringTokenizer tok=new StringTokenizer(rewriters_st,",");
-            while (tok.hasMoreTokens()) {
-                String rewriterName=tok.nextToken().trim();
-                if (rewriterName.length()!=0) {
-                    Class cl=this.getClass().getClassLoader().loadClass("org.kapott.hbci.rewrite.R"+
-                                                                        rewriterName);
-                    Constructor con=cl.getConstructor((Class[])null);
-                    Rewrite rewriter=(Rewrite)(con.newInstance((Object[])null));
-                    al.add(rewriter);
-                }
-            }
-            Rewrite[] rewriters= al.toArray(new Rewrite[al.size()]);
+            // liste aller rewriter holen
+            RewritePipeline rewriters=RewritePipeline.getInstance();
     
             // alle rewriter fr verschlsselte nachricht durchlaufen
-            for (int i=0;i<rewriters.length;i++) {
-                st=rewriters[i].incomingCrypted(st,gen);
-            }
+            st=rewriters.incomingCrypted(st,gen,ctx);
             
-            // versuche, nachricht als verschlsselte nachricht zu parsen
-            HBCIUtilsInternal.getCallback().status(getParentPassport(),HBCICallback.STATUS_MSG_PARSE,"CryptedRes");
-            try {
-                HBCIUtils.log("trying to parse message as crypted message",HBCIUtils.LOG_DEBUG);
-                retmsg = MSGFactory.getInstance().createMSG("CryptedRes",st,st.length(),gen,MSG.DONT_CHECK_SEQ);
-            } catch (ParseErrorException e) {
-                // wenn das schiefgeht...
-                HBCIUtils.log("message seems not to be encrypted; tring to parse it as "+msgName+"Res message",HBCIUtils.LOG_DEBUG);
+            // nur wenn die nachricht wie eine verschluesselte aussieht, wird
+            // versucht, sie als verschlsselte nachricht zu parsen
+            if (isCrypted(st,gen)) {
+                HBCIUtilsInternal.getCallback().status(getParentPassport(),HBCICallback.STATUS_MSG_PARSE,"CryptedRes");
+                try {
+                    HBCIUtils.log("trying to parse message as crypted message",HBCIUtils.LOG_DEBUG);
+                    retmsg = MSGFactory.getInstance().createMSG("CryptedRes",st,st.length(),gen,MSG.DONT_CHECK_SEQ);
+                } catch (ParseErrorException e) {
+                    // wenn das schiefgeht...
+                    HBCIUtils.log("message seems not to be encrypted; tring to parse it as "+msgName+"Res message",HBCIUtils.LOG_DEBUG);
+                }
+            } else {
+                HBCIUtils.log("message is not encrypted; parsing it as "+msgName+"Res message",HBCIUtils.LOG_DEBUG);
+            }
 
+            if (retmsg==null) {
                 // alle rewriter durchlaufen, um nachricht evtl. als unverschlsselte msg zu parsen
                 gen.set("_origSignedMsg",st);
-                for (int i=0;i<rewriters.length;i++) {
-                    st=rewriters[i].incomingClearText(st,gen);
-                }
+                st=rewriters.incomingClearText(st,gen,ctx);
                 
                 // versuch, nachricht als unverschlsselte msg zu parsen
                 HBCIUtilsInternal.getCallback().status(getParentPassport(),HBCICallback.STATUS_MSG_PARSE,msgName+"Res");
@@ -126,6 +126,32 @@ public abstract class Comm
 
         return retmsg;
     }
+
+    /* prueft anhand des segment-codes des zweiten segmentes, ob die nachricht
+     * verschluesselt ist (das zweite segment ist dann der verschluesselungskopf).
+     * kann das nicht sicher festgestellt werden, wird true geliefert, so dass
+     * wie bisher zunaechst versucht wird, die nachricht als "CryptedRes" zu parsen */
+    private boolean isCrypted(String st,MsgGen gen)
+    {
+        ElementDef def=gen.getGrammar().getDef("CryptedRes");
+        if (def==null || def.getRefs().length<2 || def.getRefs()[1].getDef()==null)
+            return true;
+        String cryptCode=def.getRefs()[1].getDef().getSegCode();
+
+        try {
+            ParseCursor cursor=new ParseCursor(st);
+            int end=cursor.segmentEnd(0);
+            if (end>=cursor.length() || cryptCode.length()==0)
+                return true;
+            cursor.skip(end);
+
+            String code=cursor.peekSegCode();
+            return code==null || code.equals(cryptCode);
+        } catch (RuntimeException e) {
+            // z.B. kaputte laengenangabe bei binaerdaten - dann entscheidet der parser
+            return true;
+        }
+    }
     
     public static Comm getInstance(String name,HBCIPassportInternal passport)
     {
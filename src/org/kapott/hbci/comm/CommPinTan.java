@@ -21,16 +21,13 @@
 
 package org.kapott.hbci.comm;
 
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.lang.reflect.Constructor;
 import java.net.Authenticator;
-import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
 import java.net.URL;
-import java.util.Properties;
 
 import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLSocketFactory;
 
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIUtils;
@@ -39,38 +36,31 @@ import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.passport.AbstractPinTanPassport;
 import org.kapott.hbci.passport.HBCIPassportInternal;
 import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.MsgBuffer;
 
 public final class CommPinTan
     extends Comm
 {
-    private URL               url;
-    private HttpURLConnection conn;
-    private boolean           checkCert;
+    private PinTanClient          client;
+    private PinTanClient.Response response;
     
-    // die socket factory, die in jedem fall benutzt wird.
-    private SSLSocketFactory   mySocketFactory;
+    // die socket factories werden von allen verbindungen gemeinsam benutzt. die JRE
+    // verwendet gepoolte keep-alive-verbindungen nur mit derselben factory wieder,
+    // und TLS-sessions werden pro SSLContext gecached
+    private static PinTanSSLSocketFactory checkingSocketFactory;
+    private static PinTanSSLSocketFactory trustingSocketFactory;
     
     // der hostname-verifier, der nur dann benutzt wird, wenn zertifikate
     // nicht verifiziert werden sollen
-    private HostnameVerifier   myHostnameVerifier;
-    
-    /**
-     * Timeout fuer HTTP connect in Millisekunden.
-     */
-    private final static int HTTP_CONNECT_TIMEOUT = 60 * 1000;
-    
-    /**
-     * Timeout fuer HTTP Read in Millisekunden.
-     */
-    private final static int HTTP_READ_TIMEOUT    = 5 * HTTP_CONNECT_TIMEOUT;
-
+    private final static HostnameVerifier myHostnameVerifier=new PinTanSSLHostnameVerifier();
     
     public CommPinTan(HBCIPassportInternal parentPassport)
     {
         super(parentPassport);
-        checkCert=((AbstractPinTanPassport)parentPassport).getCheckCert();
+        AbstractPinTanPassport passport=(AbstractPinTanPassport)parentPassport;
+        boolean checkCert=passport.getCheckCert();
         
-        String trustStore=((AbstractPinTanPassport)parentPassport).getCertFile();
+        String trustStore=passport.getCertFile();
         if (checkCert && trustStore!=null && trustStore.length()!=0) {
             System.setProperty("javax.net.ssl.trustStore",trustStore);
         }
@@ -84,75 +74,82 @@ public final class CommPinTan
             String path=fullpath.substring(slashIdx);
             
             HBCIUtils.log(HBCIUtilsInternal.getLocMsg("LOG_CONNECT",new Object[]{host,parentPassport.getPort(),path}),HBCIUtils.LOG_INFO);
-            this.url=new URL("https",host,parentPassport.getPort().intValue(),path);
+            PinTanClientConfig config=new PinTanClientConfig(new URL("https",host,parentPassport.getPort().intValue(),path));
+            config.setConnectTimeout(Integer.parseInt(HBCIUtils.getParam("client.connection.pintan.connectTimeout",Integer.toString(PinTanClientConfig.DEFAULT_CONNECT_TIMEOUT))));
+            config.setReadTimeout(Integer.parseInt(HBCIUtils.getParam("client.connection.pintan.readTimeout",Integer.toString(PinTanClientConfig.DEFAULT_READ_TIMEOUT))));
+            config.setKeepAlive(HBCIUtils.getParam("client.connection.pintan.keepAlive","1").equals("1"));
 
-            // creating instances of modified socket factories etc.
-            this.mySocketFactory=new PinTanSSLSocketFactory((AbstractPinTanPassport)parentPassport);
-            this.myHostnameVerifier=new PinTanSSLHostnameVerifier();
+            PinTanSSLSocketFactory socketFactory=getSocketFactory(checkCert);
+            boolean debugging=socketFactory.debug();
+            if (!checkCert || debugging) {
+                // if we have to disable cert checking or enable ssl logging,
+                // we have to set some special SSL stuff on the connection object
+                HBCIUtils.log("using modified socket factory for"
+                    +" checkCert="+checkCert+" and debugging="+debugging, 
+                    HBCIUtils.LOG_DEBUG);
+                config.setSocketFactory(socketFactory);
+                
+                if (!checkCert) {
+                    // checkcert=0 --> use dummy hostname verifier that always succeeds
+                    HBCIUtils.log("using modified hostname verifier because cert checking is disabled", 
+                        HBCIUtils.LOG_DEBUG);
+                    config.setHostnameVerifier(myHostnameVerifier);
+                }
+            }
             
-            String[] proxyData=((AbstractPinTanPassport)parentPassport).getProxy().split(":");
+            String[] proxyData=passport.getProxy().split(":");
             if (proxyData.length==2) {
                 HBCIUtils.log(
                     "HTTPS connections will be made using proxy "+
                     proxyData[0]+ "(Port "+proxyData[1]+")",
                     HBCIUtils.LOG_INFO);
                 
-                Properties sysProps = System.getProperties();
-                sysProps.put("https.proxyHost",proxyData[0]);
-                sysProps.put("https.proxyPort",proxyData[1]);
+                // der proxy wird nur noch fuer diese verbindung gesetzt und nicht
+                // mehr global per "https.proxyHost" fuer die gesamte JVM
+                config.setProxy(new Proxy(Proxy.Type.HTTP,
+                    InetSocketAddress.createUnresolved(proxyData[0],Integer.parseInt(proxyData[1]))));
                 
                 HBCIUtils.log("initializing HBCI4Java proxy authentication callback", HBCIUtils.LOG_DEBUG);
                 Authenticator.setDefault(new PinTanProxyAuthenticator(parentPassport));
             }
+            
+            this.client=createClient(config);
         } catch (Exception e) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_CONNERR"),e);
         }
     }
 
-    protected void ping(MSG msg)
+    /* liefert die gemeinsam benutzte socket factory */
+    private static synchronized PinTanSSLSocketFactory getSocketFactory(boolean checkCert)
     {
-        try {
-            byte[] b=filter.encode(msg.toString(0));
+        if (checkCert) {
+            if (checkingSocketFactory==null)
+                checkingSocketFactory=new PinTanSSLSocketFactory(true);
+            return checkingSocketFactory;
+        }
+        
+        if (trustingSocketFactory==null)
+            trustingSocketFactory=new PinTanSSLSocketFactory(false);
+        return trustingSocketFactory;
+    }
 
-            HBCIUtils.log("connecting to server",HBCIUtils.LOG_DEBUG);
-            conn=(HttpURLConnection)url.openConnection();
-            conn.setConnectTimeout(HTTP_CONNECT_TIMEOUT);
-            conn.setReadTimeout(HTTP_READ_TIMEOUT);
-            
-            boolean checkCert=((AbstractPinTanPassport)getParentPassport()).getCheckCert();
-            boolean debugging=((PinTanSSLSocketFactory)this.mySocketFactory).debug();
-            if (!checkCert || debugging) {
-                // if we have to disable cert checking or enable ssl logging,
-                // we have to set some special SSL stuff on the connection object
-                HttpsURLConnection connSSL=(HttpsURLConnection)conn;
-                
-                HBCIUtils.log("activating modified socket factory for"
-                    +" checkCert="+checkCert+" and debugging="+debugging, 
-                    HBCIUtils.LOG_DEBUG);
-                connSSL.setSSLSocketFactory(this.mySocketFactory);
-                
-                if (!checkCert) {
-                    // checkcert=0 --> use dummy hostname verifier that always succeeds
-                    HBCIUtils.log("activating modified hostname verifier because cert checking is disabled", 
-                        HBCIUtils.LOG_DEBUG);
-                    connSSL.setHostnameVerifier(this.myHostnameVerifier);
-                }
-            }
-            
-            conn.setDoOutput(true);
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/octet-stream");
-            conn.setFixedLengthStreamingMode(b.length);
+    /* erzeugt den in "client.connection.pintan.client" konfigurierten HTTP-client */
+    private static PinTanClient createClient(PinTanClientConfig config)
+        throws Exception
+    {
+        String name=HBCIUtils.getParam("client.connection.pintan.client",PinTanURLConnectionClient.class.getName());
+        HBCIUtils.log("using pintan client "+name,HBCIUtils.LOG_DEBUG);
+        
+        Class<? extends PinTanClient> cl=Class.forName(name).asSubclass(PinTanClient.class);
+        Constructor<? extends PinTanClient> cons=cl.getConstructor(new Class<?>[] {PinTanClientConfig.class});
+        return cons.newInstance(new Object[] {config});
+    }
 
-            conn.connect();                        
-            OutputStream out=conn.getOutputStream();
-            
-            HBCIUtils.log("writing data to output stream", HBCIUtils.LOG_DEBUG);
-            out.write(b);
-            out.flush();
-            
-            HBCIUtils.log("closing output stream", HBCIUtils.LOG_DEBUG);
-            out.close();
+    protected void ping(MSG msg)
+    {
+        try {
+            MsgBuffer b=filter.encode(msg.toBuffer());
+            this.response=client.send(b.getBytes());
         } catch (Exception e) {
             HBCI_Exception he = new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_SENDERR"),e);
             he.setFatal(true); // Abbruch. Auch dann, wenn es ein anonymer BPD-Abruf war
@@ -160,38 +157,14 @@ public final class CommPinTan
         }
     }
 
-    protected StringBuffer pong(MsgGen gen)
+    protected String pong(MsgGen gen)
     {
         try {
-            byte[] b=new byte[1024];
-            StringBuffer ret=new StringBuffer();
-
             HBCIUtils.log(HBCIUtilsInternal.getLocMsg("STATUS_MSG_RECV"),HBCIUtils.LOG_INFO);
 
-            int msgsize=conn.getContentLength();
-            int num;
-
-            if (msgsize!=-1) {
-                HBCIUtils.log("found messagesize: "+msgsize,HBCIUtils.LOG_DEBUG);
-            } else {
-                HBCIUtils.log("can not determine message size, trying to detect automatically",HBCIUtils.LOG_DEBUG);
-            }
-            InputStream i=conn.getInputStream();
-
-            while (msgsize!=0 && (num=i.read(b))>0) {
-                HBCIUtils.log("received "+num+" bytes",HBCIUtils.LOG_DEBUG2);
-                ret.append(new String(b,0,num,ENCODING));
-                msgsize-=num;
-                if (msgsize>=0) {
-                    HBCIUtils.log("we still need "+msgsize+" bytes",HBCIUtils.LOG_DEBUG2);
-                } else {
-                    HBCIUtils.log("read "+num+" bytes, looking for more",HBCIUtils.LOG_DEBUG2);
-                }
-            }
-
-            HBCIUtils.log("closing communication line",HBCIUtils.LOG_DEBUG);
-            conn.disconnect();
-            return new StringBuffer(filter.decode(ret.toString()));
+            PinTanClient.Response r=this.response;
+            this.response=null;
+            return filter.decode(r.read());
         } catch (Exception e) {
             // Die hier marieren wir nicht als fatal - ich meine mich zu erinnern,
             // dass es Banken gibt, die einen anonymen BPD-Abruf mit einem HTTP-Fehlercode quittieren
@@ -201,5 +174,7 @@ public final class CommPinTan
 
     protected void closeConnection()
     {
+        this.response=null;
+        this.client.close();
     }
 }
@@ -21,11 +21,13 @@
 
 package org.kapott.hbci.comm;
 
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
 import java.net.Socket;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SocketChannel;
 
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIUtils;
@@ -39,7 +41,7 @@ public final class CommStandard
 {
     Socket s;                /**< @internal @brief The socket for communicating with the server. */
     OutputStream o;          /**< @internal @brief The outputstream to write HBCI-messages to. */
-    InputStream i;           /**< @internal @brief The inputstream to read HBCI-messages from. */
+    ReadableByteChannel in;  /**< @internal @brief The channel to read HBCI-messages from. */
 
     public CommStandard(HBCIPassportInternal parentPassport)
     {
@@ -67,8 +69,9 @@ public final class CommStandard
                 this.s=new Socket(proxy);
                 
             } else {
-                // no SOCKS server
-                s=new Socket();
+                // no SOCKS server - socket mit channel erzeugen, damit die
+                // antworten direkt in einen ByteBuffer gelesen werden koennen
+                s=SocketChannel.open().socket();
             }
 
             int localPort=Integer.parseInt(HBCIUtils.getParam("client.connection.localPort","0"));
@@ -79,7 +82,8 @@ public final class CommStandard
 
             s.connect(new InetSocketAddress(parentPassport.getHost(),
                                             parentPassport.getPort().intValue()));
-            i=s.getInputStream();
+            // ein SOCKS-socket hat keinen channel
+            in=(s.getChannel()!=null)?s.getChannel():Channels.newChannel(s.getInputStream());
             o=s.getOutputStream();
         } catch (Exception e) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_CONNERR"),e);
@@ -89,81 +93,28 @@ public final class CommStandard
     protected void ping(MSG msg)
     {
         try {
-            byte[] b=filter.encode(msg.toString(0));
-
-            o.write(b);
+            filter.encode(msg.toBuffer()).writeTo(o);
             o.flush();
         } catch (Exception ex) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_SENDERR"),ex);
         }
     }
 
-    protected StringBuffer pong(MsgGen gen)
+    protected String pong(MsgGen gen)
     {
-        int          num;
-        byte[]       b = new byte[1024];
-        StringBuffer ret = new StringBuffer();
-        boolean      sizeknown = false;
-        int          msgsize=-1;
-
         HBCIUtils.log("waiting for response",HBCIUtils.LOG_INFO);
 
         try {
-            StringBuffer res=new StringBuffer();
-            
-            while ((!sizeknown || msgsize>0) && (num=i.read(b))!=-1) {
-                HBCIUtils.log("received "+num+" bytes",HBCIUtils.LOG_DEBUG2);
-
-                String st=new String(b,0,num,ENCODING);
-
-                ret.append(st);
-
-                if (!sizeknown) {
-                    res.setLength(0);
-                    res.append(filter.decode(ret.toString()));
-                        
-                    msgsize=extractMessageSize(res);
-                    if (msgsize!=-1) {
-                        HBCIUtils.log("found message size: "+msgsize,HBCIUtils.LOG_DEBUG);
-                        // jetzt ist die msgsize bekannt
-                        // davon die anzahl der schon gelesenen zeichen abziehen
-                        msgsize-=ret.length();
-                        sizeknown=true;
-                    }
-                } else {
-                    msgsize-=num;
-
-                }
-                HBCIUtils.log("we still need "+msgsize+" bytes",HBCIUtils.LOG_DEBUG2);
+            FrameReader reader=new FrameReader(filter);
+            while (!reader.read(in)) {
+                // channel liefert im blocking-mode immer daten
             }
-
-            // FileOutputStream fo=new FileOutputStream("pong.dat");
-            // fo.write(ret.toString().getBytes(ENCODING));
-            // fo.close();
-
-            return new StringBuffer(filter.decode(ret.toString()));
+            return reader.getMessage();
         } catch (Exception ex) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_RECVERR"),ex);
         }
     }
     
-    private int extractMessageSize(StringBuffer st)
-    {
-        int ret=-1;
-        
-        if (st!=null) {
-            int firstPlus=st.indexOf("+");
-            if (firstPlus!=-1) {
-                int secondPlus=st.indexOf("+",firstPlus+1);
-                if (secondPlus!=-1) {
-                    ret=Integer.parseInt(st.substring(firstPlus+1,secondPlus));
-                }
-            }
-        }
-        
-        return ret;
-    }
-
     protected void closeConnection()
     {
         try {
@@ -25,11 +25,52 @@ import java.lang.reflect.Constructor;
 
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
+import org.kapott.hbci.protocol.MsgBuffer;
 
 public abstract class Filter
 {
     public abstract byte[] encode(String st);
     public abstract String decode(String st);
+    
+    /** kodiert eine bereits serialisierte nachricht. die default-implementierung
+        geht den umweg ueber einen string, abgeleitete filter koennen den puffer
+        direkt verarbeiten. der uebergebene puffer darf nicht veraendert werden,
+        kann aber unveraendert zurueckgeliefert werden */
+    public MsgBuffer encode(MsgBuffer data)
+    {
+        return new MsgBuffer(encode(data.toString()));
+    }
+    
+    /** dekodiert eine vollstaendig empfangene nachricht */
+    public String decode(byte[] data)
+    {
+        return decode(toString(data,data.length));
+    }
+    
+    /** dekodiert den anfang einer empfangenen nachricht, um daraus die
+        nachrichtengroesse zu ermitteln. liefert <code>null</code>, wenn dafuer
+        noch nicht genug daten vorliegen */
+    public String decodeHeader(byte[] data,int length)
+    {
+        return decode(toString(data,length));
+    }
+    
+    /** liefert die laenge, die eine nachricht mit <code>length</code> zeichen
+        nach dem kodieren hat. ohne ueberschreiben wird angenommen, dass der
+        filter die laenge nicht veraendert */
+    public int getEncodedLength(int length)
+    {
+        return length;
+    }
+    
+    protected static String toString(byte[] data,int length)
+    {
+        try {
+            return new String(data,0,length,Comm.ENCODING);
+        } catch (Exception e) {
+            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_ISOERR"),e);
+        }
+    }
         
     public static Filter getInstance(String filter)
     {
@@ -24,6 +24,7 @@ package org.kapott.hbci.comm;
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
+import org.kapott.hbci.protocol.MsgBuffer;
 
 public final class FilterBase64
     extends Filter
@@ -42,6 +43,18 @@ public final class FilterBase64
         }
     }
     
+    public String decodeHeader(byte[] data,int length)
+    {
+        // nur vollstaendige 4er-gruppen dekodieren
+        length-=length%4;
+        return (length!=0)?decode(toString(data,length)):null;
+    }
+    
+    public int getEncodedLength(int length)
+    {
+        return ((length+2)/3)*4;
+    }
+    
     public byte[] encode(String st)
     {
         try {
@@ -50,4 +63,13 @@ public final class FilterBase64
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_B64ENCODEERR"),ex);
         }
     }
+    
+    public MsgBuffer encode(MsgBuffer data)
+    {
+        try {
+            return new MsgBuffer(HBCIUtils.encodeBase64(data.getBytes()).getBytes(Comm.ENCODING));
+        } catch (Exception ex) {
+            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_B64ENCODEERR"),ex);
+        }
+    }
 }
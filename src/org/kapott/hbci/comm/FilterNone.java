@@ -24,6 +24,7 @@ package org.kapott.hbci.comm;
 import org.kapott.hbci.exceptions.HBCI_Exception;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
+import org.kapott.hbci.protocol.MsgBuffer;
 
 public final class FilterNone
     extends Filter
@@ -42,6 +43,11 @@ public final class FilterNone
         }
     }
     
+    public MsgBuffer encode(MsgBuffer data)
+    {
+        return data;
+    }
+    
     public String decode(String st)
     {
         return st;
@@ -0,0 +1,141 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.comm;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+import org.kapott.hbci.manager.HBCIUtils;
+
+/**
+ * Liest eine einzelne HBCI-Nachricht aus einem {@link ReadableByteChannel}.
+ *
+ * Bisher wurde die Antwort in 1KB-Bloecken gelesen, jeder Block in einen
+ * String umgewandelt und die bis dahin gelesenen Daten fuer jeden Block
+ * erneut dekodiert, nur um die Nachrichtengroesse aus dem Nachrichtenkopf
+ * zu ermitteln. Der FrameReader liest zunaechst nur den Anfang der Nachricht,
+ * entnimmt daraus die Groesse aus "HNHBK" und liest den Rest direkt in einen
+ * Puffer passender Groesse. Die Nachricht wird am Ende genau einmal dekodiert.
+ *
+ * {@link #read(ReadableByteChannel)} liest nur die Daten, die der Channel
+ * gerade liefert. Bei einem Channel im Non-Blocking-Mode kann die Methode also
+ * immer dann aufgerufen werden, wenn ein Selector meldet, dass neue Daten
+ * vorliegen. Damit kann ein einzelner Thread viele Verbindungen bedienen.
+ * Ein FrameReader ist nicht thread-safe und liest genau eine Nachricht.
+ */
+public final class FrameReader
+{
+    // "HNHBK:1:3+000000000123+" sind 23 Zeichen, Base64-kodiert 32
+    private final static int HEADER_SIZE = 64;
+
+    private final Filter filter;
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    private ByteBuffer message;
+
+    /**
+     * ct.
+     * @param filter der Filter, mit dem die Nachricht kodiert ist.
+     */
+    public FrameReader(Filter filter)
+    {
+        this.filter = filter;
+    }
+
+    /**
+     * Liest die aktuell verfuegbaren Daten aus dem Channel.
+     * @param channel der Channel.
+     * @return true, wenn die Nachricht vollstaendig gelesen wurde.
+     * false, wenn ein Channel im Non-Blocking-Mode gerade keine Daten liefert.
+     * @throws IOException wenn die Verbindung vorzeitig geschlossen wurde oder
+     * die Nachrichtengroesse nicht ermittelt werden konnte.
+     */
+    public boolean read(ReadableByteChannel channel) throws IOException
+    {
+        while (message==null) {
+            int num=channel.read(header);
+            if (num==-1)
+                throw new EOFException("connection closed while reading message header");
+            if (num==0)
+                return false;
+            HBCIUtils.log("received "+num+" bytes",HBCIUtils.LOG_DEBUG2);
+
+            int msgsize=extractMessageSize();
+            if (msgsize!=-1) {
+                HBCIUtils.log("found message size: "+msgsize,HBCIUtils.LOG_DEBUG);
+                allocate(filter.getEncodedLength(msgsize));
+            } else if (!header.hasRemaining()) {
+                throw new IOException("no message size found in the first "+HEADER_SIZE+" bytes");
+            }
+        }
+
+        while (message.hasRemaining()) {
+            int num=channel.read(message);
+            if (num==-1)
+                throw new EOFException("connection closed, still missing "+message.remaining()+" bytes");
+            if (num==0)
+                return false;
+            HBCIUtils.log("received "+num+" bytes, still need "+message.remaining(),HBCIUtils.LOG_DEBUG2);
+        }
+        return true;
+    }
+
+    /**
+     * Liefert die gelesene und dekodierte Nachricht.
+     * Darf erst aufgerufen werden, wenn {@link #read(ReadableByteChannel)} true geliefert hat.
+     * @return die Nachricht.
+     */
+    public String getMessage()
+    {
+        if (message==null || message.hasRemaining())
+            throw new IllegalStateException("message not complete");
+        return filter.decode(message.array());
+    }
+
+    /**
+     * Legt den Puffer fuer die gesamte Nachricht an und uebernimmt die
+     * bereits gelesenen Daten.
+     * @param size die kodierte Laenge der Nachricht.
+     * @throws IOException
+     */
+    private void allocate(int size) throws IOException
+    {
+        header.flip();
+        if (size<header.remaining())
+            throw new IOException("invalid message size "+size+", already received "+header.remaining()+" bytes");
+
+        message=ByteBuffer.allocate(size);
+        message.put(header);
+    }
+
+    /**
+     * Ermittelt die Nachrichtengroesse aus dem Nachrichtenkopf.
+     * @return die Groesse oder -1, wenn noch nicht genug Daten vorliegen.
+     * @throws IOException wenn die Groesse keine Zahl ist.
+     */
+    private int extractMessageSize() throws IOException
+    {
+        String st=filter.decodeHeader(header.array(),header.position());
+        if (st==null)
+            return -1;
+
+        int firstPlus=st.indexOf('+');
+        if (firstPlus==-1)
+            return -1;
+        int secondPlus=st.indexOf('+',firstPlus+1);
+        if (secondPlus==-1)
+            return -1;
+
+        try {
+            return Integer.parseInt(st.substring(firstPlus+1,secondPlus));
+        } catch (NumberFormatException e) {
+            throw new IOException("invalid message size in header: "+st.substring(0,secondPlus+1));
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.comm;
+
+import java.io.IOException;
+
+/**
+ * Schnittstelle fuer den HTTP-Transport von HBCI-PIN/TAN.
+ *
+ * {@link CommPinTan} kuemmert sich nur noch um die Kodierung der Nachrichten.
+ * Das eigentliche Senden und Empfangen uebernimmt eine Implementierung dieses
+ * Interfaces. Die zu verwendende Klasse wird ueber den Kernel-Parameter
+ * <code>client.connection.pintan.client</code> festgelegt. Sie muss einen
+ * oeffentlichen Konstruktor mit einem Parameter vom Typ {@link PinTanClientConfig}
+ * besitzen. Per Default wird {@link PinTanURLConnectionClient} verwendet.
+ *
+ * Eine Instanz gehoert immer zu genau einer Verbindung eines Dialogs und wird
+ * nicht von mehreren Threads gleichzeitig verwendet. Die Implementierung kann
+ * jedoch intern Verbindungen mit anderen Instanzen teilen (Keep-Alive).
+ */
+public interface PinTanClient
+{
+    /**
+     * Sendet eine Nachricht per HTTP-POST an den Server.
+     * Die Methode darf zurueckkehren, bevor die Antwort eingetroffen ist.
+     * Ein asynchroner Client kann die Antwort also erst in {@link Response#read()}
+     * abwarten.
+     * @param data die bereits kodierte Nachricht.
+     * @return die Antwort des Servers.
+     * @throws IOException wenn die Nachricht nicht gesendet werden konnte.
+     */
+    public Response send(byte[] data) throws IOException;
+
+    /**
+     * Wird beim Schliessen der Verbindung aufgerufen.
+     * Gepoolte Verbindungen muessen dabei nicht geschlossen werden.
+     */
+    public void close();
+
+    /**
+     * Die Antwort auf eine gesendete Nachricht.
+     */
+    public static interface Response
+    {
+        /**
+         * Liefert den Body der Antwort und gibt die Verbindung wieder frei.
+         * Die Methode wird pro Antwort genau einmal aufgerufen.
+         * @return der noch kodierte Body der Antwort.
+         * @throws IOException wenn die Antwort nicht gelesen werden konnte oder
+         * der Server mit einem HTTP-Fehler geantwortet hat.
+         */
+        public byte[] read() throws IOException;
+    }
+}
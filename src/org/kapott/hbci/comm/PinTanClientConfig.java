@@ -0,0 +1,171 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.comm;
+
+import java.net.Proxy;
+import java.net.URL;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * Die Verbindungs-Einstellungen fuer einen {@link PinTanClient}.
+ * Werden von {@link CommPinTan} aus dem Passport und den Kernel-Parametern
+ * befuellt, koennen fuer Tests aber auch direkt erzeugt werden.
+ */
+public class PinTanClientConfig
+{
+    /**
+     * Default-Timeout fuer HTTP connect in Millisekunden.
+     */
+    public final static int DEFAULT_CONNECT_TIMEOUT = 60 * 1000;
+
+    /**
+     * Default-Timeout fuer HTTP Read in Millisekunden.
+     */
+    public final static int DEFAULT_READ_TIMEOUT    = 5 * DEFAULT_CONNECT_TIMEOUT;
+
+    private final URL        url;
+    private Proxy            proxy;
+    private SSLSocketFactory socketFactory;
+    private HostnameVerifier hostnameVerifier;
+    private int              connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private int              readTimeout    = DEFAULT_READ_TIMEOUT;
+    private boolean          keepAlive      = true;
+
+    /**
+     * ct.
+     * @param url die URL des HBCI-Servers.
+     */
+    public PinTanClientConfig(URL url)
+    {
+        this.url=url;
+    }
+
+    /**
+     * Liefert die URL des HBCI-Servers.
+     * @return die URL.
+     */
+    public URL getUrl()
+    {
+        return url;
+    }
+
+    /**
+     * Liefert den zu verwendenden Proxy.
+     * @return der Proxy oder <code>null</code>, wenn der Proxy ueber den
+     * {@link java.net.ProxySelector} der JVM ermittelt werden soll.
+     */
+    public Proxy getProxy()
+    {
+        return proxy;
+    }
+
+    /**
+     * Legt den zu verwendenden Proxy fest.
+     * @param proxy der Proxy oder <code>null</code>, wenn der Proxy ueber den
+     * {@link java.net.ProxySelector} der JVM ermittelt werden soll.
+     * Fuer eine explizit direkte Verbindung {@link Proxy#NO_PROXY} uebergeben.
+     */
+    public void setProxy(Proxy proxy)
+    {
+        this.proxy=proxy;
+    }
+
+    /**
+     * Liefert die SSL-Socket-Factory.
+     * Die Factory wird von allen Verbindungen mit denselben Einstellungen
+     * gemeinsam verwendet, damit TLS-Sessions wiederaufgenommen werden koennen.
+     * @return die Factory oder <code>null</code>, wenn die des Systems verwendet werden soll.
+     */
+    public SSLSocketFactory getSocketFactory()
+    {
+        return socketFactory;
+    }
+
+    /**
+     * Legt die SSL-Socket-Factory fest.
+     * @param socketFactory die Factory oder <code>null</code>.
+     */
+    public void setSocketFactory(SSLSocketFactory socketFactory)
+    {
+        this.socketFactory=socketFactory;
+    }
+
+    /**
+     * Liefert den Hostname-Verifier.
+     * @return der Hostname-Verifier oder <code>null</code>, wenn der des Systems verwendet werden soll.
+     */
+    public HostnameVerifier getHostnameVerifier()
+    {
+        return hostnameVerifier;
+    }
+
+    /**
+     * Legt den Hostname-Verifier fest.
+     * @param hostnameVerifier der Hostname-Verifier oder <code>null</code>.
+     */
+    public void setHostnameVerifier(HostnameVerifier hostnameVerifier)
+    {
+        this.hostnameVerifier=hostnameVerifier;
+    }
+
+    /**
+     * Liefert den Timeout fuer den Verbindungsaufbau.
+     * @return der Timeout in Millisekunden.
+     */
+    public int getConnectTimeout()
+    {
+        return connectTimeout;
+    }
+
+    /**
+     * Legt den Timeout fuer den Verbindungsaufbau fest.
+     * @param connectTimeout der Timeout in Millisekunden.
+     */
+    public void setConnectTimeout(int connectTimeout)
+    {
+        this.connectTimeout=connectTimeout;
+    }
+
+    /**
+     * Liefert den Timeout beim Lesen der Antwort.
+     * @return der Timeout in Millisekunden.
+     */
+    public int getReadTimeout()
+    {
+        return readTimeout;
+    }
+
+    /**
+     * Legt den Timeout beim Lesen der Antwort fest.
+     * @param readTimeout der Timeout in Millisekunden.
+     */
+    public void setReadTimeout(int readTimeout)
+    {
+        this.readTimeout=readTimeout;
+    }
+
+    /**
+     * Prueft, ob Verbindungen nach einer Antwort offen gehalten werden sollen.
+     * @return true, wenn Keep-Alive verwendet werden soll.
+     */
+    public boolean isKeepAlive()
+    {
+        return keepAlive;
+    }
+
+    /**
+     * Legt fest, ob Verbindungen nach einer Antwort offen gehalten werden sollen.
+     * @param keepAlive true, wenn Keep-Alive verwendet werden soll.
+     */
+    public void setKeepAlive(boolean keepAlive)
+    {
+        this.keepAlive=keepAlive;
+    }
+}
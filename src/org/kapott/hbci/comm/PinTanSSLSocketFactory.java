@@ -61,9 +61,17 @@ public class PinTanSSLSocketFactory
     private SSLSocketFactory realSocketFactory;
 
     public PinTanSSLSocketFactory(AbstractPinTanPassport passport)
+    {
+        this(passport.getCheckCert());
+    }
+    
+    /* checkCert=false erzeugt einen eigenen SSLContext, der allen zertifikaten
+     * vertraut. die TLS-sessions werden pro SSLContext gecached, eine instanz
+     * sollte also fuer mehrere verbindungen wiederverwendet werden */
+    public PinTanSSLSocketFactory(boolean checkCert)
     {
         try {
-            if (!passport.getCheckCert()) {
+            if (!checkCert) {
                 HBCIUtils.log(
                     "creating socket factory with disabled cert checking",
                     HBCIUtils.LOG_WARN);
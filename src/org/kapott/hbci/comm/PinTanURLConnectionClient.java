@@ -0,0 +1,166 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.comm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.Proxy;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.kapott.hbci.manager.HBCIUtils;
+
+/**
+ * Default-Implementierung von {@link PinTanClient} auf Basis von {@link HttpURLConnection}.
+ *
+ * Bisher wurde nach jeder Antwort <code>disconnect()</code> aufgerufen und damit
+ * fuer jede HBCI-Nachricht eine neue TCP-Verbindung samt TLS-Handshake aufgebaut.
+ * Jetzt wird die Antwort vollstaendig gelesen und nur der Stream geschlossen.
+ * Die Verbindung landet dann im Keep-Alive-Cache der JRE, der pro Host
+ * (und SSL-Socket-Factory) gefuehrt wird, und wird von der naechsten Nachricht
+ * an denselben Server - auch aus anderen Dialogen - wiederverwendet. Die Anzahl
+ * der pro Host gepoolten Verbindungen kann ueber das System-Property
+ * <code>http.maxConnections</code> der JRE festgelegt werden.
+ */
+public class PinTanURLConnectionClient implements PinTanClient
+{
+    private final PinTanClientConfig config;
+
+    /**
+     * ct.
+     * @param config die Verbindungs-Einstellungen.
+     */
+    public PinTanURLConnectionClient(PinTanClientConfig config)
+    {
+        this.config=config;
+    }
+
+    /**
+     * @see org.kapott.hbci.comm.PinTanClient#send(byte[])
+     */
+    public Response send(byte[] data) throws IOException
+    {
+        HBCIUtils.log("connecting to server",HBCIUtils.LOG_DEBUG);
+        // ohne expliziten Proxy entscheidet der ProxySelector der JVM
+        // (https.proxyHost, java.net.useSystemProxies, eigene Selectoren)
+        final Proxy proxy=config.getProxy();
+        final HttpURLConnection conn=(HttpURLConnection)((proxy!=null)?config.getUrl().openConnection(proxy):config.getUrl().openConnection());
+        conn.setConnectTimeout(config.getConnectTimeout());
+        conn.setReadTimeout(config.getReadTimeout());
+
+        if (conn instanceof HttpsURLConnection) {
+            HttpsURLConnection connSSL=(HttpsURLConnection)conn;
+            if (config.getSocketFactory()!=null) {
+                HBCIUtils.log("activating modified socket factory",HBCIUtils.LOG_DEBUG);
+                connSSL.setSSLSocketFactory(config.getSocketFactory());
+            }
+            if (config.getHostnameVerifier()!=null) {
+                HBCIUtils.log("activating modified hostname verifier",HBCIUtils.LOG_DEBUG);
+                connSSL.setHostnameVerifier(config.getHostnameVerifier());
+            }
+        }
+
+        conn.setDoOutput(true);
+        conn.setRequestMethod("POST");
+        conn.setRequestProperty("Content-Type","application/octet-stream");
+        if (!config.isKeepAlive())
+            conn.setRequestProperty("Connection","close");
+        conn.setFixedLengthStreamingMode(data.length);
+
+        conn.connect();
+        OutputStream out=conn.getOutputStream();
+        try {
+            HBCIUtils.log("writing data to output stream",HBCIUtils.LOG_DEBUG);
+            out.write(data);
+            out.flush();
+        } finally {
+            HBCIUtils.log("closing output stream",HBCIUtils.LOG_DEBUG);
+            out.close();
+        }
+
+        return new Response() {
+            public byte[] read() throws IOException
+            {
+                return receive(conn);
+            }
+        };
+    }
+
+    /**
+     * Liest die Antwort vollstaendig und gibt die Verbindung wieder frei.
+     * @param conn die Verbindung.
+     * @return der Body der Antwort.
+     * @throws IOException
+     */
+    private byte[] receive(HttpURLConnection conn) throws IOException
+    {
+        InputStream in=null;
+        try {
+            int msgsize=conn.getContentLength();
+            if (msgsize!=-1) {
+                HBCIUtils.log("found messagesize: "+msgsize,HBCIUtils.LOG_DEBUG);
+            } else {
+                HBCIUtils.log("can not determine message size, trying to detect automatically",HBCIUtils.LOG_DEBUG);
+            }
+
+            try {
+                in=conn.getInputStream();
+            } catch (IOException e) {
+                // bei einem HTTP-Fehler den Body trotzdem lesen, sonst kann
+                // die Verbindung nicht wiederverwendet werden
+                drain(conn.getErrorStream());
+                throw e;
+            }
+
+            ByteArrayOutputStream ret=new ByteArrayOutputStream((msgsize>0)?msgsize:1024);
+            byte[] b=new byte[1024];
+            int num;
+            while ((num=in.read(b))!=-1) {
+                HBCIUtils.log("received "+num+" bytes",HBCIUtils.LOG_DEBUG2);
+                ret.write(b,0,num);
+            }
+            return ret.toByteArray();
+        } finally {
+            if (in!=null)
+                in.close();
+            if (!config.isKeepAlive()) {
+                HBCIUtils.log("closing communication line",HBCIUtils.LOG_DEBUG);
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Liest den Stream bis zum Ende und schliesst ihn.
+     * @param in der Stream. Darf <code>null</code> sein.
+     */
+    private void drain(InputStream in)
+    {
+        if (in==null)
+            return;
+        try {
+            byte[] b=new byte[1024];
+            while (in.read(b)!=-1) {
+            }
+            in.close();
+        } catch (IOException e) {
+            HBCIUtils.log("unable to read error response: "+e.getMessage(),HBCIUtils.LOG_DEBUG);
+        }
+    }
+
+    /**
+     * @see org.kapott.hbci.comm.PinTanClient#close()
+     */
+    public void close()
+    {
+        // die verbindungen bleiben im keep-alive-cache der JRE
+    }
+}
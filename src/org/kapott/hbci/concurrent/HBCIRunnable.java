@@ -4,6 +4,7 @@ package org.kapott.hbci.concurrent;
 import java.util.Properties;
 
 import org.kapott.hbci.callback.HBCICallback;
+import org.kapott.hbci.manager.HBCIContext;
 import org.kapott.hbci.manager.HBCIHandler;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.passport.HBCIPassport;
@@ -17,13 +18,17 @@ import org.kapott.hbci.passport.HBCIPassport;
  * <p>Bei Ausfhrung einer solchen {@link Runnable} passiert folgendes:</p>
  *
  * <ol>
- * <li>{@link HBCIUtils.initThread(properties, callback)} wird mit den Parametern aus dem Constructor aufgerufen.</li>
+ * <li>Mit den Parametern aus dem Constructor wird ein {@link HBCIContext} erzeugt und an den aktuellen Thread gebunden.</li>
  * <li>Das Passport wird von der {@link HBCIPassportFactory} abgefragt und darber wird der {@link HBCIHandler} erzeugt.</li>
  * <li>{@link #execute()} wird aufgerufen.</li>
  *     {@link HBCIPassport} und {@link HBCIHandler} sind ber die Variablen <code>passport</code> bzw. <code>handler</code> verfgbar.</li>
- * <li>Abschlieend werden Handler und Passport geschlossen, sowie {@link HBCIUtils#doneThread()} aufgerufen.</li>
+ * <li>Abschlieend werden Handler und Passport geschlossen und der Kontext wieder vom Thread gelst.</li>
  * </ol>
  *
+ * <p>Da der Kontext explizit gebunden wird, statt ihn wie bei {@link HBCIUtils#initThread(Properties, HBCICallback)}
+ * pro ThreadGroup zu registrieren, kann die Runnable in beliebigen Executors (auch mit Virtual Threads)
+ * ausgefhrt werden. Die {@link HBCIThreadFactory} ist dafr nicht mehr ntig.</p>
+ *
  * @author Hendrik Schnepel
  */
 public abstract class HBCIRunnable implements Runnable
@@ -32,6 +37,8 @@ public abstract class HBCIRunnable implements Runnable
     private final Properties properties;
     private final HBCICallback callback;
     private HBCIPassportFactory passportFactory;
+    private final HBCIContext parent;
+    private HBCIContext prev;
 
     protected HBCIPassport passport = null;
     protected HBCIHandler handler = null;
@@ -41,6 +48,9 @@ public abstract class HBCIRunnable implements Runnable
         this.properties = properties;
         this.callback = callback;
         this.passportFactory = passportFactory;
+
+        // Ohne Callback wird - wie bei initThread() - das des erzeugenden Kontextes verwendet
+        this.parent = HBCIContext.current();
     }
 
     @Override
@@ -64,7 +74,10 @@ public abstract class HBCIRunnable implements Runnable
 
     private void init()
     {
-        HBCIUtils.initThread(properties, callback);
+        HBCICallback cb = this.callback;
+        if (cb == null && this.parent != null)
+            cb = this.parent.getCallback();
+        this.prev = new HBCIContext(properties, cb).enter();
     }
 
     private void prepare() throws Exception
@@ -73,7 +86,7 @@ public abstract class HBCIRunnable implements Runnable
         if (passport != null)
         {
             String version = passport.getHBCIVersion();
-            handler = new HBCIHandler((version.length() != 0) ? version : "plus", passport);
+            handler = new HBCIHandler((version.length() != 0) ? version : "plus", passport, HBCIContext.current());
         }
     }
 
@@ -89,7 +102,8 @@ public abstract class HBCIRunnable implements Runnable
         {
             passport.close();
         }
-        HBCIUtils.doneThread();
+        HBCIUtils.flushLog();
+        HBCIContext.leave(this.prev);
     }
 
 }
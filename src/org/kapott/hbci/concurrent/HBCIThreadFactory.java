@@ -9,6 +9,10 @@ import java.util.concurrent.atomic.AtomicLong;
  * Jede Gruppe ist mit {@link ThreadGroup#setDaemon(true)} konfiguriert, so dass mit Ende des einzelnen
  * Threads auch automatisch die Gruppe geschlossen wird.
  *
+ * <p>Die Factory wird nur noch fuer Code benoetigt, der {@link org.kapott.hbci.manager.HBCIUtils#initThread}
+ * verwendet. Mit einem explizit gebundenen {@link org.kapott.hbci.manager.HBCIContext} (z.B. in
+ * {@link HBCIRunnable}) funktioniert jeder Executor.</p>
+ *
  * @see <code>README.MultiThreading</code>
  * @see <a href="https://groups.google.com/forum/#!msg/hbci4java/cOQrbPDC0Jo/rbm6jgMaMfcJ">https://groups.google.com/forum/#!msg/hbci4java/cOQrbPDC0Jo/rbm6jgMaMfcJ</a>
  * @author Hendrik Schnepel
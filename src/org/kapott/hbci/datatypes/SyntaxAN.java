@@ -21,6 +21,8 @@
 
 package org.kapott.hbci.datatypes;
 
+import org.kapott.hbci.protocol.ParseCursor;
+
 // Speicherung im orig. Format
 public class SyntaxAN
      extends SyntaxDE
@@ -94,14 +96,14 @@ public class SyntaxAN
 
     // --------------------------------------------------------------------------------
     
-    private void initData(StringBuffer res,int minsize,int maxsize)
+    private void initData(ParseCursor res,int minsize,int maxsize)
     {
         int startidx = skipPreDelim(res);
         int endidx = findNextDelim(res, startidx);
         String st = res.substring(startidx, endidx);
 
         setContent(unquote(st),minsize,maxsize);
-        res.delete(0,endidx);
+        res.skip(endidx);
     }
 
     /** @internal
@@ -117,12 +119,12 @@ public class SyntaxAN
         @param maxsize The maximum string length for this element (or zero). 
                        See SyntaxDE::setContent(String,int,int,int).
     */
-    public SyntaxAN(StringBuffer res, int minsize, int maxsize)
+    public SyntaxAN(ParseCursor res, int minsize, int maxsize)
     {
         initData(res,minsize,maxsize);
     }
     
-    public void init(StringBuffer res,int minlen,int maxlen)
+    public void init(ParseCursor res,int minlen,int maxlen)
     {
         initData(res,minlen,maxlen);
     }
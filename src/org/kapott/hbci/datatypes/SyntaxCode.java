@@ -21,6 +21,7 @@
 
 package org.kapott.hbci.datatypes;
 
+import org.kapott.hbci.protocol.ParseCursor;
 
 public class SyntaxCode
      extends SyntaxAN
@@ -37,12 +38,12 @@ public class SyntaxCode
 
     // --------------------------------------------------------------------------------
 
-    public SyntaxCode(StringBuffer res,int minsize,int maxsize)
+    public SyntaxCode(ParseCursor res,int minsize,int maxsize)
     {
         super(res,minsize,maxsize);
     }
     
-    public void init(StringBuffer res,int minsize,int maxsize)
+    public void init(ParseCursor res,int minsize,int maxsize)
     {
         super.init(res,minsize,maxsize);
     }
@@ -21,6 +21,8 @@
 
 package org.kapott.hbci.datatypes;
 
+import org.kapott.hbci.protocol.ParseCursor;
+
 /* the representation of the datatype "cur" (currency) */
 public final class SyntaxCur
     extends SyntaxDE
@@ -37,22 +39,22 @@ public final class SyntaxCur
 
     // --------------------------------------------------------------------------------
     
-    private void initData(StringBuffer res, int minsize, int maxsize)
+    private void initData(ParseCursor res, int minsize, int maxsize)
     {
         int startidx = skipPreDelim(res);
         int endidx = findNextDelim(res, startidx);
         String st = res.substring(startidx, endidx);
 
         setContent(st,3,3);
-        res.delete(0, endidx);
+        res.skip(endidx);
     }
 
-    public SyntaxCur(StringBuffer res, int minsize, int maxsize)
+    public SyntaxCur(ParseCursor res, int minsize, int maxsize)
     {
         initData(res,minsize,maxsize);
     }
     
-    public void init(StringBuffer res, int minsize, int maxsize)
+    public void init(ParseCursor res, int minsize, int maxsize)
     {
         initData(res,minsize,maxsize);
     }
@@ -21,6 +21,8 @@
 
 package org.kapott.hbci.datatypes;
 
+import org.kapott.hbci.protocol.ParseCursor;
+
 /* a special case of the "float"-class with maxsize
     to be defaulted to 15 */
 public final class SyntaxWrt
@@ -38,12 +40,12 @@ public final class SyntaxWrt
 
     // --------------------------------------------------------------------------------
 
-    public SyntaxWrt(StringBuffer res, int minsize, int maxsize)
+    public SyntaxWrt(ParseCursor res, int minsize, int maxsize)
     {
         super(res, minsize, 15);
     }
     
-    public void init(StringBuffer res, int minsize, int maxsize)
+    public void init(ParseCursor res, int minsize, int maxsize)
     {
         super.init(res, minsize, 15);
     }
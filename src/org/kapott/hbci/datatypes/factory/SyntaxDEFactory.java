@@ -24,7 +24,7 @@ package org.kapott.hbci.datatypes.factory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.kapott.hbci.datatypes.SyntaxDE;
 import org.kapott.hbci.exceptions.InitializingException;
@@ -33,58 +33,83 @@ import org.kapott.hbci.exceptions.NoSuchSyntaxException;
 import org.kapott.hbci.exceptions.ParseErrorException;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
 
 public class SyntaxDEFactory 
 {
-    private static SyntaxDEFactory instance;
+    private static volatile SyntaxDEFactory instance;
     
-    private Hashtable<String, ObjectFactory> factories;
+    private ConcurrentHashMap<String, ObjectFactory> factories;
+    private ConcurrentHashMap<String, Constructor<? extends SyntaxDE>> constructors;
     
-    public static synchronized SyntaxDEFactory getInstance()
+    public static SyntaxDEFactory getInstance()
     {
         if (instance==null) {
-            instance=new SyntaxDEFactory();
+            synchronized (SyntaxDEFactory.class) {
+                if (instance==null) {
+                    instance=new SyntaxDEFactory();
+                }
+            }
         }
         return instance;
     }
     
     private SyntaxDEFactory()
     {
-        factories=new Hashtable<String, ObjectFactory>();
+        factories=new ConcurrentHashMap<String, ObjectFactory>();
+        constructors=new ConcurrentHashMap<String, Constructor<? extends SyntaxDE>>();
     }
     
-    public SyntaxDE createSyntaxDE(String dataType,String path,String value,int minsize,int maxsize)
+    private ObjectFactory getFactory(String dataType)
     {
-        SyntaxDE ret=null;
-        ObjectFactory factory;
+        ObjectFactory factory=factories.get(dataType);
+        if (factory==null) {
+            factory=new ObjectFactory(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.Syntax","1024")));
+            ObjectFactory existing=factories.putIfAbsent(dataType,factory);
+            if (existing!=null)
+                factory=existing;
+        }
+        return factory;
+    }
+    
+    // Die Konstruktoren werden gecached, damit nicht fuer jedes neue Objekt
+    // erneut Class.forName() und getConstructor() aufgerufen werden muss
+    // (faellt vor allem bei deaktiviertem Object-Pooling ins Gewicht)
+    private Constructor<? extends SyntaxDE> getConstructor(String dataType,String path,Class<?> argType)
+    {
+        String                          key=dataType+"/"+argType.getName();
+        Constructor<? extends SyntaxDE> con=constructors.get(key);
+        if (con!=null)
+            return con;
         
-        synchronized(this) {
-        	factory=factories.get(dataType);
+        // laden der klasse, die die syntax des de enthaelt
+        Class<? extends SyntaxDE> c;
+        try {
+            c=Class.forName("org.kapott.hbci.datatypes.Syntax"+dataType,false,this.getClass().getClassLoader()).asSubclass(SyntaxDE.class);
+        } catch (ClassNotFoundException e) {
+            throw new NoSuchSyntaxException(dataType,path);
+        }
 
-        	if (factory==null) {
-        		factory=new ObjectFactory(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.Syntax","1024")));
-        		factories.put(dataType,factory);
-        	}
+        // holen des constructors fuer diese klasse
+        try {
+            con=c.getConstructor(new Class<?>[]{argType, int.class, int.class});
+        } catch (NoSuchMethodException e) {
+            throw new NoSuchConstructorException(dataType);
         }
         
+        constructors.put(key,con);
+        return con;
+    }
+    
+    public SyntaxDE createSyntaxDE(String dataType,String path,String value,int minsize,int maxsize)
+    {
+        SyntaxDE ret=null;
+        ObjectFactory factory=getFactory(dataType);
+        
         ret=(SyntaxDE)factory.getFreeObject();
         if (ret==null) {
-            // laden der klasse, die die syntax des de enthaelt
-            Class c;
-            try {
-                c=Class.forName("org.kapott.hbci.datatypes.Syntax"+dataType,false,this.getClass().getClassLoader());
-            } catch (ClassNotFoundException e) {
-                throw new NoSuchSyntaxException(dataType,path);
-            }
-
-            // holen des constructors fuer diese klasse
-            Constructor con;
-            try {
-                con=c.getConstructor(new Class[]{String.class, int.class, int.class});
-            } catch (NoSuchMethodException e) {
-                throw new NoSuchConstructorException(dataType);
-            }
+            Constructor<? extends SyntaxDE> con=getConstructor(dataType,path,String.class);
 
             /* anlegen einer neuen instanz der syntaxklasse und initialisieren
              mit dem uebergebenen wert */
@@ -112,37 +137,14 @@ public class SyntaxDEFactory
         return ret;
     }
 
-    public SyntaxDE createSyntaxDE(String dataType,String path,StringBuffer res,int minsize,int maxsize)
+    public SyntaxDE createSyntaxDE(String dataType,String path,ParseCursor res,int minsize,int maxsize)
     {
         SyntaxDE      ret=null;
-        ObjectFactory factory;
-        
-        synchronized(this) {
-        	factory=factories.get(dataType);
-
-        	if (factory==null) {
-        		factory=new ObjectFactory(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.Syntax","1024")));
-        		factories.put(dataType,factory);
-        	}
-        }
+        ObjectFactory factory=getFactory(dataType);
         
         ret=(SyntaxDE)factory.getFreeObject();
         if (ret==null) {
-            // laden der klasse, die die syntax des de enthaelt
-            Class c;
-            try {
-                c=Class.forName("org.kapott.hbci.datatypes.Syntax"+dataType,false,this.getClass().getClassLoader());
-            } catch (ClassNotFoundException e) {
-                throw new NoSuchSyntaxException(dataType,path);
-            }
-
-            // holen des constructors fuer diese klasse
-            Constructor con;
-            try {
-                con=c.getConstructor(new Class[]{StringBuffer.class, int.class, int.class});
-            } catch (NoSuchMethodException e) {
-                throw new NoSuchConstructorException(dataType);
-            }
+            Constructor<? extends SyntaxDE> con=getConstructor(dataType,path,ParseCursor.class);
 
             /* anlegen einer neuen instanz der syntaxklasse und initialisieren
              mit dem uebergebenen wert */
@@ -0,0 +1,312 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.manager;
+
+import java.util.Locale;
+import java.util.Properties;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kapott.hbci.callback.HBCICallback;
+
+/**
+ * Ausfuehrungs-Kontext von <em>HBCI4Java</em>.
+ *
+ * Enthaelt die Kernel-Parameter, das Callback, die Locale und die
+ * lokalisierten Meldungen eines Mandanten. Bisher wurden diese Daten
+ * ausschliesslich pro {@link ThreadGroup} verwaltet (siehe
+ * {@link HBCIUtils#initThread(Properties, HBCICallback)}). Das setzt voraus,
+ * dass jeder Thread eine eigene ThreadGroup hat, was mit Thread-Pools oder
+ * Virtual Threads nicht funktioniert.
+ *
+ * Ein Kontext kann daher explizit an den aktuellen Thread gebunden werden
+ * ({@link #enter()}/{@link #leave(HBCIContext)} bzw. {@link #run(Runnable)}
+ * und {@link #call(Callable)}). Der {@link HBCIHandler} merkt sich beim
+ * Erzeugen den aktuellen Kontext und bindet ihn selbst, waehrend er Jobs
+ * erzeugt oder ausfuehrt. Ebenso binden die von ihm erzeugten Jobs den
+ * Kontext, waehrend ihre Parameter gesetzt werden. Handler und Jobs koennen
+ * also aus beliebigen Threads verwendet werden (siehe
+ * {@link #bind(HBCIContext, Task)}). Ist kein Kontext gebunden, wird wie
+ * bisher der Kontext der ThreadGroup verwendet.
+ *
+ * Der Kontext selbst ist unveraenderlich. Lediglich die Kernel-Parameter
+ * koennen per {@link HBCIUtils#setParam(String, String)} weiterhin geaendert
+ * werden. Aendert sich die Locale (siehe {@link HBCIUtils#initLocale()}), wird
+ * ein neuer Kontext erzeugt.
+ */
+public final class HBCIContext
+{
+    private final static ThreadLocal<HBCIContext> bound = new ThreadLocal<HBCIContext>();
+    private final static ConcurrentHashMap<ThreadGroup,HBCIContext> groups = new ConcurrentHashMap<ThreadGroup,HBCIContext>();
+
+    private final Properties     config;
+    private final HBCICallback   callback;
+    private final Locale         locale;
+    private final ResourceBundle messages;
+
+    // die ausgewerteten log-parameter - werden bei bedarf von HBCIUtils gesetzt
+    volatile HBCIUtils.LogConfig logConfig;
+
+    /**
+     * Erzeugt einen neuen Kontext.
+     * @param props die Kernel-Parameter. Sie werden kopiert.
+     * @param callback das Callback.
+     */
+    public HBCIContext(Properties props,HBCICallback callback)
+    {
+        if (callback==null)
+            throw new NullPointerException("no callback specified");
+
+        this.config=new Properties();
+        if (props!=null)
+            this.config.putAll(props);
+        if (this.config.getProperty("kernel.rewriter")==null)
+            this.config.setProperty("kernel.rewriter","InvalidSegment,WrongStatusSegOrder,WrongSequenceNumbers,MissingMsgRef,HBCIVersion,SigIdLeadingZero,InvalidSuppHBCIVersion,SecTypeTAN,KUmsDelimiters,KUmsEmptyBDateSets");
+
+        this.callback=callback;
+        this.locale=createLocale(this.config);
+        this.messages=ResourceBundle.getBundle("hbci4java-messages",this.locale);
+    }
+
+    /**
+     * Kopie mit anderer Locale.
+     */
+    private HBCIContext(HBCIContext base,Locale locale)
+    {
+        this.config=base.config;
+        this.callback=base.callback;
+        this.locale=locale;
+        this.messages=ResourceBundle.getBundle("hbci4java-messages",locale);
+    }
+
+    /**
+     * Ermittelt die Locale aus den Kernel-Parametern <code>kernel.locale.*</code>.
+     * @param config die Kernel-Parameter.
+     * @return die Locale.
+     */
+    static Locale createLocale(Properties config)
+    {
+        String lang=config.getProperty("kernel.locale.language","").trim();
+        if (lang.length()==0)
+            return Locale.getDefault();
+
+        return new Locale(lang,
+                          config.getProperty("kernel.locale.country","").trim(),
+                          config.getProperty("kernel.locale.variant","").trim());
+    }
+
+    /**
+     * Liefert eine Kopie des Kontextes mit der angegebenen Locale.
+     * @param locale die neue Locale.
+     * @return der neue Kontext.
+     */
+    HBCIContext withLocale(Locale locale)
+    {
+        return new HBCIContext(this,locale);
+    }
+
+    /**
+     * Liefert die Kernel-Parameter.
+     * @return die Kernel-Parameter.
+     */
+    public Properties getParams()
+    {
+        return this.config;
+    }
+
+    /**
+     * Liefert das Callback.
+     * @return das Callback.
+     */
+    public HBCICallback getCallback()
+    {
+        return this.callback;
+    }
+
+    /**
+     * Liefert die Locale.
+     * @return die Locale.
+     */
+    public Locale getLocale()
+    {
+        return this.locale;
+    }
+
+    /**
+     * Liefert die lokalisierten Meldungen.
+     * @return die Meldungen.
+     */
+    public ResourceBundle getMessages()
+    {
+        return this.messages;
+    }
+
+    /**
+     * Liefert den aktuellen Kontext.
+     * Das ist der per {@link #enter()} an den Thread gebundene Kontext oder,
+     * falls keiner gebunden ist, der Kontext der aktuellen ThreadGroup.
+     * @return der aktuelle Kontext oder <code>null</code>, wenn keiner existiert.
+     */
+    public static HBCIContext current()
+    {
+        HBCIContext ctx=bound.get();
+        if (ctx!=null)
+            return ctx;
+        return groups.get(Thread.currentThread().getThreadGroup());
+    }
+
+    /**
+     * Bindet den Kontext an den aktuellen Thread.
+     * Muss immer zusammen mit {@link #leave(HBCIContext)} in einem
+     * finally-Block verwendet werden.
+     * @return der bisher gebundene Kontext oder <code>null</code>.
+     */
+    public HBCIContext enter()
+    {
+        HBCIContext prev=bound.get();
+        bound.set(this);
+        return prev;
+    }
+
+    /**
+     * Stellt den Kontext wieder her, der vor {@link #enter()} gebunden war.
+     * @param prev der Rueckgabewert von {@link #enter()}.
+     */
+    public static void leave(HBCIContext prev)
+    {
+        if (prev!=null)
+            bound.set(prev);
+        else
+            bound.remove();
+    }
+
+    /**
+     * Fuehrt das Runnable mit diesem Kontext aus.
+     * @param r das Runnable.
+     */
+    public void run(Runnable r)
+    {
+        HBCIContext prev=enter();
+        try {
+            r.run();
+        } finally {
+            leave(prev);
+        }
+    }
+
+    /**
+     * Fuehrt das Callable mit diesem Kontext aus.
+     * @param c das Callable.
+     * @return das Ergebnis des Callable.
+     * @throws Exception
+     */
+    public <T> T call(Callable<T> c) throws Exception
+    {
+        HBCIContext prev=enter();
+        try {
+            return c.call();
+        } finally {
+            leave(prev);
+        }
+    }
+
+    /**
+     * Eine Aufgabe fuer {@link HBCIContext#bind(HBCIContext, Task)}.
+     * Im Gegensatz zu {@link Callable} wirft sie keine geprueften Exceptions.
+     * @param <T> der Typ des Ergebnisses.
+     */
+    public static abstract class Task<T>
+    {
+        /**
+         * Fuehrt die Aufgabe aus.
+         * @return das Ergebnis.
+         */
+        public abstract T run();
+    }
+
+    /**
+     * Fuehrt die Aufgabe mit dem angegebenen Kontext aus.
+     * @param ctx der Kontext. Ist er <code>null</code>, wird die Aufgabe
+     * ohne Bindung ausgefuehrt.
+     * @param task die Aufgabe.
+     * @return das Ergebnis der Aufgabe.
+     */
+    public static <T> T bind(HBCIContext ctx,Task<T> task)
+    {
+        if (ctx==null)
+            return task.run();
+
+        HBCIContext prev=ctx.enter();
+        try {
+            return task.run();
+        } finally {
+            leave(prev);
+        }
+    }
+
+    /**
+     * Liefert ein Runnable, das das angegebene Runnable mit diesem Kontext
+     * ausfuehrt. Damit koennen Aufgaben an beliebige Executors uebergeben werden.
+     * @param r das Runnable.
+     * @return das gebundene Runnable.
+     */
+    public Runnable wrap(final Runnable r)
+    {
+        return new Runnable() {
+            public void run()
+            {
+                HBCIContext.this.run(r);
+            }
+        };
+    }
+
+    /**
+     * Liefert den Kontext einer ThreadGroup.
+     * @param group die ThreadGroup.
+     * @return der Kontext oder <code>null</code>.
+     */
+    static HBCIContext get(ThreadGroup group)
+    {
+        return (group!=null)?groups.get(group):null;
+    }
+
+    /**
+     * Registriert den Kontext fuer eine ThreadGroup.
+     * @param group die ThreadGroup.
+     * @param ctx der Kontext oder <code>null</code> zum Entfernen.
+     */
+    static void register(ThreadGroup group,HBCIContext ctx)
+    {
+        if (ctx!=null)
+            groups.put(group,ctx);
+        else
+            groups.remove(group);
+    }
+
+    /**
+     * Ersetzt den aktuellen Kontext durch einen neuen - sowohl die Bindung
+     * an den Thread als auch die Registrierung der ThreadGroup.
+     * @param old der bisherige Kontext.
+     * @param ctx der neue Kontext.
+     */
+    static void replace(HBCIContext old,HBCIContext ctx)
+    {
+        if (bound.get()==old)
+            bound.set(ctx);
+        groups.replace(Thread.currentThread().getThreadGroup(),old,ctx);
+    }
+
+    /**
+     * Entfernt die Kontexte aller ThreadGroups.
+     */
+    static void clear()
+    {
+        groups.clear();
+    }
+}
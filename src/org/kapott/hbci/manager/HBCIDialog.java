@@ -35,6 +35,7 @@ import org.kapott.hbci.passport.HBCIPassportList;
 import org.kapott.hbci.status.HBCIDialogStatus;
 import org.kapott.hbci.status.HBCIInstMessage;
 import org.kapott.hbci.status.HBCIMsgStatus;
+import org.kapott.hbci.tools.ObjectFactory;
 
 /* @brief A class for managing exactly one HBCI-Dialog
 
@@ -151,7 +152,10 @@ public final class HBCIDialog
                         !isAnon && HBCIKernelImpl.NEED_SIG,
                         !isAnon && HBCIKernelImpl.NEED_CRYPT);
 
-                boolean need_restart=mainPassport.postInitResponseHook(ret,isAnon);
+                boolean need_restart;
+                synchronized (mainPassport) {
+                    need_restart=mainPassport.postInitResponseHook(ret,isAnon);
+                }
                 if (need_restart) {
                     HBCIUtils.log("for some reason we have to restart this dialog", HBCIUtils.LOG_INFO);
                     if (restarted) {
@@ -166,14 +170,18 @@ public final class HBCIDialog
             
             Properties result=ret.getData();
             if (ret.isOK()) {
-                HBCIInstitute inst=new HBCIInstitute(kernel,mainPassport,false);
-                inst.updateBPD(result);
-                inst.extractKeys(result);
-    
-                HBCIUser user=new HBCIUser(kernel,mainPassport,false);
-                user.updateUPD(result);
-               
-                mainPassport.saveChanges();
+                // bei parallel gefuehrten dialogen (HBCIHandler.execute(Executor))
+                // aktualisiert immer nur ein dialog die BPD/UPD des passports
+                synchronized (mainPassport) {
+                    HBCIInstitute inst=new HBCIInstitute(kernel,mainPassport,false);
+                    inst.updateBPD(result);
+                    inst.extractKeys(result);
+        
+                    HBCIUser user=new HBCIUser(kernel,mainPassport,false);
+                    user.updateUPD(result);
+                   
+                    mainPassport.saveChanges();
+                }
     
                 msgnum=2;
                 dialogid=result.getProperty("MsgHead.dialogid");
@@ -311,6 +319,8 @@ public final class HBCIDialog
                     if (offset!=0) {           
                         // fr jeden Task die entsprechenden Rckgabedaten-Klassen fllen
                         // in fillOutStore wird auch "executed" fuer den jeweiligen Task auf true gesetzt.
+                        // Der Index ueber die Antwortsegmente wird dabei nur beim ersten Task erzeugt
+                        // und von allen weiteren wiederverwendet (siehe HBCIMsgStatus#getResponseIndex).
                         for (Iterator<HBCIJobImpl> i=tasks.iterator();i.hasNext();) {
                             HBCIJobImpl task=i.next();
                             if (task.needsContinue(loop)) {
@@ -414,6 +424,8 @@ public final class HBCIDialog
             return ret;
         } finally {
             reset();
+            // freie Objekte nicht im (evtl. langlebigen) Thread festhalten
+            ObjectFactory.releaseMagazines();
         }
     }
 
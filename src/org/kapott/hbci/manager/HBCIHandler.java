@@ -23,12 +23,20 @@ package org.kapott.hbci.manager;
 
 import java.lang.reflect.Constructor;
 import java.security.KeyPair;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
 
 import org.kapott.hbci.GV.GVTemplate;
 import org.kapott.hbci.GV.HBCIJob;
@@ -88,10 +96,22 @@ public final class HBCIHandler
     public final static int REFRESH_BPD=1;
     public final static int REFRESH_UPD=2;
     
+    // kernel des dialoges, der im aktuellen thread parallel zu anderen
+    // dialogen gefuehrt wird (siehe execute(Executor))
+    private final static ThreadLocal<HBCIKernelImpl> dialogKernel=new ThreadLocal<HBCIKernelImpl>();
+    
+    // max. anzahl paralleler dialoge pro bank, key ist "<blz>:<limit>"
+    private final static ConcurrentHashMap<String,Semaphore> dialogLimits=new ConcurrentHashMap<String,Semaphore>();
+    
+    private final HBCIContext    context;
     private HBCIKernelImpl       kernel;
     private HBCIPassportInternal passport;
     private Map<String, HBCIDialog>                  dialogs;
     
+    // getSupportedLowlevelJobs() fuer die BPD in supportedJobsBPD
+    private Properties           supportedJobsBPD;
+    private Properties           supportedJobs;
+    
     /** Anlegen eines neuen HBCI-Handler-Objektes. Beim Anlegen wird
         berprft, ob fr die angegebene HBCI-Version eine entsprechende
         Spezifikation verfgbar ist. Auerdem wird das bergebene
@@ -113,6 +133,40 @@ public final class HBCIHandler
                {@link org.kapott.hbci.passport.AbstractHBCIPassport#getInstance()}
                erzeugt worden sein */
     public HBCIHandler(String hbciversion,HBCIPassport passport)
+    {
+        this(hbciversion,passport,HBCIContext.current());
+    }
+
+    /** Anlegen eines neuen HBCI-Handler-Objektes mit explizit angegebenem
+        {@link HBCIContext}. Der Handler bindet den Kontext selbst an den jeweils
+        aktuellen Thread, solange eine seiner Methoden ausgefhrt wird. Er kann daher
+        auch aus Thread-Pools oder Virtual Threads heraus verwendet werden, ohne
+        dass dort {@link HBCIUtils#initThread(Properties, org.kapott.hbci.callback.HBCICallback)}
+        aufgerufen werden muss. Siehe {@link #HBCIHandler(String, HBCIPassport)}.
+        @param hbciversion zu benutzende HBCI-Version.
+        @param passport das zu benutzende Passport.
+        @param context der Kontext. Das Passport muss mit demselben Kontext erzeugt worden sein. */
+    public HBCIHandler(final String hbciversion,final HBCIPassport passport,HBCIContext context)
+    {
+        this.context=context;
+        
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                init(hbciversion,passport);
+                return null;
+            }
+        });
+    }
+    
+    /** Gibt den Kontext zurck, mit dem dieser Handler arbeitet.
+        @return der Kontext oder <code>null</code>, wenn beim Erzeugen des Handlers keiner existierte */
+    public HBCIContext getContext()
+    {
+        return context;
+    }
+    
+    private void init(String hbciversion,HBCIPassport passport)
     {
         try {
             if (passport==null)
@@ -158,51 +212,57 @@ public final class HBCIHandler
      */
     public void updateMetaInfo()
     {
-        Properties bpd = passport.getBPD();
-        if (bpd == null)
-        {
-          HBCIUtils.log("have no bpd, skip fetching of meta info", HBCIUtils.LOG_WARN);
-          return;
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                Properties bpd = passport.getBPD();
+                if (bpd == null)
+                {
+                  HBCIUtils.log("have no bpd, skip fetching of meta info", HBCIUtils.LOG_WARN);
+                  return null;
+                }
 
-        try
-        {
-            final Properties lowlevel = this.getSupportedLowlevelJobs();
+                try
+                {
+                    final Properties lowlevel = HBCIHandler.this.getSupportedLowlevelJobs();
             
-            // SEPA-Infos abrufen
-            if (lowlevel.getProperty("SEPAInfo") != null)
-            {
-                HBCIUtils.log("fetching SEPA information", HBCIUtils.LOG_INFO);
-                HBCIJob sepainfo = this.newJob("SEPAInfo");
-                sepainfo.addToQueue();
-            }
+                    // SEPA-Infos abrufen
+                    if (lowlevel.getProperty("SEPAInfo") != null)
+                    {
+                        HBCIUtils.log("fetching SEPA information", HBCIUtils.LOG_INFO);
+                        HBCIJob sepainfo = HBCIHandler.this.newJob("SEPAInfo");
+                        sepainfo.addToQueue();
+                    }
 
-            // TAN-Medien abrufen - aber nur bei PIN/TAN-Verfahren
-            if (lowlevel.getProperty("TANMediaList") != null && (this.passport instanceof AbstractPinTanPassport))
-            {
-                HBCIUtils.log("fetching TAN media list", HBCIUtils.LOG_INFO);
-                HBCIJob tanMedia = this.newJob("TANMediaList");
-                tanMedia.addToQueue();
-            }
+                    // TAN-Medien abrufen - aber nur bei PIN/TAN-Verfahren
+                    if (lowlevel.getProperty("TANMediaList") != null && (HBCIHandler.this.passport instanceof AbstractPinTanPassport))
+                    {
+                        HBCIUtils.log("fetching TAN media list", HBCIUtils.LOG_INFO);
+                        HBCIJob tanMedia = HBCIHandler.this.newJob("TANMediaList");
+                        tanMedia.addToQueue();
+                    }
 
-            HBCIExecStatus status = this.execute();
-            if (status.isOK())
-            {
-                HBCIUtils.log("successfully fetched meta info", HBCIUtils.LOG_INFO);
-                passport.getUPD().setProperty("_fetchedMetaInfo",new Date().toString());
-                passport.saveChanges();
-            }
-            else
-            {
-                HBCIUtils.log("error while fetching meta info: " + status.toString(), HBCIUtils.LOG_ERR);
+                    HBCIExecStatus status = HBCIHandler.this.execute();
+                    if (status.isOK())
+                    {
+                        HBCIUtils.log("successfully fetched meta info", HBCIUtils.LOG_INFO);
+                        passport.getUPD().setProperty("_fetchedMetaInfo",new Date().toString());
+                        passport.saveChanges();
+                    }
+                    else
+                    {
+                        HBCIUtils.log("error while fetching meta info: " + status.toString(), HBCIUtils.LOG_ERR);
+                    }
+                }
+                catch (Exception e)
+                {
+                    // Wir werfen das nicht als Exception. Unschoen, wenn das nicht klappt.
+                    // Aber kein Grund zur Panik.
+                    HBCIUtils.log(e);
+                }
+                return null;
             }
-        }
-        catch (Exception e)
-        {
-            // Wir werfen das nicht als Exception. Unschoen, wenn das nicht klappt.
-            // Aber kein Grund zur Panik.
-            HBCIUtils.log(e);
-        }
+        });
     }
 
     
@@ -215,49 +275,55 @@ public final class HBCIHandler
      */
     public void updateSEPAInfo()
     {
-        Properties bpd = passport.getBPD();
-        if (bpd == null)
-        {
-          HBCIUtils.log("have no bpd, skipping SEPA information fetching", HBCIUtils.LOG_WARN);
-          return;
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                Properties bpd = passport.getBPD();
+                if (bpd == null)
+                {
+                  HBCIUtils.log("have no bpd, skipping SEPA information fetching", HBCIUtils.LOG_WARN);
+                  return null;
+                }
 
-        // jetzt noch zusaetzliche die SEPA-Informationen abholen
-        try {
-        	if (getSupportedLowlevelJobs().getProperty("SEPAInfo")!=null) {
-        		HBCIUtils.log("trying to fetch SEPA information from institute", HBCIUtils.LOG_INFO);
+                // jetzt noch zusaetzliche die SEPA-Informationen abholen
+                try {
+                	if (getSupportedLowlevelJobs().getProperty("SEPAInfo")!=null) {
+                		HBCIUtils.log("trying to fetch SEPA information from institute", HBCIUtils.LOG_INFO);
         		
-        		// HKSPA wird unterstuetzt
-        		HBCIJob sepainfo=newJob("SEPAInfo");
-        		sepainfo.addToQueue();
-        		HBCIExecStatus status=execute();
-        		if (status.isOK()) {
-        			HBCIUtils.log("successfully fetched information about SEPA accounts from institute", HBCIUtils.LOG_INFO);
+                		// HKSPA wird unterstuetzt
+                		HBCIJob sepainfo=newJob("SEPAInfo");
+                		sepainfo.addToQueue();
+                		HBCIExecStatus status=execute();
+                		if (status.isOK()) {
+                			HBCIUtils.log("successfully fetched information about SEPA accounts from institute", HBCIUtils.LOG_INFO);
         			
-        			passport.getUPD().setProperty("_fetchedSEPA","1");
-        			passport.saveChanges();
-        		} else {
-        			HBCIUtils.log("error while fetching information about SEPA accounts from institute:", HBCIUtils.LOG_ERR);
-        			HBCIUtils.log(status.toString(), HBCIUtils.LOG_ERR);
-        		}
-        		/* beim execute() werden die Job-Result-Objekte automatisch
-        		 * gefuellt. Der GV-Klasse fuer SEPAInfo haengt sich in diese
-        		 * Logik rein, um gleich die UPD mit den SEPA-Konto-Daten
-        		 * zu aktualisieren, so dass an dieser Stelle die UPD um
-        		 * die SEPA-Informationen erweitert wurden. 
-        		 */
-        	} else {
-        		HBCIUtils.log("institute does not support SEPA accounts, so we skip fetching information about SEPA", HBCIUtils.LOG_DEBUG);
-        	}
-        }
-        catch (HBCI_Exception he)
-        {
-          throw he;
-        }
-        catch (Exception e)
-        {
-        	throw new HBCI_Exception(e);
-        }
+                			passport.getUPD().setProperty("_fetchedSEPA","1");
+                			passport.saveChanges();
+                		} else {
+                			HBCIUtils.log("error while fetching information about SEPA accounts from institute:", HBCIUtils.LOG_ERR);
+                			HBCIUtils.log(status.toString(), HBCIUtils.LOG_ERR);
+                		}
+                		/* beim execute() werden die Job-Result-Objekte automatisch
+                		 * gefuellt. Der GV-Klasse fuer SEPAInfo haengt sich in diese
+                		 * Logik rein, um gleich die UPD mit den SEPA-Konto-Daten
+                		 * zu aktualisieren, so dass an dieser Stelle die UPD um
+                		 * die SEPA-Informationen erweitert wurden. 
+                		 */
+                	} else {
+                		HBCIUtils.log("institute does not support SEPA accounts, so we skip fetching information about SEPA", HBCIUtils.LOG_DEBUG);
+                	}
+                }
+                catch (HBCI_Exception he)
+                {
+                  throw he;
+                }
+                catch (Exception e)
+                {
+                	throw new HBCI_Exception(e);
+                }
+                return null;
+            }
+        });
     }
     
     private void registerInstitute()
@@ -289,17 +355,23 @@ public final class HBCIHandler
         nicht mehr benutzt werden.</p> */
     public void close()
     {
-        if (passport!=null) {
-            try {
-                passport.close();
-            } catch (Exception e) {
-                HBCIUtils.log(e);
-            }
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                if (passport!=null) {
+                    try {
+                        passport.close();
+                    } catch (Exception e) {
+                        HBCIUtils.log(e);
+                    }
+                }
         
-        passport=null;
-        kernel=null;
-        dialogs=null;
+                passport=null;
+                kernel=null;
+                dialogs=null;
+                return null;
+            }
+        });
     }
     
     /* gibt die zu verwendende Customer-Id zurck. Wenn keine angegeben wurde
@@ -337,10 +409,16 @@ public final class HBCIHandler
         <code>customerid</code>s siehe {@link org.kapott.hbci.GV.HBCIJob#addToQueue(String)}. </p>
         @param customerId die Kunden-ID, fr deren Dialog eine neue Nachricht
         begonnen werden soll */
-    public void newMsg(String customerId)
+    public void newMsg(final String customerId)
     {
-        HBCIUtils.log("have to create new message for dialog for customer "+customerId,HBCIUtils.LOG_DEBUG);
-        getDialogFor(fixUnspecifiedCustomerId(customerId)).newMsg();
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                HBCIUtils.log("have to create new message for dialog for customer "+customerId,HBCIUtils.LOG_DEBUG);
+                getDialogFor(fixUnspecifiedCustomerId(customerId)).newMsg();
+                return null;
+            }
+        });
     }
     
     /** Erzwingen einer neuen Nachricht im Dialog fr die aktuelle Kunden-ID.
@@ -366,29 +444,34 @@ public final class HBCIHandler
                <code>org.kapott.hbci.GV</code> zu finden.
         @return ein Job-Objekt, fr das die entsprechenden Job-Parameter gesetzt werden mssen und
                 welches anschlieend zum HBCI-Dialog hinzugefgt werden kann. */
-    public HBCIJob newJob(String jobname)
+    public HBCIJob newJob(final String jobname)
     {
-        HBCIUtils.log("creating new job "+jobname,HBCIUtils.LOG_DEBUG);
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIJob>() {
+            public HBCIJob run()
+            {
+                HBCIUtils.log("creating new job "+jobname,HBCIUtils.LOG_DEBUG);
         
-        if (jobname==null || jobname.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+                if (jobname==null || jobname.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
         
-        HBCIJobImpl ret=null;
-        String      className="org.kapott.hbci.GV.GV"+jobname;
+                HBCIJobImpl ret=null;
+                String      className="org.kapott.hbci.GV.GV"+jobname;
 
-        try {
-            Class cl=Class.forName(className);
-            Constructor cons=cl.getConstructor(new Class[] {HBCIHandler.class});
-            ret=(HBCIJobImpl)cons.newInstance(new Object[] {this});
-        } catch (ClassNotFoundException e) {
-            throw new InvalidUserDataException("*** there is no highlevel job named "+jobname+" - need class "+className);
-        } catch (Exception e) {
-            String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_JOB_CREATE_ERR",jobname);
-            if (!HBCIUtilsInternal.ignoreError(null,"client.errors.ignoreCreateJobErrors",msg))
-                throw new HBCI_Exception(msg,e);
-        }
+                try {
+                    Class cl=Class.forName(className);
+                    Constructor cons=cl.getConstructor(new Class[] {HBCIHandler.class});
+                    ret=(HBCIJobImpl)cons.newInstance(new Object[] {HBCIHandler.this});
+                } catch (ClassNotFoundException e) {
+                    throw new InvalidUserDataException("*** there is no highlevel job named "+jobname+" - need class "+className);
+                } catch (Exception e) {
+                    String msg=HBCIUtilsInternal.getLocMsg("EXCMSG_JOB_CREATE_ERR",jobname);
+                    if (!HBCIUtilsInternal.ignoreError(null,"client.errors.ignoreCreateJobErrors",msg))
+                        throw new HBCI_Exception(msg,e);
+                }
         
-        return ret;
+                return ret;
+            }
+        });
     }
     
     /** Erzeugt ein neues Lowlevel-Job-Objekt. Fr eine Beschreibung des Unterschiedes
@@ -396,45 +479,56 @@ public final class HBCIHandler
         @param gvname der Lowlevel-Name des zu erzeugenden Jobs
         @return ein neues Job-Objekt, fr das erst alle bentigten Lowlevel-Parameter gesetzt
                 werden mssen und das anschlieend zum HBCI-Dialog hinzugefgt werden kann */
-    public HBCIJob newLowlevelJob(String gvname)
+    public HBCIJob newLowlevelJob(final String gvname)
     {
-        HBCIUtils.log("generating new lowlevel-job "+gvname,HBCIUtils.LOG_DEBUG);
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIJob>() {
+            public HBCIJob run()
+            {
+                HBCIUtils.log("generating new lowlevel-job "+gvname,HBCIUtils.LOG_DEBUG);
 
-        if (gvname==null || gvname.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+                if (gvname==null || gvname.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
 
-        HBCIJobImpl ret=new GVTemplate(gvname,this);
-        return ret;
+                HBCIJobImpl ret=new GVTemplate(gvname,HBCIHandler.this);
+                return ret;
+            }
+        });
     }
     
     /** Do NOT use! Use {@link org.kapott.hbci.GV.HBCIJob#addToQueue(String)} instead */
-    public void addJobToDialog(String customerId,HBCIJob job)
+    public void addJobToDialog(final String customerid,final HBCIJob job)
     {
-        // TODO: nach dem neuen Objekt-Graph kennt der HBCIJob bereits "seinen"
-        // HBCIHandler, so dass ein HBCIHandler.addJob(job) eigentlich
-        // redundant ist und durch HBCIJob.addToQueue() ersetzt werden
-        // knnte. Deswegen muss es hier einen berprfung geben, ob
-        // (job.getHBCIHandler() === this) ist.
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                // TODO: nach dem neuen Objekt-Graph kennt der HBCIJob bereits "seinen"
+                // HBCIHandler, so dass ein HBCIHandler.addJob(job) eigentlich
+                // redundant ist und durch HBCIJob.addToQueue() ersetzt werden
+                // knnte. Deswegen muss es hier einen berprfung geben, ob
+                // (job.getHBCIHandler() === this) ist.
         
-        customerId=fixUnspecifiedCustomerId(customerId);
+                String customerId=fixUnspecifiedCustomerId(customerid);
         
-        HBCIDialog dialog=null;
-        try {
-            dialog=getDialogFor(customerId);
-            dialog.addTask((HBCIJobImpl)job);
-        } finally {
-            // wenn beim hinzufgen des jobs ein fehler auftrat, und wenn der
-            // entsprechende dialog extra fr diesen fehlerhaften job erzeugt
-            // wurde, dann kann der (leere) dialog auch wieder aus der liste
-            // auszufhrender dialoge entfernt werden
+                HBCIDialog dialog=null;
+                try {
+                    dialog=getDialogFor(customerId);
+                    dialog.addTask((HBCIJobImpl)job);
+                } finally {
+                    // wenn beim hinzufgen des jobs ein fehler auftrat, und wenn der
+                    // entsprechende dialog extra fr diesen fehlerhaften job erzeugt
+                    // wurde, dann kann der (leere) dialog auch wieder aus der liste
+                    // auszufhrender dialoge entfernt werden
             
-            if (dialog!=null) {
-                if (dialog.getAllTasks().size()==0) {
-                    HBCIUtils.log("removing empty dialog for customerid "+customerId+" from list of dialogs",HBCIUtils.LOG_DEBUG);
-                    dialogs.remove(customerId);
+                    if (dialog!=null) {
+                        if (dialog.getAllTasks().size()==0) {
+                            HBCIUtils.log("removing empty dialog for customerid "+customerId+" from list of dialogs",HBCIUtils.LOG_DEBUG);
+                            dialogs.remove(customerId);
+                        }
+                    }
                 }
+                return null;
             }
-        }
+        });
     }
 
     /** @deprecated use {@link org.kapott.hbci.GV.HBCIJob#addToQueue(String) HBCIJob.addToQueue(String)} instead */
@@ -458,13 +552,19 @@ public final class HBCIHandler
      * <p>Ist die angegebene <code>customerId=null</code>, so wird der Dialog
      * fr die aktuell im Passport gespeicherte Customer-ID erzeugt.</p>
      * 
-     * @param customerId die Kunden-ID, fr die der Dialog erzeugt werden soll.
+     * @param customerid die Kunden-ID, fr die der Dialog erzeugt werden soll.
      */
-    public void createEmptyDialog(String customerId)
+    public void createEmptyDialog(final String customerid)
     {
-        customerId=fixUnspecifiedCustomerId(customerId);
-        HBCIUtils.log("creating empty dialog for customerid "+customerId,HBCIUtils.LOG_DEBUG);
-        getDialogFor(customerId);
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                String customerId=fixUnspecifiedCustomerId(customerid);
+                HBCIUtils.log("creating empty dialog for customerid "+customerId,HBCIUtils.LOG_DEBUG);
+                getDialogFor(customerId);
+                return null;
+            }
+        });
     }
     
     /** Entspricht {@link #createEmptyDialog(String) createEmptyDialog(null)} */
@@ -501,36 +601,192 @@ public final class HBCIHandler
                 der Dialoge festgestellt werden kann. */
     public HBCIExecStatus execute()
     {
-        String origCustomerId=passport.getCustomerId();
-        try {
-            HBCIExecStatus ret=new HBCIExecStatus();
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIExecStatus>() {
+            public HBCIExecStatus run()
+            {
+                String origCustomerId=passport.getCustomerId();
+                try {
+                    HBCIExecStatus ret=new HBCIExecStatus();
             
-            while (!dialogs.isEmpty()) {
-                String customerid=dialogs.keySet().iterator().next();
-                HBCIUtils.log("executing dialog for customerid "+customerid,HBCIUtils.LOG_DEBUG);
-                passport.setCustomerId(customerid);
+                    while (!dialogs.isEmpty()) {
+                        String customerid=dialogs.keySet().iterator().next();
+                        HBCIUtils.log("executing dialog for customerid "+customerid,HBCIUtils.LOG_DEBUG);
+                        passport.setCustomerId(customerid);
                 
+                        try {
+                            HBCIDialog dialog=getDialogFor(customerid);
+                            HBCIDialogStatus dialogStatus=dialog.doIt();
+                            ret.addDialogStatus(customerid,dialogStatus);
+                        } catch (Exception e) {
+                            ret.addException(customerid,e);
+                        } finally {
+                            dialogs.remove(customerid);
+                        }
+                    }
+                    return ret;
+                } finally {
+                    reset();
+                    passport.setCustomerId(origCustomerId);
+                    try {
+                        passport.closeComm();
+                    } catch (Exception e) {
+                        HBCIUtils.log("nested exception while closing passport: ", HBCIUtils.LOG_ERR);
+                        HBCIUtils.log(e);
+                    }
+                }
+            }
+        });
+    }
+    
+    /** <p>Entspricht {@link #execute()}, allerdings werden die Dialoge fr
+        verschiedene Kunden-IDs parallel mit Hilfe des angegebenen Executors
+        gefhrt. Bei Passports mit vielen Kunden-IDs ist die Laufzeit damit
+        nicht mehr die Summe aller Dialoge.</p>
+        <p>Jeder Dialog erhlt einen eigenen Message-Generator und eine eigene
+        Verbindung zum HBCI-Server. Signatur-ID, System-ID sowie BPD und UPD
+        werden weiterhin im gemeinsamen Passport gefhrt, Zugriffe darauf sind
+        synchronisiert. Die Signatur-IDs werden dabei zwar eindeutig vergeben,
+        die Nachrichten knnen die Bank aber in einer anderen Reihenfolge
+        erreichen. Die Challenge und die External-ID des Zwei-Schritt-TAN-Verfahrens
+        werden dagegen pro Dialog gespeichert, beim TAN-Callback liefert
+        <code>getPersistentData("externalid")</code> also die des jeweiligen Dialoges.
+        Die Callbacks knnen daher aus mehreren Threads
+        gleichzeitig aufgerufen werden.</p>
+        <p>Die Anzahl der gleichzeitig gefhrten Dialoge mit einer Bank wird
+        durch den Kernel-Parameter <code>client.connection.maxParallelDialogs</code>
+        (bzw. <code>client.connection.maxParallelDialogs.&lt;blz&gt;</code>) begrenzt -
+        auch ber mehrere Handler hinweg, sofern diese denselben Wert verwenden.
+        Handler mit unterschiedlichen Werten fr dieselbe Bank werden getrennt
+        begrenzt. Der default-Wert betrgt 4.</p>
+        <p>Parallel gefhrt werden nur Dialoge von PIN/TAN-Passports. Bei RDH- und
+        DDV-Passports prft die Bank, dass die Signatur-IDs in aufsteigender Reihenfolge
+        eingehen, bei Chipkarten ist zudem nur ein Zugriff gleichzeitig mglich. Die
+        Dialoge werden dort daher wie bei {@link #execute()} nacheinander gefhrt.</p>
+        @param executor der Executor, in dem die Dialoge ausgefhrt werden.
+        @return ein Status-Objekt, anhand dessen der Erfolg oder das Fehlschlagen
+                der Dialoge festgestellt werden kann. */
+    public HBCIExecStatus execute(final Executor executor)
+    {
+        if (executor==null || !(passport instanceof AbstractPinTanPassport))
+            return execute();
+        
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIExecStatus>() {
+            public HBCIExecStatus run()
+            {
                 try {
-                    HBCIDialog dialog=getDialogFor(customerid);
-                    HBCIDialogStatus dialogStatus=dialog.doIt();
-                    ret.addDialogStatus(customerid,dialogStatus);
-                } catch (Exception e) {
-                    ret.addException(customerid,e);
+                    HBCIExecStatus ret=new HBCIExecStatus();
+                    Semaphore      limit=getDialogLimit();
+            
+                    // dialoge, die waehrend der ausfuehrung neu hinzukommen, werden
+                    // in der naechsten runde ausgefuehrt
+                    while (!dialogs.isEmpty()) {
+                        Map<String,FutureTask<HBCIDialogStatus>> tasks=new LinkedHashMap<String,FutureTask<HBCIDialogStatus>>();
+                
+                        for (String customerid:new ArrayList<String>(dialogs.keySet())) {
+                            HBCIDialog dialog=dialogs.remove(customerid);
+                            FutureTask<HBCIDialogStatus> task=new FutureTask<HBCIDialogStatus>(createDialogTask(customerid,dialog,limit));
+                    
+                            // das limit wird schon hier belegt, damit keine threads
+                            // des executors mit warten blockiert werden
+                            try {
+                                limit.acquire();
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                ret.addException(customerid,e);
+                                continue;
+                            }
+                    
+                            try {
+                                HBCIUtils.log("submitting dialog for customerid "+customerid,HBCIUtils.LOG_DEBUG);
+                                executor.execute(task);
+                                tasks.put(customerid,task);
+                            } catch (RuntimeException e) {
+                                limit.release();
+                                ret.addException(customerid,e);
+                            }
+                        }
+                
+                        // ergebnisse in der reihenfolge der kunden-ids einsammeln
+                        for (Map.Entry<String,FutureTask<HBCIDialogStatus>> entry:tasks.entrySet()) {
+                            String customerid=entry.getKey();
+                            try {
+                                ret.addDialogStatus(customerid,entry.getValue().get());
+                            } catch (ExecutionException e) {
+                                Throwable cause=e.getCause();
+                                ret.addException(customerid,(cause instanceof Exception)?(Exception)cause:e);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                ret.addException(customerid,e);
+                            }
+                        }
+                    }
+                    return ret;
                 } finally {
-                    dialogs.remove(customerid);
+                    reset();
+                    try {
+                        passport.closeComm();
+                    } catch (Exception e) {
+                        HBCIUtils.log("nested exception while closing passport: ", HBCIUtils.LOG_ERR);
+                        HBCIUtils.log(e);
+                    }
                 }
             }
-            return ret;
-        } finally {
-            reset();
-            passport.setCustomerId(origCustomerId);
-            try {
-                passport.closeComm();
-            } catch (Exception e) {
-                HBCIUtils.log("nested exception while closing passport: ", HBCIUtils.LOG_ERR);
-                HBCIUtils.log(e);
+        });
+    }
+    
+    /* erzeugt die aufgabe, die einen dialog in einem thread des executors fuehrt */
+    private Callable<HBCIDialogStatus> createDialogTask(final String customerid,final HBCIDialog dialog,final Semaphore limit)
+    {
+        return new Callable<HBCIDialogStatus>() {
+            public HBCIDialogStatus call()
+            {
+                try {
+                    return HBCIContext.bind(context,new HBCIContext.Task<HBCIDialogStatus>() {
+                        public HBCIDialogStatus run()
+                        {
+                            HBCIUtils.log("executing dialog for customerid "+customerid+" in parallel",HBCIUtils.LOG_DEBUG);
+                            
+                            dialogKernel.set(new HBCIKernelImpl(HBCIHandler.this,kernel.getHBCIVersion()));
+                            passport.beginDialogScope(customerid);
+                            try {
+                                return dialog.doIt();
+                            } finally {
+                                try {
+                                    passport.endDialogScope();
+                                } catch (Exception e) {
+                                    HBCIUtils.log("nested exception while closing connection: ", HBCIUtils.LOG_ERR);
+                                    HBCIUtils.log(e);
+                                }
+                                dialogKernel.remove();
+                            }
+                        }
+                    });
+                } finally {
+                    limit.release();
+                }
             }
+        };
+    }
+    
+    /* liefert die begrenzung der parallelen dialoge fuer die bank des passports.
+     * die begrenzung wird ueber bank und limit identifiziert, damit ein handler
+     * mit anderem limit nicht die begrenzung eines anderen handlers erbt */
+    private Semaphore getDialogLimit()
+    {
+        String blz=passport.getBLZ();
+        String max=HBCIUtils.getParam("client.connection.maxParallelDialogs."+blz,
+                                      HBCIUtils.getParam("client.connection.maxParallelDialogs","4"));
+        int    permits=Math.max(1,Integer.parseInt(max.trim()));
+        String key=blz+":"+permits;
+        
+        Semaphore limit=dialogLimits.get(key);
+        if (limit==null) {
+            Semaphore s=new Semaphore(permits,true);
+            limit=dialogLimits.putIfAbsent(key,s);
+            if (limit==null)
+                limit=s;
         }
+        return limit;
     }
     
     /** <p>Entspricht {@link #execute()}, allerdings knnen Callbacks hier auch synchron
@@ -547,63 +803,72 @@ public final class HBCIHandler
      * <p>Mehr Informationen dazu in der Datei <code>README.ThreadedCallbacks</code>.</p>*/
     public HBCIExecThreadedStatus executeThreaded()
     {
-        HBCIUtils.log("main thread: starting new threaded execute",HBCIUtils.LOG_DEBUG);
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIExecThreadedStatus>() {
+            public HBCIExecThreadedStatus run()
+            {
+                HBCIUtils.log("main thread: starting new threaded execute",HBCIUtils.LOG_DEBUG);
         
-        final ThreadSyncer sync_main=new ThreadSyncer("sync_main");
-        passport.setPersistentData("thread_syncer_main",sync_main);
+                final ThreadSyncer sync_main=new ThreadSyncer("sync_main");
+                passport.setPersistentData("thread_syncer_main",sync_main);
         
-        new Thread() { public void run() {
-            try {
-                HBCIUtils.log("hbci thread: starting execute()",HBCIUtils.LOG_DEBUG);
+                new Thread() { public void run() {
+                    // der hbci-thread erbt zwar die threadgroup, nicht aber einen explizit
+                    // gebundenen kontext. die bindung endet mit dem thread
+                    if (context!=null)
+                        context.enter();
+                    try {
+                        HBCIUtils.log("hbci thread: starting execute()",HBCIUtils.LOG_DEBUG);
                 
-                HBCIExecStatus execStatus=execute();
-                sync_main.setData("execStatus",execStatus);
-            } catch (Exception e) {
-                // im fehlerfall (der eigentlich nie auftreten sollte, weil execute()
-                // selbst alle exceptions catcht) muss sicherheitshalber ein noch
-                // im sync-objekt enthaltenes altes execStatus-objekt entfernt
-                // werden
-                sync_main.setData("execStatus",null);
-            } finally {
-                // die existenz von "thread_syncer" im passport entscheidet
-                // in CallbackThreaded darber, ob der threaded callback mechanimus
-                // verwendet werden soll oder das standard-callback.
-                // der threaded mechanismus wird allerdings *nur* fr hbci.execute()
-                // verwendet, deshalb muss das thread_syncer-Objekt wieder entfernt
-                // werden, wenn hbci.execute() beendet ist.
-                passport.setPersistentData("thread_syncer_main",null);
+                        HBCIExecStatus execStatus=execute();
+                        sync_main.setData("execStatus",execStatus);
+                    } catch (Exception e) {
+                        // im fehlerfall (der eigentlich nie auftreten sollte, weil execute()
+                        // selbst alle exceptions catcht) muss sicherheitshalber ein noch
+                        // im sync-objekt enthaltenes altes execStatus-objekt entfernt
+                        // werden
+                        sync_main.setData("execStatus",null);
+                    } finally {
+                        // die existenz von "thread_syncer" im passport entscheidet
+                        // in CallbackThreaded darber, ob der threaded callback mechanimus
+                        // verwendet werden soll oder das standard-callback.
+                        // der threaded mechanismus wird allerdings *nur* fr hbci.execute()
+                        // verwendet, deshalb muss das thread_syncer-Objekt wieder entfernt
+                        // werden, wenn hbci.execute() beendet ist.
+                        passport.setPersistentData("thread_syncer_main",null);
                 
-                // egal, wie der hbci-thread beendet wird (fehlerhaft oder nicht),
-                // am ende muss auf jeden fall ein evtl. noch wartender main-thread
-                // wieder aufgeweckt werden (das kann entweder executeThreaded()
-                // oder continueThreaded() sein)
-                HBCIUtils.log("hbci thread: awaking main thread with hbci result data",HBCIUtils.LOG_DEBUG);
-                sync_main.setData("callbackData",null);
-                sync_main.stopWaiting();
+                        // egal, wie der hbci-thread beendet wird (fehlerhaft oder nicht),
+                        // am ende muss auf jeden fall ein evtl. noch wartender main-thread
+                        // wieder aufgeweckt werden (das kann entweder executeThreaded()
+                        // oder continueThreaded() sein)
+                        HBCIUtils.log("hbci thread: awaking main thread with hbci result data",HBCIUtils.LOG_DEBUG);
+                        sync_main.setData("callbackData",null);
+                        sync_main.stopWaiting();
                 
-                HBCIUtils.log("hbci thread: thread finished",HBCIUtils.LOG_DEBUG);
-            }
-        }}.start();
+                        HBCIUtils.log("hbci thread: thread finished",HBCIUtils.LOG_DEBUG);
+                    }
+                }}.start();
         
-        // fr dieses wait() brauche ich kein timeout, weil der hbci-thread auf
-        // jeden fall ein notify() macht, sobald er beendet wird oder sobald der
-        // hbci-thread callback-daten braucht. die sichere beendigung des 
-        // hbci-threads wiederum wird dadurch abgesichert, dass die waits() aus
-        // dem hbci-thread (warten auf callback-daten) mit timeouts versehen sind
-        HBCIUtils.log("main thread: waiting for hbci result or callback data from hbci thread",HBCIUtils.LOG_DEBUG);
-        sync_main.startWaiting(Integer.parseInt(HBCIUtils.getParam("kernel.threaded.maxwaittime","300")), "no response from hbci thread - timeout");
+                // fr dieses wait() brauche ich kein timeout, weil der hbci-thread auf
+                // jeden fall ein notify() macht, sobald er beendet wird oder sobald der
+                // hbci-thread callback-daten braucht. die sichere beendigung des 
+                // hbci-threads wiederum wird dadurch abgesichert, dass die waits() aus
+                // dem hbci-thread (warten auf callback-daten) mit timeouts versehen sind
+                HBCIUtils.log("main thread: waiting for hbci result or callback data from hbci thread",HBCIUtils.LOG_DEBUG);
+                sync_main.startWaiting(Integer.parseInt(HBCIUtils.getParam("kernel.threaded.maxwaittime","300")), "no response from hbci thread - timeout");
         
-        HBCIExecThreadedStatus threadStatus=new HBCIExecThreadedStatus();
-        threadStatus.setCallbackData((Hashtable<String, Object>)sync_main.getData("callbackData"));
-        threadStatus.setExecStatus((HBCIExecStatus)sync_main.getData("execStatus"));
+                HBCIExecThreadedStatus threadStatus=new HBCIExecThreadedStatus();
+                threadStatus.setCallbackData((Hashtable<String, Object>)sync_main.getData("callbackData"));
+                threadStatus.setExecStatus((HBCIExecStatus)sync_main.getData("execStatus"));
         
-        HBCIUtils.log(
-            "main thread: received answer from hbci thread, returning status "+
-            "(isCallback="+threadStatus.isCallback()+
-            ", isFinished="+threadStatus.isFinished()+")",
-            HBCIUtils.LOG_DEBUG);
+                HBCIUtils.log(
+                    "main thread: received answer from hbci thread, returning status "+
+                    "(isCallback="+threadStatus.isCallback()+
+                    ", isFinished="+threadStatus.isFinished()+")",
+                    HBCIUtils.LOG_DEBUG);
 
-        return threadStatus;
+                return threadStatus;
+            }
+        });
     }
     
     /** <p>Setzt bei Verwendung des threaded-callback-Mechanismus einen noch 
@@ -628,42 +893,47 @@ public final class HBCIHandler
      * und zwar so lange, bis der HBCI-Dialog tatschlich beendet ist.</p>
      * <p>Mehr Informationen zu threaded callbacks in der Datei
      * <code>README.ThreadedCallbacks</code>. */
-    public HBCIExecThreadedStatus continueThreaded(String retData)
+    public HBCIExecThreadedStatus continueThreaded(final String retData)
     {
-        HBCIUtils.log("main thread: continuing hbci dialog with callback retData",HBCIUtils.LOG_DEBUG);
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIExecThreadedStatus>() {
+            public HBCIExecThreadedStatus run()
+            {
+                HBCIUtils.log("main thread: continuing hbci dialog with callback retData",HBCIUtils.LOG_DEBUG);
         
-        // diese sync-objekte gibt es immer (bei richtiger verwendung des API),
-        // weil continueThreaded() nur nach einem initialen executeThreaded()
-        // ausgefhrt werden darf und auch nur dann, wenn bei beiden methoden
-        // noch kein endgltiges hbci-exec-status zurckgegeben wurde
+                // diese sync-objekte gibt es immer (bei richtiger verwendung des API),
+                // weil continueThreaded() nur nach einem initialen executeThreaded()
+                // ausgefhrt werden darf und auch nur dann, wenn bei beiden methoden
+                // noch kein endgltiges hbci-exec-status zurckgegeben wurde
 
-        // damit wird das wait() im threaded callback wieder aufgeweckt
-        ThreadSyncer sync_hbci=(ThreadSyncer)passport.getPersistentData("thread_syncer_hbci");
-        sync_hbci.setData("retData",retData);
+                // damit wird das wait() im threaded callback wieder aufgeweckt
+                ThreadSyncer sync_hbci=(ThreadSyncer)passport.getPersistentData("thread_syncer_hbci");
+                sync_hbci.setData("retData",retData);
         
-        HBCIUtils.log("main thread: awaking hbci thread with callback data from application",HBCIUtils.LOG_DEBUG);
-        sync_hbci.stopWaiting();
+                HBCIUtils.log("main thread: awaking hbci thread with callback data from application",HBCIUtils.LOG_DEBUG);
+                sync_hbci.stopWaiting();
         
-        // fr dieses wait() brauche ich kein timeout, weil der hbci-thread auf
-        // jeden fall ein notify() macht, sobald er beendet wird oder sobald der
-        // hbci-thread callback-daten braucht. die sichere beendigung des 
-        // hbci-threads wiederum wird dadurch abgesichert, dass die waits() aus
-        // dem hbci-thread (warten auf callback-daten) mit timeouts versehen sind
-        ThreadSyncer sync_main=(ThreadSyncer)passport.getPersistentData("thread_syncer_main");
-        HBCIUtils.log("main thread: waiting for hbci result or new callback data from hbci thread",HBCIUtils.LOG_DEBUG);
-        sync_main.startWaiting(Integer.parseInt(HBCIUtils.getParam("kernel.threaded.maxwaittime","300")), "no response from hbci thread - timeout");
+                // fr dieses wait() brauche ich kein timeout, weil der hbci-thread auf
+                // jeden fall ein notify() macht, sobald er beendet wird oder sobald der
+                // hbci-thread callback-daten braucht. die sichere beendigung des 
+                // hbci-threads wiederum wird dadurch abgesichert, dass die waits() aus
+                // dem hbci-thread (warten auf callback-daten) mit timeouts versehen sind
+                ThreadSyncer sync_main=(ThreadSyncer)passport.getPersistentData("thread_syncer_main");
+                HBCIUtils.log("main thread: waiting for hbci result or new callback data from hbci thread",HBCIUtils.LOG_DEBUG);
+                sync_main.startWaiting(Integer.parseInt(HBCIUtils.getParam("kernel.threaded.maxwaittime","300")), "no response from hbci thread - timeout");
         
-        HBCIExecThreadedStatus threadStatus=new HBCIExecThreadedStatus();
-        threadStatus.setCallbackData((Hashtable<String, Object>)sync_main.getData("callbackData"));
-        threadStatus.setExecStatus((HBCIExecStatus)sync_main.getData("execStatus"));
+                HBCIExecThreadedStatus threadStatus=new HBCIExecThreadedStatus();
+                threadStatus.setCallbackData((Hashtable<String, Object>)sync_main.getData("callbackData"));
+                threadStatus.setExecStatus((HBCIExecStatus)sync_main.getData("execStatus"));
         
-        HBCIUtils.log(
-            "main thread: received answer from hbci thread, returning status "+
-            "(isCallback="+threadStatus.isCallback()+
-            ", isFinished="+threadStatus.isFinished()+")",
-            HBCIUtils.LOG_DEBUG);
+                HBCIUtils.log(
+                    "main thread: received answer from hbci thread, returning status "+
+                    "(isCallback="+threadStatus.isCallback()+
+                    ", isFinished="+threadStatus.isFinished()+")",
+                    HBCIUtils.LOG_DEBUG);
 
-        return threadStatus;
+                return threadStatus;
+            }
+        });
     }
     
     /** <p>Sperren der Nutzerschlssel. Das ist nur dann sinnvoll, wenn zwei Bedinungen erfllt sind:</p>
@@ -697,12 +967,18 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         erzeugt werden, ein neuer INI-Brief generiert und an die Bank versandt werden.</p>*/
     public void lockKeys()
     {
-        // TODO: die methode hat hier eigentlich nichts zu suchen
-        try {
-            new HBCIUser(kernel,passport,false).lockKeys();
-        } catch (Exception ex) {
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_LOCKFAILED"),ex);
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                // TODO: die methode hat hier eigentlich nichts zu suchen
+                try {
+                    new HBCIUser(kernel,passport,false).lockKeys();
+                } catch (Exception ex) {
+                    throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_LOCKFAILED"),ex);
+                }
+                return null;
+            }
+        });
     }
     
     /** <p>Erzeugen neuer kryptografischer Schlssel fr den Nutzer.
@@ -723,12 +999,18 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         weggeworfen wurden.</p> */
     public void newKeys()
     {
-        // TODO: diese methode verschieben
-        try {
-            new HBCIUser(kernel,passport,false).generateNewKeys();
-        } catch (Exception ex) {
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_GENKEYS_ERR"),ex);
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                // TODO: diese methode verschieben
+                try {
+                    new HBCIUser(kernel,passport,false).generateNewKeys();
+                } catch (Exception ex) {
+                    throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_GENKEYS_ERR"),ex);
+                }
+                return null;
+            }
+        });
     }
     
     /** <p>Setzen der Nutzerschlssel auf vorgegebene Daten.
@@ -742,14 +1024,20 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         eingegangener Fehlermeldung gespeichert werden, dann wren aber die alten (noch gltigen)
         Schlssel berschrieben.</p> */
     // TODO: hier digisig keys mit untersttzen
-    public void setKeys(KeyPair sigKey,KeyPair encKey)
+    public void setKeys(final KeyPair sigKey,final KeyPair encKey)
     {
-        // TODO: diese methode verschieben
-        try {
-            new HBCIUser(kernel,passport,false).manuallySetNewKeys(sigKey,encKey);
-        } catch (Exception ex) {
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_SETKEYS_ERR"),ex);
-        }
+        HBCIContext.bind(context,new HBCIContext.Task<Void>() {
+            public Void run()
+            {
+                // TODO: diese methode verschieben
+                try {
+                    new HBCIUser(kernel,passport,false).manuallySetNewKeys(sigKey,encKey);
+                } catch (Exception ex) {
+                    throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_SETKEYS_ERR"),ex);
+                }
+                return null;
+            }
+        });
     }
     
     /** Key-Management: berprfen einer TAN (nur fr PinTan-Passports!). Durch 
@@ -763,14 +1051,19 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
      *                   (<code>null</code> fr aktuelle Kunden-ID)
      * @return ein Status-Objekt, anhand dessen der Erfolg oder das Fehlschlagen
      *         der TAN-berprfung festgestellt werden kann. */
-    public HBCIExecStatus verifyTAN(String customerId)
+    public HBCIExecStatus verifyTAN(final String customerId)
     {
-        // TODO diese methode ist eine key-management-methode, muss also spter
-        // ins passport-objekt verschoben werden
-        reset();
-        createEmptyDialog(customerId);
-        ((AbstractPinTanPassport)passport).activateTANVerifyMode();
-        return execute();
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIExecStatus>() {
+            public HBCIExecStatus run()
+            {
+                // TODO diese methode ist eine key-management-methode, muss also spter
+                // ins passport-objekt verschoben werden
+                reset();
+                createEmptyDialog(customerId);
+                ((AbstractPinTanPassport)passport).activateTANVerifyMode();
+                return execute();
+            }
+        });
     }
     
     /** Entspricht {@link #verifyTAN(String) verifyTAN(null)}. */
@@ -803,12 +1096,19 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
      * @return HBCI-Kernel-Objekt, mit dem der HBCI-Handler arbeitet */
     public HBCIKernel getKernel()
     {
-        return kernel;
+        return getCurrentKernel();
     }
     
     public MsgGen getMsgGen()
     {
-        return kernel.getMsgGen();
+        return getCurrentKernel().getMsgGen();
+    }
+    
+    /* bei parallel gefuehrten dialogen hat jeder dialog einen eigenen kernel */
+    private HBCIKernelImpl getCurrentKernel()
+    {
+        HBCIKernelImpl k=dialogKernel.get();
+        return (k!=null && k.getParentHandlerData()==this)?k:kernel;
     }
     
     /** Gibt die HBCI-Versionsnummer zurck, fr die der aktuelle HBCIHandler
@@ -842,20 +1142,35 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
      * verwendeten GV-Versionsnummer.*/
     public Properties getSupportedLowlevelJobs()
     {
-        Hashtable<String, List<String>>  allValidJobNames=kernel.getAllLowlevelJobs();
-        Properties paramSegments=passport.getParamSegmentNames();
-        Properties result=new Properties();
-        
-        for (Enumeration e=paramSegments.propertyNames();e.hasMoreElements();) {
-            String segName=(String)e.nextElement();
+        return HBCIContext.bind(context,new HBCIContext.Task<Properties>() {
+            public Properties run()
+            {
+                // die liste haengt nur von den BPD ab - beim setzen neuer BPD
+                // aendert sich die referenz
+                Properties bpd=passport.getBPD();
+                if (supportedJobs==null || supportedJobsBPD!=bpd) {
+                    Hashtable<String, List<String>>  allValidJobNames=kernel.getAllLowlevelJobs();
+                    Properties paramSegments=passport.getParamSegmentNames();
+                    Properties jobs=new Properties();
             
-            // berprfen, ob parameter-segment tatschlich zu einem GV gehrt
-            // gilt z.b. fr "PinTan" nicht
-            if (allValidJobNames.containsKey(segName))
-                result.put(segName,paramSegments.getProperty(segName));
-        }
+                    for (Enumeration e=paramSegments.propertyNames();e.hasMoreElements();) {
+                        String segName=(String)e.nextElement();
+                
+                        // berprfen, ob parameter-segment tatschlich zu einem GV gehrt
+                        // gilt z.b. fr "PinTan" nicht
+                        if (allValidJobNames.containsKey(segName))
+                            jobs.put(segName,paramSegments.getProperty(segName));
+                    }
+            
+                    supportedJobs=jobs;
+                    supportedJobsBPD=bpd;
+                }
         
-        return result;
+                Properties result=new Properties();
+                result.putAll(supportedJobs);
+                return result;
+            }
+        });
     }
     
     /** <p>Gibt alle Parameter zurck, die fr einen Lowlevel-Job gesetzt
@@ -888,16 +1203,21 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         @return eine Liste aller Parameter-Bezeichnungen, die in der Methode
         {@link org.kapott.hbci.GV.HBCIJob#setParam(String,String)}
         benutzt werden knnen */
-    public List<String> getLowlevelJobParameterNames(String gvname)
+    public List<String> getLowlevelJobParameterNames(final String gvname)
     {
-        if (gvname==null || gvname.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+        return HBCIContext.bind(context,new HBCIContext.Task<List<String>>() {
+            public List<String> run()
+            {
+                if (gvname==null || gvname.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
         
-        String version=getSupportedLowlevelJobs().getProperty(gvname);
-        if (version==null)
-            throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
+                String version=getSupportedLowlevelJobs().getProperty(gvname);
+                if (version==null)
+                    throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
         
-        return kernel.getLowlevelJobParameterNames(gvname,version);
+                return kernel.getLowlevelJobParameterNames(gvname,version);
+            }
+        });
     }
     
     /** <p>Gibt eine Liste mit Strings zurck, welche Bezeichnungen fr die einzelnen Rckgabedaten
@@ -931,16 +1251,21 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         @param gvname Lowlevelname des Geschftsvorfalls, fr den die Namen der Rckgabedaten bentigt werden.
         @return Liste aller mglichen Property-Keys, fr die im Result-Objekt eines Lowlevel-Jobs
         Werte vorhanden sein knnten */
-    public List<String> getLowlevelJobResultNames(String gvname)
+    public List<String> getLowlevelJobResultNames(final String gvname)
     {
-        if (gvname==null || gvname.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+        return HBCIContext.bind(context,new HBCIContext.Task<List<String>>() {
+            public List<String> run()
+            {
+                if (gvname==null || gvname.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
         
-        String version=getSupportedLowlevelJobs().getProperty(gvname);
-        if (version==null)
-            throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
+                String version=getSupportedLowlevelJobs().getProperty(gvname);
+                if (version==null)
+                    throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
         
-        return kernel.getLowlevelJobResultNames(gvname,version);
+                return kernel.getLowlevelJobResultNames(gvname,version);
+            }
+        });
     }
     
     /** <p>Gibt fr einen Job alle bekannten Einschrnkungen zurck, die bei
@@ -963,16 +1288,21 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
      @param gvname Lowlevel-Name des Geschftsvorfalles, fr den die Restriktionen
      ermittelt werden sollen
      @return Properties-Objekt mit den einzelnen Restriktionen */
-    public Properties getLowlevelJobRestrictions(String gvname)
+    public Properties getLowlevelJobRestrictions(final String gvname)
     {
-        if (gvname==null || gvname.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+        return HBCIContext.bind(context,new HBCIContext.Task<Properties>() {
+            public Properties run()
+            {
+                if (gvname==null || gvname.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
         
-        String version=getSupportedLowlevelJobs().getProperty(gvname);
-        if (version==null)
-            throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
+                String version=getSupportedLowlevelJobs().getProperty(gvname);
+                if (version==null)
+                    throw new HBCI_Exception("*** lowlevel job "+gvname+" not supported");
         
-        return passport.getJobRestrictions(gvname,version);
+                return passport.getJobRestrictions(gvname,version);
+            }
+        });
     }
 
     /** <p>berprfen, ein bestimmter Highlevel-Job von der Bank angeboten
@@ -992,18 +1322,23 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
         @param jobnameHL der Highlevel-Name des Jobs, dessen Untersttzung berprft werden soll
         @return <code>true</code>, wenn dieser Job von der Bank untersttzt wird und
         mit <em>HBCI4Java</em> verwendet werden kann; ansonsten <code>false</code> */ 
-    public boolean isSupported(String jobnameHL)
+    public boolean isSupported(final String jobnameHL)
     {
-        if (jobnameHL==null || jobnameHL.length()==0)
-            throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
+        return HBCIContext.bind(context,new HBCIContext.Task<Boolean>() {
+            public Boolean run()
+            {
+                if (jobnameHL==null || jobnameHL.length()==0)
+                    throw new InvalidArgumentException(HBCIUtilsInternal.getLocMsg("EXCMSG_EMPTY_JOBNAME"));
         
-        try {
-            Class cl=Class.forName("org.kapott.hbci.GV.GV"+jobnameHL);
-            String lowlevelName=(String)cl.getMethod("getLowlevelName",(Class[])null).invoke(null,(Object[])null);
-            return getSupportedLowlevelJobs().keySet().contains(lowlevelName);
-        } catch (Exception e) {
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_HANDLER_HLCHECKERR",jobnameHL),e);
-        }
+                try {
+                    Class cl=Class.forName("org.kapott.hbci.GV.GV"+jobnameHL);
+                    String lowlevelName=(String)cl.getMethod("getLowlevelName",(Class[])null).invoke(null,(Object[])null);
+                    return getSupportedLowlevelJobs().keySet().contains(lowlevelName);
+                } catch (Exception e) {
+                    throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_HANDLER_HLCHECKERR",jobnameHL),e);
+                }
+            }
+        });
     }
     
     /** Abholen der BPD bzw. UPD erzwingen. Beim Aufruf dieser Methode wird
@@ -1015,20 +1350,25 @@ hbciHandle=new HBCIHandle(hbciversion,passport);
      * {@link #REFRESH_BPD} und {@link #REFRESH_UPD} bestehen
      * @return Status-Objekt, welches Informationen ber den ausgefhrten 
      * HBCI-Dialog enthlt */ 
-    public HBCIDialogStatus refreshXPD(int selectX) 
+    public HBCIDialogStatus refreshXPD(final int selectX)
     {
-        if ((selectX & REFRESH_BPD)!=0) {
-            passport.clearBPD();
-        }
-        if ((selectX & REFRESH_UPD)!=0) {
-            passport.clearUPD();
-        }
+        return HBCIContext.bind(context,new HBCIContext.Task<HBCIDialogStatus>() {
+            public HBCIDialogStatus run()
+            {
+                if ((selectX & REFRESH_BPD)!=0) {
+                    passport.clearBPD();
+                }
+                if ((selectX & REFRESH_UPD)!=0) {
+                    passport.clearUPD();
+                }
 
-        reset();
+                reset();
         
-        String customerId=passport.getCustomerId();
-        getDialogFor(customerId);
-        HBCIDialogStatus result=execute().getDialogStatus(customerId);
-        return result;
+                String customerId=passport.getCustomerId();
+                getDialogFor(customerId);
+                HBCIDialogStatus result=execute().getDialogStatus(customerId);
+                return result;
+            }
+        });
     }
 }
@@ -21,32 +21,29 @@
 
 package org.kapott.hbci.manager;
 
-import java.io.InputStream;
-import java.lang.reflect.Constructor;
-import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Properties;
-import java.util.StringTokenizer;
 
 import org.kapott.hbci.callback.HBCICallback;
 import org.kapott.hbci.exceptions.CanNotParseMessageException;
 import org.kapott.hbci.exceptions.HBCI_Exception;
-import org.kapott.hbci.exceptions.InvalidUserDataException;
 import org.kapott.hbci.passport.HBCIPassport;
 import org.kapott.hbci.passport.HBCIPassportInternal;
 import org.kapott.hbci.passport.HBCIPassportList;
+import org.kapott.hbci.protocol.ElementDef;
 import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.MsgBuffer;
 import org.kapott.hbci.protocol.factory.MSGFactory;
-import org.kapott.hbci.rewrite.Rewrite;
+import org.kapott.hbci.rewrite.RewriteContext;
+import org.kapott.hbci.rewrite.RewritePipeline;
 import org.kapott.hbci.security.Crypt;
 import org.kapott.hbci.security.Sig;
 import org.kapott.hbci.security.factory.CryptFactory;
 import org.kapott.hbci.security.factory.SigFactory;
 import org.kapott.hbci.status.HBCIMsgStatus;
-import org.w3c.dom.Element;
-import org.w3c.dom.NodeList;
+import org.w3c.dom.Document;
 
 public final class HBCIKernelImpl implements HBCIKernel
 {
@@ -70,20 +67,12 @@ public final class HBCIKernelImpl implements HBCIKernel
         this.parentHandlerData=parentHandlerData;
         this.hbciversion=hbciversion;
 
-        String xmlpath=HBCIUtils.getParam("kernel.kernel.xmlpath");
-        InputStream syntaxStream=null;
-        if (xmlpath==null) {
-            xmlpath="";
-        }
-
-        ClassLoader cl=this.getClass().getClassLoader();
-        String filename=xmlpath+"hbci-"+hbciversion+".xml";
-        syntaxStream=cl.getResourceAsStream(filename);
-        if (syntaxStream==null)
-            throw new InvalidUserDataException(HBCIUtilsInternal.getLocMsg("EXCMSG_KRNL_CANTLOAD_SYN",filename));
+        // die syntax-spezifikation wird nur einmal pro prozess geparst und
+        // dann von allen kernel-instanzen gemeinsam benutzt
+        Document syntax=SyntaxRegistry.getSyntax(hbciversion);
         
         try {
-            gen=new MsgGen(syntaxStream);
+            gen=new MsgGen(syntax);
             currentMsgName=null;
         } catch (Exception e) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_MSGGEN_INIT"),e);
@@ -110,14 +99,13 @@ public final class HBCIKernelImpl implements HBCIKernel
 
     public String getHBCIVersion(int dummy)
     {
-        String   ret="";
-        NodeList nodes=gen.getSyntax().getElementById("MsgHeadUser").getElementsByTagName("value");
-        int      len=nodes.getLength();
+        String     ret="";
+        ElementDef def=gen.getGrammar().getDef("MsgHeadUser");
+        String[]   paths=def.getValuePaths();
         
-        for (int i=0;i<len;i++) {
-            Element node=(Element)nodes.item(i);
-            if (node.getAttribute("path").equals("hbciversion")) {
-                ret=node.getFirstChild().getNodeValue();
+        for (int i=0;i<paths.length;i++) {
+            if (paths[i].equals("hbciversion")) {
+                ret=def.getValues()[i];
                 break;
             }
         }
@@ -211,38 +199,20 @@ public final class HBCIKernelImpl implements HBCIKernel
             msg=gen.generate(currentMsgName);
 
             // alle daten fr den rewriter setzen
-            Rewrite.setData("passports",passports);
-            Rewrite.setData("msgStatus",ret);
-            Rewrite.setData("msgName",currentMsgName);
-            Rewrite.setData("signIt",Boolean.valueOf(signit));
-            Rewrite.setData("cryptIt",Boolean.valueOf(cryptit));
-            Rewrite.setData("needSig",Boolean.valueOf(needSig));
-            Rewrite.setData("needCrypt",Boolean.valueOf(needCrypt));
-
-            // liste der rewriter erzeugen
-            String rewriters_st=HBCIUtils.getParam("kernel.rewriter");
-            ArrayList<Rewrite> al=new ArrayList<Rewrite>();
-            StringTokenizer tok=new StringTokenizer(rewriters_st,",");
-            while (tok.hasMoreTokens()) {
-                String rewriterName=tok.nextToken().trim();
-                if (rewriterName.length()!=0) {
-                    Class cl=this.getClass().getClassLoader().loadClass("org.kapott.hbci.rewrite.R"+
-                                                                        rewriterName);
-                    Constructor con=cl.getConstructor((Class[])null);
-                    Rewrite rewriter=(Rewrite)(con.newInstance((Object[])null));
-                    al.add(rewriter);
-                }
-            }
-            Rewrite[] rewriters=al.toArray(new Rewrite[al.size()]);
+            RewriteContext rwctx=new RewriteContext();
+            rwctx.setData("passports",passports);
+            rwctx.setData("msgStatus",ret);
+            rwctx.setData("msgName",currentMsgName);
+            rwctx.setData("signIt",Boolean.valueOf(signit));
+            rwctx.setData("cryptIt",Boolean.valueOf(cryptit));
+            rwctx.setData("needSig",Boolean.valueOf(needSig));
+            rwctx.setData("needCrypt",Boolean.valueOf(needCrypt));
+
+            // liste der rewriter holen
+            RewritePipeline rewriters=RewritePipeline.getInstance();
             
             // alle rewriter durchlaufen und plaintextnachricht patchen
-            for (int i=0;i<rewriters.length;i++) {
-                MSG old=msg;
-                msg=rewriters[i].outgoingClearText(old,gen);
-                if (msg!=old) {
-                    MSGFactory.getInstance().unuseObject(old);
-                }
-            }
+            msg=rewriters.outgoingClearText(msg,gen,rwctx);
             
             // HBCIUtils.log("sending msg: "+msg.toString(0));
             
@@ -265,13 +235,7 @@ public final class HBCIKernelImpl implements HBCIKernel
                 }
 
                 // alle rewrites erledigen, die *nach* dem hinzufgen der signatur stattfinden mssen
-                for (int i=0;i<rewriters.length;i++) {
-                    MSG old=msg;
-                    msg=rewriters[i].outgoingSigned(old,gen);
-                    if (msg!=old) {
-                        MSGFactory.getInstance().unuseObject(old);
-                    }
-                }
+                msg=rewriters.outgoingSigned(msg,gen,rwctx);
             }
             
             /* zu jeder SyntaxElement-Referenz (2:3,1)==(SEG:DEG,DE) den Pfad
@@ -293,14 +257,15 @@ public final class HBCIKernelImpl implements HBCIKernel
             ret.addData(origs);
             
             // zu versendene nachricht loggen
-            String outstring=msg.toString(0);
-            HBCIUtils.log("sending message: "+outstring,HBCIUtils.LOG_DEBUG2);
+            MsgBuffer outdata=msg.toBuffer();
+            if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+                HBCIUtils.log("sending message: "+outdata,HBCIUtils.LOG_DEBUG2);
 
             // max. nachrichtengre aus BPD berprfen
             int maxmsgsize=mainPassport.getMaxMsgSizeKB();
-            if (maxmsgsize!=0 && (outstring.length()>>10)>maxmsgsize) {
+            if (maxmsgsize!=0 && (outdata.length()>>10)>maxmsgsize) {
                 String errmsg=HBCIUtilsInternal.getLocMsg("EXCMSG_MSGTOOLARGE",
-                                                  new Object[] {Integer.toString(outstring.length()>>10),Integer.toString(maxmsgsize)});
+                                                  new Object[] {Integer.toString(outdata.length()>>10),Integer.toString(maxmsgsize)});
                 if (!HBCIUtilsInternal.ignoreError(null,"client.errors.ignoreMsgSizeErrors",errmsg))
                     throw new HBCI_Exception(errmsg);
             }
@@ -329,15 +294,10 @@ public final class HBCIKernelImpl implements HBCIKernel
                 }
 
                 // verschlsselte nachricht patchen
-                for (int i=0;i<rewriters.length;i++) {
-                    MSG oldMsg=msg;
-                    msg=rewriters[i].outgoingCrypted(oldMsg,gen);
-                    if (msg!=oldMsg) {
-                        MSGFactory.getInstance().unuseObject(oldMsg);
-                    }
-                }
+                msg=rewriters.outgoingCrypted(msg,gen,rwctx);
                 
-                HBCIUtils.log("encrypted message to be sent: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
+                if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+                    HBCIUtils.log("encrypted message to be sent: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
             }
 
             // basic-values der ausgehenden nachricht merken
@@ -349,7 +309,7 @@ public final class HBCIKernelImpl implements HBCIKernel
             // nachricht versenden und antwortnachricht empfangen
             HBCIUtils.log("communicating dialogid/msgnum "+dialogid+"/"+msgnum,HBCIUtils.LOG_DEBUG);
             MSG old=msg;
-            msg=mainPassport.getComm().pingpong(currentMsgName,old);
+            msg=mainPassport.getComm().pingpong(currentMsgName,old,rwctx);
             if (msg!=old) {
                 MSGFactory.getInstance().unuseObject(old);
             }
@@ -376,18 +336,17 @@ public final class HBCIKernelImpl implements HBCIKernel
                 
                 // alle patches fr die unverschlsselte nachricht durchlaufen
                 HBCIUtils.log("rewriting message",HBCIUtils.LOG_DEBUG);
-                for (int i=0;i<rewriters.length;i++) {
-                    HBCIUtils.log("applying rewriter " + rewriters[i].getClass().getSimpleName(),HBCIUtils.LOG_DEBUG);
-                    newmsgstring=rewriters[i].incomingClearText(newmsgstring,gen);
-                }
+                newmsgstring=rewriters.incomingClearText(newmsgstring,gen,rwctx);
                 HBCIUtils.log("rewriting done",HBCIUtils.LOG_DEBUG);
                 
-                HBCIUtils.log("decrypted message after rewriting: "+newmsgstring,HBCIUtils.LOG_DEBUG2);
+                if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+                    HBCIUtils.log("decrypted message after rewriting: "+newmsgstring,HBCIUtils.LOG_DEBUG2);
                 
                 // nachricht als plaintextnachricht parsen
                 try {
                     HBCIUtilsInternal.getCallback().status(mainPassport,HBCICallback.STATUS_MSG_PARSE,currentMsgName+"Res");
-                    HBCIUtils.log("message to pe parsed: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
+                    if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+                        HBCIUtils.log("message to pe parsed: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
                     MSG oldMsg=msg;
                     msg=MSGFactory.getInstance().createMSG(currentMsgName+"Res",newmsgstring,newmsgstring.length(),gen);
                     if (msg!=oldMsg) {
@@ -398,16 +357,11 @@ public final class HBCIKernelImpl implements HBCIKernel
                 }
             }
             
-            HBCIUtils.log("received message after decryption: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
+            if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG2))
+                HBCIUtils.log("received message after decryption: "+msg.toString(0),HBCIUtils.LOG_DEBUG2);
 
             // alle patches fr die plaintextnachricht durchlaufen
-            for (int i=0;i<rewriters.length;i++) {
-                MSG oldMsg=msg;
-                msg=rewriters[i].incomingData(oldMsg,gen);
-                if (msg!=oldMsg) {
-                    MSGFactory.getInstance().unuseObject(oldMsg);
-                }
-            }
+            msg=rewriters.incomingData(msg,gen,rwctx);
             
             // daten aus nachricht in status-objekt einstellen
             HBCIUtils.log("extracting data from received message",HBCIUtils.LOG_DEBUG);
@@ -38,13 +38,11 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.Properties;
-import java.util.ResourceBundle;
 
 import org.kapott.cryptalgs.CryptAlgs4JavaProvider;
 import org.kapott.hbci.GV_Result.GVRKUms;
@@ -285,6 +283,31 @@ import org.kapott.hbci.swift.Swift;
           HBCI-Verbindungen Auswirkungen. Beim PIN/TAN-Verfahren wird 
           eine HTTPS-Verbindung mit dem HBCI-Server aufgebaut, fr diese 
           Verbindung wird der localPort-Parameter im Moment noch nicht ausgewertet.</p></li>
+      <li><code>client.connection.maxParallelDialogs</code>
+          <p>Maximale Anzahl der Dialoge, die bei
+          {@link org.kapott.hbci.manager.HBCIHandler#execute(java.util.concurrent.Executor)}
+          gleichzeitig mit einer Bank gefhrt werden. Mit
+          <code>client.connection.maxParallelDialogs.&lt;blz&gt;</code> kann der Wert
+          fr eine einzelne Bankleitzahl abweichend festgelegt werden. Der default-Wert
+          betrgt 4.</p></li>
+      <li><code>client.connection.pintan.connectTimeout</code>
+          <p>Timeout in Millisekunden fr den Aufbau der HTTPS-Verbindung beim
+          PIN/TAN-Verfahren. Der default-Wert betrgt 60000.</p></li>
+      <li><code>client.connection.pintan.readTimeout</code>
+          <p>Timeout in Millisekunden beim Warten auf die Antwort des PIN/TAN-Servers.
+          Der default-Wert betrgt 300000.</p></li>
+      <li><code>client.connection.pintan.keepAlive</code>
+          <p>Steht dieser Parameter auf "<code>1</code>" (default), werden die
+          HTTPS-Verbindungen zum PIN/TAN-Server nach einer Antwort nicht geschlossen,
+          sondern fr die nchsten Nachrichten wiederverwendet. Dabei wird auch
+          die TLS-Session wiederaufgenommen. Mit "<code>0</code>" wird wie frher
+          fr jede Nachricht eine neue Verbindung aufgebaut.</p></li>
+      <li><code>client.connection.pintan.client</code>
+          <p>Vollstndiger Klassenname der Implementierung von
+          {@link org.kapott.hbci.comm.PinTanClient}, ber die die HTTPS-Kommunikation
+          beim PIN/TAN-Verfahren abgewickelt wird. Damit kann z.B. ein asynchroner
+          HTTP-Client verwendet werden. Default ist
+          {@link org.kapott.hbci.comm.PinTanURLConnectionClient}.</p></li>
       <li><code>comm.standard.socks.server</code>
           <p>Soll fuer ausgehende Verbindungen ein SOCKS-Server verwendet werden, kann
           dieser SOCKS-Server im Format <code>hostname:port</code> festgelegt werden. 
@@ -292,6 +315,10 @@ import org.kapott.hbci.swift.Swift;
           fuer alle "richtigen" HBCI-Verbindungen (alle Passport-Varianten von RDH und DDV).</p></li>
       <li><code>sepa.schema.validation</code>
           <p>Kann auf 1 gesetzt werden, wenn das erzeugte XML gegen das Schema validiert werden soll.</p></li>
+      <li><code>sepa.pain.streaming</code>
+          <p>Kann auf 1 gesetzt werden, wenn das SEPA-XML - sofern fuer die PAIN-Version verfuegbar - direkt
+          per StAX statt ueber einen JAXB-Objektbaum erzeugt werden soll. Das spart bei Sammelauftraegen
+          mit sehr vielen Buchungen Speicher. Das erzeugte XML ist identisch. Per Default wird "0" verwendet.</p></li>
       <li><code>bpd.maxage.days</code>
           <p>Maximales Alter der BPD in Tagen nach deren Ablauf die BPD erneut abgerufen werden - auch dann,
           wenn sich deren Versionsnummer nicht geaendert hat. Das ermoeglicht das automatische Aktualisieren
@@ -328,6 +355,18 @@ import org.kapott.hbci.swift.Swift;
           </ul>
           <p>Die Standard-Einstellung dieses Wertes ist 2 - es werden also alle
           "identifizierenden" Daten und alle "geheimen" Daten gefiltert.</p></li>
+      <li><code>log.trace</code>
+          <p>Ist dieser Parameter auf 1 gesetzt (Standard), wird bei jeder Log-Ausgabe
+          die aufrufende Stelle im Code ermittelt und an den Callback uebergeben. Da
+          dafuer jedesmal ein Stacktrace erzeugt werden muss, kann das bei vielen
+          Debug-Ausgaben spuerbar Zeit kosten. Mit dem Wert 0 wird darauf verzichtet,
+          der Callback erhaelt dann <code>null</code> als Aufruf-Stelle.</p></li>
+      <li><code>log.async</code>
+          <p>Ist dieser Parameter auf 1 gesetzt, werden die Log-Ausgaben nicht im
+          aufrufenden Thread an den Callback uebergeben, sondern ueber einen Puffer
+          von einem Hintergrund-Thread zugestellt (siehe {@link LogDispatcher}).
+          Callbacks, die den Namen des aktuellen Threads ausgeben, muessen dann
+          {@link LogDispatcher#getOriginThread()} verwenden. Der Standard-Wert ist 0.</p></li>
       <li><code>log.ssl.enable</code>
           <p>Dieser Parameter kann die Werte 0 und 1 annehmen. Ist er auf 1 gesetzt,
           wird smtliche Kommunikation, die bei Verwendung von HBCI-PIN/TAN ber
@@ -395,7 +434,9 @@ import org.kapott.hbci.swift.Swift;
           Rewriter-Modulen (kann mit {@link #getParam(String)} ermittelt werden).
           Wird dieser Parameter gesetzt, so wird die default-Einstellung
           berschrieben. Es knnen mehrere zu durchlaufende Rewriter-Module
-          angegeben werden, indem sie durch Komma voneinander getrennt werden.</p></li>
+          angegeben werden, indem sie durch Komma voneinander getrennt werden.
+          Eigene Rewriter-Module knnen mit ihrem vollstndigen Klassennamen
+          angegeben werden.</p></li>
       <li><code>kernel.threaded.maxwaittime</code>
           <p>Beim Verwenden des threaded-callback-Mechanismus (siehe Datei
           <code>README.ThreadedCallbacks</code>) wird die eigentliche Ausfhrung
@@ -433,6 +474,9 @@ import org.kapott.hbci.swift.Swift;
             <li><p><code>kernel.objpool.Sig</code> -- Pool fr Signatur-Objekte (3)</p></li>
             <li><p><code>kernel.objpool.Crypt</code> -- Pool fr Crypt-Objekte (3)</p></li>
             <li><p><code>kernel.objpool.Syntax</code> -- Pool fr Daten-Objekte (=Werte in Nachrichten) (128 je Datentyp)</p></li>
+            <li><p><code>kernel.objpool.enabled</code> -- Mit "<code>0</code>" wird das Object-Pooling
+                fr alle Objekttypen abgeschaltet, z.B. um es mit der normalen Objekterzeugung
+                zu vergleichen (1)</p></li>
           </ul></li>
       <li><p>Mit den folgenden Parametern kann <em>HBCI4Java</em> veranlasst
           werden, beim Auftreten bestimmter Fehler keine Exception zu werfen, sondern
@@ -501,7 +545,6 @@ public final class HBCIUtils
     /** Loglevel fr devel-Debugging - nicht benutzen! */
     public static final int LOG_INTERN=6;
     
-    private static Hashtable<ThreadGroup, Properties>  configs;  // threadgroup->hashtable(paramname->paramvalue)
     private static char[] base64table={'A','B','C','D','E','F','G','H','I','J','K','L','M','N','O','P',
                                        'Q','R','S','T','U','V','W','X','Y','Z','a','b','c','d','e','f',
                                        'g','h','i','j','k','l','m','n','o','p','q','r','s','t','u','v',
@@ -512,12 +555,9 @@ public final class HBCIUtils
     
     private static void initDataStructures()
     {
-        configs=new Hashtable<ThreadGroup, Properties>();
-        HBCIUtilsInternal.callbacks=new Hashtable<ThreadGroup, HBCICallback>();
+        HBCIContext.clear();
         HBCIUtilsInternal.blzs=new Properties();
         HBCIUtilsInternal.banks=new HashMap<String,BankInfo>();
-        HBCIUtilsInternal.locMsgs=new Hashtable<ThreadGroup, ResourceBundle>();
-        HBCIUtilsInternal.locales=new Hashtable<ThreadGroup, Locale>();
     }
     
     private HBCIUtils()
@@ -672,6 +712,12 @@ public final class HBCIUtils
      * <em>HBCI4Java</em>-Archiven.
      * </p>
      * <p>
+     * Bei Thread-Pools oder Virtual Threads sollte statt dessen ein
+     * {@link HBCIContext} erzeugt und explizit gebunden werden. Die pro
+     * <code>ThreadGroup</code> registrierten Daten werden nur verwendet,
+     * wenn im aktuellen Thread kein solcher Kontext gebunden ist.
+     * </p>
+     * <p>
      * Ist der Parameter <code>props</code> ungleich <code>null</code>,
      * so werden die Kernel-Parameter fr die aktuelle <code>ThreadGroup</code>
      * mit den darin angegebenen Werten initialisiert. 
@@ -706,32 +752,20 @@ public final class HBCIUtils
     {
         ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
         
-        if (HBCIUtilsInternal.callbacks.get(threadgroup)!=null) {
+        if (HBCIContext.get(threadgroup)!=null) {
             HBCIUtils.log("will not initialize this threadgroup because it is already initialized",HBCIUtils.LOG_WARN);
         } else {
             try {
-                // initialize kernel params
-                Properties config=new Properties();
-                if (props!=null) {
-                    config.putAll(props);
-                }
-                
-                synchronized (configs) {
-                    configs.put(threadgroup,config);
-                }
-                if (getParam("kernel.rewriter")==null) {
-                    setParam("kernel.rewriter","InvalidSegment,WrongStatusSegOrder,WrongSequenceNumbers,MissingMsgRef,HBCIVersion,SigIdLeadingZero,InvalidSuppHBCIVersion,SecTypeTAN,KUmsDelimiters,KUmsEmptyBDateSets");
-                }
-                
                 // initialize callback
                 if (callback==null) {
-                    ThreadGroup parent=Thread.currentThread().getThreadGroup().getParent();
-                    callback=HBCIUtilsInternal.callbacks.get(parent);
-                    if (callback==null) {
-                        throw new NullPointerException("no callback specified");
+                    HBCIContext parent=HBCIContext.get(threadgroup.getParent());
+                    if (parent!=null) {
+                        callback=parent.getCallback();
                     }
                 }
-                HBCIUtilsInternal.callbacks.put(threadgroup,callback);
+                
+                // initialize kernel params, callback and locale
+                HBCIContext.register(threadgroup,new HBCIContext(props,callback));
                 
                 // configure Locale
                 initLocale();
@@ -799,11 +833,9 @@ public final class HBCIUtils
     {
         HBCIUtils.log("removing all data for current thread",HBCIUtils.LOG_DEBUG);
         
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
-        HBCIUtilsInternal.callbacks.remove(group);
-        configs.remove(group);
-        HBCIUtilsInternal.locMsgs.remove(group);
-        HBCIUtilsInternal.locales.remove(group);
+        flushLog();
+        
+        HBCIContext.register(Thread.currentThread().getThreadGroup(),null);
     }
     
     /** Bereinigen aller <em>HBCI4Java</em>-Datenstrukturen. Nach Aufruf dieser
@@ -813,6 +845,7 @@ public final class HBCIUtils
     public static synchronized void done()
     {
         HBCIUtils.log("destroying all HBCI4Java resources",HBCIUtils.LOG_DEBUG);
+        flushLog();
         initDataStructures();
     }
 
@@ -828,30 +861,18 @@ public final class HBCIUtils
     public static void initLocale()
     {
         String localeLang=getParam("kernel.locale.language", "");
-        String localeCountry=getParam("kernel.locale.country", "");
-        String localeVariant=getParam("kernel.locale.variant", "");
-        Locale locale;
+        HBCIContext ctx=HBCIContext.current();
+        Locale locale=HBCIContext.createLocale(ctx.getParams());
         
         if (localeLang.trim().length()==0) {
-            locale=Locale.getDefault();
             log("using default system locale "+locale.toString(), HBCIUtils.LOG_DEBUG);
-            
         } else {
-            locale=new Locale(
-                    localeLang.trim(),
-                    localeCountry.trim(), 
-                    localeVariant.trim());
             log("using specified locale "+locale.toString(), HBCIUtils.LOG_DEBUG);
         }
         
-        ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
-        synchronized (HBCIUtilsInternal.locales) {
-            HBCIUtilsInternal.locales.put(threadgroup,locale);
-        }
-        synchronized (HBCIUtilsInternal.locMsgs) {
-            HBCIUtilsInternal.locMsgs.put(
-                    threadgroup,
-                    ResourceBundle.getBundle("hbci4java-messages",locale));
+        // der kontext ist unveraenderlich - also durch einen mit der neuen locale ersetzen
+        if (!locale.equals(ctx.getLocale())) {
+            HBCIContext.replace(ctx,ctx.withLocale(locale));
         }
     }
     
@@ -860,8 +881,8 @@ public final class HBCIUtils
      * sowie {@link #initLocale()}. */
     public static Locale getLocale()
     {
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
-        return HBCIUtilsInternal.locales.get(group);
+        HBCIContext ctx=HBCIContext.current();
+        return (ctx!=null)?ctx.getLocale():null;
     }
 
     /** Gibt den aktuellen Wert eines bestimmten HBCI-Parameters zurck. 
@@ -872,10 +893,9 @@ public final class HBCIUtils
         @return den Wert des angegebenen HBCI-Parameters */
     public static String getParam(String st,String def)
     {
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
         Properties config=getParams();
         if (config==null)
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_THREAD_NOTINIT",group.getName())); 
+            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_THREAD_NOTINIT",Thread.currentThread().getThreadGroup().getName())); 
         return config.getProperty(st,def);
     }
     
@@ -883,14 +903,8 @@ public final class HBCIUtils
      * zurck. */
     public static Properties getParams()
     {
-        Properties  params;
-        ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
-        
-        synchronized (configs) {
-            params=configs.get(threadgroup);
-        }
-        
-        return params;
+        HBCIContext ctx=HBCIContext.current();
+        return (ctx!=null)?ctx.getParams():null;
     }
 
     /** Gibt den aktuellen Wert eines bestimmten HBCI-Parameters zurck.
@@ -1132,11 +1146,11 @@ public final class HBCIUtils
         @param value neuer Wert des zu setzenden HBCI-Parameters */
     public static void setParam(String key,String value)
     {
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
-        Properties config=getParams();
-        if (config==null)
-            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_THREAD_NOTINIT",group.getName())); 
+        HBCIContext ctx=HBCIContext.current();
+        if (ctx==null)
+            throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_THREAD_NOTINIT",Thread.currentThread().getThreadGroup().getName())); 
         
+        Properties config=ctx.getParams();
         synchronized (config) {
             if (value!=null) {
                 config.setProperty(key,value);
@@ -1144,6 +1158,10 @@ public final class HBCIUtils
                 config.remove(key);
             }
         }
+        
+        // die log-parameter werden beim naechsten log-aufruf neu ausgewertet
+        if (key.startsWith("log."))
+            ctx.logConfig=null;
     }
 
     /** Ausgabe eines Log-Strings ber den Log-Mechanismus des HBCI-Kernels.
@@ -1156,29 +1174,95 @@ public final class HBCIUtils
                  <li><code>LOG_DEBUG</code></li>
                  <li><code>LOG_CHIPCARD</code> (wird nur intern benutzt)</li>
                </ul> */
-    public static synchronized void log(String st,int level)
+    public static void log(String st,int level)
     {
-        if (level<=Integer.parseInt(getParam("log.loglevel.default","2"))) {
+        LogConfig config=getLogConfig();
+        if (level<=config.level) {
             StackTraceElement trace=null;
-            try {
-                throw new Exception("");
-            } catch (Exception e) {
-                trace=e.getStackTrace()[1];
+            if (config.trace) {
+                trace=new Throwable().getStackTrace()[1];
             }
             
-            int filterLevel=Integer.parseInt(HBCIUtils.getParam("log.filter","2"));
-            if (filterLevel!=0) {
-            	st=LogFilter.getInstance().filterLine(st,filterLevel);
+            if (config.filterLevel!=0) {
+            	st=LogFilter.getInstance().filterLine(st,config.filterLevel);
             }
             
-            HBCIUtilsInternal.getCallback().log(st,level,new Date(),trace);
+            if (config.async) {
+                LogDispatcher.getInstance().dispatch(config.callback,st,level,new Date(),trace);
+            } else {
+                LogDispatcher.deliver(config.callback,st,level,new Date(),trace);
+            }
+        }
+    }
+    
+    /** Prft, ob Log-Ausgaben mit dem angegebenen Level aktuell ausgegeben werden.
+        Damit knnen aufwndig zusammengesetzte Log-Meldungen (z.B. mit dem
+        Inhalt einer kompletten Nachricht) nur dann erzeugt werden, wenn sie
+        auch tatschlich im Log landen.
+        @param level der Log-Level
+        @return true, wenn Meldungen mit diesem Level geloggt werden */
+    public static boolean isLogEnabled(int level)
+    {
+        return level<=getLogConfig().level;
+    }
+    
+    /** Wartet, bis alle bei <code>log.async=1</code> gepufferten Log-Ausgaben
+        an den Callback zugestellt wurden (hchstens aber 5 Sekunden). */
+    public static void flushLog()
+    {
+        LogDispatcher.flush(5000);
+    }
+    
+    /* liefert die ausgewerteten log-parameter des aktuellen kontextes. die
+     * werden nur einmal aus den kernel-parametern gelesen und dann im kontext
+     * gecached, bis einer der log-parameter per setParam() geaendert wird */
+    private static LogConfig getLogConfig()
+    {
+        HBCIContext ctx=HBCIContext.current();
+        if (ctx==null) {
+            // ohne kontext gibt es weder kernel-parameter noch einen callback,
+            // an den geloggt werden koennte
+            return LogConfig.NONE;
+        }
+        
+        LogConfig ret=ctx.logConfig;
+        if (ret==null) {
+            ret=new LogConfig(Integer.parseInt(getParam("log.loglevel.default","2")),
+                              Integer.parseInt(getParam("log.filter","2")),
+                              getParam("log.trace","1").equals("1"),
+                              getParam("log.async","0").equals("1"),
+                              HBCIUtilsInternal.getCallback());
+            if (ret.callback!=null)
+                ctx.logConfig=ret;
+        }
+        return ret;
+    }
+    
+    /* die ausgewerteten log-parameter eines kontextes */
+    final static class LogConfig
+    {
+        private final static LogConfig NONE=new LogConfig(LOG_NONE,0,false,false,null);
+        
+        private final int          level;
+        private final int          filterLevel;
+        private final boolean      trace;
+        private final boolean      async;
+        private final HBCICallback callback;
+        
+        private LogConfig(int level,int filterLevel,boolean trace,boolean async,HBCICallback callback)
+        {
+            this.level=level;
+            this.filterLevel=filterLevel;
+            this.trace=trace;
+            this.async=async;
+            this.callback=callback;
         }
     }
     
     /** Ausgabe der Meldungen einer Exception-Kette mit dem Level <code>LOG_ERR</code>.
         @param e die Exception, deren <code>getMessage()</code>-Meldungen geloggt
                werden sollen */
-    public static synchronized void log(Exception e)
+    public static void log(Exception e)
     {
         log(e,LOG_ERR);
     }
@@ -1225,7 +1309,7 @@ public final class HBCIUtils
                werden sollen. 
         @param level der Log-Level, mit dem die Meldungen geloggt werden sollen.
                Siehe dazu auch {@link #log(String,int)} */
-    public static synchronized void log(Exception e,int level)
+    public static void log(Exception e,int level)
     {
         log(exception2String(e),level);
     }
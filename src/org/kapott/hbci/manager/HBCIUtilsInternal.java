@@ -25,8 +25,6 @@ import java.math.BigDecimal;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.MessageFormat;
-import java.util.Hashtable;
-import java.util.Locale;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.Properties;
@@ -41,9 +39,6 @@ public class HBCIUtilsInternal
 
     public static Properties blzs;
     public static Map<String,BankInfo> banks = null;
-    public static Hashtable<ThreadGroup, HBCICallback>  callbacks;  // threadgroup->callbackObject
-    public static Hashtable<ThreadGroup, ResourceBundle>  locMsgs;    // threadgroup->resourceBundle
-    public static Hashtable<ThreadGroup, Locale>  locales;    // threadgroup->Locale
     
     private static InfoPointConnector infoPointConnector;
 
@@ -104,16 +99,19 @@ public class HBCIUtilsInternal
 
     public static HBCICallback getCallback()
     {
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
-        return callbacks.get(group);
+        HBCIContext ctx=HBCIContext.current();
+        return (ctx!=null)?ctx.getCallback():null;
     }
     
     public static String getLocMsg(String key)
     {
-        ThreadGroup group=Thread.currentThread().getThreadGroup();
         try
         {
-            return locMsgs.get(group).getString(key);
+            // ohne gebundenen kontext (z.B. in einem fremden thread) die
+            // meldungen der default-locale verwenden
+            HBCIContext ctx=HBCIContext.current();
+            ResourceBundle messages=(ctx!=null)?ctx.getMessages():ResourceBundle.getBundle("hbci4java-messages");
+            return messages.getString(key);
         }
         catch (MissingResourceException re)
         {
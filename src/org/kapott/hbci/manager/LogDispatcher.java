@@ -0,0 +1,313 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.manager;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import org.kapott.hbci.callback.HBCICallback;
+
+/**
+ * Asynchrone Zustellung von Log-Ausgaben an den Callback.
+ *
+ * Ist der Kernel-Parameter <code>log.async=1</code> gesetzt, werden die
+ * Log-Ausgaben von {@link HBCIUtils#log(String, int)} nicht im aufrufenden
+ * Thread an {@link HBCICallback#log(String, int, Date, StackTraceElement)}
+ * uebergeben, sondern in einen Ringpuffer geschrieben. Ein Hintergrund-Thread
+ * liest die Eintraege aus und ruft damit den Callback auf. Die Dialog-Threads
+ * warten also nicht mehr auf den Callback (der z.B. in eine Datei schreibt).
+ *
+ * Der Ringpuffer ist lock-frei: jeder Platz hat eine Sequenznummer, ueber die
+ * Schreiber und Leser per CAS erkennen, ob der Platz frei bzw. belegt ist.
+ * Ist der Puffer voll, wartet der aufrufende Thread, bis wieder Platz ist.
+ * Es geht also nichts verloren und die Reihenfolge bleibt erhalten. Nur wenn
+ * der Callback selbst loggt, waehrend er gerade aufgerufen wird, oder wenn
+ * der Hintergrund-Thread laenger als {@link #STALL_TIMEOUT} Millisekunden im
+ * Callback haengt (z.B. weil er auf eine Sperre wartet, die der loggende
+ * Thread haelt), wird die Ausgabe bei vollem Puffer sofort zugestellt - also
+ * vor den gepufferten.
+ *
+ * Der Dispatcher synchronisiert nicht auf dem Callback-Objekt. Asynchron
+ * zugestellte Ausgaben sind dadurch serialisiert, dass nur der
+ * Hintergrund-Thread den Callback aufruft.
+ *
+ * Ist der Puffer leer, parkt der Hintergrund-Thread, bis
+ * {@link #dispatch(HBCICallback, String, int, Date, StackTraceElement)} ihn
+ * wieder weckt.
+ */
+public final class LogDispatcher
+{
+    private final static int CAPACITY=4096;
+
+    /**
+     * Maximale Zeit in Millisekunden, die ein Thread bei vollem Puffer
+     * wartet, ohne dass der Hintergrund-Thread einen Eintrag zustellt.
+     */
+    public final static long STALL_TIMEOUT=1000L;
+
+    private static LogDispatcher instance;
+
+    private final static ThreadLocal<Thread> origin=new ThreadLocal<Thread>();
+
+    private final Record[]        slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong      tail;
+    private volatile long         head;
+    private final Thread          worker;
+
+    // Position, an der der Hintergrund-Thread zuletzt haengen blieb
+    private volatile long         stalled=-1;
+
+    // true, solange der Hintergrund-Thread mangels Eintraegen parkt
+    private volatile boolean      idle;
+
+    // Threads, die auf die Zustellung warten (flush oder voller Puffer)
+    private final Object          drained=new Object();
+    private volatile int          waiters;
+
+    /**
+     * Ein Log-Eintrag im Ringpuffer.
+     */
+    private final static class Record
+    {
+        private final HBCICallback      callback;
+        private final String            msg;
+        private final int               level;
+        private final Date              date;
+        private final StackTraceElement trace;
+        private final Thread            thread;
+
+        private Record(HBCICallback callback,String msg,int level,Date date,StackTraceElement trace,Thread thread)
+        {
+            this.callback=callback;
+            this.msg=msg;
+            this.level=level;
+            this.date=date;
+            this.trace=trace;
+            this.thread=thread;
+        }
+    }
+
+    /**
+     * Liefert den Dispatcher. Der Hintergrund-Thread wird beim ersten
+     * Aufruf gestartet.
+     * @return der Dispatcher.
+     */
+    public static synchronized LogDispatcher getInstance()
+    {
+        if (instance==null) {
+            instance=new LogDispatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * Liefert den Thread, in dem die gerade zugestellte Log-Ausgabe erzeugt
+     * wurde. Ausserhalb des Hintergrund-Threads ist das der aktuelle Thread.
+     * Callbacks, die den Thread-Namen mit ausgeben, sollten diese Methode
+     * statt <code>Thread.currentThread()</code> verwenden.
+     * @return der Thread, der die Log-Ausgabe erzeugt hat.
+     */
+    public static Thread getOriginThread()
+    {
+        Thread ret=origin.get();
+        return (ret!=null)?ret:Thread.currentThread();
+    }
+
+    /**
+     * Stellt eine Log-Ausgabe synchron im aktuellen Thread zu.
+     * Die Aufrufe werden nicht serialisiert, der Callback muss also - wie
+     * bisher auch - selbst thread-safe sein.
+     * @param callback der Callback.
+     * @param msg die Meldung.
+     * @param level der Log-Level.
+     * @param date der Zeitpunkt.
+     * @param trace die Aufruf-Stelle oder <code>null</code>.
+     */
+    static void deliver(HBCICallback callback,String msg,int level,Date date,StackTraceElement trace)
+    {
+        callback.log(msg,level,date,trace);
+    }
+
+    private LogDispatcher()
+    {
+        this.slots=new Record[CAPACITY];
+        this.sequences=new AtomicLongArray(CAPACITY);
+        for (int i=0;i<CAPACITY;i++) {
+            sequences.set(i,i);
+        }
+        this.tail=new AtomicLong();
+        this.head=0;
+
+        this.worker=new Thread(new Runnable() {
+            public void run()
+            {
+                drain();
+            }
+        },"HBCI4Java log dispatcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Uebergibt eine Log-Ausgabe an den Hintergrund-Thread.
+     * @param callback der Callback, an den die Ausgabe zugestellt werden soll.
+     * @param msg die (bereits gefilterte) Meldung.
+     * @param level der Log-Level.
+     * @param date der Zeitpunkt.
+     * @param trace die Aufruf-Stelle oder <code>null</code>.
+     */
+    public void dispatch(HBCICallback callback,String msg,int level,Date date,StackTraceElement trace)
+    {
+        Record r=new Record(callback,msg,level,date,trace,Thread.currentThread());
+        while (!offer(r)) {
+            if (Thread.currentThread()==worker) {
+                // der Callback loggt selbst - dann wuerden wir ewig auf
+                // uns selbst warten. In dem Fall synchron zustellen.
+                deliver(callback,msg,level,date,trace);
+                return;
+            }
+            // Puffer voll - warten, bis wieder ein Platz frei ist
+            LockSupport.unpark(worker);
+            long before=head;
+            if (before!=stalled) {
+                awaitHead(tail.get()-CAPACITY+1,STALL_TIMEOUT);
+                if (head!=before)
+                    continue;
+                stalled=before;
+            }
+            // der Hintergrund-Thread kommt nicht weiter. Vielleicht wartet
+            // der Callback auf etwas, das wir halten - synchron zustellen
+            deliver(callback,msg,level,date,trace);
+            return;
+        }
+        if (idle)
+            LockSupport.unpark(worker);
+    }
+
+    /**
+     * Wartet, bis alle bis jetzt uebergebenen Log-Ausgaben zugestellt sind.
+     * @param timeout maximale Wartezeit in Millisekunden.
+     */
+    public static void flush(long timeout)
+    {
+        LogDispatcher d;
+        synchronized (LogDispatcher.class) {
+            d=instance;
+        }
+        // wurde noch nie asynchron geloggt, gibt es auch nichts zu warten
+        if (d!=null && Thread.currentThread()!=d.worker)
+            d.awaitHead(d.tail.get(),timeout);
+    }
+
+    /**
+     * Wartet, bis der Hintergrund-Thread die angegebene Position erreicht hat.
+     * @param target die Position.
+     * @param timeout maximale Wartezeit in Millisekunden, 0 fuer unbegrenzt.
+     */
+    private void awaitHead(long target,long timeout)
+    {
+        long end=System.currentTimeMillis()+timeout;
+        synchronized (drained) {
+            waiters++;
+            try {
+                while (head<target) {
+                    long wait=0;
+                    if (timeout>0) {
+                        wait=end-System.currentTimeMillis();
+                        if (wait<=0)
+                            return;
+                    }
+                    drained.wait(wait);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                waiters--;
+            }
+        }
+    }
+
+    /**
+     * Weckt die Threads, die auf die Zustellung warten.
+     */
+    private void signal()
+    {
+        if (waiters>0) {
+            synchronized (drained) {
+                drained.notifyAll();
+            }
+        }
+    }
+
+    private boolean offer(Record r)
+    {
+        while (true) {
+            long pos=tail.get();
+            int  idx=(int)(pos%CAPACITY);
+            long diff=sequences.get(idx)-pos;
+            if (diff==0) {
+                if (tail.compareAndSet(pos,pos+1)) {
+                    slots[idx]=r;
+                    sequences.set(idx,pos+1);
+                    return true;
+                }
+            } else if (diff<0) {
+                return false;
+            }
+            // sonst hat ein anderer Thread den Platz gerade belegt - nochmal
+        }
+    }
+
+    private Record poll()
+    {
+        long pos=head;
+        int  idx=(int)(pos%CAPACITY);
+        if (sequences.get(idx)!=pos+1)
+            return null;
+
+        Record ret=slots[idx];
+        slots[idx]=null;
+        sequences.set(idx,pos+CAPACITY);
+        head=pos+1;
+        return ret;
+    }
+
+    private void drain()
+    {
+        while (true) {
+            Record r=poll();
+            if (r==null) {
+                // erst als idle markieren, dann nochmal pruefen - sonst koennte
+                // ein gerade eingetragener Eintrag bis zum naechsten liegen bleiben
+                idle=true;
+                r=poll();
+                if (r==null) {
+                    LockSupport.park(this);
+                    idle=false;
+                    continue;
+                }
+                idle=false;
+            }
+
+            origin.set(r.thread);
+            try {
+                deliver(r.callback,r.msg,r.level,r.date,r.trace);
+            } catch (Throwable t) {
+                // ein fehlerhafter Callback darf den Dispatcher nicht beenden.
+                // melden koennten wir den Fehler nur ueber den gleichen Callback,
+                // daher wird er ignoriert
+            } finally {
+                origin.set(null);
+                signal();
+            }
+        }
+    }
+}
@@ -21,14 +21,39 @@
 
 package org.kapott.hbci.manager;
 
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Hashtable;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
-// TODO: doku fehlt
+/**
+ * Entfernt sensible Daten (PINs, TANs, Kontonummern, ...) aus Log-Ausgaben.
+ *
+ * Die zu filternden Daten werden mit {@link #addSecretData(Object, String, String, int)}
+ * fuer einen Besitzer (i.d.R. das Passport) registriert und mit
+ * {@link #releaseSecretData(Object)} wieder entfernt, sobald der Besitzer
+ * geschlossen wird. Die Besitzer werden nur schwach referenziert - wird ein
+ * Besitzer vom Garbage-Collector entfernt, verschwinden auch seine Daten.
+ * Damit waechst die Liste in lange laufenden Anwendungen nicht mehr endlos.
+ *
+ * Pro Besitzer und Filter-Level wird aus dessen Daten ein Aho-Corasick-Automat
+ * erzeugt, mit dem eine Log-Zeile in einem einzigen Durchlauf gefiltert wird -
+ * unabhaengig davon, wieviele Daten registriert sind. Eine Log-Zeile laeuft
+ * durch die Automaten aller Besitzer. Neue Daten verwerfen nur den Automaten
+ * ihres Besitzers, der beim naechsten Filtern unter der Sperre des Besitzers
+ * neu erzeugt wird. Parallel laufende Dialoge verschiedener Passports
+ * behindern sich also nicht gegenseitig. Das Filtern selbst kommt ohne
+ * Sperren aus.
+ *
+ * Ueberlappen sich mehrere Treffer eines Besitzers, wird der am weitesten
+ * links beginnende und davon der laengste ersetzt.
+ */
 public class LogFilter 
 {
     public static final int FILTER_NONE=0;
@@ -36,107 +61,380 @@ public class LogFilter
     public static final int FILTER_IDS=2;
     public static final int FILTER_MOST=3;
 
-	private static LogFilter _instance;
-	
-	private Map<Integer,List<String[]>> secretDataByLevel;
-	
-	public static synchronized LogFilter getInstance()
-	{
-		if (_instance==null) {
-			_instance=new LogFilter();
-		}
-		return _instance;
-	}
-	
-	private LogFilter()
-	{
-		this.secretDataByLevel = new Hashtable<Integer, List<String[]>>();
-	}
-	
-	public synchronized void clearSecretData()
-	{
-		this.secretDataByLevel.clear();
-	}
-	
-	public synchronized void addSecretData(String secret, String replacement, int level)
-	{
-	    if (secret!=null && secret.length()!=0) {
-	        // liste der secrets im gewhlten level holen bzw. erzeugen
-	        List<String[]> secretData= secretDataByLevel.get(new Integer(level));
-	        if (secretData==null) {
-	            secretData=new ArrayList<String[]>();
-	            secretDataByLevel.put(new Integer(level),secretData);
-	        }
-
-	        // duplikats-check fr "secret"
-	        boolean found=false;
-	        for (Iterator<String[]> i=secretData.iterator();i.hasNext();) {
-	            String[] entry= i.next();
-	            if (entry[0].equals(secret)) {
-	                found=true;
-	                break;
-	            }
-	        }
-
-	        if (!found) {
-	            // secret noch nicht in filterliste
-
-	            if (replacement==null || replacement.length()<2) {
-	                // wenn der replacement-string kein vollstndiger String ist,
-	                // diesen mit einem Filler auf die lnge des secrets bringen 
-	                char filler;
-
-	                if (replacement!=null && replacement.length()==1) {
-	                    // der replacement-string besteht aus genau einem zeichen,
-	                    // also dieses zeichen als filler verwenden
-	                    filler=replacement.charAt(0);
-	                } else {
-	                    // ansonsten default-filler "X" verwenden
-	                    filler='X';
-	                }
-
-	                char[] ca=new char[secret.length()];
-	                Arrays.fill(ca,filler);
-	                replacement=new String(ca);
-	            }
-
-	            secretData.add(new String[] {secret,replacement});
-	        }
-	    }
-	}
-	
-	public synchronized String filterLine(String line, int filterLevel)
-	{
-		String ret=null;
-		if (line!=null) {
-			StringBuffer line2=new StringBuffer(line);
-
-			for (int level=filterLevel; level>0; level--) {
-				List<String[]> secretData= secretDataByLevel.get(new Integer(level));
-				if (secretData==null) {
-					continue;
-				}
-				
-				for (Iterator<String[]> i = secretData.iterator(); i.hasNext();) {
-					String[] entry = i.next();
-
-					String secret=entry[0];
-					String replacement=entry[1];
-
-					if (secret.isEmpty()) {
-						continue;
-					}
-
-					int posi=0;
-					while ((posi=line2.indexOf(secret,posi))!=-1) {
-						line2.replace(posi,posi+secret.length(),replacement);
-						posi+=replacement.length();
-					}
-				}
-			}
-		
-			ret=line2.toString();
-		}
-		return ret;
-	}
+    private final static LogFilter _instance=new LogFilter();
+
+    // die Daten, die ohne Besitzer registriert wurden
+    private final Secrets             global;
+    private final Map<Object,Secrets> secretsByOwner;
+    // Kopie der Werte aus secretsByOwner fuer das Filtern ohne Sperre
+    private volatile Secrets[]        owners;
+
+    /**
+     * Ein zu filterndes Datum.
+     */
+    private final static class Entry
+    {
+        private final String secret;
+        private final String replacement;
+        private final int    level;
+
+        private Entry(String secret,String replacement,int level)
+        {
+            this.secret=secret;
+            this.replacement=replacement;
+            this.level=level;
+        }
+    }
+
+    /**
+     * Die Daten eines Besitzers samt der daraus erzeugten Automaten.
+     */
+    private final static class Secrets
+    {
+        // null fuer die Daten ohne Besitzer
+        private final WeakReference<Object>   owner;
+        private final List<Entry>             entries;
+        private volatile Map<Integer,Matcher> matchers;
+
+        private Secrets(Object owner)
+        {
+            this.owner=(owner!=null)?new WeakReference<Object>(owner):null;
+            this.entries=new ArrayList<Entry>();
+            this.matchers=new ConcurrentHashMap<Integer,Matcher>();
+        }
+
+        private boolean isAlive()
+        {
+            return owner==null || owner.get()!=null;
+        }
+
+        private synchronized void add(String secret,String replacement,int level)
+        {
+            // duplikats-check fr "secret"
+            for (Iterator<Entry> i=entries.iterator();i.hasNext();) {
+                Entry entry=i.next();
+                if (entry.level==level && entry.secret.equals(secret)) {
+                    return;
+                }
+            }
+            entries.add(new Entry(secret,replacement,level));
+            this.matchers=new ConcurrentHashMap<Integer,Matcher>();
+        }
+
+        private synchronized void clear()
+        {
+            entries.clear();
+            this.matchers=new ConcurrentHashMap<Integer,Matcher>();
+        }
+
+        private String filter(String line,Integer filterLevel)
+        {
+            Matcher matcher=matchers.get(filterLevel);
+            if (matcher==null) {
+                matcher=compile(filterLevel);
+            }
+            return matcher.filter(line);
+        }
+
+        /**
+         * Erzeugt den Automaten fuer einen Filter-Level.
+         * @param filterLevel der Filter-Level.
+         * @return der Automat.
+         */
+        private synchronized Matcher compile(Integer filterLevel)
+        {
+            Matcher ret=matchers.get(filterLevel);
+            if (ret!=null) {
+                return ret;
+            }
+
+            // hoehere Level zuerst, damit deren Ersatz-Text bei gleichem
+            // secret gewinnt - wie frueher beim Filtern Level fuer Level
+            List<Entry> selected=new ArrayList<Entry>();
+            for (int level=filterLevel.intValue();level>0;level--) {
+                for (Iterator<Entry> i=entries.iterator();i.hasNext();) {
+                    Entry entry=i.next();
+                    if (entry.level==level) {
+                        selected.add(entry);
+                    }
+                }
+            }
+
+            ret=new Matcher(selected);
+            matchers.put(filterLevel,ret);
+            return ret;
+        }
+    }
+
+    public static LogFilter getInstance()
+    {
+        return _instance;
+    }
+
+    private LogFilter()
+    {
+        this.global=new Secrets(null);
+        this.secretsByOwner=new WeakHashMap<Object,Secrets>();
+        this.owners=new Secrets[0];
+    }
+
+    /**
+     * Entfernt alle registrierten Daten.
+     */
+    public synchronized void clearSecretData()
+    {
+        this.global.clear();
+        this.secretsByOwner.clear();
+        this.owners=new Secrets[0];
+    }
+
+    /**
+     * Entfernt alle fuer den angegebenen Besitzer registrierten Daten.
+     * @param owner der Besitzer (z.B. das Passport).
+     */
+    public void releaseSecretData(Object owner)
+    {
+        if (owner==null) {
+            this.global.clear();
+            return;
+        }
+
+        synchronized (this) {
+            if (this.secretsByOwner.remove(owner)!=null) {
+                this.owners=this.secretsByOwner.values().toArray(new Secrets[0]);
+            }
+        }
+    }
+
+    /**
+     * Registriert ein zu filterndes Datum ohne Besitzer. Es bleibt bis zum
+     * Aufruf von {@link #clearSecretData()} registriert.
+     * @param secret das zu filternde Datum.
+     * @param replacement der Ersatz-Text.
+     * @param level der Filter-Level, ab dem das Datum gefiltert wird.
+     */
+    public void addSecretData(String secret, String replacement, int level)
+    {
+        addSecretData(null,secret,replacement,level);
+    }
+
+    /**
+     * Registriert ein zu filterndes Datum fuer einen Besitzer.
+     * @param owner der Besitzer (z.B. das Passport). Beim Schliessen des
+     * Besitzers sollte {@link #releaseSecretData(Object)} aufgerufen werden.
+     * Spaetestens wenn der Besitzer nicht mehr referenziert wird, werden
+     * die Daten verworfen.
+     * @param secret das zu filternde Datum.
+     * @param replacement der Ersatz-Text. Besteht er aus weniger als zwei
+     * Zeichen, wird das Datum Zeichen fuer Zeichen ersetzt (Default "X").
+     * @param level der Filter-Level, ab dem das Datum gefiltert wird.
+     */
+    public void addSecretData(Object owner, String secret, String replacement, int level)
+    {
+        if (secret==null || secret.length()==0) {
+            return;
+        }
+
+        if (replacement==null || replacement.length()<2) {
+            // wenn der replacement-string kein vollstndiger String ist,
+            // diesen mit einem Filler auf die lnge des secrets bringen
+            char filler=(replacement!=null && replacement.length()==1)?replacement.charAt(0):'X';
+            char[] ca=new char[secret.length()];
+            Arrays.fill(ca,filler);
+            replacement=new String(ca);
+        }
+
+        Secrets secrets=global;
+        if (owner!=null) {
+            synchronized (this) {
+                secrets=secretsByOwner.get(owner);
+                if (secrets==null) {
+                    secrets=new Secrets(owner);
+                    secretsByOwner.put(owner,secrets);
+                    this.owners=this.secretsByOwner.values().toArray(new Secrets[0]);
+                }
+            }
+        }
+        secrets.add(secret,replacement,level);
+    }
+
+    /**
+     * Filtert eine Log-Zeile.
+     * @param line die Zeile.
+     * @param filterLevel der Filter-Level. Gefiltert werden alle Daten, deren
+     * Level zwischen 1 und diesem Wert liegt.
+     * @return die gefilterte Zeile.
+     */
+    public String filterLine(String line, int filterLevel)
+    {
+        if (line==null || filterLevel<=0) {
+            return line;
+        }
+
+        Integer key=Integer.valueOf(filterLevel);
+        line=global.filter(line,key);
+        Secrets[] current=this.owners;
+        for (int i=0;i<current.length;i++) {
+            if (current[i].isAlive()) {
+                line=current[i].filter(line,key);
+            }
+        }
+        return line;
+    }
+
+    /**
+     * Aho-Corasick-Automat ueber eine Menge zu filternder Daten.
+     * Nach dem Erzeugen unveraenderlich.
+     */
+    private final static class Matcher
+    {
+        // pro Zustand: sortierte Zeichen der Uebergaenge und Folgezustaende
+        private final char[][] keys;
+        private final int[][]  targets;
+        private final int[]    fail;
+        // Index des Datums, das in diesem Zustand endet, oder -1
+        private final int[]    out;
+        // naechster Zustand in der fail-Kette, in dem ein Datum endet, oder -1
+        private final int[]    outLink;
+        private final String[] replacements;
+        private final int[]    lengths;
+
+        private Matcher(List<Entry> entries)
+        {
+            List<Map<Character,Integer>> trie=new ArrayList<Map<Character,Integer>>();
+            List<Integer> outs=new ArrayList<Integer>();
+            trie.add(new HashMap<Character,Integer>());
+            outs.add(Integer.valueOf(-1));
+
+            this.replacements=new String[entries.size()];
+            this.lengths=new int[entries.size()];
+            int n=0;
+            for (Iterator<Entry> i=entries.iterator();i.hasNext();) {
+                Entry entry=i.next();
+                int state=0;
+                for (int c=0;c<entry.secret.length();c++) {
+                    Character ch=Character.valueOf(entry.secret.charAt(c));
+                    Integer next=trie.get(state).get(ch);
+                    if (next==null) {
+                        next=Integer.valueOf(trie.size());
+                        trie.add(new HashMap<Character,Integer>());
+                        outs.add(Integer.valueOf(-1));
+                        trie.get(state).put(ch,next);
+                    }
+                    state=next.intValue();
+                }
+                // bei doppelten secrets gewinnt das erste
+                if (outs.get(state).intValue()==-1) {
+                    outs.set(state,Integer.valueOf(n));
+                    replacements[n]=entry.replacement;
+                    lengths[n]=entry.secret.length();
+                    n++;
+                }
+            }
+
+            int size=trie.size();
+            this.keys=new char[size][];
+            this.targets=new int[size][];
+            this.fail=new int[size];
+            this.out=new int[size];
+            this.outLink=new int[size];
+            for (int s=0;s<size;s++) {
+                Map<Character,Integer> children=trie.get(s);
+                char[] k=new char[children.size()];
+                int    c=0;
+                for (Iterator<Character> i=children.keySet().iterator();i.hasNext();) {
+                    k[c++]=i.next().charValue();
+                }
+                Arrays.sort(k);
+                int[] t=new int[k.length];
+                for (c=0;c<k.length;c++) {
+                    t[c]=children.get(Character.valueOf(k[c])).intValue();
+                }
+                keys[s]=k;
+                targets[s]=t;
+                out[s]=outs.get(s).intValue();
+            }
+
+            // fail-links per Breitensuche
+            outLink[0]=-1;
+            LinkedList<Integer> queue=new LinkedList<Integer>();
+            for (int c=0;c<targets[0].length;c++) {
+                int child=targets[0][c];
+                fail[child]=0;
+                outLink[child]=-1;
+                queue.add(Integer.valueOf(child));
+            }
+            while (!queue.isEmpty()) {
+                int s=queue.removeFirst().intValue();
+                for (int c=0;c<keys[s].length;c++) {
+                    int  child=targets[s][c];
+                    char ch=keys[s][c];
+
+                    int f=fail[s];
+                    int next=step(f,ch);
+                    while (next==-1 && f!=0) {
+                        f=fail[f];
+                        next=step(f,ch);
+                    }
+                    fail[child]=(next!=-1)?next:0;
+                    outLink[child]=(out[fail[child]]!=-1)?fail[child]:outLink[fail[child]];
+                    queue.add(Integer.valueOf(child));
+                }
+            }
+        }
+
+        private int step(int state,char ch)
+        {
+            int idx=Arrays.binarySearch(keys[state],ch);
+            return (idx>=0)?targets[state][idx]:-1;
+        }
+
+        private String filter(String line)
+        {
+            if (lengths.length==0) {
+                return line;
+            }
+
+            int   len=line.length();
+            int[] matchAt=null; // pro Start-Position: Index+1 des laengsten Treffers
+            int   state=0;
+            for (int i=0;i<len;i++) {
+                char ch=line.charAt(i);
+                int  next=step(state,ch);
+                while (next==-1 && state!=0) {
+                    state=fail[state];
+                    next=step(state,ch);
+                }
+                state=(next!=-1)?next:0;
+
+                for (int s=(out[state]!=-1)?state:outLink[state];s!=-1;s=outLink[s]) {
+                    int p=out[s];
+                    int start=i-lengths[p]+1;
+                    if (matchAt==null) {
+                        matchAt=new int[len];
+                    }
+                    if (matchAt[start]==0 || lengths[matchAt[start]-1]<lengths[p]) {
+                        matchAt[start]=p+1;
+                    }
+                }
+            }
+
+            if (matchAt==null) {
+                return line;
+            }
+
+            StringBuffer ret=new StringBuffer(len);
+            int i=0;
+            while (i<len) {
+                int p=matchAt[i]-1;
+                if (p>=0) {
+                    ret.append(replacements[p]);
+                    i+=lengths[p];
+                } else {
+                    ret.append(line.charAt(i++));
+                }
+            }
+            return ret.toString();
+        }
+    }
 }
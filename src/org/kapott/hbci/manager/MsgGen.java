@@ -32,12 +32,12 @@ import javax.xml.parsers.FactoryConfigurationError;
 import javax.xml.parsers.ParserConfigurationException;
 
 import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.protocol.Grammar;
 import org.kapott.hbci.protocol.MSG;
 import org.kapott.hbci.protocol.factory.MSGFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /* Message-Generator-Klasse. Diese Klasse verwaltet die Syntax-Spezifikation
  * fr die zu verwendende HBCI-Version. Hiermit wird das Erzeugen von
@@ -58,6 +58,7 @@ import org.w3c.dom.NodeList;
 public final class MsgGen
 {
     private Document syntax;         /**< @internal @brief The representation of the syntax used by this generator */
+    private Grammar  grammar;        /**< @internal @brief The compiled syntax used for generating and parsing messages */
     private Hashtable<String, String> clientValues;  /**< @internal @brief A table of properties set by the user to specify the message to be generated */
     
     // Wird vom Server-Code benutzt. Wenn ein Dialog reinkommt mit einer HBCI-
@@ -66,6 +67,7 @@ public final class MsgGen
     public MsgGen(Document syntax)
     {
         this.syntax=syntax;
+        this.grammar=Grammar.getInstance(syntax);
         this.clientValues=new Hashtable<String, String>();
     }
 
@@ -73,18 +75,34 @@ public final class MsgGen
      * Stream, mit dem eine XML-Datei mit einer HBCI-Syntaxspezifikation
      * eingelesen wird */
     public MsgGen(InputStream syntaxFileStream)
+    {
+        this(parseSyntax(syntaxFileStream));
+    }
+
+    /* Liest eine XML-Datei mit einer HBCI-Syntaxspezifikation ein. Das
+     * erzeugte Dokument wird danach nicht mehr veraendert und kann deshalb
+     * von mehreren MsgGen-Instanzen gleichzeitig benutzt werden (siehe
+     * SyntaxRegistry). Dazu wird die "deferred node expansion" des Parsers
+     * abgeschaltet - sonst wuerden die DOM-Knoten erst beim ersten (lesenden)
+     * Zugriff erzeugt. */
+    public static Document parseSyntax(InputStream syntaxFileStream)
     {
         try {
             DocumentBuilderFactory dbf=DocumentBuilderFactory.newInstance();
 
             dbf.setIgnoringComments(true);
             dbf.setValidating(true);
+            try {
+                dbf.setFeature("http://apache.org/xml/features/dom/defer-node-expansion",false);
+            } catch (ParserConfigurationException e) {
+                HBCIUtils.log("xml parser does not support disabling deferred node expansion",HBCIUtils.LOG_DEBUG);
+            }
 
             DocumentBuilder db=dbf.newDocumentBuilder();
-            syntax=db.parse(syntaxFileStream);
+            Document syntax=db.parse(syntaxFileStream);
             syntaxFileStream.close();
 
-            clientValues=new Hashtable<String, String>();
+            return syntax;
         } catch (FactoryConfigurationError e) {
             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_MSGGEN_DBFAC"),e);
         } catch (ParserConfigurationException e) {
@@ -137,18 +155,28 @@ public final class MsgGen
     {
         return syntax;
     }
+
+    /** @internal @brief Returns the compiled HBCI syntax used by this generator
+
+        @return The compiled syntax. It is shared between all generators using
+                the same syntax document and must not be modified.
+     */
+    public Grammar getGrammar()
+    {
+        return grammar;
+    }
     
     public Hashtable<String, List<String>> getLowlevelGVs()
     {
         Hashtable<String, List<String>> result=new Hashtable<String, List<String>>();
         
         Element      gvlist=syntax.getElementById("GV");
-        NodeList     gvs=gvlist.getChildNodes();
-        int          len=gvs.getLength();
         StringBuffer type=new StringBuffer();
         
-        for (int i=0;i<len;i++) {
-            Node gvref=gvs.item(i);
+        // NodeList.item() ist beim gemeinsam genutzten Syntax-Dokument nicht
+        // threadsicher (interner Cache im DOM), deshalb wird hier (und unten)
+        // ueber die Geschwister-Knoten iteriert
+        for (Node gvref=gvlist.getFirstChild();gvref!=null;gvref=gvref.getNextSibling()) {
             if (gvref.getNodeType()==Node.ELEMENT_NODE) {
                 type.setLength(0);
                 type.append(((Element)gvref).getAttribute("type"));
@@ -196,13 +224,9 @@ public final class MsgGen
     {
         ArrayList<String> ret=new ArrayList<String>();
         Element   gvdef=syntax.getElementById(gvname+version);
-        NodeList  gvcontent=gvdef.getChildNodes();
-        int       len=gvcontent.getLength();
 
         boolean first=true;
-        for (int i=0;i<len;i++) {
-            Node contentref=gvcontent.item(i);
-
+        for (Node contentref=gvdef.getFirstChild();contentref!=null;contentref=contentref.getNextSibling()) {
             if (contentref.getNodeType()==Node.ELEMENT_NODE) {
                 // skip seghead
                 if (first) {
@@ -240,13 +264,8 @@ public final class MsgGen
         Element   gvdef=syntax.getElementById(gvname+"Res"+version);
         
         if (gvdef!=null) {
-            NodeList gvcontent=gvdef.getChildNodes();
-            int len=gvcontent.getLength();
-
             boolean first=true;
-            for (int i=0;i<len;i++) {
-                Node contentref=gvcontent.item(i);
-
+            for (Node contentref=gvdef.getFirstChild();contentref!=null;contentref=contentref.getNextSibling()) {
                 if (contentref.getNodeType()==Node.ELEMENT_NODE) {
                     if (first) {
                         first=false;
@@ -288,12 +307,7 @@ public final class MsgGen
         if (gvdef!=null) {
             // alle darin enthaltenen elemente durchlaufen, bis ein element
             // DEG type="ParTermUeb1" gefunden ist
-            NodeList gvcontent=gvdef.getChildNodes();
-            int len=gvcontent.getLength();
-
-            for (int i=0;i<len;i++) {
-                Node contentref=gvcontent.item(i);
-
+            for (Node contentref=gvdef.getFirstChild();contentref!=null;contentref=contentref.getNextSibling()) {
                 if (contentref.getNodeType()==Node.ELEMENT_NODE) {
                     String type=((Element)contentref).getAttribute("type");
                     if (type.startsWith("Par")) {
@@ -305,14 +319,10 @@ public final class MsgGen
                         
                         // DEGdef id="ParTermUeb1" finden
                         gvdef=syntax.getElementById(type);
-                        gvcontent=gvdef.getChildNodes();
-                        len=gvcontent.getLength();
                         
                         // darin alle elemente durchlaufen und deren namen
                         // zur ergebnisliste hinzufgen
-                        for (i=0;i<len;i++) {
-                            contentref=gvcontent.item(i);
-
+                        for (contentref=gvdef.getFirstChild();contentref!=null;contentref=contentref.getNextSibling()) {
                             if (contentref.getNodeType()==Node.ELEMENT_NODE) {
                                 addLowlevelProperties(ret,"",(Element)contentref);
                             }
@@ -338,11 +348,8 @@ public final class MsgGen
                     name=ref.getAttribute("type");
 
                 Element  def=syntax.getElementById(ref.getAttribute("type"));
-                NodeList defcontent=def.getChildNodes();
-                int len=defcontent.getLength();
 
-                for (int i=0;i<len;i++) {
-                    Node content=defcontent.item(i);
+                for (Node content=def.getFirstChild();content!=null;content=content.getNextSibling()) {
                     if (content.getNodeType()==Node.ELEMENT_NODE)
                         addLowlevelProperties(result,pathWithDot(path)+name,(Element)content);
                 }
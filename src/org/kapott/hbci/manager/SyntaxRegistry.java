@@ -0,0 +1,222 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.manager;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.kapott.hbci.exceptions.InvalidUserDataException;
+import org.w3c.dom.Document;
+
+/**
+ * Prozessweiter Cache fuer die HBCI-Syntax-Spezifikationen (hbci-*.xml).
+ * Jede Syntax-Datei wird nur ein einziges Mal geparst. Das entstandene
+ * Dokument wird danach nur noch lesend benutzt und von allen Instanzen
+ * von {@link HBCIKernelImpl} (bzw. {@link MsgGen}) gemeinsam verwendet, die
+ * mit der gleichen HBCI-Version arbeiten.
+ *
+ * Der Cache-Schluessel ist der Dateiname inclusive des Pfades aus dem
+ * Kernel-Parameter <code>kernel.kernel.xmlpath</code>, so dass auch
+ * abweichende Syntax-Dateien korrekt unterschieden werden.
+ */
+public final class SyntaxRegistry
+{
+    /**
+     * Die bereits geladenen (oder gerade ladenden) Syntax-Dateien.
+     */
+    private final static Map<String,Entry> entries=new ConcurrentHashMap<String,Entry>();
+
+    /**
+     * ct.
+     */
+    private SyntaxRegistry()
+    {
+    }
+
+    /**
+     * Liefert die Syntax-Spezifikation fuer die angegebene HBCI-Version.
+     * Ist die Syntax noch nicht geladen, wird sie jetzt geparst. Parallele
+     * Aufrufe fuer die gleiche Version warten, bis das Parsen abgeschlossen
+     * ist, und erhalten dann das gleiche Dokument.
+     * @param hbciversion die HBCI-Version ("201","210","220","plus","300").
+     * @return das Syntax-Dokument. Es darf nicht veraendert werden.
+     */
+    public static Document getSyntax(String hbciversion)
+    {
+        String filename=getFilename(hbciversion);
+        Entry entry=entries.get(filename);
+        if (entry==null) {
+            synchronized (entries) {
+                entry=entries.get(filename);
+                if (entry==null) {
+                    entry=new Entry(filename);
+                    entries.put(filename,entry);
+                }
+            }
+        }
+        return entry.getSyntax();
+    }
+
+    /**
+     * Laedt die Syntax-Spezifikationen aller angegebenen HBCI-Versionen vorab,
+     * damit das erste Erzeugen eines HBCIHandlers nicht durch das Parsen der
+     * Syntax-Datei verzoegert wird.
+     * @param hbciversions die zu ladenden HBCI-Versionen. Ohne Angabe werden
+     * alle von HBCI4Java unterstuetzten Versionen geladen.
+     */
+    public static void warmup(String... hbciversions)
+    {
+        if (hbciversions==null || hbciversions.length==0) {
+            hbciversions=getSupportedVersions();
+        }
+
+        for (int i=0;i<hbciversions.length;i++) {
+            HBCIUtils.log("preloading syntax for hbci version "+hbciversions[i],HBCIUtils.LOG_DEBUG);
+            getSyntax(hbciversions[i]);
+        }
+    }
+
+    /**
+     * Entfernt die Syntax-Spezifikation der angegebenen HBCI-Version aus dem
+     * Cache. Bereits existierende Kernel-Instanzen behalten ihre Referenz
+     * auf das Dokument, neue Instanzen parsen die Datei erneut.
+     * @param hbciversion die HBCI-Version.
+     * @return true, wenn die Version geladen war.
+     */
+    public static boolean unload(String hbciversion)
+    {
+        return entries.remove(getFilename(hbciversion))!=null;
+    }
+
+    /**
+     * Entfernt alle Syntax-Spezifikationen aus dem Cache, die laenger als
+     * <code>maxIdleMillis</code> nicht mehr angefordert wurden.
+     * @param maxIdleMillis max. Zeit in Millisekunden seit dem letzten Zugriff.
+     * @return Anzahl der entfernten Syntax-Spezifikationen.
+     */
+    public static int unloadUnused(long maxIdleMillis)
+    {
+        long now=System.currentTimeMillis();
+        int  count=0;
+
+        for (Iterator<Entry> i=entries.values().iterator();i.hasNext();) {
+            Entry entry=i.next();
+            if (now-entry.lastAccess>maxIdleMillis) {
+                HBCIUtils.log("unloading unused syntax "+entry.filename,HBCIUtils.LOG_DEBUG);
+                i.remove();
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Entfernt alle Syntax-Spezifikationen aus dem Cache.
+     */
+    public static void unloadAll()
+    {
+        entries.clear();
+    }
+
+    /**
+     * Liefert die Liste der aktuell geladenen Syntax-Dateien.
+     * @return Liste der Dateinamen.
+     */
+    public static List<String> getLoaded()
+    {
+        List<String> ret=new ArrayList<String>();
+        for (Iterator<Entry> i=entries.values().iterator();i.hasNext();) {
+            Entry entry=i.next();
+            if (entry.syntax!=null)
+                ret.add(entry.filename);
+        }
+        return ret;
+    }
+
+    /**
+     * Liefert die IDs aller HBCI-Versionen, fuer die eine Syntax-Datei existiert.
+     * @return Liste der HBCI-Versionen.
+     */
+    private static String[] getSupportedVersions()
+    {
+        List<String> ret=new ArrayList<String>();
+        ClassLoader  cl=SyntaxRegistry.class.getClassLoader();
+        HBCIVersion[] versions=HBCIVersion.values();
+
+        for (int i=0;i<versions.length;i++) {
+            if (cl.getResource(getFilename(versions[i].getId()))!=null)
+                ret.add(versions[i].getId());
+        }
+        return ret.toArray(new String[ret.size()]);
+    }
+
+    /**
+     * Liefert den Dateinamen der Syntax-Datei fuer die HBCI-Version.
+     * @param hbciversion die HBCI-Version.
+     * @return der Dateiname.
+     */
+    private static String getFilename(String hbciversion)
+    {
+        String xmlpath=HBCIUtils.getParam("kernel.kernel.xmlpath");
+        if (xmlpath==null) {
+            xmlpath="";
+        }
+        return xmlpath+"hbci-"+hbciversion+".xml";
+    }
+
+    /**
+     * Ein Eintrag im Cache. Das Parsen erfolgt erst beim ersten Zugriff und
+     * ist pro Eintrag synchronisiert, so dass verschiedene Versionen parallel
+     * geladen werden koennen.
+     */
+    private final static class Entry
+    {
+        private final String filename;
+        private volatile Document syntax;
+        private volatile long lastAccess;
+
+        private Entry(String filename)
+        {
+            this.filename=filename;
+            this.lastAccess=System.currentTimeMillis();
+        }
+
+        private Document getSyntax()
+        {
+            this.lastAccess=System.currentTimeMillis();
+
+            Document ret=this.syntax;
+            if (ret==null) {
+                synchronized (this) {
+                    ret=this.syntax;
+                    if (ret==null) {
+                        ret=load();
+                        this.syntax=ret;
+                    }
+                }
+            }
+            return ret;
+        }
+
+        private Document load()
+        {
+            HBCIUtils.log("loading syntax file "+filename,HBCIUtils.LOG_DEBUG);
+
+            InputStream syntaxStream=SyntaxRegistry.class.getClassLoader().getResourceAsStream(filename);
+            if (syntaxStream==null)
+                throw new InvalidUserDataException(HBCIUtilsInternal.getLocMsg("EXCMSG_KRNL_CANTLOAD_SYN",filename));
+
+            return MsgGen.parseSyntax(syntaxStream);
+        }
+    }
+}
@@ -27,7 +27,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.Hashtable;
 import java.util.Properties;
 
@@ -48,8 +47,6 @@ import org.kapott.hbci.manager.IHandlerData;
 import org.kapott.hbci.manager.LogFilter;
 import org.kapott.hbci.status.HBCIMsgStatus;
 import org.kapott.hbci.structures.Konto;
-import org.kapott.hbci.structures.Limit;
-import org.kapott.hbci.structures.Value;
 
 /** <p>Diese Klasse stellt die Basisklasse fr alle "echten" Passport-Implementationen
     dar. Hier werden bereits einige Methoden implementiert sowie einige 
@@ -63,6 +60,8 @@ public abstract class AbstractHBCIPassport
 
     private Properties bpd;     
     private Properties upd;     
+    private transient BPDIndex bpdIndex;
+    private transient UPDIndex updIndex;
     private String     hbciversion;
     private String     country; 
     private String     blz;     
@@ -79,6 +78,24 @@ public abstract class AbstractHBCIPassport
     
     private IHandlerData parentHandlerData;
     
+    // kunden-id und verbindung eines dialoges, der parallel zu anderen dialogen
+    // dieses passports gefuehrt wird (siehe beginDialogScope())
+    private final static ThreadLocal<DialogScope> dialogScope=new ThreadLocal<DialogScope>();
+    
+    private final static class DialogScope
+    {
+        private final AbstractHBCIPassport passport;
+        private final String               customerid;
+        private Comm                       comm;
+        private final Hashtable<String,Object> data=new Hashtable<String,Object>();
+        
+        private DialogScope(AbstractHBCIPassport passport,String customerid)
+        {
+            this.passport=passport;
+            this.customerid=customerid;
+        }
+    }
+    
     protected static final boolean FOR_SAVE=true;
     protected static final boolean FOR_LOAD=false;
     
@@ -179,6 +196,14 @@ public abstract class AbstractHBCIPassport
 
     public final Comm getComm()
     {
+        DialogScope scope=getDialogScope();
+        if (scope!=null) {
+            if (scope.comm==null) {
+                scope.comm=getCommInstance();
+            }
+            return scope.comm;
+        }
+        
         if (comm==null) {
             comm=getCommInstance();
         }
@@ -195,6 +220,15 @@ public abstract class AbstractHBCIPassport
     
     public final void closeComm()
     {
+        DialogScope scope=getDialogScope();
+        if (scope!=null) {
+            if (scope.comm!=null) {
+                scope.comm.close();
+                scope.comm=null;
+            }
+            return;
+        }
+        
         if (comm!=null) {
             comm.close();
             comm=null;
@@ -233,86 +267,30 @@ public abstract class AbstractHBCIPassport
     
     public final Konto[] getAccounts()
     {
-        ArrayList<Konto> ret=new ArrayList<Konto>();
-        
-        if (upd!=null) {
-            for (int i=0;;i++) {
-                String header=HBCIUtilsInternal.withCounter("KInfo",i);
-                String number=upd.getProperty(header+".KTV.number");
-
-                if (number==null)
-                    break;
-
-                Konto entry=new Konto();
-                entry.blz=upd.getProperty(header+".KTV.KIK.blz");
-                entry.country=upd.getProperty(header+".KTV.KIK.country");
-                entry.number=number;
-                entry.subnumber=upd.getProperty(header+".KTV.subnumber");
-                entry.curr=upd.getProperty(header+".cur");
-                entry.type=upd.getProperty(header+".konto");
-                entry.customerid=upd.getProperty(header+".customerid");
-                entry.name=upd.getProperty(header+".name1");
-                entry.name2=upd.getProperty(header+".name2");
-                entry.bic=upd.getProperty(header+".KTV.bic");
-                entry.iban=upd.getProperty(header+".KTV.iban");
-                entry.acctype=upd.getProperty(header+".acctype");
-                
-                String st;
-                if ((st=upd.getProperty(header+".KLimit.limittype"))!=null) {
-                    Limit limit=new Limit();
-                    limit.type=st.charAt(0);
-                    limit.value=new Value(upd.getProperty(header+".KLimit.BTG.value"),
-                                          upd.getProperty(header+".KLimit.BTG.curr"));
-                    if ((st=upd.getProperty(header+".KLimit.limitdays"))!=null)
-                        limit.days=Integer.parseInt(st);
-                }
-                
-                // allowedGVs
-                ArrayList<String> codes = new ArrayList<String>();
-                for (int j=0;;j++) {
-                	String gvHeader = HBCIUtilsInternal.withCounter(header+".AllowedGV", j);
-                	String code = upd.getProperty(gvHeader+".code");
-                	if (code == null) break;
-                	codes.add(code);
-                }
-                if (!codes.isEmpty()) entry.allowedGVs = codes;
-                
-                ret.add(entry);
-            }
-        }
-        
-        return ret.toArray(new Konto[ret.size()]);
+        UPDIndex index=updIndex();
+        return (index!=null)?index.getAccounts():new Konto[0];
     }
     
     public final void fillAccountInfo(Konto account)
     {
-        String  number=HBCIUtilsInternal.stripLeadingZeroes(account.number);
-        String  iban=HBCIUtilsInternal.stripLeadingZeroes(account.iban);
-        boolean haveNumber=(number!=null && number.length()!=0);
-        boolean haveIBAN=(iban!=null && iban.length()!=0);
+        UPDIndex index=updIndex();
+        if (index==null)
+            return;
         
-        Konto[] accounts=getAccounts();
-        
-        for (int i=0;i<accounts.length;i++) {
-            String temp_number=HBCIUtilsInternal.stripLeadingZeroes(accounts[i].number);
-            String temp_iban=HBCIUtilsInternal.stripLeadingZeroes(accounts[i].iban);
-            
-            if (haveNumber && number.equals(temp_number) ||
-                    haveIBAN && iban.equals(temp_iban)) 
-            {
-                account.blz=accounts[i].blz;
-                account.country=accounts[i].country;
-                account.number=accounts[i].number;
-                account.subnumber=accounts[i].subnumber;
-                account.type=accounts[i].type;
-                account.curr=accounts[i].curr;
-                account.customerid=accounts[i].customerid;
-                account.name=accounts[i].name;
-                account.bic=accounts[i].bic;
-                account.iban=accounts[i].iban;
-                account.acctype=accounts[i].acctype;
-                break;
-            }
+        Konto found=index.find(HBCIUtilsInternal.stripLeadingZeroes(account.number),
+                               HBCIUtilsInternal.stripLeadingZeroes(account.iban));
+        if (found!=null) {
+            account.blz=found.blz;
+            account.country=found.country;
+            account.number=found.number;
+            account.subnumber=found.subnumber;
+            account.type=found.type;
+            account.curr=found.curr;
+            account.customerid=found.customerid;
+            account.name=found.name;
+            account.bic=found.bic;
+            account.iban=found.iban;
+            account.acctype=found.acctype;
         }
     }
     
@@ -366,12 +344,42 @@ public abstract class AbstractHBCIPassport
     
     public String getCustomerId()
     {
+        String customerid=getStoredCustomerId();
         return (customerid!=null && customerid.length()!=0)?customerid:getUserId();
     }
     
     public String getStoredCustomerId()
     {
-        return customerid;
+        DialogScope scope=getDialogScope();
+        return (scope!=null)?scope.customerid:customerid;
+    }
+    
+    public final void beginDialogScope(String customerId)
+    {
+        if (getDialogScope()!=null)
+            throw new HBCI_Exception("*** dialog scope already active for this passport in current thread");
+        dialogScope.set(new DialogScope(this,customerId));
+    }
+    
+    public final void endDialogScope()
+    {
+        DialogScope scope=getDialogScope();
+        if (scope==null)
+            return;
+        
+        try {
+            closeComm();
+        } finally {
+            dialogScope.remove();
+        }
+    }
+    
+    /* liefert den im aktuellen thread gestarteten dialog-scope, sofern er zu
+     * diesem passport gehoert */
+    private DialogScope getDialogScope()
+    {
+        DialogScope scope=dialogScope.get();
+        return (scope!=null && scope.passport==this)?scope:null;
     }
     
     public String getSysId()
@@ -507,39 +515,8 @@ public abstract class AbstractHBCIPassport
 
     public final String[][] getSuppSecMethods()
     {
-        String[][] ret=new String[0][];
-
-        if (bpd!=null) {
-            ArrayList<String[]> temp=new ArrayList<String[]>();
-            String header;
-            String method;
-            int i=0;
-
-            while ((header=HBCIUtilsInternal.withCounter("SecMethod.SuppSecMethods",i))!=null &&
-                   (method=bpd.getProperty(header+".method"))!=null) {
-
-                String header2;
-                String version;
-                int    j=0;
-                
-                while ((header2=HBCIUtilsInternal.withCounter(header+".version",j))!=null &&
-                        (version=bpd.getProperty(header2))!=null) 
-                {
-                    String[] entry=new String[2];
-                    entry[0]=method;
-                    entry[1]=version;
-                    temp.add(entry);
-                    j++;
-                }
-                
-                i++;
-            }
-
-            if (temp.size()!=0)
-                ret=(temp.toArray(ret));
-        }
-            
-        return ret;
+        BPDIndex index=bpdIndex();
+        return (index!=null)?index.getSuppSecMethods():new String[0][];
     }
 
     public final String[][] getSuppCompMethods()
@@ -589,6 +566,7 @@ public abstract class AbstractHBCIPassport
     public void setBPD(Properties bpd)
     {
         this.bpd=bpd;
+        this.bpdIndex=(bpd!=null)?new BPDIndex(bpd):null;
     }
     
     public final void clearUPD()
@@ -599,6 +577,24 @@ public abstract class AbstractHBCIPassport
     public final void setUPD(Properties upd)
     {
         this.upd=upd;
+        this.updIndex=(upd!=null)?new UPDIndex(upd):null;
+    }
+    
+    /* nach der deserialisierung fehlt der index noch */
+    private BPDIndex bpdIndex()
+    {
+        BPDIndex ret=bpdIndex;
+        if (ret==null && bpd!=null)
+            bpdIndex=ret=new BPDIndex(bpd);
+        return ret;
+    }
+
+    private UPDIndex updIndex()
+    {
+        UPDIndex ret=updIndex;
+        if (ret==null && upd!=null)
+            updIndex=ret=new UPDIndex(upd);
+        return ret;
     }
 
     public final void setCountry(String country)
@@ -608,7 +604,7 @@ public abstract class AbstractHBCIPassport
 
     public final void setBLZ(String blz)
     {
-    	LogFilter.getInstance().addSecretData(blz,"X",LogFilter.FILTER_MOST);
+    	LogFilter.getInstance().addSecretData(this,blz,"X",LogFilter.FILTER_MOST);
         this.blz=blz;
     }
 
@@ -629,13 +625,13 @@ public abstract class AbstractHBCIPassport
     
     public final void setUserId(String userid)
     {
-    	LogFilter.getInstance().addSecretData(userid,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,userid,"X",LogFilter.FILTER_IDS);
         this.userid=userid;
     }
 
     public final void setCustomerId(String customerid)
     {
-    	LogFilter.getInstance().addSecretData(customerid,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,customerid,"X",LogFilter.FILTER_IDS);
         this.customerid=customerid;
     }    
 
@@ -651,7 +647,7 @@ public abstract class AbstractHBCIPassport
 
     public final void setCID(String cid)
     {
-    	LogFilter.getInstance().addSecretData(cid,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,cid,"X",LogFilter.FILTER_IDS);
         this.cid=cid;
     }
 
@@ -772,6 +768,7 @@ public abstract class AbstractHBCIPassport
     public void close()
     {
         closeComm();
+        LogFilter.getInstance().releaseSecretData(this);
     }
     
     /**
@@ -793,7 +790,7 @@ public abstract class AbstractHBCIPassport
             if (passphrase.length()==0) {
                 throw new InvalidUserDataException(HBCIUtilsInternal.getLocMsg("EXCMSG_PASSZERO"));
             }
-            LogFilter.getInstance().addSecretData(passphrase.toString(),"X",LogFilter.FILTER_SECRETS);
+            LogFilter.getInstance().addSecretData(this,passphrase.toString(),"X",LogFilter.FILTER_SECRETS);
 
             SecretKeyFactory fac=SecretKeyFactory.getInstance("PBEWithMD5AndDES");
             PBEKeySpec keyspec=new PBEKeySpec(passphrase.toString().toCharArray());
@@ -809,43 +806,8 @@ public abstract class AbstractHBCIPassport
     
     public Properties getParamSegmentNames()
     {
-        Properties ret=new Properties();
-        
-        for (Enumeration e=bpd.propertyNames();e.hasMoreElements();) {
-            String key=(String)e.nextElement();
-            
-            if (key.startsWith("Params") &&
-                key.endsWith(".SegHead.code")) {
-                int dotPos=key.indexOf('.');
-                int dotPos2=key.indexOf('.',dotPos+1);
-                
-                String gvname=key.substring(dotPos+1,dotPos2);
-                int    len=gvname.length();
-                int    versionPos=-1;
-                
-                for (int i=len-1;i>=0;i--) {
-                    char ch=gvname.charAt(i);
-                    if (!(ch>='0' && ch<='9')) {
-                        versionPos=i+1;
-                        break;
-                    }
-                }
-                
-                String version=gvname.substring(versionPos);
-                if (version.length()!=0) {
-                    gvname=gvname.substring(0,versionPos-3); // remove version and "Par"
-
-                    String knownVersion=(String)ret.get(gvname);
-
-                    if (knownVersion==null ||
-                        Integer.parseInt(version)>Integer.parseInt(knownVersion)) {
-                        ret.setProperty(gvname,version);
-                    }
-                }
-            }
-        }
-        
-        return ret;
+        BPDIndex index=bpdIndex();
+        return (index!=null)?index.getParamSegmentNames():new Properties();
     }
 
     public Properties getJobRestrictions(String specname)
@@ -864,35 +826,43 @@ public abstract class AbstractHBCIPassport
     
     public Properties getJobRestrictions(String gvname,String version)
     {
-        Properties result=new Properties();
-
-        String searchstring=gvname+"Par"+version;
-        for (Enumeration e=bpd.propertyNames();e.hasMoreElements();) {
-            String key=(String)e.nextElement();
-
-            if (key.startsWith("Params")&&
-                key.indexOf("."+searchstring+".Par")!=-1) {
-                int searchIdx=key.indexOf(searchstring);
-                result.setProperty(key.substring(key.indexOf(".",
-                                                             searchIdx+searchstring.length()+4)+1),
-                                   bpd.getProperty(key));
-            }
-        }
-
-        return result;
+        BPDIndex index=bpdIndex();
+        return (index!=null)?index.getJobRestrictions(gvname,version):new Properties();
     }
     
     public void setPersistentData(String id,Object o)
     {
+        Hashtable<String,Object> data=getPersistentDataFor(id);
         if (o!=null)
-            persistentData.put(id,o);
+            data.put(id,o);
         else
-            persistentData.remove(id);
+            data.remove(id);
     }
     
     public Object getPersistentData(String id)
     {
-        return persistentData.get(id);
+        return getPersistentDataFor(id).get(id);
+    }
+    
+    /* liefert die tabelle, in der der wert gespeichert wird. werte, die nur
+     * innerhalb eines dialoges gelten, landen bei parallel gefuehrten dialogen
+     * im dialog-scope, damit sich die dialoge nicht gegenseitig stoeren */
+    private Hashtable<String,Object> getPersistentDataFor(String id)
+    {
+        DialogScope scope=getDialogScope();
+        return (scope!=null && isDialogData(id))?scope.data:persistentData;
+    }
+    
+    /**
+     * Prueft, ob der Wert nur innerhalb eines Dialoges gilt.
+     * Solche Werte werden bei parallel gefuehrten Dialogen nicht im
+     * gemeinsamen Passport sondern pro Dialog gespeichert.
+     * @param id Name des Wertes.
+     * @return true, wenn der Wert nur innerhalb eines Dialoges gilt.
+     */
+    protected boolean isDialogData(String id)
+    {
+        return false;
     }
     
     public void syncSigId()
@@ -566,6 +566,18 @@ public abstract class AbstractPinTanPassport
         return false;
     }
     
+    /**
+     * Challenge und External-ID des Zwei-Schritt-Verfahrens gelten nur fuer
+     * den Dialog, in dem HKTAN gesendet wurde.
+     * @see org.kapott.hbci.passport.AbstractHBCIPassport#isDialogData(java.lang.String)
+     */
+    protected boolean isDialogData(String id)
+    {
+        return id.equals("pintan_challenge") ||
+               id.equals("pintan_challenge_hhd_uc") ||
+               id.equals("externalid");
+    }
+    
     public boolean needInstKeys()
     {
         // TODO: das abhngig vom thema "bankensignatur fr HKTAN" machen
@@ -0,0 +1,155 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.passport;
+
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.kapott.hbci.manager.HBCIUtilsInternal;
+
+/**
+ * Index ueber die BPD eines Passports.
+ *
+ * Die BPD liegen als flache {@link Properties} vor. Um die Parameter-Segmente
+ * oder die Restriktionen eines Geschaeftsvorfalls zu finden, musste bisher
+ * bei jedem Aufruf ueber alle Schluessel iteriert werden - bei grossen
+ * Instituten sind das mehrere tausend. Der Index wird in
+ * {@link AbstractHBCIPassport#setBPD(Properties)} einmal erzeugt und danach
+ * nicht mehr veraendert.
+ *
+ * Alle Methoden liefern Kopien, die der Aufrufer aendern darf.
+ */
+final class BPDIndex
+{
+    // GV-Name -> hoechste Segment-Version ("Ueb" -> "5")
+    private final Properties paramSegments=new Properties();
+
+    // "UebPar5" -> Restriktionen ("maxusage" -> "1")
+    private final Map<String,Properties> restrictions=new HashMap<String,Properties>();
+
+    private final String[][] secMethods;
+
+    /**
+     * ct.
+     * @param bpd die BPD.
+     */
+    BPDIndex(Properties bpd)
+    {
+        for (Enumeration<?> e=bpd.propertyNames();e.hasMoreElements();) {
+            String key=(String)e.nextElement();
+            if (!key.startsWith("Params"))
+                continue;
+
+            // "Params_3.UebPar5.ParUeb.maxusage"
+            int dotPos=key.indexOf('.');
+            int dotPos2=(dotPos!=-1)?key.indexOf('.',dotPos+1):-1;
+            if (dotPos2==-1)
+                continue;
+
+            String segName=key.substring(dotPos+1,dotPos2);
+            if (key.endsWith(".SegHead.code"))
+                addParamSegment(segName);
+
+            if (key.startsWith(".Par",dotPos2)) {
+                int dotPos3=key.indexOf('.',dotPos2+4);
+                if (dotPos3!=-1) {
+                    Properties props=restrictions.get(segName);
+                    if (props==null) {
+                        props=new Properties();
+                        restrictions.put(segName,props);
+                    }
+                    props.setProperty(key.substring(dotPos3+1),bpd.getProperty(key));
+                }
+            }
+        }
+
+        List<String[]> methods=new ArrayList<String[]>();
+        for (int i=0;;i++) {
+            String header=HBCIUtilsInternal.withCounter("SecMethod.SuppSecMethods",i);
+            String method=bpd.getProperty(header+".method");
+            if (method==null)
+                break;
+
+            for (int j=0;;j++) {
+                String version=bpd.getProperty(HBCIUtilsInternal.withCounter(header+".version",j));
+                if (version==null)
+                    break;
+                methods.add(new String[] {method,version});
+            }
+        }
+        this.secMethods=methods.toArray(new String[methods.size()][]);
+    }
+
+    /* "UebPar5" - merkt sich pro GV die hoechste Version */
+    private void addParamSegment(String segName)
+    {
+        int len=segName.length();
+        int versionPos=-1;
+        for (int i=len-1;i>=0;i--) {
+            char ch=segName.charAt(i);
+            if (!(ch>='0' && ch<='9')) {
+                versionPos=i+1;
+                break;
+            }
+        }
+        if (versionPos<3 || versionPos==len)
+            return;
+
+        String version=segName.substring(versionPos);
+        String gvname=segName.substring(0,versionPos-3); // version und "Par" entfernen
+
+        String knownVersion=paramSegments.getProperty(gvname);
+        if (knownVersion==null ||
+            Integer.parseInt(version)>Integer.parseInt(knownVersion)) {
+            paramSegments.setProperty(gvname,version);
+        }
+    }
+
+    /**
+     * Liefert alle GV-Namen, fuer die die BPD Parameter-Segmente enthalten,
+     * jeweils mit der hoechsten Segment-Version.
+     * @return GV-Name -&gt; Version.
+     */
+    Properties getParamSegmentNames()
+    {
+        Properties ret=new Properties();
+        ret.putAll(paramSegments);
+        return ret;
+    }
+
+    /**
+     * Liefert die Restriktionen eines Geschaeftsvorfalls.
+     * @param gvname der GV-Name (z.B. "Ueb").
+     * @param version die Segment-Version.
+     * @return die Restriktionen. Niemals <code>null</code>.
+     */
+    Properties getJobRestrictions(String gvname,String version)
+    {
+        Properties ret=new Properties();
+        Properties props=restrictions.get(gvname+"Par"+version);
+        if (props!=null)
+            ret.putAll(props);
+        return ret;
+    }
+
+    /**
+     * Liefert die unterstuetzten Sicherheitsverfahren.
+     * @return Liste mit Paaren aus Verfahren und Version.
+     */
+    String[][] getSuppSecMethods()
+    {
+        String[][] ret=new String[secMethods.length][];
+        for (int i=0;i<secMethods.length;i++)
+            ret[i]=secMethods[i].clone();
+        return ret;
+    }
+}
@@ -341,7 +341,7 @@ public class HBCIPassportDDV
 
     public void setSoftPin(byte[] softPin)
     {
-    	LogFilter.getInstance().addSecretData(new String(softPin),"X",LogFilter.FILTER_SECRETS);
+    	LogFilter.getInstance().addSecretData(this,new String(softPin),"X",LogFilter.FILTER_SECRETS);
         this.softPin=softPin;
     }
     
@@ -556,7 +556,7 @@ public class HBCIPassportDDV
                         if (temppin.length()==0)
                             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_PINZERO"));
                         pin=temppin.toString();
-                        LogFilter.getInstance().addSecretData(pin,"X",LogFilter.FILTER_SECRETS);
+                        LogFilter.getInstance().addSecretData(this,pin,"X",LogFilter.FILTER_SECRETS);
                     }
 
                     setSoftPin(pin.getBytes("ISO-8859-1"));
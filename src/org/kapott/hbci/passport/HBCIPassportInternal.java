@@ -117,6 +117,16 @@ public interface HBCIPassportInternal
     public void setParentHandlerData(IHandlerData handler);
     public IHandlerData getParentHandlerData();
     
+    /* Startet einen Dialog, der parallel zu anderen Dialogen dieses Passports
+     * im aktuellen Thread gefuehrt wird (siehe HBCIHandler#execute(Executor)).
+     * Bis zum Aufruf von endDialogScope() liefern getCustomerId() und getComm()
+     * in diesem Thread die angegebene Kunden-ID und eine eigene Verbindung. */
+    public void beginDialogScope(String customerId);
+    
+    /* Beendet den mit beginDialogScope() gestarteten Dialog und schliesst
+     * dessen Verbindung. */
+    public void endDialogScope();
+    
     /* Diese Methode wird nach jeder Dialog-Initialisierung aufgerufen. Ein
      * Passport-Objekt kann den Status der Response mit Hilfe von msgStatus
      * auswerten. Durch Zurckgeben von "true" wird angezeigt, dass eine
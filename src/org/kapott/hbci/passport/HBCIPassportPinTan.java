@@ -340,7 +340,7 @@ public class HBCIPassportPinTan
                     throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_PINZERO"));
                 }
                 setPIN(s.toString());
-                LogFilter.getInstance().addSecretData(getPIN(),"X",LogFilter.FILTER_SECRETS);
+                LogFilter.getInstance().addSecretData(this,getPIN(),"X",LogFilter.FILTER_SECRETS);
             }
             
             String tan="";
@@ -458,7 +458,7 @@ public class HBCIPassportPinTan
                 }
             }
             if (tan.length()!=0) {
-            	LogFilter.getInstance().addSecretData(tan,"X",LogFilter.FILTER_SECRETS);
+            	LogFilter.getInstance().addSecretData(this,tan,"X",LogFilter.FILTER_SECRETS);
             }
 
             return (getPIN()+"|"+tan).getBytes("ISO-8859-1");
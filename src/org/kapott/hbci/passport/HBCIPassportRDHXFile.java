@@ -96,7 +96,7 @@ public class HBCIPassportRDHXFile
                             HBCICallback.TYPE_SECRET,
                             retData);
                     // TODO: passwort-bedingungen nach spez. prfen
-                    LogFilter.getInstance().addSecretData(retData.toString(),"X",LogFilter.FILTER_SECRETS);
+                    LogFilter.getInstance().addSecretData(this,retData.toString(),"X",LogFilter.FILTER_SECRETS);
                     setPassphrase(retData.toString().getBytes());
                 }
             	
@@ -192,7 +192,7 @@ public class HBCIPassportRDHXFile
                         HBCIUtilsInternal.getLocMsg("CALLB_NEED_PASS"),
                         HBCICallback.TYPE_SECRET, retData);
                 // TODO: passwort-bedingungen nach spez. prfen
-                LogFilter.getInstance().addSecretData(retData.toString(),"X",LogFilter.FILTER_SECRETS);
+                LogFilter.getInstance().addSecretData(this,retData.toString(),"X",LogFilter.FILTER_SECRETS);
                 setPassphrase(retData.toString().getBytes());
             }
 
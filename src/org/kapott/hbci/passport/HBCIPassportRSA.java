@@ -281,7 +281,7 @@ public class HBCIPassportRSA extends AbstractRDHPassport implements HBCIPassport
     }
     
     public void setSoftPin(byte[] softPin) {
-        LogFilter.getInstance().addSecretData(new String(softPin), "X", LogFilter.FILTER_SECRETS);
+        LogFilter.getInstance().addSecretData(this,new String(softPin), "X", LogFilter.FILTER_SECRETS);
         this.softPin = softPin;
     }
     
@@ -755,7 +755,7 @@ public class HBCIPassportRSA extends AbstractRDHPassport implements HBCIPassport
                         if (temppin.length() == 0)
                             throw new HBCI_Exception(HBCIUtilsInternal.getLocMsg("EXCMSG_PINZERO"));
                         pin = temppin.toString();
-                        LogFilter.getInstance().addSecretData(pin, "X", LogFilter.FILTER_SECRETS);
+                        LogFilter.getInstance().addSecretData(this,pin, "X", LogFilter.FILTER_SECRETS);
                     }
                     
                     setSoftPin(pin.getBytes("ISO-8859-1"));
@@ -0,0 +1,142 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.passport;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.kapott.hbci.manager.HBCIUtilsInternal;
+import org.kapott.hbci.structures.Konto;
+
+/**
+ * Index ueber die UPD eines Passports.
+ *
+ * Die Konten werden in {@link AbstractHBCIPassport#setUPD(Properties)} einmal
+ * aus den flachen {@link Properties} gelesen. {@link #getAccounts()} liefert
+ * danach jedesmal neue {@link Konto}-Objekte, die der Aufrufer aendern darf.
+ *
+ * Fuer {@link AbstractHBCIPassport#fillAccountInfo(Konto)} sind die Konten
+ * zusaetzlich nach Kontonummer und IBAN (jeweils ohne fuehrende Nullen)
+ * indiziert.
+ */
+final class UPDIndex
+{
+    private final Konto[] accounts;
+
+    // Kontonummer bzw. IBAN ohne fuehrende Nullen -> erstes passendes Konto
+    private final Map<String,Integer> byNumber=new HashMap<String,Integer>();
+    private final Map<String,Integer> byIBAN=new HashMap<String,Integer>();
+
+    /**
+     * ct.
+     * @param upd die UPD.
+     */
+    UPDIndex(Properties upd)
+    {
+        List<Konto> list=new ArrayList<Konto>();
+        for (int i=0;;i++) {
+            String header=HBCIUtilsInternal.withCounter("KInfo",i);
+            String number=upd.getProperty(header+".KTV.number");
+            if (number==null)
+                break;
+
+            Konto entry=new Konto();
+            entry.blz=upd.getProperty(header+".KTV.KIK.blz");
+            entry.country=upd.getProperty(header+".KTV.KIK.country");
+            entry.number=number;
+            entry.subnumber=upd.getProperty(header+".KTV.subnumber");
+            entry.curr=upd.getProperty(header+".cur");
+            entry.type=upd.getProperty(header+".konto");
+            entry.customerid=upd.getProperty(header+".customerid");
+            entry.name=upd.getProperty(header+".name1");
+            entry.name2=upd.getProperty(header+".name2");
+            entry.bic=upd.getProperty(header+".KTV.bic");
+            entry.iban=upd.getProperty(header+".KTV.iban");
+            entry.acctype=upd.getProperty(header+".acctype");
+
+            // allowedGVs
+            List<String> codes=new ArrayList<String>();
+            for (int j=0;;j++) {
+                String code=upd.getProperty(HBCIUtilsInternal.withCounter(header+".AllowedGV",j)+".code");
+                if (code==null)
+                    break;
+                codes.add(code);
+            }
+            if (!codes.isEmpty())
+                entry.allowedGVs=codes;
+
+            list.add(entry);
+        }
+        this.accounts=list.toArray(new Konto[list.size()]);
+
+        for (int i=0;i<accounts.length;i++) {
+            index(byNumber,accounts[i].number,i);
+            index(byIBAN,accounts[i].iban,i);
+        }
+    }
+
+    private static void index(Map<String,Integer> map,String key,int idx)
+    {
+        key=HBCIUtilsInternal.stripLeadingZeroes(key);
+        if (key!=null && key.length()!=0 && !map.containsKey(key))
+            map.put(key,Integer.valueOf(idx));
+    }
+
+    /**
+     * Sucht das erste Konto, dessen Kontonummer oder IBAN passt.
+     * @param number die Kontonummer ohne fuehrende Nullen oder <code>null</code>.
+     * @param iban die IBAN ohne fuehrende Nullen oder <code>null</code>.
+     * @return das Konto oder <code>null</code>. Das Objekt gehoert dem Index
+     * und darf nicht veraendert werden.
+     */
+    Konto find(String number,String iban)
+    {
+        Integer n=(number!=null && number.length()!=0)?byNumber.get(number):null;
+        Integer i=(iban!=null && iban.length()!=0)?byIBAN.get(iban):null;
+        if (n==null)
+            return (i!=null)?accounts[i.intValue()]:null;
+        if (i==null || n.intValue()<i.intValue())
+            return accounts[n.intValue()];
+        return accounts[i.intValue()];
+    }
+
+    /**
+     * Liefert Kopien aller Konten aus den UPD.
+     * @return Liste der Konten.
+     */
+    Konto[] getAccounts()
+    {
+        Konto[] ret=new Konto[accounts.length];
+        for (int i=0;i<accounts.length;i++)
+            ret[i]=copy(accounts[i]);
+        return ret;
+    }
+
+    private static Konto copy(Konto src)
+    {
+        Konto ret=new Konto();
+        ret.blz=src.blz;
+        ret.country=src.country;
+        ret.number=src.number;
+        ret.subnumber=src.subnumber;
+        ret.curr=src.curr;
+        ret.type=src.type;
+        ret.customerid=src.customerid;
+        ret.name=src.name;
+        ret.name2=src.name2;
+        ret.bic=src.bic;
+        ret.iban=src.iban;
+        ret.acctype=src.acctype;
+        if (src.allowedGVs!=null)
+            ret.allowedGVs=new ArrayList<Object>((List<?>)src.allowedGVs);
+        return ret;
+    }
+}
@@ -35,9 +35,6 @@ import org.kapott.hbci.exceptions.OverwriteException;
 import org.kapott.hbci.exceptions.ParseErrorException;
 import org.kapott.hbci.exceptions.PredelimErrorException;
 import org.kapott.hbci.manager.HBCIUtilsInternal;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 public final class DE
     extends SyntaxElement
@@ -47,7 +44,7 @@ public final class DE
     private int maxsize;
     private List<String> valids;
 
-    protected MultipleSyntaxElements createNewChildContainer(Node dedef, Document syntax)
+    protected MultipleSyntaxElements createNewChildContainer(ElementRef dedef, Grammar syntax)
     {
         return null;
     }
@@ -103,33 +100,24 @@ public final class DE
         return ret;
     }
 
-    private void initData(Node dedef, String name, String path, int idx, Document syntax)
+    private void initData(ElementRef dedef, String name, String path, int idx, Grammar syntax)
     {
         this.value=null;
         this.valids=new ArrayList<String>();
 
-        String st;
-
-        minsize = 1;
-        st = ((Element)dedef).getAttribute("minsize");
-        if (st.length() != 0)
-            minsize = Integer.parseInt(st);
-
-        maxsize = 0;
-        st = ((Element)dedef).getAttribute("maxsize");
-        if (st.length() != 0)
-            maxsize = Integer.parseInt(st);
+        minsize = dedef.getMinSize();
+        maxsize = dedef.getMaxSize();
     }
     
-    public DE(Node dedef, String name, String path, int idx, Document syntax)
+    public DE(ElementRef dedef, String name, String path, int idx, Grammar syntax)
     {
-        super(((Element)dedef).getAttribute("type"),name,path,idx,null);
+        super(dedef.getType(),name,path,idx,null);
         initData(dedef,name,path,idx,syntax);
     }
 
-    public void init(Node dedef, String name, String path, int idx, Document syntax)
+    public void init(ElementRef dedef, String name, String path, int idx, Grammar syntax)
     {
-        super.init(((Element)dedef).getAttribute("type"),name,path,idx,null);
+        super.init(dedef.getType(),name,path,idx,null);
         initData(dedef,name,path,idx,syntax);
     }
 
@@ -181,6 +169,7 @@ public final class DE
     public void setValue(String st)
     {
         this.value=SyntaxDEFactory.getInstance().createSyntaxDE(getType(),getPath(),st,minsize,maxsize);
+        changed();
     }
     
     public SyntaxDE getValue()
@@ -190,7 +179,7 @@ public final class DE
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    protected MultipleSyntaxElements parseNewChildContainer(Node deref, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected MultipleSyntaxElements parseNewChildContainer(ElementRef deref, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         return null;
     }
@@ -202,13 +191,12 @@ public final class DE
 
     /** anlegen eines de beim parsen funktioniert analog zum
         anlegen eines de bei der message-synthese */
-    private void parseValue(StringBuffer res,Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    private void parseValue(ParseCursor res,Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
-        String temp=res.toString();
-        int len=temp.length();
+        int len=res.length();
         char preDelim=getPreDelim();
         
-        if (preDelim!=(char)0 && temp.charAt(0)!=preDelim) {
+        if (preDelim!=(char)0 && res.charAt(0)!=preDelim) {
             if (len==0) {
                 throw new ParseErrorException(HBCIUtilsInternal.getLocMsg("EXCMSG_ENDOFSTRG",getPath()));
             } 
@@ -216,7 +204,7 @@ public final class DE
             // HBCIUtils.log("error string: "+res.toString(),HBCIUtils.LOG_ERR);
             // HBCIUtils.log("current: "+getPath()+":"+type+"("+minsize+","+maxsize+")="+value,HBCIUtils.LOG_ERR);
             // HBCIUtils.log("predelimiter mismatch (required:"+getPreDelim()+" found:"+temp.charAt(0)+")",HBCIUtils.LOG_ERR);
-            throw new PredelimErrorException(getPath(),Character.toString(preDelim),Character.toString(temp.charAt(0)));
+            throw new PredelimErrorException(getPath(),Character.toString(preDelim),Character.toString(res.charAt(0)));
         }
 
         this.value=SyntaxDEFactory.getInstance().createSyntaxDE(getType(),getPath(),res,minsize,maxsize);
@@ -256,24 +244,15 @@ public final class DE
         }
     }
 
-    private void initData(Node dedef, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    private void initData(ElementRef dedef, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         setValid(false);
 
         value = null;
         this.valids=new ArrayList<String>();
 
-        String st;
-
-        minsize = 1;
-        st = ((Element)dedef).getAttribute("minsize");
-        if (st.length() != 0)
-            minsize = Integer.parseInt(st);
-
-        maxsize = 0;
-        st = ((Element)dedef).getAttribute("maxsize");
-        if (st.length() != 0)
-            maxsize = Integer.parseInt(st);
+        minsize = dedef.getMinSize();
+        maxsize = dedef.getMaxSize();
 
         try {
             parseValue(res,predefs,valids);
@@ -284,15 +263,15 @@ public final class DE
         }
     }
     
-    public DE(Node dedef, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public DE(ElementRef dedef, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
-        super(((Element)dedef).getAttribute("type"),name,path,predelim,idx,res,fullResLen,null,predefs,valids);
+        super(dedef.getType(),name,path,predelim,idx,res,fullResLen,null,predefs,valids);
         initData(dedef,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
 
-    public void init(Node dedef, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public void init(ElementRef dedef, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
-        super.init(((Element)dedef).getAttribute("type"),name,path,predelim,idx,res,fullResLen,null,predefs,valids);
+        super.init(dedef.getType(),name,path,predelim,idx,res,fullResLen,null,predefs,valids);
         initData(dedef,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
 
@@ -307,6 +286,12 @@ public final class DE
         return isValid()?value.toString(0):"";
     }
 
+    public void serialize(MsgBuffer out)
+    {
+        if (isValid())
+            out.append(value.toString(0));
+    }
+
     public void getElementPaths(Properties p,int[] segref,int[] degref,int[] deref)
     {
         if (deref==null) {
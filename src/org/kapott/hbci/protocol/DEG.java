@@ -29,8 +29,6 @@ import java.util.Properties;
 
 import org.kapott.hbci.protocol.factory.MultipleDEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleDEsFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class DEG
     extends SyntaxElement
@@ -40,31 +38,37 @@ public final class DEG
         return "DEG";
     }
 
-    protected MultipleSyntaxElements createNewChildContainer(Node ref, Document syntax)
+    protected MultipleSyntaxElements createNewChildContainer(ElementRef ref, Grammar syntax)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((ref.getNodeName()).equals("DE"))
+        if (ref.getKind()==ElementRef.KIND_DE)
             ret=MultipleDEsFactory.getInstance().createMultipleDEs(ref, ':', getPath(), syntax);
-        else if ((ref.getNodeName()).equals("DEG"))
+        else if (ref.getKind()==ElementRef.KIND_DEG)
             ret=MultipleDEGsFactory.getInstance().createMultipleDEGs(ref, ':', getPath(), syntax);
 
         return ret;
     }
 
-    public DEG(String type, String name, String path, int idx, Document syntax)
+    public DEG(String type, String name, String path, int idx, Grammar syntax)
     {
         super(type,name,path,idx,syntax);
     }
 
-    public void init(String type, String name, String path, int idx, Document syntax)
+    public void init(String type, String name, String path, int idx, Grammar syntax)
     {
         super.init(type,name,path,idx,syntax);
     }
 
     public String toString(int zero)
     {
-        StringBuffer ret = new StringBuffer(128);
+        MsgBuffer ret = new MsgBuffer(128);
+        serialize(ret);
+        return ret.toString();
+    }
+
+    public void serialize(MsgBuffer ret)
+    {
         boolean first = true;
 
         if (isValid()) {
@@ -77,7 +81,7 @@ public final class DEG
                 saveLen=ret.length();
                 MultipleSyntaxElements dataList = i.next();
                 if (dataList != null)
-                    ret.append(dataList.toString(0));
+                    dataList.serialize(ret);
                 
                 if (ret.length()==saveLen && !first) {
                     tooMuch++;
@@ -90,23 +94,20 @@ public final class DEG
             // das auslassen von leeren elementen am ende darf nur erfolgen, wenn
             // es nicht um eine DEG innerhalb einer anderen DEG handelt
             if (getParent().getParent().getInDelim()!=':') {
-                int retlen=ret.length();
-                ret.delete(retlen-tooMuch,retlen);
+                ret.setLength(ret.length()-tooMuch);
             }
         }
-
-        return ret.toString();
     }
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    protected MultipleSyntaxElements parseNewChildContainer(Node dataref, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected MultipleSyntaxElements parseNewChildContainer(ElementRef dataref, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((dataref.getNodeName()).equals("DEG"))
+        if (dataref.getKind()==ElementRef.KIND_DEG)
             ret=MultipleDEGsFactory.getInstance().createMultipleDEGs(dataref, ':', getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
-        else if ((dataref.getNodeName()).equals("DE"))
+        else if (dataref.getKind()==ElementRef.KIND_DE)
             ret=MultipleDEsFactory.getInstance().createMultipleDEs(dataref, ':', getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
 
         return ret;
@@ -117,12 +118,12 @@ public final class DEG
         return ':';
     }
 
-    public DEG(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public DEG(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         super(type, name, path, predelim, idx, res, fullResLen, syntax, predefs,valids);
     }
 
-    public void init(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String,String> valids)
+    public void init(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String,String> valids)
     {
         super.init(type, name, path, predelim, idx, res, fullResLen, syntax, predefs,valids);
     }
@@ -0,0 +1,252 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.protocol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Kompilierte Form einer Element-Definition (<code>MSGdef</code>,
+ * <code>SFdef</code>, <code>SEGdef</code> oder <code>DEGdef</code>) der
+ * HBCI-Syntax-Spezifikation. Enthaelt die bereits aufgeloesten Kind-Referenzen
+ * sowie die vorgegebenen Werte (<code>&lt;value&gt;</code>) und die Listen
+ * der gueltigen Werte (<code>&lt;valids&gt;</code>) als Arrays.
+ * Instanzen werden nur von {@link Grammar} erzeugt und duerfen nicht
+ * veraendert werden - sie werden von allen Threads gemeinsam benutzt.
+ */
+public final class ElementDef
+{
+    private final String id;
+    private final Map<String,String> attributes;
+    private final ElementRef[] refs;
+    private final Map<String,ElementRef> refsByName;
+    private final String[] valuePaths;
+    private final String[] values;
+    private final String[] validPaths;
+    private final String[][] validValues;
+    private final String segCode;
+    private final String segVersion;
+    private final boolean needsRequestTag;
+    private Map<String,int[]> refCandidates;
+    private int[] openRefs;
+
+    ElementDef(String id,Map<String,String> attributes,ElementRef[] refs,String[] valuePaths,String[] values,String[] validPaths,String[][] validValues)
+    {
+        this.id=id;
+        this.attributes=attributes;
+        this.refs=refs;
+        this.valuePaths=valuePaths;
+        this.values=values;
+        this.validPaths=validPaths;
+        this.validValues=validValues;
+        this.needsRequestTag=getAttribute("needsRequestTag").equals("1");
+
+        this.refsByName=new HashMap<String,ElementRef>();
+        for (int i=refs.length-1;i>=0;i--) {
+            refsByName.put(refs[i].getName(),refs[i]);
+        }
+
+        String code="";
+        String version="";
+        for (int i=0;i<valuePaths.length;i++) {
+            if (valuePaths[i].equals("SegHead.code"))
+                code=values[i];
+            else if (valuePaths[i].equals("SegHead.version"))
+                version=values[i];
+        }
+        this.segCode=code;
+        this.segVersion=version;
+    }
+
+    /**
+     * Liefert die ID der Definition.
+     * @return die ID.
+     */
+    public String getId()
+    {
+        return id;
+    }
+
+    /**
+     * Liefert den Wert eines Attributes der Definition (z.B. "dontsign").
+     * @param name Name des Attributes.
+     * @return der Wert oder ein Leerstring, wenn das Attribut fehlt.
+     */
+    public String getAttribute(String name)
+    {
+        String ret=attributes.get(name);
+        return (ret!=null)?ret:"";
+    }
+
+    /**
+     * Prueft, ob das Element nur erzeugt werden darf, wenn es explizit
+     * angefordert wurde.
+     * @return true, wenn <code>needsRequestTag="1"</code> gesetzt ist.
+     */
+    public boolean needsRequestTag()
+    {
+        return needsRequestTag;
+    }
+
+    /**
+     * Liefert die Kind-Referenzen in der Reihenfolge der Syntax.
+     * @return die Kind-Referenzen.
+     */
+    public ElementRef[] getRefs()
+    {
+        return refs;
+    }
+
+    /**
+     * Liefert die erste Kind-Referenz mit dem angegebenen Namen.
+     * @param name der Name.
+     * @return die Referenz oder <code>null</code>.
+     */
+    public ElementRef getRef(String name)
+    {
+        return refsByName.get(name);
+    }
+
+    /**
+     * Liefert die (relativen) Pfade der vorgegebenen Werte.
+     * @return die Pfade, parallel zu {@link #getValues()}.
+     */
+    public String[] getValuePaths()
+    {
+        return valuePaths;
+    }
+
+    /**
+     * Liefert die vorgegebenen Werte.
+     * @return die Werte, parallel zu {@link #getValuePaths()}.
+     */
+    public String[] getValues()
+    {
+        return values;
+    }
+
+    /**
+     * Liefert die (relativen) Pfade der Elemente mit Listen gueltiger Werte.
+     * @return die Pfade, parallel zu {@link #getValidValues()}.
+     */
+    public String[] getValidPaths()
+    {
+        return validPaths;
+    }
+
+    /**
+     * Liefert die Listen der gueltigen Werte.
+     * @return die Listen, parallel zu {@link #getValidPaths()}.
+     */
+    public String[][] getValidValues()
+    {
+        return validValues;
+    }
+
+    /**
+     * Liefert den vorgegebenen Segment-Code (<code>SegHead.code</code>).
+     * @return der Segment-Code oder ein Leerstring.
+     */
+    public String getSegCode()
+    {
+        return segCode;
+    }
+
+    /**
+     * Liefert die vorgegebene Segment-Version (<code>SegHead.version</code>).
+     * @return die Segment-Version oder ein Leerstring.
+     */
+    public String getSegVersion()
+    {
+        return segVersion;
+    }
+
+    /**
+     * Baut den Index fuer {@link #getRefCandidates(String, String)} auf. Wird
+     * von {@link Grammar} aufgerufen, nachdem alle Referenzen aufgeloest sind.
+     */
+    void indexRefs()
+    {
+        // "offene" Referenzen: Segmentfolgen und Segmente ohne festen
+        // Segment-Code - die kommen fuer jedes Segment in Frage
+        List<Integer> open=new ArrayList<Integer>();
+        Map<String,List<Integer>> bySegId=new HashMap<String,List<Integer>>();
+        for (int i=0;i<refs.length;i++) {
+            ElementRef ref=refs[i];
+            if (ref.getKind()!=ElementRef.KIND_SEG)
+                continue;
+
+            ElementDef segdef=ref.getDef();
+            if (segdef==null || segdef.getSegCode().length()==0 || segdef.getSegVersion().length()==0) {
+                open.add(Integer.valueOf(i));
+            } else {
+                String key=segdef.getSegCode()+":"+segdef.getSegVersion();
+                List<Integer> list=bySegId.get(key);
+                if (list==null) {
+                    list=new ArrayList<Integer>();
+                    bySegId.put(key,list);
+                }
+                list.add(Integer.valueOf(i));
+            }
+        }
+        for (int i=0;i<refs.length;i++) {
+            if (refs[i].getKind()==ElementRef.KIND_SF)
+                open.add(Integer.valueOf(i));
+        }
+
+        this.openRefs=toSortedArray(open,null);
+        this.refCandidates=new HashMap<String,int[]>();
+        for (Iterator<Map.Entry<String,List<Integer>>> i=bySegId.entrySet().iterator();i.hasNext();) {
+            Map.Entry<String,List<Integer>> entry=i.next();
+            refCandidates.put(entry.getKey(),toSortedArray(entry.getValue(),open));
+        }
+    }
+
+    private static int[] toSortedArray(List<Integer> a,List<Integer> b)
+    {
+        int[] ret=new int[a.size()+((b!=null)?b.size():0)];
+        int   n=0;
+        for (Iterator<Integer> i=a.iterator();i.hasNext();)
+            ret[n++]=i.next().intValue();
+        if (b!=null) {
+            for (Iterator<Integer> i=b.iterator();i.hasNext();)
+                ret[n++]=i.next().intValue();
+        }
+        Arrays.sort(ret);
+        return ret;
+    }
+
+    /**
+     * Liefert die Positionen (in {@link #getRefs()}) der Kind-Referenzen, als
+     * die ein Segment mit dem angegebenen Code und der angegebenen Version
+     * geparst werden kann. Das sind die Segmente mit genau diesem Code und
+     * dieser Version sowie alle Segmente ohne festen Code und alle
+     * Segmentfolgen. So muss z.B. in der SF "Params" mit ihren ueber 100
+     * moeglichen Segmenten nicht jedes einzelne durchprobiert werden.
+     * @param code Segment-Code (z.B. "HIKAZS").
+     * @param version Segment-Version.
+     * @return aufsteigend sortierte Positionen der in Frage kommenden Referenzen.
+     */
+    public int[] getRefCandidates(String code,String version)
+    {
+        int[] ret=refCandidates.get(code+":"+version);
+        return (ret!=null)?ret:openRefs;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return id;
+    }
+}
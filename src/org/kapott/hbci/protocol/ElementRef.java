@@ -0,0 +1,151 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.protocol;
+
+/**
+ * Kompilierte Form eines Referenz-Knotens (<code>&lt;SF&gt;</code>,
+ * <code>&lt;SEG&gt;</code>, <code>&lt;DEG&gt;</code> oder <code>&lt;DE&gt;</code>)
+ * innerhalb einer Element-Definition der HBCI-Syntax-Spezifikation.
+ * Alle Attribute sind bereits ausgewertet, die referenzierte Definition
+ * ist aufgeloest. Instanzen werden nur von {@link Grammar} erzeugt und
+ * sind unveraenderlich.
+ */
+public final class ElementRef
+{
+    /** Referenz auf ein Datenelement. */
+    public final static int KIND_DE=0;
+
+    /** Referenz auf eine Datenelementgruppe. */
+    public final static int KIND_DEG=1;
+
+    /** Referenz auf ein Segment. */
+    public final static int KIND_SEG=2;
+
+    /** Referenz auf eine Segmentfolge. */
+    public final static int KIND_SF=3;
+
+    private final int kind;
+    private final String type;
+    private final String name;
+    private final int index;
+    private final int minnum;
+    private final int maxnum;
+    private final int minsize;
+    private final int maxsize;
+    private final boolean optional;
+    private ElementDef def;
+
+    ElementRef(int kind,String type,String name,int index,String minnum,String maxnum,String minsize,String maxsize)
+    {
+        this.kind=kind;
+        this.type=type;
+        this.name=(name.length()!=0)?name:type;
+        this.index=index;
+        this.minnum=(minnum.length()!=0)?Integer.parseInt(minnum):1;
+        this.maxnum=(maxnum.length()!=0)?Integer.parseInt(maxnum):1;
+        this.minsize=(minsize.length()!=0)?Integer.parseInt(minsize):1;
+        this.maxsize=(maxsize.length()!=0)?Integer.parseInt(maxsize):0;
+        this.optional=minnum.equals("0");
+    }
+
+    /**
+     * Setzt die referenzierte Element-Definition. Wird nur beim Kompilieren
+     * der Syntax aufgerufen.
+     * @param def die Definition.
+     */
+    void setDef(ElementDef def)
+    {
+        this.def=def;
+    }
+
+    /**
+     * Liefert die Art des referenzierten Elementes.
+     * @return eine der Konstanten <code>KIND_*</code>.
+     */
+    public int getKind()
+    {
+        return kind;
+    }
+
+    /**
+     * Liefert den Typ des referenzierten Elementes. Bei Datenelementen ist
+     * das der Datentyp (AN, Num, ...), sonst die ID der Element-Definition.
+     * @return der Typ.
+     */
+    public String getType()
+    {
+        return type;
+    }
+
+    /**
+     * Liefert den Namen, unter dem das Element im Pfad erscheint. Ist in der
+     * Syntax kein Name angegeben, ist das der Typ.
+     * @return der Name.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Liefert die Position dieser Referenz unter allen Kind-Knoten der
+     * uebergeordneten Element-Definition.
+     * @return die Position.
+     */
+    public int getIndex()
+    {
+        return index;
+    }
+
+    public int getMinNum()
+    {
+        return minnum;
+    }
+
+    public int getMaxNum()
+    {
+        return maxnum;
+    }
+
+    public int getMinSize()
+    {
+        return minsize;
+    }
+
+    public int getMaxSize()
+    {
+        return maxsize;
+    }
+
+    /**
+     * Prueft, ob in der Syntax explizit <code>minnum="0"</code> angegeben ist.
+     * @return true, wenn das Element optional ist.
+     */
+    public boolean isOptional()
+    {
+        return optional;
+    }
+
+    /**
+     * Liefert die referenzierte Element-Definition.
+     * @return die Definition oder <code>null</code> bei Datenelementen bzw.
+     * wenn die Definition in der Syntax fehlt.
+     */
+    public ElementDef getDef()
+    {
+        return def;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return name+"("+type+")";
+    }
+}
@@ -0,0 +1,187 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.protocol;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.kapott.hbci.manager.HBCIUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Kompilierte Form einer HBCI-Syntax-Spezifikation (hbci-*.xml).
+ * Das XML-Dokument wird genau einmal durchlaufen und in einen Graph aus
+ * {@link ElementDef}- und {@link ElementRef}-Objekten ueberfuehrt. Beim
+ * Erzeugen und Parsen von Nachrichten wird danach nur noch dieser Graph
+ * verwendet, so dass dort kein Zugriff auf das DOM mehr noetig ist.
+ *
+ * Die kompilierte Syntax ist unveraenderlich und wird pro Dokument nur
+ * einmal erzeugt (siehe {@link #getInstance(Document)}).
+ */
+public final class Grammar
+{
+    private final static String[] DEF_TAGS={"DEGdef","SEGdef","SFdef","MSGdef"};
+
+    private final static Map<Document,Grammar> cache=new WeakHashMap<Document,Grammar>();
+
+    private final Map<String,ElementDef> defs;
+
+    /**
+     * Liefert die kompilierte Syntax fuer das angegebene Dokument. Fuer das
+     * gleiche Dokument wird immer die gleiche Instanz geliefert.
+     * @param syntax das Syntax-Dokument.
+     * @return die kompilierte Syntax.
+     */
+    public static Grammar getInstance(Document syntax)
+    {
+        synchronized (cache) {
+            Grammar ret=cache.get(syntax);
+            if (ret==null) {
+                ret=new Grammar(syntax);
+                cache.put(syntax,ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * ct.
+     * @param syntax das zu kompilierende Syntax-Dokument.
+     */
+    private Grammar(Document syntax)
+    {
+        long start=System.currentTimeMillis();
+
+        this.defs=new HashMap<String,ElementDef>();
+        List<ElementRef> allRefs=new ArrayList<ElementRef>();
+
+        for (int t=0;t<DEF_TAGS.length;t++) {
+            NodeList list=syntax.getElementsByTagName(DEF_TAGS[t]);
+            int      len=list.getLength();
+            for (int i=0;i<len;i++) {
+                ElementDef def=compileDef((Element)list.item(i),allRefs);
+                defs.put(def.getId(),def);
+            }
+        }
+
+        // referenzierte Definitionen aufloesen
+        for (Iterator<ElementRef> i=allRefs.iterator();i.hasNext();) {
+            ElementRef ref=i.next();
+            if (ref.getKind()!=ElementRef.KIND_DE)
+                ref.setDef(defs.get(ref.getType()));
+        }
+
+        // Index Segment-Code/Version -> moegliche Referenzen pro Definition
+        for (Iterator<ElementDef> i=defs.values().iterator();i.hasNext();) {
+            i.next().indexRefs();
+        }
+
+        HBCIUtils.log("compiled syntax with "+defs.size()+" definitions in "+(System.currentTimeMillis()-start)+" ms",HBCIUtils.LOG_DEBUG);
+    }
+
+    /**
+     * Kompiliert eine einzelne Element-Definition.
+     * @param def der XML-Knoten mit der Definition.
+     * @param allRefs hier werden alle erzeugten Referenzen gesammelt.
+     * @return die kompilierte Definition.
+     */
+    private static ElementDef compileDef(Element def,List<ElementRef> allRefs)
+    {
+        Map<String,String> attributes=new HashMap<String,String>();
+        NamedNodeMap attrs=def.getAttributes();
+        for (int i=0;i<attrs.getLength();i++) {
+            Node attr=attrs.item(i);
+            attributes.put(attr.getNodeName(),attr.getNodeValue());
+        }
+
+        List<ElementRef> refs=new ArrayList<ElementRef>();
+        List<String>     valuePaths=new ArrayList<String>();
+        List<String>     values=new ArrayList<String>();
+        List<String>     validPaths=new ArrayList<String>();
+        List<String[]>   validValues=new ArrayList<String[]>();
+
+        int index=0;
+        for (Node child=def.getFirstChild();child!=null;child=child.getNextSibling()) {
+            if (child.getNodeType()!=Node.ELEMENT_NODE)
+                continue;
+
+            Element elem=(Element)child;
+            String  tag=elem.getNodeName();
+            int     kind=-1;
+
+            if (tag.equals("DE"))
+                kind=ElementRef.KIND_DE;
+            else if (tag.equals("DEG"))
+                kind=ElementRef.KIND_DEG;
+            else if (tag.equals("SEG"))
+                kind=ElementRef.KIND_SEG;
+            else if (tag.equals("SF"))
+                kind=ElementRef.KIND_SF;
+
+            if (kind!=-1) {
+                ElementRef ref=new ElementRef(kind,
+                        elem.getAttribute("type"),elem.getAttribute("name"),index,
+                        elem.getAttribute("minnum"),elem.getAttribute("maxnum"),
+                        elem.getAttribute("minsize"),elem.getAttribute("maxsize"));
+                refs.add(ref);
+                allRefs.add(ref);
+            } else if (tag.equals("value")) {
+                valuePaths.add(elem.getAttribute("path"));
+                values.add(getText(elem));
+            } else if (tag.equals("valids")) {
+                List<String> list=new ArrayList<String>();
+                for (Node v=elem.getFirstChild();v!=null;v=v.getNextSibling()) {
+                    if (v.getNodeType()==Node.ELEMENT_NODE && v.getNodeName().equals("validvalue"))
+                        list.add(getText(v));
+                }
+                validPaths.add(elem.getAttribute("path"));
+                validValues.add(list.toArray(new String[list.size()]));
+            }
+
+            // die Position zaehlt alle Kind-Elemente - so wie beim
+            // Durchlaufen der DOM-Knoten
+            index++;
+        }
+
+        return new ElementDef(def.getAttribute("id"),attributes,
+                refs.toArray(new ElementRef[refs.size()]),
+                valuePaths.toArray(new String[valuePaths.size()]),
+                values.toArray(new String[values.size()]),
+                validPaths.toArray(new String[validPaths.size()]),
+                validValues.toArray(new String[validValues.size()][]));
+    }
+
+    /**
+     * Liefert den Text-Inhalt eines Knotens.
+     * @param node der Knoten.
+     * @return der Text-Inhalt.
+     */
+    private static String getText(Node node)
+    {
+        Node text=node.getFirstChild();
+        return (text!=null)?text.getNodeValue():"";
+    }
+
+    /**
+     * Liefert die Element-Definition mit der angegebenen ID.
+     * @param id die ID (z.B. "SegHead" oder "DialogInit").
+     * @return die Definition oder <code>null</code>, wenn sie nicht existiert.
+     */
+    public ElementDef getDef(String id)
+    {
+        return defs.get(id);
+    }
+}
@@ -35,8 +35,6 @@ import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.protocol.factory.MultipleSEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleSFsFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class MSG
     extends SyntaxElement
@@ -46,13 +44,17 @@ public final class MSG
     public final static boolean CHECK_VALIDS=true;
     public final static boolean DONT_CHECK_VALIDS=false;
     
-    protected MultipleSyntaxElements createNewChildContainer(Node ref, Document syntax)
+    // die serialisierte form der nachricht - bleibt gueltig, bis die nachricht
+    // veraendert wird (siehe changed())
+    private MsgBuffer serialized;
+    
+    protected MultipleSyntaxElements createNewChildContainer(ElementRef ref, Grammar syntax)
     {
         MultipleSyntaxElements ret=null;
         
-        if ((ref.getNodeName()).equals("SEG"))
+        if (ref.getKind()==ElementRef.KIND_SEG)
             ret=MultipleSEGsFactory.getInstance().createMultipleSEGs(ref, getPath(), syntax);
-        else if ((ref.getNodeName()).equals("SF"))
+        else if (ref.getKind()==ElementRef.KIND_SF)
             ret=MultipleSFsFactory.getInstance().createMultipleSFs(ref, getPath(), syntax);
         
         return ret;
@@ -107,19 +109,20 @@ public final class MSG
 
     public void autoSetMsgSize(MsgGen gen)
     {
-        setMsgSizeValue(gen, toString(0).length(),ALLOW_OVERWRITE);
+        setMsgSizeValue(gen, toBuffer().length(),ALLOW_OVERWRITE);
     }
     
     /** @brief erstellen eines neuen nachrichten-syntaxelements */
     public MSG(String type, MsgGen gen, Hashtable<String,String> clientValues)
     {
-        super(type,type,null,0,gen.getSyntax());
+        super(type,type,null,0,gen.getGrammar());
         initData(type,gen,clientValues);
     }
     
     public void init(String type,MsgGen gen,Hashtable<String,String> clientValues)
     {
-        super.init(type,type,null,0,gen.getSyntax());
+        serialized=null;
+        super.init(type,type,null,0,gen.getGrammar());
         initData(type,gen,clientValues);
     }
     
@@ -136,17 +139,59 @@ public final class MSG
 
     public String toString(int zero)
     {
-        StringBuffer ret = new StringBuffer(1024);
+        return toBuffer().toString();
+    }
 
-        if (isValid())
-            for (Iterator<MultipleSyntaxElements> i = getChildContainers().listIterator(); i.hasNext(); ) {
-                MultipleSyntaxElements list = i.next();
+    public void serialize(MsgBuffer out)
+    {
+        out.append(toBuffer());
+    }
 
-                if (list != null)
-                    ret.append(list.toString(0));
-            }
+    /** liefert die serialisierte form der nachricht (wie toString(0), aber
+        bereits als ISO-8859-1-bytes). das ergebnis wird gecached, bis die
+        nachricht das naechste mal veraendert wird - der puffer darf deshalb
+        vom aufrufer nicht veraendert werden */
+    public MsgBuffer toBuffer()
+    {
+        MsgBuffer ret=serialized;
+        if (ret==null) {
+            ret=new MsgBuffer(1024);
+            if (isValid())
+                for (Iterator<MultipleSyntaxElements> i = getChildContainers().listIterator(); i.hasNext(); ) {
+                    MultipleSyntaxElements list = i.next();
+
+                    if (list != null)
+                        list.serialize(ret);
+                }
+            serialized=ret;
+        }
+        return ret;
+    }
 
-        return ret.toString();
+    protected void changed()
+    {
+        serialized=null;
+    }
+
+    /* bei den folgenden methoden wird nicht nur ueber changed() invalidiert,
+     * weil kind-elemente auch direkt in die listen eingehaengt werden koennen
+     * (z.b. die signatur-segmente in Sig), ohne dass deren parent gesetzt ist */
+    public boolean propagateValue(String destPath, String value, boolean tryToCreate,boolean allowOverwrite)
+    {
+        serialized=null;
+        return super.propagateValue(destPath,value,tryToCreate,allowOverwrite);
+    }
+
+    public int enumerateSegs(int startValue,boolean allowOverwrite)
+    {
+        serialized=null;
+        return super.enumerateSegs(startValue,allowOverwrite);
+    }
+
+    public void validate()
+    {
+        serialized=null;
+        super.validate();
     }
 
     // -------------------------------------------------------------------------------------------
@@ -159,8 +204,8 @@ public final class MSG
 
     public MSG(String type,String res,int fullResLen,MsgGen gen,boolean checkSeq,boolean checkValids)
     {
-        super(type,type,null,(char)0,0,new StringBuffer(res),fullResLen,
-                gen.getSyntax(),
+        super(type,type,null,(char)0,0,new ParseCursor(res),fullResLen,
+                gen.getGrammar(),
                 new Hashtable<String, String>(),
                 checkValids?new Hashtable<String, String>():null);
         initData(type,res,fullResLen,gen,checkSeq,checkValids);
@@ -168,8 +213,9 @@ public final class MSG
     
     public void init(String type,String res,int fullResLen,MsgGen gen,boolean checkSeq,boolean checkValids)
     {
-        super.init(type,type,null,(char)0,0,new StringBuffer(res),fullResLen,
-                gen.getSyntax(),new Hashtable<String, String>(),
+        serialized=null;
+        super.init(type,type,null,(char)0,0,new ParseCursor(res),fullResLen,
+                gen.getGrammar(),new Hashtable<String, String>(),
                 checkValids?new Hashtable<String, String>():null);
         initData(type,res,fullResLen,gen,checkSeq,checkValids);
     }
@@ -179,13 +225,13 @@ public final class MSG
         return '\'';
     }
 
-    protected MultipleSyntaxElements parseNewChildContainer(Node segref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected MultipleSyntaxElements parseNewChildContainer(ElementRef segref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((segref.getNodeName()).equals("SEG"))
+        if (segref.getKind()==ElementRef.KIND_SEG)
             ret=MultipleSEGsFactory.getInstance().createMultipleSEGs(segref, getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
-        else if ((segref.getNodeName()).equals("SF"))
+        else if (segref.getKind()==ElementRef.KIND_SF)
             ret=MultipleSFsFactory.getInstance().createMultipleSFs(segref, getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         
         return ret;
@@ -254,6 +300,7 @@ public final class MSG
             }
         }
         
+        serialized=null;
         super.destroy();
     }
 }
@@ -0,0 +1,190 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Wachsender Puffer fuer die serialisierte Form einer HBCI-Nachricht.
+ *
+ * Die Syntax-Elemente schreiben ihre Daten mit {@link SyntaxElement#serialize(MsgBuffer)}
+ * direkt hier hinein, statt fuer jede Ebene einen eigenen String zu erzeugen.
+ * Die ISO-8859-1-Bytes fuer das Versenden, Signieren und Verschluesseln
+ * werden nur einmal erzeugt und bis zur naechsten Aenderung des Puffers
+ * gecached - genauso wie der String fuer {@link #toString()}.
+ *
+ * Der Puffer ist nicht thread-safe.
+ */
+public class MsgBuffer
+{
+    private final static String ENCODING="ISO-8859-1";
+
+    private char[] data;
+    private int    length;
+
+    private byte[] bytes;
+    private String string;
+
+    /**
+     * ct.
+     */
+    public MsgBuffer()
+    {
+        this(1024);
+    }
+
+    /**
+     * ct.
+     * @param capacity initiale Groesse des Puffers.
+     */
+    public MsgBuffer(int capacity)
+    {
+        this.data=new char[Math.max(capacity,16)];
+    }
+
+    /**
+     * ct.
+     * Erzeugt einen Puffer mit bereits kodierten Daten (z.B. von einem {@link org.kapott.hbci.comm.Filter}).
+     * Das Array wird ohne Kopie uebernommen und darf danach nicht mehr veraendert werden.
+     * @param bytes die ISO-8859-1-Bytes.
+     */
+    public MsgBuffer(byte[] bytes)
+    {
+        this.data=new char[bytes.length];
+        for (int i=0;i<bytes.length;i++)
+            data[i]=(char)(bytes[i]&0xFF);
+        this.length=bytes.length;
+        this.bytes=bytes;
+    }
+
+    private void ensure(int needed)
+    {
+        if (needed>data.length) {
+            char[] temp=new char[Math.max(needed,data.length<<1)];
+            System.arraycopy(data,0,temp,0,length);
+            data=temp;
+        }
+        bytes=null;
+        string=null;
+    }
+
+    /**
+     * Haengt ein Zeichen an.
+     * @param ch das Zeichen.
+     * @return der Puffer.
+     */
+    public MsgBuffer append(char ch)
+    {
+        ensure(length+1);
+        data[length++]=ch;
+        return this;
+    }
+
+    /**
+     * Haengt einen String an.
+     * @param st der String.
+     * @return der Puffer.
+     */
+    public MsgBuffer append(String st)
+    {
+        int len=st.length();
+        ensure(length+len);
+        st.getChars(0,len,data,length);
+        length+=len;
+        return this;
+    }
+
+    /**
+     * Haengt den Inhalt eines anderen Puffers an.
+     * @param other der andere Puffer.
+     * @return der Puffer.
+     */
+    public MsgBuffer append(MsgBuffer other)
+    {
+        ensure(length+other.length);
+        System.arraycopy(other.data,0,data,length,other.length);
+        length+=other.length;
+        return this;
+    }
+
+    /**
+     * Liefert die Anzahl der Zeichen im Puffer.
+     * @return die Anzahl der Zeichen.
+     */
+    public int length()
+    {
+        return length;
+    }
+
+    /**
+     * Kuerzt den Puffer.
+     * @param length die neue Laenge. Darf nicht groesser als die aktuelle sein.
+     */
+    public void setLength(int length)
+    {
+        if (length<0 || length>this.length)
+            throw new IndexOutOfBoundsException("invalid length "+length);
+        if (length!=this.length) {
+            this.length=length;
+            this.bytes=null;
+            this.string=null;
+        }
+    }
+
+    /**
+     * Liefert die Daten als ISO-8859-1-Bytes.
+     * Das Array wird gecached und darf nicht veraendert werden.
+     * @return die Bytes.
+     */
+    public byte[] getBytes()
+    {
+        if (bytes==null) {
+            byte[] ret=new byte[length];
+            for (int i=0;i<length;i++) {
+                char ch=data[i];
+                if (ch>0xFF) {
+                    // nicht darstellbare Zeichen - das Ersetzen uebernimmt der
+                    // Encoder, damit das Ergebnis exakt String.getBytes() entspricht
+                    try {
+                        ret=toString().getBytes(ENCODING);
+                    } catch (UnsupportedEncodingException e) {
+                        throw new IllegalStateException(e.getMessage());
+                    }
+                    break;
+                }
+                ret[i]=(byte)ch;
+            }
+            bytes=ret;
+        }
+        return bytes;
+    }
+
+    /**
+     * Schreibt die ISO-8859-1-Bytes in einen Stream.
+     * @param out der Stream.
+     * @throws IOException
+     */
+    public void writeTo(OutputStream out) throws IOException
+    {
+        out.write(getBytes());
+    }
+
+    /**
+     * Liefert die Daten als String.
+     * Der String wird gecached, bis der Puffer wieder geaendert wird.
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        if (string==null)
+            string=new String(data,0,length);
+        return string;
+    }
+}
@@ -28,15 +28,13 @@ import java.util.ListIterator;
 import java.util.Properties;
 
 import org.kapott.hbci.protocol.factory.DEGFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class MultipleDEGs
      extends MultipleSyntaxElements
 {
     private char delimiter;
 
-    protected SyntaxElement createAndAppendNewElement(Node ref, String path, int idx, Document syntax)
+    protected SyntaxElement createAndAppendNewElement(ElementRef ref, String path, int idx, Grammar syntax)
     {
         SyntaxElement ret=null;
 
@@ -44,26 +42,25 @@ public final class MultipleDEGs
         return ret;
     }
 
-    private void initData(Node degref, char delimiter, String path, Document syntax)
+    private void initData(ElementRef degref, char delimiter, String path, Grammar syntax)
     {
         this.delimiter = delimiter;
     }
     
-    public MultipleDEGs(Node degref, char delimiter, String path, Document syntax)
+    public MultipleDEGs(ElementRef degref, char delimiter, String path, Grammar syntax)
     {
         super(degref, path, syntax);
         initData(degref,delimiter,path,syntax);
     }
 
-    public void init(Node degref, char delimiter, String path, Document syntax)
+    public void init(ElementRef degref, char delimiter, String path, Grammar syntax)
     {
         super.init(degref, path, syntax);
         initData(degref,delimiter,path,syntax);
     }
 
-    public String toString(int zero)
+    public void serialize(MsgBuffer ret)
     {
-        StringBuffer ret=new StringBuffer(128);
         boolean first = true;
 
         for (ListIterator<SyntaxElement> i = getElements().listIterator(); i.hasNext(); ) {
@@ -73,33 +70,31 @@ public final class MultipleDEGs
 
             DEG deg = (DEG)(i.next());
             if (deg != null)
-                ret.append(deg.toString(0));
+                deg.serialize(ret);
         }
-
-        return ret.toString();
     }
 
     // --------------------------------------------------------------------------------------------------------------
 
-    protected SyntaxElement parseAndAppendNewElement(Node ref, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected SyntaxElement parseAndAppendNewElement(ElementRef ref, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         SyntaxElement ret=null;
         addElement((ret=DEGFactory.getInstance().createDEG(getType(), getName(), path, predelim, idx, res, fullResLen, syntax, predefs,valids)));
         return ret;
     }
     
-    private void initData(Node degref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<?, ?> predefs,Hashtable<?, ?> valids)
+    private void initData(ElementRef degref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<?, ?> predefs,Hashtable<?, ?> valids)
     {
         this.delimiter = delimiter;
     }
 
-    public MultipleDEGs(Node degref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public MultipleDEGs(ElementRef degref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         super(degref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         initData(degref,delimiter,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
     }
 
-    public void init (Node degref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public void init (ElementRef degref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         super.init(degref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         initData(degref,delimiter,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
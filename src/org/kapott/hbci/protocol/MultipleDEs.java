@@ -31,8 +31,6 @@ import java.util.Properties;
 
 import org.kapott.hbci.manager.HBCIUtilsInternal;
 import org.kapott.hbci.protocol.factory.DEFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class MultipleDEs
      extends MultipleSyntaxElements
@@ -40,26 +38,26 @@ public final class MultipleDEs
     private char delimiter;
     private List<String> valids;
 
-    protected SyntaxElement createAndAppendNewElement(Node deref, String path, int idx, Document syntax)
+    protected SyntaxElement createAndAppendNewElement(ElementRef deref, String path, int idx, Grammar syntax)
     {
         SyntaxElement ret=null;
         addElement((ret=DEFactory.getInstance().createDE(deref, getName(), path, idx, syntax)));
         return ret;
     }
     
-    private void initData(Node dedef, char delimiter, String path, Document syntax)
+    private void initData(ElementRef dedef, char delimiter, String path, Grammar syntax)
     {
         this.delimiter = delimiter;
         this.valids=new ArrayList<String>();
     }
 
-    public MultipleDEs(Node dedef, char delimiter, String path, Document syntax)
+    public MultipleDEs(ElementRef dedef, char delimiter, String path, Grammar syntax)
     {
         super(dedef, path, syntax);
         initData(dedef,delimiter,path,syntax);
     }
 
-    public void init(Node dedef, char delimiter, String path, Document syntax)
+    public void init(ElementRef dedef, char delimiter, String path, Grammar syntax)
     {
         super.init(dedef, path, syntax);
         initData(dedef,delimiter,path,syntax);
@@ -84,9 +82,8 @@ public final class MultipleDEs
         super.validateOneElement(elem,idx);
     }
 
-    public String toString(int zero)
+    public void serialize(MsgBuffer ret)
     {
-        StringBuffer ret = new StringBuffer(128);
         boolean first=true;
 
         for (ListIterator<SyntaxElement> i = getElements().listIterator(); i.hasNext(); ) {
@@ -96,19 +93,21 @@ public final class MultipleDEs
 
             DE de = (DE)(i.next());
             if (de != null)
-                ret.append(de.toString(0));
+                de.serialize(ret);
         }
-
-        return ret.toString();
     }
 
     // -------------------------------------------------------------------------------------------------------
 
-    protected SyntaxElement parseAndAppendNewElement(Node ref, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected SyntaxElement parseAndAppendNewElement(ElementRef ref, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         SyntaxElement ret=null;
         
         if (idx!=0 && valids!=null) {
+            // die neuen eintraege erst sammeln - waehrend der enumeration
+            // darf die hashtable nicht veraendert werden, sonst gehen beim
+            // vergroessern der tabelle u.U. eintraege verloren
+            Hashtable<String,String> newValids=new Hashtable<String,String>();
             String header=getPath()+".value";
             for (Enumeration<String> e=valids.keys();e.hasMoreElements();) {
                 String key=(e.nextElement());
@@ -120,28 +119,29 @@ public final class MultipleDEs
                     String newkey=key.substring(0,dotPos)+
                                   HBCIUtilsInternal.withCounter("",idx)+
                                   key.substring(dotPos);
-                    valids.put(newkey,valids.get(key));
+                    newValids.put(newkey,valids.get(key));
                 }
             }
+            valids.putAll(newValids);
         }
         
         addElement((ret=DEFactory.getInstance().createDE(ref, getName(), path, predelim, idx, res, fullResLen, syntax, predefs,valids)));
         return ret;
     }
     
-    private void initData(Node deref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<?, ?> predefs,Hashtable<?, ?> valids)
+    private void initData(ElementRef deref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<?, ?> predefs,Hashtable<?, ?> valids)
     {
         this.delimiter=delimiter;
         this.valids=new ArrayList<String>();
     }
 
-    public MultipleDEs(Node deref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public MultipleDEs(ElementRef deref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         super(deref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         initData(deref,delimiter,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
     }
 
-    public void init(Node deref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public void init(ElementRef deref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         super.init(deref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         initData(deref,delimiter,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
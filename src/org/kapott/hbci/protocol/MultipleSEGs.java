@@ -28,61 +28,80 @@ import java.util.ListIterator;
 import java.util.Properties;
 
 import org.kapott.hbci.protocol.factory.SEGFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class MultipleSEGs
      extends MultipleSyntaxElements
 {
-    protected SyntaxElement createAndAppendNewElement(Node ref, String path, int idx, Document syntax)
+    protected SyntaxElement createAndAppendNewElement(ElementRef ref, String path, int idx, Grammar syntax)
     {
         SyntaxElement ret=null;
         addElement((ret=SEGFactory.getInstance().createSEG(getType(), getName(), path, idx, syntax)));
         return ret;
     }
 
-    public MultipleSEGs(Node segref, String path, Document syntax)
+    public MultipleSEGs(ElementRef segref, String path, Grammar syntax)
     {
         super(segref, path, syntax);
     }
 
-    public void init(Node segref, String path, Document syntax)
+    public void init(ElementRef segref, String path, Grammar syntax)
     {
         super.init(segref, path, syntax);
     }
 
-    public String toString(int zero)
+    public void serialize(MsgBuffer ret)
     {
-        StringBuffer ret = new StringBuffer(256);
-
         for (ListIterator<SyntaxElement> i = getElements().listIterator(); i.hasNext(); ) {
             SEG seg = (SEG)(i.next());
             if (seg != null)
-                ret.append(seg.toString(0));
+                seg.serialize(ret);
         }
-
-        return ret.toString();
     }
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    public MultipleSEGs(Node segref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public MultipleSEGs(ElementRef segref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super(segref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
     }
 
-    public void init(Node segref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public void init(ElementRef segref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super.init(segref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
     }
 
-    protected SyntaxElement parseAndAppendNewElement(Node ref, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected SyntaxElement parseAndAppendNewElement(ElementRef ref, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         SyntaxElement ret=null;
         addElement((ret=SEGFactory.getInstance().createSEG(getType(), getName(), path, predelim, idx, res, fullResLen, syntax, predefs,valids)));
         return ret;
     }
 
+    // Ein Segment kann nur geparst werden, wenn der Segment-Code im Reststring
+    // mit dem Code aus der Syntax-Spez. uebereinstimmt. Der Code ist das erste DE
+    // des Segmentkopfes - bei einem abweichenden Code wuerde das Parsen also
+    // gleich am Anfang mit einer ParseErrorException abbrechen. Das wird hier
+    // vorab anhand des Reststrings geprueft.
+    protected boolean cannotMatch(ElementRef ref, char predelim, ParseCursor res)
+    {
+        ElementDef def=ref.getDef();
+        if (def==null || def.getSegCode().length()==0 || res.length()<2)
+            return false;
+        if (predelim!=0 && res.charAt(0)!=predelim)
+            return false;
+
+        // nur wenn der Segmentkopf wirklich mit dem Code beginnt
+        ElementRef[] refs=def.getRefs();
+        if (refs.length==0 || !refs[0].getName().equals("SegHead") || refs[0].getDef()==null)
+            return false;
+        ElementRef[] headRefs=refs[0].getDef().getRefs();
+        if (headRefs.length==0 || !headRefs[0].getName().equals("code"))
+            return false;
+
+        String code=res.peekSegCode();
+        return code!=null && code.length()>1 && !code.equals(def.getSegCode());
+    }
+
     public void getElementPaths(Properties p,int[] segref,int[] degref,int[] deref)
     {
         for (Iterator<SyntaxElement> i=getElements().iterator();i.hasNext();) {
@@ -28,55 +28,49 @@ import java.util.ListIterator;
 import java.util.Properties;
 
 import org.kapott.hbci.protocol.factory.SFFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class MultipleSFs
      extends MultipleSyntaxElements
 {
-    protected SyntaxElement createAndAppendNewElement(Node ref, String path, int idx, Document syntax)
+    protected SyntaxElement createAndAppendNewElement(ElementRef ref, String path, int idx, Grammar syntax)
     {
         SyntaxElement ret=null;
         addElement((ret=SFFactory.getInstance().createSF(getType(), getName(), path, idx, syntax)));
         return ret;
     }
 
-    public MultipleSFs(Node sfref, String path, Document syntax)
+    public MultipleSFs(ElementRef sfref, String path, Grammar syntax)
     {
         super(sfref, path, syntax);
     }
 
-    public void init(Node sfref, String path, Document syntax)
+    public void init(ElementRef sfref, String path, Grammar syntax)
     {
         super.init(sfref, path, syntax);
     }
 
-    public String toString(int zero)
+    public void serialize(MsgBuffer ret)
     {
-        StringBuffer ret = new StringBuffer(256);
-
         for (ListIterator<SyntaxElement> i = getElements().listIterator(); i.hasNext(); ) {
             SF sf = (SF)(i.next());
             if (sf != null)
-                ret.append(sf.toString(0));
+                sf.serialize(ret);
         }
-
-        return ret.toString();
     }
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    public MultipleSFs(Node sfref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public MultipleSFs(ElementRef sfref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super(sfref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
     }
 
-    public void init(Node sfref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public void init(ElementRef sfref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super.init(sfref, path, predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
     }
 
-    protected SyntaxElement parseAndAppendNewElement(Node ref, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected SyntaxElement parseAndAppendNewElement(ElementRef ref, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         SyntaxElement ret=null;
         addElement((ret=SFFactory.getInstance().createSF(getType(), getName(), path, predelim, idx, res, fullResLen, syntax, predefs,valids)));
@@ -37,9 +37,6 @@ import org.kapott.hbci.protocol.factory.DEFactory;
 import org.kapott.hbci.protocol.factory.DEGFactory;
 import org.kapott.hbci.protocol.factory.SEGFactory;
 import org.kapott.hbci.protocol.factory.SFFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 /* die child-elemente von strukturierten syntaxelementen (msg, seg, sg, deg)
     werden nicht direkt als listenelemente der uebergeordneten
@@ -65,26 +62,34 @@ public abstract class MultipleSyntaxElements
     private int maxnum;
     private int syntaxIdx; // die Position dieses Container innerhalb
                            // der Syntax-Definition des Eltern-Elementes
-    private Document syntax;
-    private Node ref;
+    private Grammar syntax;
+    private ElementRef ref;
     private SyntaxElement parent;
 
     /** erzeugt einen neuen eintrag in der elements liste; dabei wird ein
         syntaxelement erzeugt, das im xml-node ref referenziert wird;
         idx ist die indexnummer des zu erzeugenden syntaxelementes
         innerhalb der elementlist */
-    protected abstract SyntaxElement createAndAppendNewElement(Node ref, String path, int idx, Document syntax);
+    protected abstract SyntaxElement createAndAppendNewElement(ElementRef ref, String path, int idx, Grammar syntax);
 
     /** siehe SyntaxElement::parseElementList() */
-    protected abstract SyntaxElement parseAndAppendNewElement(Node ref, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids);
+    protected abstract SyntaxElement parseAndAppendNewElement(ElementRef ref, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids);
+
+    /** prueft vor einem parse-versuch anhand des reststrings, ob das naechste
+        element mit sicherheit nicht geparst werden kann. liefert diese methode
+        <code>true</code>, so wird der container genauso beendet, als waere der
+        parse-versuch mit einer (nicht-fatalen) ParseErrorException fehlgeschlagen,
+        ohne dass dafuer erst elemente angelegt und exceptions geworfen werden.
+        im zweifel muss <code>false</code> geliefert werden. */
+    protected boolean cannotMatch(ElementRef ref, char predelim, ParseCursor res)
+    {
+        return false;
+    }
 
-    private void initData(Node ref, String path, Document syntax)
+    private void initData(ElementRef ref, String path, Grammar syntax)
     {
-        type=((Element)ref).getAttribute("type");
-        name=((Element)ref).getAttribute("name");
-        if (name.length()==0) {
-            name=type;
-        }
+        type=ref.getType();
+        name=ref.getName();
         
         this.elements=new ArrayList<SyntaxElement>();
         this.parent=null;
@@ -98,17 +103,8 @@ public abstract class MultipleSyntaxElements
         temppath.append(name);
         this.path=temppath.toString();
 
-        String st;
-
-        minnum = 1;
-        st = ((Element)ref).getAttribute("minnum");
-        if (st.length() != 0)
-            minnum = Integer.parseInt(st);
-
-        maxnum = 1;
-        st = ((Element)ref).getAttribute("maxnum");
-        if (st.length() != 0)
-            maxnum = Integer.parseInt(st);
+        minnum = ref.getMinNum();
+        maxnum = ref.getMaxNum();
 
         try {
             // anlegen mindestens eines syntaxelementes
@@ -147,12 +143,12 @@ public abstract class MultipleSyntaxElements
     
     /** anlegen eines neuen syntaxelementarrays fuer ein syntaxelement;
         ref ist eine xml-node-referenz auf das syntaxelement */
-    protected MultipleSyntaxElements(Node ref, String path, Document syntax)
+    protected MultipleSyntaxElements(ElementRef ref, String path, Grammar syntax)
     {
         initData(ref,path,syntax);
     }
 
-    protected void init(Node ref, String path, Document syntax)
+    protected void init(ElementRef ref, String path, Grammar syntax)
     {
         initData(ref,path,syntax);
     }
@@ -351,17 +347,14 @@ public abstract class MultipleSyntaxElements
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    private void initData(Node ref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    private void initData(ElementRef ref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         this.ref=null;
         this.syntax=null;
         this.syntaxIdx=-1;
         this.elements = new ArrayList<SyntaxElement>();
-        this.type = ((Element)ref).getAttribute("type");
-        this.name = ((Element)ref).getAttribute("name");
-        if (name.length()==0) {
-            this.name=this.type;
-        }
+        this.type = ref.getType();
+        this.name = ref.getName();
         this.parent=null;
 
         StringBuffer temppath=new StringBuffer(128);
@@ -370,31 +363,32 @@ public abstract class MultipleSyntaxElements
         temppath.append(name);
         this.path=temppath.toString();
 
-        String st;
-
-        minnum = 1;
-        st = ((Element)ref).getAttribute("minnum");
-        if (st.length() != 0)
-            minnum = Integer.parseInt(st);
-
-        maxnum = 1;
-        st = ((Element)ref).getAttribute("maxnum");
-        if (st.length() != 0)
-            maxnum = Integer.parseInt(st);
+        minnum = ref.getMinNum();
+        maxnum = ref.getMaxNum();
 
         int     idx = 0;
         boolean ready = false;
 
         try {
             while (!ready) {
-                // sichern des reststrings
-                StringBuffer save=new StringBuffer(res.toString());
+                // merken der aktuellen position im reststring
+                int     save=res.getPosition();
                 boolean      emptyElementFound=false;
+                char    predelim=(idx==0)?predelim0:predelim1;
+
+                // wenn schon anhand des reststrings feststeht, dass das naechste
+                // element nicht passen kann, wird das parsen gar nicht erst versucht
+                // (ergebnis ist das gleiche wie bei einem fehlgeschlagenen versuch)
+                if (cannotMatch(ref,predelim,res)) {
+                    if (idx<minnum)
+                        throw new ParseErrorException("reststring in "+getPath()+": "+res.toString());
+                    break;
+                }
 
                 try {
                     // versuch, ein weiteres syntaxelement zu erzeugen
                     SyntaxElement child=parseAndAppendNewElement(ref,path, 
-                            (idx==0)?predelim0:predelim1, 
+                            predelim, 
                             idx,res,fullResLen,syntax,predefs,valids);
                     if (child!=null)
                         child.setParent(this);
@@ -423,7 +417,7 @@ public abstract class MultipleSyntaxElements
                     // leerer elemente geworfen wurden, als OK akzeptiert werden, solange die
                     // mindestanzahl bereits gefuellter elemente erreicht ist
                     
-                    if (save.length()>1) {
+                    if (res.getData().length()-save>1) {
                         
                         //////////////////////////////////////////////////////////////////////
                         // Dirty-Hack fuer Sonderfall optionale MultipleDEGs. Also eine Liste vieler DEGs,
@@ -439,27 +433,27 @@ public abstract class MultipleSyntaxElements
                         if ((this instanceof MultipleDEGs) && this.minnum == 0 && this.maxnum > 1 && idx > 1)
                         {
                             int size = this.maxnum-idx;
-                            if (size > save.length())
-                                size = save.length();
-                            String rest = save.substring(0,size);
+                            if (size > res.getData().length()-save)
+                                size = res.getData().length()-save;
+                            String rest = res.getData().substring(save,save+size);
                             if (containsOnly(rest,'+'))
                             {
                                 HBCIUtils.log("applying shortcut for optional MultipleDEGs, have no more content in according range",HBCIUtils.LOG_DEBUG);
-                                res.replace(0,res.length(),res.substring(size-1)); // Wir schneiden die "+++++..." alle weg
+                                res.skip(size-1); // Wir schneiden die "+++++..." alle weg
                                 ready = true;
                                 continue;
                             }
                         }
                         //////////////////////////////////////////////////////////////////////
                         
-                        char secondChar=save.charAt(1);
+                        char secondChar=res.getData().charAt(save+1);
 
                         if (secondChar=='+' || secondChar==':' || secondChar=='\'') {
                             // nur wenn der Fehler nicht durch einen predelimiter-error
                             // verursacht wurde, darf der delimiter (der also offensichtlich richtig
                             // und erwartet war) geloescht werden
                             if (!(e instanceof PredelimErrorException)) { 
-                                save.deleteCharAt(0);
+                                save++;
                             }
 
                             emptyElementFound=true;
@@ -468,7 +462,7 @@ public abstract class MultipleSyntaxElements
                         emptyElementFound=true;
                     }
                     
-                    res.replace(0,res.length(),save.toString());
+                    res.setPosition(save);
 
                     /* wenn bisher weniger als die mindestanzahl geklappt hat,
                      dann exception werfen */
@@ -495,7 +489,7 @@ public abstract class MultipleSyntaxElements
                  reststring gleich sind; minnum ist aber erreicht),
                  dann diesen container normal beenden */
                 if ((maxnum!=0 && idx>=maxnum) ||
-                        (maxnum==0 && save.toString().equals(res.toString()) && !emptyElementFound))
+                        (maxnum==0 && save==res.getPosition() && !emptyElementFound))
                 {
                     ready = true;
                 }
@@ -529,12 +523,12 @@ public abstract class MultipleSyntaxElements
           propagiert wird (z.b. wenn die syntaxelementlist selbst das erste syntaxelement 
           einer msg repraesentiert), predelim1 ist allerdings immer der delimiter, 
           der fuer das aktuell uebergeordnete syntaxelement zu verwenden ist) */
-    protected MultipleSyntaxElements(Node ref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected MultipleSyntaxElements(ElementRef ref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         initData(ref,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
     }
     
-    protected void init(Node ref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected void init(ElementRef ref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         initData(ref,path,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
     }
@@ -560,9 +554,14 @@ public abstract class MultipleSyntaxElements
 
     public String toString(int zero)
     {
-        return toString();
+        MsgBuffer ret=new MsgBuffer(128);
+        serialize(ret);
+        return ret.toString();
     }
 
+    /** siehe SyntaxElement::serialize() */
+    public abstract void serialize(MsgBuffer out);
+
     public void getElementPaths(Properties p,int[] segref,int[] degref,int[] deref)
     {
     }
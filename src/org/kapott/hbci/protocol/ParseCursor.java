@@ -0,0 +1,239 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.protocol;
+
+/**
+ * Lese-Position innerhalb einer zu parsenden HBCI-Nachricht.
+ * Frueher wurde beim Parsen ein StringBuffer mit dem noch nicht geparsten
+ * Rest der Nachricht durchgereicht, von dessen Anfang nach jedem Datenelement
+ * die gelesenen Zeichen geloescht wurden. Da dabei jedesmal der gesamte Rest
+ * der Nachricht verschoben wurde, stieg die Parse-Zeit quadratisch mit der
+ * Groesse der Nachricht.
+ *
+ * Der Cursor haelt stattdessen die unveraenderte Nachricht und einen Index.
+ * Alle Zugriffe erfolgen relativ zur aktuellen Position, so dass sich der
+ * Cursor wie der bisherige Rest-String verhaelt. Das "Loeschen" gelesener
+ * Zeichen ist nur noch ein Weitersetzen der Position, das Zuruecksetzen
+ * nach einem fehlgeschlagenen Parse-Versuch ein Zuruecksetzen des Index.
+ */
+public final class ParseCursor implements CharSequence
+{
+    private final String data;
+    private int pos;
+
+    /**
+     * ct.
+     * @param data die zu parsende Nachricht.
+     */
+    public ParseCursor(String data)
+    {
+        this.data=data;
+        this.pos=0;
+    }
+
+    /**
+     * Liefert die aktuelle Position in der Nachricht.
+     * @return die aktuelle Position.
+     */
+    public int getPosition()
+    {
+        return pos;
+    }
+
+    /**
+     * Setzt die aktuelle Position, z.B. um nach einem fehlgeschlagenen
+     * Parse-Versuch auf eine vorher gemerkte Position zurueckzugehen.
+     * @param pos die neue Position.
+     */
+    public void setPosition(int pos)
+    {
+        if (pos<0 || pos>data.length())
+            throw new IndexOutOfBoundsException("position "+pos+" out of range 0.."+data.length());
+        this.pos=pos;
+    }
+
+    /**
+     * Ueberspringt die angegebene Anzahl Zeichen. Ersetzt das fruehere
+     * <code>res.delete(0,count)</code>.
+     * @param count Anzahl der zu ueberspringenden Zeichen.
+     */
+    public void skip(int count)
+    {
+        setPosition(pos+count);
+    }
+
+    /**
+     * Liefert die Anzahl der noch nicht gelesenen Zeichen.
+     * @see java.lang.CharSequence#length()
+     */
+    public int length()
+    {
+        return data.length()-pos;
+    }
+
+    /**
+     * Liefert ein Zeichen relativ zur aktuellen Position.
+     * @see java.lang.CharSequence#charAt(int)
+     */
+    public char charAt(int index)
+    {
+        return data.charAt(pos+index);
+    }
+
+    /**
+     * Liefert einen Teil-String relativ zur aktuellen Position.
+     * @param start Start-Index (inclusive).
+     * @param end End-Index (exclusive).
+     * @return der Teil-String.
+     */
+    public String substring(int start,int end)
+    {
+        if (end>length())
+            throw new StringIndexOutOfBoundsException(end);
+        return data.substring(pos+start,pos+end);
+    }
+
+    /**
+     * Liefert den Rest der Nachricht ab dem angegebenen Index.
+     * @param start Start-Index relativ zur aktuellen Position.
+     * @return der Teil-String.
+     */
+    public String substring(int start)
+    {
+        return data.substring(pos+start);
+    }
+
+    /**
+     * Sucht ein Zeichen ab der angegebenen (relativen) Position.
+     * @param ch das gesuchte Zeichen.
+     * @param fromIndex Start-Index relativ zur aktuellen Position.
+     * @return Index relativ zur aktuellen Position oder -1.
+     */
+    public int indexOf(char ch,int fromIndex)
+    {
+        int ret=data.indexOf(ch,pos+fromIndex);
+        return (ret!=-1)?ret-pos:-1;
+    }
+
+    /**
+     * Sucht ab der angegebenen (relativen) Position das naechste Trennzeichen
+     * (<code>'</code>, <code>+</code> oder <code>:</code>). Maskierte Zeichen
+     * (<code>?</code>) und Binaerdaten (<code>@len@...</code>) werden dabei
+     * uebersprungen.
+     * @param fromIndex Start-Index relativ zur aktuellen Position.
+     * @return Index des Trennzeichens relativ zur aktuellen Position oder
+     * {@link #length()}, wenn kein Trennzeichen mehr folgt.
+     */
+    public int nextDelimiter(int fromIndex)
+    {
+        int     ret=fromIndex;
+        boolean quoted=false;
+        boolean inBinLen=false;
+        int     binLenStart=0;
+        int     len=length();
+
+        while (ret<len) {
+            char ch=data.charAt(pos+ret++);
+
+            if (!quoted) {
+                if (ch=='?') {
+                    quoted=true;
+                } else if (ch=='@') {
+                    if (!inBinLen) {
+                        inBinLen=true;
+                        binLenStart=ret;
+                    } else {
+                        ret+=Integer.parseInt(substring(binLenStart,ret-1));
+                        inBinLen=false;
+                    }
+                } else if (ch=='\'' || ch=='+' || ch==':') {
+                    return ret-1;
+                }
+            } else {
+                quoted=false;
+            }
+        }
+
+        return ret;
+    }
+
+    /**
+     * Sucht ab der angegebenen (relativen) Position das Ende des aktuellen
+     * Segmentes, also das naechste nicht maskierte <code>'</code>.
+     * @param fromIndex Start-Index relativ zur aktuellen Position.
+     * @return Index des Segment-Endezeichens relativ zur aktuellen Position
+     * oder {@link #length()}, wenn das Segment nicht abgeschlossen ist.
+     */
+    public int segmentEnd(int fromIndex)
+    {
+        int len=length();
+        int ret=nextDelimiter(fromIndex);
+        while (ret<len && data.charAt(pos+ret)!='\'') {
+            ret=nextDelimiter(ret+1);
+        }
+        return ret;
+    }
+
+    /**
+     * Liefert den Segment-Code des Segmentes, das an der aktuellen Position
+     * beginnt, ohne die Position zu veraendern. Ein evtl. vorangestelltes
+     * Trennzeichen wird uebersprungen. Damit kann vor einem Parse-Versuch
+     * geprueft werden, ob das naechste Segment ueberhaupt passen kann.
+     * @return der Segment-Code oder <code>null</code>, wenn er nicht ohne
+     * Parsen ermittelt werden kann (z.B. bei maskierten Zeichen).
+     */
+    public String peekSegCode()
+    {
+        int len=length();
+        if (len==0)
+            return null;
+
+        int  start=0;
+        char ch=data.charAt(pos);
+        if (ch=='\'' || ch=='+' || ch==':')
+            start++;
+
+        int end=nextDelimiter(start);
+        if (end>=len || data.charAt(pos+end)!=':')
+            return null;
+
+        for (int i=start;i<end;i++) {
+            ch=data.charAt(pos+i);
+            if (ch=='?' || ch=='@')
+                return null;
+        }
+        return data.substring(pos+start,pos+end);
+    }
+
+    /**
+     * @see java.lang.CharSequence#subSequence(int, int)
+     */
+    public CharSequence subSequence(int start,int end)
+    {
+        return substring(start,end);
+    }
+
+    /**
+     * Liefert die komplette Nachricht.
+     * @return die komplette Nachricht.
+     */
+    public String getData()
+    {
+        return data;
+    }
+
+    /**
+     * Liefert den noch nicht gelesenen Rest der Nachricht. Achtung: dabei
+     * wird ein neuer String erzeugt - nur fuer Fehlermeldungen verwenden.
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return data.substring(pos);
+    }
+}
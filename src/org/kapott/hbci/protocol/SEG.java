@@ -33,8 +33,6 @@ import org.kapott.hbci.manager.HBCIUtilsInternal;
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.protocol.factory.MultipleDEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleDEsFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public final class SEG
      extends SyntaxElement
@@ -44,31 +42,37 @@ public final class SEG
         return "SEG";
     }
 
-    protected MultipleSyntaxElements createNewChildContainer(Node ref, Document syntax)
+    protected MultipleSyntaxElements createNewChildContainer(ElementRef ref, Grammar syntax)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((ref.getNodeName()).equals("DE"))
+        if (ref.getKind()==ElementRef.KIND_DE)
             ret=MultipleDEsFactory.getInstance().createMultipleDEs(ref, '+', getPath(), syntax);
-        else if ((ref.getNodeName()).equals("DEG"))
+        else if (ref.getKind()==ElementRef.KIND_DEG)
             ret=MultipleDEGsFactory.getInstance().createMultipleDEGs(ref, '+', getPath(), syntax);
 
         return ret;
     }
 
-    public SEG(String type, String name, String path, int idx, Document syntax)
+    public SEG(String type, String name, String path, int idx, Grammar syntax)
     {
         super(type, name, path, idx, syntax);
     }
 
-    public void init(String type, String name, String path, int idx, Document syntax)
+    public void init(String type, String name, String path, int idx, Grammar syntax)
     {
         super.init(type, name, path, idx, syntax);
     }
 
     public String toString(int zero)
     {
-        StringBuffer ret = new StringBuffer(256);
+        MsgBuffer ret = new MsgBuffer(256);
+        serialize(ret);
+        return ret.toString();
+    }
+
+    public void serialize(MsgBuffer ret)
+    {
         boolean first=true;
 
         if (isValid()) {
@@ -81,7 +85,7 @@ public final class SEG
                 saveLen=ret.length();
                 MultipleSyntaxElements dataList = i.next();
                 if (dataList != null)
-                    ret.append(dataList.toString(0));
+                    dataList.serialize(ret);
                 
                 if (ret.length()==saveLen && !first) {
                     tooMuch++;
@@ -91,12 +95,9 @@ public final class SEG
                 first=false;
             }
 
-            int retlen = ret.length();
-            ret.delete(retlen-tooMuch,retlen);
+            ret.setLength(ret.length()-tooMuch);
             ret.append('\'');
         }
-
-        return ret.toString();
     }
 
     public void setSeq(int idx,boolean allowOverwrite)
@@ -132,13 +133,13 @@ public final class SEG
 
     // ---------------------------------------------------------------------------------------------------------------
 
-    protected MultipleSyntaxElements parseNewChildContainer(Node dataref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    protected MultipleSyntaxElements parseNewChildContainer(ElementRef dataref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((dataref.getNodeName()).equals("DEG"))
+        if (dataref.getKind()==ElementRef.KIND_DEG)
             ret=MultipleDEGsFactory.getInstance().createMultipleDEGs(dataref, '+', getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
-        else if ((dataref.getNodeName()).equals("DE"))
+        else if (dataref.getKind()==ElementRef.KIND_DE)
             ret=MultipleDEsFactory.getInstance().createMultipleDEs(dataref, '+', getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
 
         return ret;
@@ -149,12 +150,12 @@ public final class SEG
         return '+';
     }
 
-    public SEG(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public SEG(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super(type, name, path, predelim, idx, res, fullResLen, syntax, predefs,valids);
     }
 
-    public void init(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public void init(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super.init(type, name, path, predelim, idx, res, fullResLen, syntax, predefs,valids);
     }
@@ -30,21 +30,17 @@ import java.util.Properties;
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.protocol.factory.MultipleSEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleSFsFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 public final class SF
      extends SyntaxElement
 {
-    protected MultipleSyntaxElements createNewChildContainer(Node ref, Document syntax)
+    protected MultipleSyntaxElements createNewChildContainer(ElementRef ref, Grammar syntax)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((ref.getNodeName()).equals("SEG"))
+        if (ref.getKind()==ElementRef.KIND_SEG)
             ret=MultipleSEGsFactory.getInstance().createMultipleSEGs(ref, getPath(), syntax);
-        else if ((ref.getNodeName()).equals("SF"))
+        else if (ref.getKind()==ElementRef.KIND_SF)
             ret=MultipleSFsFactory.getInstance().createMultipleSFs(ref, getPath(), syntax);
 
         return ret;
@@ -54,12 +50,12 @@ public final class SF
     // nicht erzeugt werden, wenn die Segmentfolge selbst optional ist. Das ist praktisch
     // nur bei den SFs GV, GVRes und GVParams der Fall (und funktioniert auch nur bei
     // diesen).
-    protected MultipleSyntaxElements createAndAppendNewChildContainer(Node ref, Document syntax) 
+    protected MultipleSyntaxElements createAndAppendNewChildContainer(ElementRef ref, Grammar syntax) 
     {
         MultipleSyntaxElements ret=null;
         
-        if (((Element)ref).getAttribute("minnum").equals("0")) {
-            HBCIUtils.log("will not create container "+getPath()+" -> "+((Element)ref).getAttribute("type")+" with minnum=0",
+        if (ref.isOptional()) {
+            HBCIUtils.log("will not create container "+getPath()+" -> "+ref.getType()+" with minnum=0",
                     HBCIUtils.LOG_INTERN);
         } else {
             ret=super.createAndAppendNewChildContainer(ref, syntax);
@@ -73,39 +69,42 @@ public final class SF
         return "SF";
     }
 
-    public SF(String type, String name, String path, int idx, Document syntax)
+    public SF(String type, String name, String path, int idx, Grammar syntax)
     {
         super(type, name, path, idx, syntax);
     }
 
-    public void init(String type, String name, String path, int idx, Document syntax)
+    public void init(String type, String name, String path, int idx, Grammar syntax)
     {
         super.init(type,name,path,idx,syntax);
     }
 
     public String toString(int zero)
     {
-        StringBuffer ret = new StringBuffer(256);
+        MsgBuffer ret = new MsgBuffer(256);
+        serialize(ret);
+        return ret.toString();
+    }
 
+    public void serialize(MsgBuffer ret)
+    {
         if (isValid())
             for (ListIterator<MultipleSyntaxElements> i = getChildContainers().listIterator(); i.hasNext(); ) {
                 MultipleSyntaxElements list = (i.next());
 
                 if (list != null)
-                    ret.append(list.toString(0));
+                    list.serialize(ret);
             }
-
-        return ret.toString();
     }
 
     // -------------------------------------------------------------------------------------------
 
-    public SF(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public SF(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super(type,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
 
-    public void init(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public void init(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         super.init(type,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
@@ -120,7 +119,7 @@ public final class SF
     // Stimmt dieser Segment-Code nicht mit dem nchsten eigentlich zu parsenden
     // <SEG type="..." minnum="0"> berein, wird gar nicht erst *versucht*, das
     // dieses <SEG> anzuwenden
-    private String[] extractSegId(StringBuffer sb)
+    private String[] extractSegId(ParseCursor sb)
     {
         String[] ret=new String[] {"",""};
         
@@ -131,7 +130,7 @@ public final class SF
                 startpos++;
             
             // erste DEG extrahieren
-            int endpos=sb.indexOf("+",startpos);
+            int endpos=sb.indexOf('+',startpos);
             if (endpos==-1) {
             	endpos=sb.length();
             }
@@ -144,65 +143,58 @@ public final class SF
         return ret;
     }
     
-    // siehe extractSegCode(). Diese Methode holt sich den SegCode des nchsten
-    // mit <SEG ...> referenzierten Segments aus der Syntax-Spez. Der gefundene
-    // SegCode wird in HBCIUtils.params gecacht, so dass diese Suche nur einmal
-    // erfolgen muss.
-    private String[] getRefSegId(Node segref,Document syntax)
-    {    	
-        String segname=((Element)segref).getAttribute("type");
-        String segnameCacheParam="segid_"+segname;
-        
-        // versuch, daten aus dem cache zu lesen
-    	String[] ret=new String[] {"",""};
-        ret[0]=HBCIUtils.getParam(segnameCacheParam+"_code","");
-        ret[1]=HBCIUtils.getParam(segnameCacheParam+"_version","");
-        
-        if (ret[0].equals("")) {
-        	// segid noch nicht im cache
-            Element segdef=syntax.getElementById(segname);
-            NodeList valueElems=segdef.getElementsByTagName("value");
-            int len=valueElems.getLength();
-            for (int i=0;i<len;i++) {
-            	// alle value-elemente durchlaufen und seghead.code und 
-            	// seghead.version ermitteln
-                Node valueNode=valueElems.item(i);
-                if (valueNode.getNodeType()==Node.ELEMENT_NODE) {
-                    String pathAttr=((Element)valueNode).getAttribute("path");
-                    if (pathAttr.equals("SegHead.code")) {
-                    	// code gefunden
-                        ret[0]=valueNode.getFirstChild().getNodeValue();
-                        HBCIUtils.setParam(segnameCacheParam+"_code",ret[0]);
-                    } else if (pathAttr.equals("SegHead.version")) {
-                    	// version gefunden
-                        ret[1]=valueNode.getFirstChild().getNodeValue();
-                        HBCIUtils.setParam(segnameCacheParam+"_version",ret[1]);
-                    }
-                }
-            }
+    // siehe extractSegCode(). Diese Methode holt sich SegCode und SegVersion des
+    // nchsten mit <SEG ...> referenzierten Segments aus der kompilierten
+    // Syntax-Spez., wo sie bereits beim Kompilieren ermittelt wurden.
+    private String[] getRefSegId(ElementRef segref)
+    {
+        ElementDef segdef=segref.getDef();
+        if (segdef==null)
+            return new String[] {"",""};
+        return new String[] {segdef.getSegCode(),segdef.getSegVersion()};
+    }
+
+    // Statt alle Segment-Referenzen der SF der Reihe nach durchzugehen (bei
+    // "Params" und "GVRes" sind das weit ueber 100), wird anhand von Code und
+    // Version des naechsten Segmentes im Index der kompilierten Syntax
+    // nachgesehen, welche Referenzen ueberhaupt in Frage kommen. Alle anderen
+    // wuerden von parseAndAppendNewChildContainer() ohnehin uebergangen.
+    protected int nextChildRef(ElementDef def, int r, ParseCursor res)
+    {
+        int[] candidates;
+        try {
+            String[] nextSegId=extractSegId(res);
+            candidates=def.getRefCandidates(nextSegId[0],nextSegId[1]);
+        } catch (RuntimeException e) {
+            // kein gueltiger Segmentkopf - dann wie bisher jede Referenz versuchen
+            return r;
         }
-        
-        return ret;
+
+        for (int i=0;i<candidates.length;i++) {
+            if (candidates[i]>=r)
+                return candidates[i];
+        }
+        return def.getRefs().length;
     }
 
-    protected MultipleSyntaxElements parseNewChildContainer(Node segref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected MultipleSyntaxElements parseNewChildContainer(ElementRef segref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((segref.getNodeName()).equals("SEG")) {
+        if (segref.getKind()==ElementRef.KIND_SEG) {
             ret=MultipleSEGsFactory.getInstance().createMultipleSEGs(segref, getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
-        } else if ((segref.getNodeName()).equals("SF")) {
+        } else if (segref.getKind()==ElementRef.KIND_SF) {
             ret=MultipleSFsFactory.getInstance().createMultipleSFs(segref, getPath(), predelim0, predelim1, res, fullResLen, syntax, predefs,valids);
         }
 
         return ret;
     }
 
-    protected MultipleSyntaxElements parseAndAppendNewChildContainer(Node segref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected MultipleSyntaxElements parseAndAppendNewChildContainer(ElementRef segref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         MultipleSyntaxElements ret=null;
 
-        if ((segref.getNodeName()).equals("SEG")) {
+        if (segref.getKind()==ElementRef.KIND_SEG) {
             // TODO: this is a hack to speed up parsing of segments
             // (params, customres); das funktioniert so, dass zunchst aus dem zu parsenden
             // string der nchste seghead.code extrahiert wird (string-operationen); auerdem
@@ -212,10 +204,10 @@ public final class SF
             // segref-segment geparst werden, und es wird erst gar nicht versucht.
             // die zuordnung "segref"-->"seghead.code" wird nicht jedesmal neu durch nachsehen
             // in der syntax-spez aufgelst, sondern es ist ein entsprechender cache
-            // implementiert (hashtable:segname-->seghead.code).
+            // implementiert (ElementDef.getSegCode()).
             
             String[] nextSegId=extractSegId(res);
-            String[] segRefId=getRefSegId(segref,syntax);
+            String[] segRefId=getRefSegId(segref);
             
             if (segRefId[0].equals(nextSegId[0]) && segRefId[1].equals(nextSegId[1])
             		|| segRefId[0].equals("") 
@@ -245,7 +237,7 @@ public final class SF
                     ret=super.parseAndAppendNewChildContainer(segref,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
                 }
             }
-        } else if ((segref.getNodeName()).equals("SF")) {
+        } else if (segref.getKind()==ElementRef.KIND_SF) {
             ret=super.parseAndAppendNewChildContainer(segref,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
         }
 
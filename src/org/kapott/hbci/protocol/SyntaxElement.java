@@ -36,10 +36,6 @@ import org.kapott.hbci.protocol.factory.MultipleDEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleDEsFactory;
 import org.kapott.hbci.protocol.factory.MultipleSEGsFactory;
 import org.kapott.hbci.protocol.factory.MultipleSFsFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
 
 /* ein syntaxelement ist ein strukturelement einer hbci-nachricht (die nachricht
     selbst, eine segmentfolge, ein einzelnes segment, eine deg oder 
@@ -64,8 +60,8 @@ public abstract class SyntaxElement
     // Verndern ein neues MSG-Objekt erzeugt).
     private int posInMsg;
     
-    private Document syntax;
-    private Node     def;
+    private Grammar syntax;
+    private ElementDef def;
     
     public final static boolean TRY_TO_CREATE=true;
     public final static boolean DONT_TRY_TO_CREATE=false;
@@ -84,7 +80,7 @@ public abstract class SyntaxElement
     /** erzeugt einen neuen Child-Container, welcher durch den
     xml-knoten 'ref' identifiziert wird; wird beim erzeugen von elementen
     benutzt */
-    protected abstract MultipleSyntaxElements createNewChildContainer(Node ref, Document syntax);
+    protected abstract MultipleSyntaxElements createNewChildContainer(ElementRef ref, Grammar syntax);
     
     // TODO: aus konsistenz-grnden auch in MultipleSyntaxElements create und
     // createAndAdd trennen
@@ -96,7 +92,7 @@ public abstract class SyntaxElement
      auftauchen mueste (optional; z.b. fuer segmentcodes); 'predelim*' geben
      die delimiter an, die direkt vor dem zu erzeugenden syntaxelement
      auftauchen muessten */
-    protected abstract MultipleSyntaxElements parseNewChildContainer(Node ref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids);
+    protected abstract MultipleSyntaxElements parseNewChildContainer(ElementRef ref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids);
     
     
     /** wird fuer datenelemente benoetigt, die sonst unbeabsichtigt generiert werden koennten.
@@ -146,9 +142,9 @@ public abstract class SyntaxElement
     private boolean needsRequestTag;
     private boolean haveRequestTag;
     
-    private void initData(String type, String name, String ppath, int idx, Document syntax)
+    private void initData(String type, String name, String ppath, int idx, Grammar syntax)
     {
-        if (getElementTypeName().equals("SEG"))
+        if (getElementTypeName().equals("SEG") && HBCIUtils.isLogEnabled(HBCIUtils.LOG_INTERN))
             HBCIUtils.log("creating segment "+ppath+" -> "+name+"("+idx+")", HBCIUtils.LOG_INTERN);
         
         this.type = type;
@@ -176,26 +172,22 @@ public abstract class SyntaxElement
             this.def=getSyntaxDef(type,syntax);
             
             // erzeugen der child-elemente
-            String requestTag=((Element)def).getAttribute("needsRequestTag");
-            if (requestTag!=null && requestTag.equals("1"))
-                needsRequestTag=true;
+            needsRequestTag=def.needsRequestTag();
 
             try {
-                int syntaxIdx=0;
-                for (Node ref=def.getFirstChild(); ref!=null; ref=ref.getNextSibling()) {
-                    if (ref.getNodeType()==Node.ELEMENT_NODE) {
-                        MultipleSyntaxElements child=createAndAppendNewChildContainer(ref, syntax);
-                        if (child!=null) {
-                            child.setParent(this);
-                            // TODO: berprfen, ob noch an anderen Stellen Container
-                            // erzeugt werden - diese mssten dann auch die richtige
-                            // syntaxIdx bekommen
-                            child.setSyntaxIdx(syntaxIdx);
-                            
-                            if (getElementTypeName().equals("MSG"))
-                                HBCIUtils.log("child container "+child.getPath()+" has syntaxIdx="+child.getSyntaxIdx(), HBCIUtils.LOG_INTERN);
-                        }
-                        syntaxIdx++;
+                ElementRef[] refs=def.getRefs();
+                for (int r=0; r<refs.length; r++) {
+                    ElementRef ref=refs[r];
+                    MultipleSyntaxElements child=createAndAppendNewChildContainer(ref, syntax);
+                    if (child!=null) {
+                        child.setParent(this);
+                        // TODO: berprfen, ob noch an anderen Stellen Container
+                        // erzeugt werden - diese mssten dann auch die richtige
+                        // syntaxIdx bekommen
+                        child.setSyntaxIdx(ref.getIndex());
+                        
+                        if (getElementTypeName().equals("MSG") && HBCIUtils.isLogEnabled(HBCIUtils.LOG_INTERN))
+                            HBCIUtils.log("child container "+child.getPath()+" has syntaxIdx="+child.getSyntaxIdx(), HBCIUtils.LOG_INTERN);
                     }
                 }
 
@@ -211,14 +203,12 @@ public abstract class SyntaxElement
                 // wird nur fr Segmentfolgen angewendet. Und in Segmentfolgen-
                 // Definitionen sind keine values oder valids angegeben, so dass
                 // dieser Code hier gar keine Relevanz fr Segmentfolgen hat
-                NodeList valueNodes = ((Element)def).getElementsByTagName("value");
-                int      len=valueNodes.getLength();
+                String[] valuePaths = def.getValuePaths();
+                String[] values     = def.getValues();
                 String   dottedPath = this.path+".";
-                for (int i=0; i<len; i++) {
-                    Node   valueNode = valueNodes.item(i);
-                    String valuePath = ((Element)valueNode).getAttribute("path");
-                    String value     = (valueNode.getFirstChild()).getNodeValue();
-                    String destpath  = dottedPath+valuePath;
+                for (int i=0; i<valuePaths.length; i++) {
+                    String value     = values[i];
+                    String destpath  = dottedPath+valuePaths[i];
                     
                     if (!propagateValue(destpath,value,TRY_TO_CREATE,DONT_ALLOW_OVERWRITE))
                         throw new NoSuchPathException(destpath);
@@ -226,21 +216,15 @@ public abstract class SyntaxElement
 
                 /* durchlaufen aller "valids"-knoten und speichern der valid-values */
                 // TODO: das hier ebenfalls spter machen, siehe "values"
-                NodeList validNodes=((Element)def).getElementsByTagName("valids");
-                len = validNodes.getLength();
+                String[]   validPaths=def.getValidPaths();
+                String[][] validValues=def.getValidValues();
                 dottedPath = getPath()+".";
-                for (int i=0;i<len;i++) {
-                    Node validNode=validNodes.item(i);
-                    String valuePath=((Element)(validNode)).getAttribute("path");
-                    String absPath=dottedPath+valuePath;
-
-                    NodeList validvalueNodes=((Element)(validNode)).getElementsByTagName("validvalue");
-                    int len2=validvalueNodes.getLength();
-                    for (int j=0;j<len2;j++) {
-                        Node validvalue=validvalueNodes.item(j);
-                        String value=(validvalue.getFirstChild()).getNodeValue();
-
-                        storeValidValueInDE(absPath,value);
+                for (int i=0;i<validPaths.length;i++) {
+                    String absPath=dottedPath+validPaths[i];
+
+                    String[] validvalues=validValues[i];
+                    for (int j=0;j<validvalues.length;j++) {
+                        storeValidValueInDE(absPath,validvalues[j]);
                     }
                 }
             } catch (RuntimeException e) {
@@ -265,17 +249,17 @@ public abstract class SyntaxElement
         diesem element wird in 'path' uebergeben; 'idx' ist die nummer dieses
         elementes innerhalb der syntaxelementliste fuer dieses element (falls ein
         bestimmtes syntaxelement mehr als einmal auftreten kann) */
-    protected SyntaxElement(String type, String name, String path, int idx, Document syntax)
+    protected SyntaxElement(String type, String name, String path, int idx, Grammar syntax)
     {
         initData(type,name,path,idx,syntax);
     }
 
-    protected void init(String type, String name, String path, int idx, Document syntax)
+    protected void init(String type, String name, String path, int idx, Grammar syntax)
     {
         initData(type,name,path,idx,syntax);
     }
     
-    protected MultipleSyntaxElements createAndAppendNewChildContainer(Node ref, Document syntax)
+    protected MultipleSyntaxElements createAndAppendNewChildContainer(ElementRef ref, Grammar syntax)
     {
         MultipleSyntaxElements ret=createNewChildContainer(ref,syntax);
         if (ret!=null)
@@ -320,7 +304,7 @@ public abstract class SyntaxElement
 
     // -------------------------------------------------------------------------------------------
     
-    private void initData(String type, String name, String ppath, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    private void initData(String type, String name, String ppath, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         this.type=type;
         this.name=name;
@@ -350,65 +334,55 @@ public abstract class SyntaxElement
             
             /* fuellen der 'predefs'-tabelle mit den in der
              syntaxbeschreibung vorgegebenen werten */
-            NodeList valueNodes = ((Element)def).getElementsByTagName("value");
+            String[] valuePaths = def.getValuePaths();
+            String[] values = def.getValues();
             String dottedPath = getPath() + ".";
-            int len=valueNodes.getLength();
-            for (int i = 0; i < len; i++) {
-                Node valueNode = valueNodes.item(i);
-                String valuePath = ((Element)valueNode).getAttribute("path");
-                String value = (valueNode.getFirstChild()).getNodeValue();
-
-                predefs.put(dottedPath + valuePath, value);
+            for (int i = 0; i < valuePaths.length; i++) {
+                predefs.put(dottedPath + valuePaths[i], values[i]);
             }
 
             if (valids!=null) {
                 /* durchlaufen aller "valids"-knoten und speichern der valid-values */
-                NodeList validNodes=((Element)def).getElementsByTagName("valids");
-                len=validNodes.getLength();
-                for (int i=0;i<len;i++) {
-                    Node validNode=validNodes.item(i);
-                    String valuePath=((Element)(validNode)).getAttribute("path");
-                    String absPath=dottedPath+valuePath;
+                String[]   validPaths=def.getValidPaths();
+                String[][] validValues=def.getValidValues();
+                for (int i=0;i<validPaths.length;i++) {
+                    String absPath=dottedPath+validPaths[i];
                     
-                    NodeList validvalueNodes=((Element)(validNode)).getElementsByTagName("validvalue");
-                    int len2=validvalueNodes.getLength();
-                    for (int j=0;j<len2;j++) {
-                        Node validvalue=validvalueNodes.item(j);
-                        String value=(validvalue.getFirstChild()).getNodeValue();
-                        valids.put(HBCIUtilsInternal.withCounter(absPath+".value",j),value);
+                    String[] validvalues=validValues[i];
+                    for (int j=0;j<validvalues.length;j++) {
+                        valids.put(HBCIUtilsInternal.withCounter(absPath+".value",j),validvalues[j]);
                     }
                 }
             }
 
             try {
                 // anlegen der child-elemente
-                int counter=0;
-                for (Node ref=def.getFirstChild();ref!=null;ref=ref.getNextSibling()) {
-                	if (ref.getNodeType()==Node.ELEMENT_NODE) {
-                		MultipleSyntaxElements child=parseAndAppendNewChildContainer(ref,
-                				((counter++)==0)?predelim:getInDelim(),
-                						getInDelim(),
-                						res,fullResLen,syntax,predefs,valids);
-
-                		if (child!=null) {
-                			child.setParent(this);
-
-                			// TODO: this is a very very dirty hack to fix the problem with the params-template;
-                			// bei der SF "Params", die mit <SF type="Params" maxnum="0"/> referenziert wird, 
-                			// soll nach jedem erfolgreich in die SF aufgenommenen Param-Segment eine neue
-                			// SF begonnen werden, damit das Problem mit dem am Ende der SF stehenden Template-
-                			// Param-Segment nicht mehr auftritt
-                			// dazu wird beim hinzufuegen von segmenten zur sf ueberprueft, ob diese evtl. bereits
-                			// segmente enthaelt (hasValidChilds()). falls das der fall ist, so wird
-                			// kein neues segment hinzugefuegt
-                			// analoges gilt fr die SF "GVRes" - hier muss dafr gesorgt werden, dass jede
-                			// antwort in ein eigenes GVRes kommt, damit die zuordnung reihenfolge-erkennung
-                			// der empfangenen GVRes-segmente funktioniert (in HBCIJobImpl.fillJobResult())
-                			if ((this instanceof SF) && 
-                					(getName().equals("Params") || getName().equals("GVRes")) &&
-                					((MultipleSEGs)child).hasValidChilds()) {
-                				break;
-                			}
+                ElementRef[] refs=def.getRefs();
+                for (int r=nextChildRef(def,0,res);r<refs.length;r=nextChildRef(def,r+1,res)) {
+                	ElementRef ref=refs[r];
+                	MultipleSyntaxElements child=parseAndAppendNewChildContainer(ref,
+                			(ref.getIndex()==0)?predelim:getInDelim(),
+                					getInDelim(),
+                					res,fullResLen,syntax,predefs,valids);
+
+                	if (child!=null) {
+                		child.setParent(this);
+
+                		// TODO: this is a very very dirty hack to fix the problem with the params-template;
+                		// bei der SF "Params", die mit <SF type="Params" maxnum="0"/> referenziert wird, 
+                		// soll nach jedem erfolgreich in die SF aufgenommenen Param-Segment eine neue
+                		// SF begonnen werden, damit das Problem mit dem am Ende der SF stehenden Template-
+                		// Param-Segment nicht mehr auftritt
+                		// dazu wird beim hinzufuegen von segmenten zur sf ueberprueft, ob diese evtl. bereits
+                		// segmente enthaelt (hasValidChilds()). falls das der fall ist, so wird
+                		// kein neues segment hinzugefuegt
+                		// analoges gilt fr die SF "GVRes" - hier muss dafr gesorgt werden, dass jede
+                		// antwort in ein eigenes GVRes kommt, damit die zuordnung reihenfolge-erkennung
+                		// der empfangenen GVRes-segmente funktioniert (in HBCIJobImpl.fillJobResult())
+                		if ((this instanceof SF) && 
+                				(getName().equals("Params") || getName().equals("GVRes")) &&
+                				((MultipleSEGs)child).hasValidChilds()) {
+                			break;
                 		}
                 	}
                 }
@@ -442,17 +416,27 @@ public abstract class SyntaxElement
         der zu parsende String 'predefs' soll eine menge von pfad-wert-paaren
         enthalten, die fuer einige syntaxelemente den wert angeben, den diese
         elemente zwingend haben muessen (z.b. ein bestimmter segmentcode o.ae.) */
-    protected SyntaxElement(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected SyntaxElement(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         initData(type,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
     
-    protected void init(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen,Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    protected void init(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         initData(type,name,path,predelim,idx,res,fullResLen,syntax,predefs,valids);
     }
 
-    protected MultipleSyntaxElements parseAndAppendNewChildContainer(Node ref, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    /** beim parsen: liefert die position (in def.getRefs()) der naechsten
+        kind-referenz ab 'r', als die der reststring geparst werden soll.
+        referenzen, die mit sicherheit nicht passen koennen, duerfen dabei
+        uebersprungen werden. ist keine referenz mehr uebrig, wird
+        def.getRefs().length geliefert. */
+    protected int nextChildRef(ElementDef def, int r, ParseCursor res)
+    {
+        return r;
+    }
+
+    protected MultipleSyntaxElements parseAndAppendNewChildContainer(ElementRef ref, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         MultipleSyntaxElements ret=parseNewChildContainer(ref,predelim0,predelim1,res,fullResLen,syntax,predefs,valids);
         if (ret!=null)
@@ -552,28 +536,13 @@ public abstract class SyntaxElement
                     }
                     
                     if (!found) {
-                        // jetzt durch alle child-elemente des definierenden XML-Knotens
-                        // loopen und den ref-Knoten suchen, der das fehlende Element
-                        // beschreibt
-                        int     newChildIdx=0;
-                        Node    ref=null;
-                        found=false;
-                        for (ref=def.getFirstChild(); ref!=null; ref=ref.getNextSibling()) {
-                            if (ref.getNodeType()==Node.ELEMENT_NODE) {
-                                String type=((Element)ref).getAttribute("type");
-                                String name=((Element)ref).getAttribute("name");
-                                if (name.length()==0) {
-                                    name=type;
-                                }
-                                if (name.equals(subType)) {
-                                    found=true;
-                                    break;
-                                }
-                                newChildIdx++;
-                            }
-                        }
+                        // jetzt in der definition dieses elementes die referenz
+                        // suchen, die das fehlende Element beschreibt
+                        ElementRef ref=def.getRef(subType);
+
+                        if (ref!=null) {
+                            int newChildIdx=ref.getIndex();
 
-                        if (found) {
                             // entsprechenden child-container erzeugen
                             MultipleSyntaxElements child=createNewChildContainer(ref,syntax);
                             child.setParent(this);
@@ -599,6 +568,7 @@ public abstract class SyntaxElement
                             HBCIUtils.log("  inserting child container with syntaxIdx "+newChildIdx+" at position "+newPosi,
                                     HBCIUtils.LOG_INTERN);
                             childContainers.add(newPosi,child);
+                            changed();
                             
                             // now try to propagate the value to the newly created child
                             ret=child.propagateValue(destPath,value,tryToCreate,allowOverwrite);
@@ -707,10 +677,10 @@ public abstract class SyntaxElement
     
     /** @param type the name of the syntaxelement to be returned
         @param syntax the structure containing the current syntaxdefinition
-        @return a XML-node with the definition of the requested syntaxelement */
-    public final Node getSyntaxDef(String type, Document syntax)
+        @return the compiled definition of the requested syntaxelement */
+    public final ElementDef getSyntaxDef(String type, Grammar syntax)
     {
-        Node ret = syntax.getElementById(type);
+        ElementDef ret = syntax.getDef(type);
         if (ret == null)
             throw new org.kapott.hbci.exceptions.NoSuchElementException(getElementTypeName(), type);
         return ret;
@@ -724,9 +694,35 @@ public abstract class SyntaxElement
         return toString();
     }
 
+    /** schreibt die hbci-form dieses elementes (wie bei toString(0)) in den
+        puffer 'out'. container-elemente schreiben ihre kind-elemente direkt in
+        den selben puffer, so dass fuer die zwischenebenen keine strings
+        erzeugt werden muessen */
+    public void serialize(MsgBuffer out)
+    {
+        out.append(toString(0));
+    }
+
+    /** muss aufgerufen werden, wenn sich die hbci-form dieses elementes
+        geaendert hat. die information wird ueber die eltern-elemente bis zur
+        nachricht weitergereicht, die daraufhin ihre gecachte serialisierte
+        form verwirft (siehe MSG.toBuffer()) */
+    protected void changed()
+    {
+        MultipleSyntaxElements p=this.parent;
+        if (p!=null) {
+            SyntaxElement e=p.getParent();
+            if (e!=null)
+                e.changed();
+        }
+    }
+
     protected final void setValid(boolean valid)
     {
-        this.valid = valid;
+        if (this.valid!=valid) {
+            this.valid = valid;
+            changed();
+        }
     }
 
     public boolean isValid()
@@ -24,19 +24,24 @@ import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.protocol.DE;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public class DEFactory 
     extends ObjectFactory 
 {
-    private static DEFactory instance;
+    private static volatile DEFactory instance;
     
-    public static synchronized DEFactory getInstance()
+    public static DEFactory getInstance()
     {
         if (instance==null) {
-            instance=new DEFactory();
+            synchronized (DEFactory.class) {
+                if (instance==null) {
+                    instance=new DEFactory();
+                }
+            }
         }
         return instance;
     }
@@ -46,7 +51,7 @@ public class DEFactory
         super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.DE","1024")));
     }
     
-    public DE createDE(Node dedef, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public DE createDE(ElementRef dedef, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         DE ret=(DE)getFreeObject();
         
@@ -68,7 +73,7 @@ public class DEFactory
         return ret;
     }
     
-    public DE createDE(Node dedef, String name, String path, int idx, Document syntax)
+    public DE createDE(ElementRef dedef, String name, String path, int idx, Grammar syntax)
     {
         DE ret=(DE)getFreeObject();
         
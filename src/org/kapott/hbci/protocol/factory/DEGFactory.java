@@ -25,18 +25,23 @@ import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
 import org.kapott.hbci.protocol.DEG;
+import org.kapott.hbci.protocol.Grammar;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
 
 public class DEGFactory 
     extends ObjectFactory 
 {
-    private static DEGFactory instance;
+    private static volatile DEGFactory instance;
     
-    public static synchronized DEGFactory getInstance()
+    public static DEGFactory getInstance()
     {
         if (instance==null) {
-            instance=new DEGFactory();
+            synchronized (DEGFactory.class) {
+                if (instance==null) {
+                    instance=new DEGFactory();
+                }
+            }
         }
         return instance;
     }
@@ -46,7 +51,7 @@ public class DEGFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.DEG","512")));
     }
     
-    public DEG createDEG(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public DEG createDEG(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         DEG ret=(DEG)getFreeObject();
         
@@ -68,7 +73,7 @@ public class DEGFactory
         return ret;
     }
     
-    public DEG createDEG(String type, String name, String path, int idx, Document syntax)
+    public DEG createDEG(String type, String name, String path, int idx, Grammar syntax)
     {
         DEG ret=(DEG)getFreeObject();
         
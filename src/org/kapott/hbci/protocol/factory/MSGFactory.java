@@ -31,12 +31,16 @@ import org.kapott.hbci.tools.ObjectFactory;
 public class MSGFactory 
     extends ObjectFactory
 {
-    private static MSGFactory instance;
+    private static volatile MSGFactory instance;
     
-    public static synchronized MSGFactory getInstance()
+    public static MSGFactory getInstance()
     {
         if (instance==null) {
-            instance=new MSGFactory();
+            synchronized (MSGFactory.class) {
+                if (instance==null) {
+                    instance=new MSGFactory();
+                }
+            }
         }
         return instance;
     }
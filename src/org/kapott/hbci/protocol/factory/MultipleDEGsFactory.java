@@ -23,20 +23,25 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
 import org.kapott.hbci.protocol.MultipleDEGs;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public class MultipleDEGsFactory 
     extends ObjectFactory 
 {
-    private static MultipleDEGsFactory instance;
+    private static volatile MultipleDEGsFactory instance;
     
-    public static synchronized MultipleDEGsFactory getInstance()
+    public static MultipleDEGsFactory getInstance()
     {
         if (instance==null) {
-            instance=new MultipleDEGsFactory();
+            synchronized (MultipleDEGsFactory.class) {
+                if (instance==null) {
+                    instance=new MultipleDEGsFactory();
+                }
+            }
         }
         return instance;
     }
@@ -46,7 +51,7 @@ public class MultipleDEGsFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.DEG","512")));
     }
     
-    public MultipleDEGs createMultipleDEGs(Node sfref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen,Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public MultipleDEGs createMultipleDEGs(ElementRef sfref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen,Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleDEGs ret=(MultipleDEGs)getFreeObject();
         
@@ -68,7 +73,7 @@ public class MultipleDEGsFactory
         return ret;
     }
 
-    public MultipleDEGs createMultipleDEGs(Node sfref, char delimiter,String path, Document syntax)
+    public MultipleDEGs createMultipleDEGs(ElementRef sfref, char delimiter,String path, Grammar syntax)
     {
         MultipleDEGs ret=(MultipleDEGs)getFreeObject();
         
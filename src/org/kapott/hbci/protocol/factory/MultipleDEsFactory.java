@@ -24,20 +24,25 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
 import org.kapott.hbci.protocol.MultipleDEs;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public class MultipleDEsFactory 
     extends ObjectFactory 
 {
-    private static MultipleDEsFactory instance;
+    private static volatile MultipleDEsFactory instance;
     
-    public static synchronized MultipleDEsFactory getInstance()
+    public static MultipleDEsFactory getInstance()
     {
         if (instance==null) {
-            instance=new MultipleDEsFactory();
+            synchronized (MultipleDEsFactory.class) {
+                if (instance==null) {
+                    instance=new MultipleDEsFactory();
+                }
+            }
         }
         return instance;
     }
@@ -47,7 +52,7 @@ public class MultipleDEsFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.DE","1024")));
     }
     
-    public MultipleDEs createMultipleDEs(Node sfref, char delimiter, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public MultipleDEs createMultipleDEs(ElementRef sfref, char delimiter, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleDEs ret=(MultipleDEs)getFreeObject();
         
@@ -69,7 +74,7 @@ public class MultipleDEsFactory
         return ret;
     }
 
-    public MultipleDEs createMultipleDEs(Node sfref, char delimiter,String path, Document syntax)
+    public MultipleDEs createMultipleDEs(ElementRef sfref, char delimiter,String path, Grammar syntax)
     {
         MultipleDEs ret=(MultipleDEs)getFreeObject();
         
@@ -24,20 +24,25 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
 import org.kapott.hbci.protocol.MultipleSEGs;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public class MultipleSEGsFactory 
     extends ObjectFactory 
 {
-    private static MultipleSEGsFactory instance;
+    private static volatile MultipleSEGsFactory instance;
     
-    public static synchronized MultipleSEGsFactory getInstance()
+    public static MultipleSEGsFactory getInstance()
     {
         if (instance==null) {
-            instance=new MultipleSEGsFactory();
+            synchronized (MultipleSEGsFactory.class) {
+                if (instance==null) {
+                    instance=new MultipleSEGsFactory();
+                }
+            }
         }
         return instance;
     }
@@ -47,7 +52,7 @@ public class MultipleSEGsFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.SEG","128")));
     }
     
-    public MultipleSEGs createMultipleSEGs(Node sfref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public MultipleSEGs createMultipleSEGs(ElementRef sfref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         MultipleSEGs ret=(MultipleSEGs)getFreeObject();
         
@@ -69,7 +74,7 @@ public class MultipleSEGsFactory
         return ret;
     }
 
-    public MultipleSEGs createMultipleSEGs(Node sfref, String path, Document syntax)
+    public MultipleSEGs createMultipleSEGs(ElementRef sfref, String path, Grammar syntax)
     {
         MultipleSEGs ret=(MultipleSEGs)getFreeObject();
         
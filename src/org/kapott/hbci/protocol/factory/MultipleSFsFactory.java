@@ -24,20 +24,25 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
 import org.kapott.hbci.protocol.MultipleSFs;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 public class MultipleSFsFactory 
     extends ObjectFactory 
 {
-    private static MultipleSFsFactory instance;
+    private static volatile MultipleSFsFactory instance;
     
-    public static synchronized MultipleSFsFactory getInstance()
+    public static MultipleSFsFactory getInstance()
     {
         if (instance==null) {
-            instance=new MultipleSFsFactory();
+            synchronized (MultipleSFsFactory.class) {
+                if (instance==null) {
+                    instance=new MultipleSFsFactory();
+                }
+            }
         }
         return instance;
     }
@@ -47,7 +52,7 @@ public class MultipleSFsFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.SF","128")));
     }
  
-    public MultipleSFs createMultipleSFs(Node sfref, String path, char predelim0, char predelim1, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public MultipleSFs createMultipleSFs(ElementRef sfref, String path, char predelim0, char predelim1, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         MultipleSFs ret=(MultipleSFs)getFreeObject();
         
@@ -69,7 +74,7 @@ public class MultipleSFsFactory
         return ret;
     }
 
-    public MultipleSFs createMultipleSFs(Node sfref, String path, Document syntax)
+    public MultipleSFs createMultipleSFs(ElementRef sfref, String path, Grammar syntax)
     {
         MultipleSFs ret=(MultipleSFs)getFreeObject();
         
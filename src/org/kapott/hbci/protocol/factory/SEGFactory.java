@@ -24,19 +24,24 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.Grammar;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.protocol.SEG;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
 
 public class SEGFactory 
     extends ObjectFactory 
 {
-    private static SEGFactory instance;
+    private static volatile SEGFactory instance;
     
-    public static synchronized SEGFactory getInstance()
+    public static SEGFactory getInstance()
     {
         if (instance==null) {
-            instance=new SEGFactory();
+            synchronized (SEGFactory.class) {
+                if (instance==null) {
+                    instance=new SEGFactory();
+                }
+            }
         }
         return instance;
     }
@@ -46,7 +51,7 @@ public class SEGFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.SEG","128")));
     }
     
-    public SEG createSEG(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
+    public SEG createSEG(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String, String> predefs,Hashtable<String, String> valids)
     {
         SEG ret=(SEG)getFreeObject();
         
@@ -68,7 +73,7 @@ public class SEGFactory
         return ret;
     }
     
-    public SEG createSEG(String type, String name, String path, int idx, Document syntax)
+    public SEG createSEG(String type, String name, String path, int idx, Grammar syntax)
     {
         SEG ret=(SEG)getFreeObject();
         
@@ -24,19 +24,24 @@ package org.kapott.hbci.protocol.factory;
 import java.util.Hashtable;
 
 import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.protocol.Grammar;
+import org.kapott.hbci.protocol.ParseCursor;
 import org.kapott.hbci.protocol.SF;
 import org.kapott.hbci.tools.ObjectFactory;
-import org.w3c.dom.Document;
 
 public class SFFactory 
     extends ObjectFactory 
 {
-    private static SFFactory instance;
+    private static volatile SFFactory instance;
     
-    public static synchronized SFFactory getInstance()
+    public static SFFactory getInstance()
     {
         if (instance==null) {
-            instance=new SFFactory();
+            synchronized (SFFactory.class) {
+                if (instance==null) {
+                    instance=new SFFactory();
+                }
+            }
         }
         return instance;
     }
@@ -46,7 +51,7 @@ public class SFFactory
     	super(Integer.parseInt(HBCIUtils.getParam("kernel.objpool.SF","128")));
     }
     
-    public SF createSF(String type, String name, String path, char predelim, int idx, StringBuffer res, int fullResLen, Document syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
+    public SF createSF(String type, String name, String path, char predelim, int idx, ParseCursor res, int fullResLen, Grammar syntax, Hashtable<String,String> predefs,Hashtable<String,String> valids)
     {
         SF ret=(SF)getFreeObject();
         
@@ -68,7 +73,7 @@ public class SFFactory
         return ret;
     }
     
-    public SF createSF(String type, String name, String path, int idx, Document syntax)
+    public SF createSF(String type, String name, String path, int idx, Grammar syntax)
     {
         SF ret=(SF)getFreeObject();
         
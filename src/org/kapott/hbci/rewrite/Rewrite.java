@@ -21,36 +21,81 @@
 
 package org.kapott.hbci.rewrite;
 
-import java.util.Hashtable;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.protocol.MSG;
 
+/** Basisklasse fuer die Rewriter-Module, mit denen fehlerhafte Nachrichten
+    von Kreditinstituten korrigiert werden. Die Instanzen werden von
+    {@link RewritePipeline} nur einmal erzeugt und fuer alle Nachrichten (und
+    Threads) wiederverwendet - sie duerfen deshalb keinen Zustand in
+    Instanz-Variablen halten, sondern muessen dafuer {@link #getData(String)}
+    verwenden. Es werden nur die Methoden aufgerufen, die das jeweilige Modul
+    auch ueberschreibt. */
 public abstract class Rewrite
 {
-    private static Hashtable<String,Object> kernelData;
-    
-    static {
-        kernelData=new Hashtable<String, Object>();
-    }
+    // die daten der nachricht, fuer die gerade die rewriter laufen
+    private final static ThreadLocal<RewriteContext> current=new ThreadLocal<RewriteContext>();
+
+    // nur noch fuer setData()/getData() ausserhalb der RewritePipeline
+    private final static ConcurrentHashMap<String,Object> kernelData=new ConcurrentHashMap<String,Object>();
     
     protected Rewrite()
     {
     }
     
-    public static synchronized void setData(String name,Object value)
+    /** Speichert einen Wert fuer die Rewriter. Laufen gerade die Rewriter fuer
+        eine Nachricht, landet der Wert in deren {@link RewriteContext}, sonst
+        (wie frueher) in einer Tabelle pro ThreadGroup. */
+    public static void setData(String name,Object value)
     {
-        ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
-        kernelData.put(threadgroup.getName()+"_"+name,
-                       value);
+        RewriteContext ctx=current.get();
+        if (ctx!=null) {
+            ctx.setData(name,value);
+        } else {
+            ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
+            kernelData.put(threadgroup.getName()+"_"+name,
+                           value);
+        }
     }
 
-    public static synchronized Object getData(String name)
+    /** Liefert einen Wert fuer die Rewriter - siehe {@link #setData(String, Object)}. */
+    public static Object getData(String name)
     {
+        RewriteContext ctx=current.get();
+        if (ctx!=null)
+            return ctx.getData(name);
+
         ThreadGroup threadgroup=Thread.currentThread().getThreadGroup();
         return kernelData.get(threadgroup.getName()+"_"+name);
     }
 
+    /** Liefert die Daten der Nachricht, fuer die gerade die Rewriter laufen,
+        oder <code>null</code>, wenn die Rewriter ohne {@link RewriteContext}
+        aufgerufen wurden. */
+    protected static RewriteContext getContext()
+    {
+        return current.get();
+    }
+
+    /* aktiviert den context fuer den aktuellen thread und liefert den bisherigen */
+    static RewriteContext enter(RewriteContext ctx)
+    {
+        RewriteContext prev=current.get();
+        current.set(ctx);
+        return prev;
+    }
+
+    /* stellt den context wieder her, der vor enter() aktiv war */
+    static void leave(RewriteContext prev)
+    {
+        if (prev!=null)
+            current.set(prev);
+        else
+            current.remove();
+    }
+
     public MSG outgoingClearText(MSG msg,MsgGen gen)
     {
         return msg;
@@ -0,0 +1,52 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.rewrite;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Die Daten, die den Rewriter-Modulen fuer eine Nachricht (Senden und
+ * Empfangen der Antwort) zur Verfuegung stehen.
+ *
+ * Der Kernel erzeugt pro Nachricht eine eigene Instanz und uebergibt sie an
+ * die {@link RewritePipeline}. Waehrend die Rewriter laufen, liefert
+ * {@link Rewrite#getData(String)} die Werte aus dieser Instanz. Parallel
+ * laufende Dialoge sehen damit nur ihre eigenen Daten und muessen sich
+ * keine gemeinsame Tabelle teilen.
+ *
+ * Der Kernel setzt folgende Werte: <code>passports</code>, <code>msgStatus</code>,
+ * <code>msgName</code>, <code>signIt</code>, <code>cryptIt</code>,
+ * <code>needSig</code> und <code>needCrypt</code>.
+ *
+ * Eine Instanz ist nur fuer die Verwendung in einem Thread vorgesehen.
+ */
+public final class RewriteContext
+{
+    private final Map<String,Object> data=new HashMap<String,Object>();
+
+    /**
+     * Speichert einen Wert.
+     * @param name Name des Wertes.
+     * @param value der Wert.
+     */
+    public void setData(String name,Object value)
+    {
+        data.put(name,value);
+    }
+
+    /**
+     * Liefert einen Wert.
+     * @param name Name des Wertes.
+     * @return der Wert oder <code>null</code>.
+     */
+    public Object getData(String name)
+    {
+        return data.get(name);
+    }
+}
@@ -0,0 +1,364 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.rewrite;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.manager.MsgGen;
+import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.factory.MSGFactory;
+
+/**
+ * Die Kette der Rewriter-Module aus dem Kernel-Parameter <code>kernel.rewriter</code>.
+ *
+ * Die Kette wird pro Wert des Parameters nur einmal erzeugt und danach fuer
+ * alle Nachrichten wiederverwendet. Die Rewriter-Instanzen werden dabei
+ * von allen Threads gemeinsam benutzt (siehe {@link Rewrite}).
+ *
+ * Fuer jede Phase wird nur die Liste der Rewriter durchlaufen, die die
+ * entsprechende Methode von {@link Rewrite} tatsaechlich ueberschreiben.
+ * Die Laufzeit wird pro Rewriter gezaehlt und kann mit {@link #getTimings()}
+ * abgefragt werden.
+ *
+ * Der uebergebene {@link RewriteContext} ist waehrend der Aufrufe der
+ * Rewriter ueber {@link Rewrite#getData(String)} erreichbar.
+ */
+public final class RewritePipeline
+{
+    private final static String[] PHASES={"outgoingClearText","outgoingSigned","outgoingCrypted",
+                                          "incomingCrypted","incomingClearText","incomingData"};
+    private final static int OUT_CLEARTEXT=0;
+    private final static int OUT_SIGNED=1;
+    private final static int OUT_CRYPTED=2;
+    private final static int IN_CRYPTED=3;
+    private final static int IN_CLEARTEXT=4;
+    private final static int IN_DATA=5;
+
+    private final static ConcurrentHashMap<String,RewritePipeline> cache=new ConcurrentHashMap<String,RewritePipeline>();
+
+    /**
+     * Laufzeit-Statistik eines Rewriters.
+     */
+    public final static class Timing
+    {
+        private final String     name;
+        private final AtomicLong calls=new AtomicLong();
+        private final AtomicLong nanos=new AtomicLong();
+
+        private Timing(String name)
+        {
+            this.name=name;
+        }
+
+        /**
+         * Liefert den Namen des Rewriters (wie in <code>kernel.rewriter</code>).
+         * @return der Name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * Liefert die Anzahl der Aufrufe ueber alle Phasen.
+         * @return Anzahl der Aufrufe.
+         */
+        public long getCalls()
+        {
+            return calls.get();
+        }
+
+        /**
+         * Liefert die Laufzeit ueber alle Phasen.
+         * @return die Laufzeit in Nanosekunden.
+         */
+        public long getNanos()
+        {
+            return nanos.get();
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        public String toString()
+        {
+            return name+": "+calls.get()+" calls, "+(nanos.get()/1000)+" us";
+        }
+    }
+
+    private static class Hook
+    {
+        private final Rewrite rewriter;
+        private final Timing  timing;
+
+        private Hook(Rewrite rewriter,Timing timing)
+        {
+            this.rewriter=rewriter;
+            this.timing=timing;
+        }
+    }
+
+    private final Hook[][]     hooks;
+    private final List<Timing> timings;
+
+    private RewritePipeline(String names)
+    {
+        List<Rewrite> rewriters=new ArrayList<Rewrite>();
+        List<Timing>  timings=new ArrayList<Timing>();
+
+        StringTokenizer tok=new StringTokenizer(names,",");
+        while (tok.hasMoreTokens()) {
+            String name=tok.nextToken().trim();
+            if (name.length()!=0) {
+                try {
+                    // ein name mit punkt ist ein vollstaendiger klassenname (eigene rewriter)
+                    String classname=(name.indexOf('.')!=-1)?name:"org.kapott.hbci.rewrite.R"+name;
+                    Class<?> cl=RewritePipeline.class.getClassLoader().loadClass(classname);
+                    rewriters.add((Rewrite)cl.newInstance());
+                    timings.add(new Timing(name));
+                } catch (Exception e) {
+                    throw new HBCI_Exception("can not create rewriter "+name,e);
+                }
+            }
+        }
+
+        this.hooks=new Hook[PHASES.length][];
+        for (int phase=0;phase<PHASES.length;phase++) {
+            List<Hook> list=new ArrayList<Hook>();
+            for (int i=0;i<rewriters.size();i++) {
+                Rewrite rewriter=rewriters.get(i);
+                if (implementsPhase(rewriter,phase))
+                    list.add(new Hook(rewriter,timings.get(i)));
+            }
+            this.hooks[phase]=list.toArray(new Hook[list.size()]);
+        }
+        this.timings=Collections.unmodifiableList(timings);
+    }
+
+    /**
+     * Liefert die Rewriter-Kette fuer den aktuellen Wert von <code>kernel.rewriter</code>.
+     * @return die Rewriter-Kette.
+     */
+    public static RewritePipeline getInstance()
+    {
+        String names=HBCIUtils.getParam("kernel.rewriter");
+        return getInstance(names!=null?names:"");
+    }
+
+    /**
+     * Liefert die Rewriter-Kette fuer die angegebenen Rewriter.
+     * @param names kommaseparierte Liste der Rewriter-Namen (ohne das "R" am Anfang).
+     * @return die Rewriter-Kette.
+     */
+    public static RewritePipeline getInstance(String names)
+    {
+        RewritePipeline ret=cache.get(names);
+        if (ret==null) {
+            // doppelt erzeugte Ketten schaden nicht - es gewinnt die erste
+            ret=new RewritePipeline(names);
+            RewritePipeline old=cache.putIfAbsent(names,ret);
+            if (old!=null)
+                ret=old;
+        }
+        return ret;
+    }
+
+    /* prueft, ob der rewriter die methode fuer die phase ueberschreibt */
+    private static boolean implementsPhase(Rewrite rewriter,int phase)
+    {
+        Class<?> type=(phase==IN_CRYPTED || phase==IN_CLEARTEXT)?String.class:MSG.class;
+        try {
+            Method m=rewriter.getClass().getMethod(PHASES[phase],new Class<?>[] {type,MsgGen.class});
+            return m.getDeclaringClass()!=Rewrite.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Liefert die Laufzeit-Statistik aller Rewriter, sortiert nach Laufzeit (absteigend).
+     * @return Liste mit der Statistik.
+     */
+    public List<Timing> getTimings()
+    {
+        List<Timing> ret=new ArrayList<Timing>(timings);
+        Collections.sort(ret,new Comparator<Timing>() {
+            public int compare(Timing t1,Timing t2)
+            {
+                long n1=t1.getNanos();
+                long n2=t2.getNanos();
+                return (n1<n2)?1:((n1==n2)?0:-1);
+            }
+        });
+        return ret;
+    }
+
+    /**
+     * Wendet die Rewriter auf die unverschluesselte ausgehende Nachricht an.
+     * Ersetzte Nachrichten werden freigegeben.
+     * @param msg die Nachricht.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die ggf. ersetzte Nachricht.
+     */
+    public MSG outgoingClearText(MSG msg,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(OUT_CLEARTEXT,msg,gen,ctx);
+    }
+
+    /**
+     * Wendet die Rewriter auf die signierte ausgehende Nachricht an.
+     * Ersetzte Nachrichten werden freigegeben.
+     * @param msg die Nachricht.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die ggf. ersetzte Nachricht.
+     */
+    public MSG outgoingSigned(MSG msg,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(OUT_SIGNED,msg,gen,ctx);
+    }
+
+    /**
+     * Wendet die Rewriter auf die verschluesselte ausgehende Nachricht an.
+     * Ersetzte Nachrichten werden freigegeben.
+     * @param msg die Nachricht.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die ggf. ersetzte Nachricht.
+     */
+    public MSG outgoingCrypted(MSG msg,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(OUT_CRYPTED,msg,gen,ctx);
+    }
+
+    /**
+     * Wendet die Rewriter auf die (moeglicherweise) verschluesselte Antwort an.
+     * @param st die Antwort.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die korrigierte Antwort.
+     */
+    public String incomingCrypted(String st,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(IN_CRYPTED,st,gen,ctx);
+    }
+
+    /**
+     * Wendet die Rewriter auf die unverschluesselte Antwort an.
+     * @param st die Antwort.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die korrigierte Antwort.
+     */
+    public String incomingClearText(String st,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(IN_CLEARTEXT,st,gen,ctx);
+    }
+
+    /**
+     * Wendet die Rewriter auf die geparste Antwort an.
+     * Ersetzte Nachrichten werden freigegeben.
+     * @param msg die Nachricht.
+     * @param gen der Nachrichten-Generator.
+     * @param ctx die Daten fuer die Rewriter oder <code>null</code>.
+     * @return die ggf. ersetzte Nachricht.
+     */
+    public MSG incomingData(MSG msg,MsgGen gen,RewriteContext ctx)
+    {
+        return apply(IN_DATA,msg,gen,ctx);
+    }
+
+    private MSG apply(int phase,MSG msg,MsgGen gen,RewriteContext ctx)
+    {
+        Hook[]         list=hooks[phase];
+        RewriteContext prev=(list.length!=0 && ctx!=null)?Rewrite.enter(ctx):null;
+        try {
+            for (int i=0;i<list.length;i++) {
+                Hook hook=list[i];
+                log(hook,phase);
+
+                long start=System.nanoTime();
+                MSG old=msg;
+                try {
+                    switch (phase) {
+                        case OUT_CLEARTEXT: msg=hook.rewriter.outgoingClearText(old,gen); break;
+                        case OUT_SIGNED:    msg=hook.rewriter.outgoingSigned(old,gen); break;
+                        case OUT_CRYPTED:   msg=hook.rewriter.outgoingCrypted(old,gen); break;
+                        default:            msg=hook.rewriter.incomingData(old,gen); break;
+                    }
+                } finally {
+                    count(hook,start);
+                }
+
+                if (msg!=old) {
+                    MSGFactory.getInstance().unuseObject(old);
+                }
+            }
+        } finally {
+            if (list.length!=0 && ctx!=null)
+                Rewrite.leave(prev);
+        }
+        return msg;
+    }
+
+    private String apply(int phase,String st,MsgGen gen,RewriteContext ctx)
+    {
+        Hook[]         list=hooks[phase];
+        RewriteContext prev=(list.length!=0 && ctx!=null)?Rewrite.enter(ctx):null;
+        try {
+            for (int i=0;i<list.length;i++) {
+                Hook hook=list[i];
+                log(hook,phase);
+
+                long start=System.nanoTime();
+                try {
+                    if (phase==IN_CRYPTED)
+                        st=hook.rewriter.incomingCrypted(st,gen);
+                    else
+                        st=hook.rewriter.incomingClearText(st,gen);
+                } finally {
+                    count(hook,start);
+                }
+            }
+        } finally {
+            if (list.length!=0 && ctx!=null)
+                Rewrite.leave(prev);
+        }
+        return st;
+    }
+
+    private static void log(Hook hook,int phase)
+    {
+        if (HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG))
+            HBCIUtils.log("applying rewriter "+hook.timing.getName()+" ("+PHASES[phase]+")",HBCIUtils.LOG_DEBUG);
+    }
+
+    private static void count(Hook hook,long start)
+    {
+        hook.timing.nanos.addAndGet(System.nanoTime()-start);
+        hook.timing.calls.incrementAndGet();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return "rewriter timings: "+getTimings();
+    }
+}
@@ -32,13 +32,13 @@ import org.kapott.hbci.manager.HBCIUtilsInternal;
 import org.kapott.hbci.manager.IHandlerData;
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.passport.HBCIPassportInternal;
+import org.kapott.hbci.protocol.ElementDef;
 import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.MsgBuffer;
 import org.kapott.hbci.protocol.MultipleSEGs;
 import org.kapott.hbci.protocol.MultipleSyntaxElements;
 import org.kapott.hbci.protocol.SEG;
 import org.kapott.hbci.protocol.SyntaxElement;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 public final class Crypt
 {
@@ -101,14 +101,14 @@ public final class Crypt
     {
         try {
             // remove msghead and msgtail first
-            StringBuffer ret=new StringBuffer(1024);
+            MsgBuffer ret=new MsgBuffer(1024);
             List<MultipleSyntaxElements> childs=msg.getChildContainers();
             int len=childs.size();
 
             /* skip one segment at start and one segment at end of message
                (msghead and msgtail), the rest will be encrypted */
             for (int i=1;i<len-1;i++) {
-                ret.append(childs.get(i).toString(0));
+                childs.get(i).serialize(ret);
             }
 
             // pad message
@@ -118,7 +118,7 @@ public final class Crypt
             }
             ret.append((char)(padLength));
 
-            return ret.toString().getBytes(Comm.ENCODING);
+            return ret.getBytes();
         } catch (Exception ex) {
             throw new HBCI_Exception("*** error while extracting plain message string",ex);
         }
@@ -132,8 +132,8 @@ public final class Crypt
         if (passport.hasInstEncKey()) {
             String msgName = msg.getName();
             MsgGen gen=handlerdata.getMsgGen();
-            Node msgNode = msg.getSyntaxDef(msgName, gen.getSyntax());
-            String dontcryptAttr = ((Element)msgNode).getAttribute("dontcrypt");
+            ElementDef msgDef = msg.getSyntaxDef(msgName, gen.getGrammar());
+            String dontcryptAttr = msgDef.getAttribute("dontcrypt");
 
             if (dontcryptAttr.length() == 0) {
                 try {
@@ -35,14 +35,14 @@ import org.kapott.hbci.manager.IHandlerData;
 import org.kapott.hbci.manager.MsgGen;
 import org.kapott.hbci.passport.HBCIPassportInternal;
 import org.kapott.hbci.passport.HBCIPassportList;
+import org.kapott.hbci.protocol.ElementDef;
 import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.MsgBuffer;
 import org.kapott.hbci.protocol.MultipleSEGs;
 import org.kapott.hbci.protocol.MultipleSyntaxElements;
 import org.kapott.hbci.protocol.SEG;
 import org.kapott.hbci.protocol.SyntaxElement;
 import org.kapott.hbci.protocol.factory.SEGFactory;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 
 public final class Sig
 {
@@ -201,10 +201,10 @@ public final class Sig
     /* daten zusammensammeln, die signiert werden mssen; idx gibt dabei an,
      * die wievielte signatur erzeugt werden soll - wird bentigt, um festzustellen,
      * welche sighead- und sigtail-segmente in die signatur eingehen */
-    private String collectHashData(int idx)
+    private byte[] collectHashData(int idx)
     {
         int          numOfPassports=passports.size();
-        StringBuffer ret=new StringBuffer(1024);
+        MsgBuffer    ret=new MsgBuffer(1024);
 
         List<MultipleSyntaxElements> msgelementslist = msg.getChildContainers();
         List<SyntaxElement> sigheads = ((MultipleSEGs)(msgelementslist.get(1))).getElements();
@@ -212,20 +212,20 @@ public final class Sig
 
         // alle bentigten sighead-segmente zusammensuchen
         for (int i=numOfPassports-1-idx; i<(u_range.equals("1")?(numOfPassports-idx):numOfPassports);i++) {
-            ret.append(((SEG)(sigheads.get(i))).toString(0));
+            ((SEG)(sigheads.get(i))).serialize(ret);
         }
 
         // alle nutzdaten hinzufgen
         for (int i=2; i<msgelementslist.size()-2;i++) {
-            ret.append(msgelementslist.get(i).toString(0));
+            msgelementslist.get(i).serialize(ret);
         }
 
         // bei schalen-modell-signaturen alle "inneren" sigtails mit hinzufgen
         for (int i=0;i<(u_range.equals("1")?0:idx);i++) {
-            ret.append(((SEG)(sigtails.get(i))).toString(0));
+            ((SEG)(sigtails.get(i))).serialize(ret);
         }
 
-        return ret.toString();
+        return ret.getBytes();
     }
     
     private String collectHashData(int idx,int dummy)
@@ -245,8 +245,8 @@ public final class Sig
         if (mainPassport.hasMySigKey()) {
             String msgName = msg.getName();
             MsgGen gen=handlerdata.getMsgGen();
-            Node   msgNode = msg.getSyntaxDef(msgName, gen.getSyntax());
-            String dontsignAttr = ((Element)msgNode).getAttribute("dontsign");
+            ElementDef msgDef = msg.getSyntaxDef(msgName, gen.getGrammar());
+            String dontsignAttr = msgDef.getAttribute("dontsign");
 
             if (dontsignAttr.length()==0) {
                 try {
@@ -254,8 +254,8 @@ public final class Sig
                     
                     // create an empty sighead and sigtail segment for each required signature
                     for (int idx=0;idx<numOfPassports;idx++) {
-                        SEG sighead=SEGFactory.getInstance().createSEG("SigHeadUser","SigHead",msgName,numOfPassports-1-idx,gen.getSyntax());
-                        SEG sigtail=SEGFactory.getInstance().createSEG("SigTailUser","SigTail",msgName,idx,gen.getSyntax());
+                        SEG sighead=SEGFactory.getInstance().createSEG("SigHeadUser","SigHead",msgName,numOfPassports-1-idx,gen.getGrammar());
+                        SEG sigtail=SEGFactory.getInstance().createSEG("SigTailUser","SigTail",msgName,idx,gen.getGrammar());
                         
                         List<MultipleSyntaxElements> msgelements=msg.getChildContainers();
                         List<SyntaxElement> sigheads=((MultipleSEGs)(msgelements.get(1))).getElements();
@@ -296,13 +296,19 @@ public final class Sig
                         setParam("keyuserid",passport.getMySigKeyName());
                         setParam("keynum",passport.getMySigKeyNum());
                         setParam("keyversion",passport.getMySigKeyVersion());
-                        setParam("sysid",passport.getSysId());
-                        setParam("sigid",passport.getSigId().toString());
                         setParam("sigalg",passport.getSigAlg());
                         setParam("sigmode",passport.getSigMode());
                         setParam("hashalg",passport.getHashAlg());
-                        passport.incSigId();
-                        passport.saveChanges();
+                        
+                        // werden mehrere dialoge des passports parallel gefuehrt
+                        // (HBCIHandler.execute(Executor)), darf jede signatur-id
+                        // nur einmal vergeben werden
+                        synchronized (passport) {
+                            setParam("sysid",passport.getSysId());
+                            setParam("sigid",passport.getSigId().toString());
+                            passport.incSigId();
+                            passport.saveChanges();
+                        }
                         
                         List<MultipleSyntaxElements> msgelements=msg.getChildContainers();
                         List<SyntaxElement> sigheads=((MultipleSEGs)(msgelements.get(1))).getElements();
@@ -332,8 +338,7 @@ public final class Sig
                          * Currently the only exception is PKCS#1-10, where an extra
                          * round of hashing must be executed before applying the 
                          * signature process */
-                        String hashdata=collectHashData(idx);
-                        byte[] hashresult=passport.hash(hashdata.getBytes(Comm.ENCODING));
+                        byte[] hashresult=passport.hash(collectHashData(idx));
                         byte[] signature=passport.sign(hashresult);
 
                         if (passport.needUserSig()) {
@@ -511,8 +516,8 @@ public final class Sig
         if (mainPassport.hasInstSigKey()) {
             String msgName = msg.getName();
             MsgGen gen=handlerdata.getMsgGen();
-            Node msgNode = msg.getSyntaxDef(msgName, gen.getSyntax());
-            String dontsignAttr = ((Element)msgNode).getAttribute("dontsign");
+            ElementDef msgDef = msg.getSyntaxDef(msgName, gen.getGrammar());
+            String dontsignAttr = msgDef.getAttribute("dontsign");
 
             if (dontsignAttr.length()==0) {
                 if (hasSig()) {
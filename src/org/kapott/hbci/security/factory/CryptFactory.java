@@ -30,13 +30,17 @@ import org.kapott.hbci.tools.ObjectFactory;
 public class CryptFactory 
     extends ObjectFactory 
 {
-    private static CryptFactory instance;
+    private static volatile CryptFactory instance;
     
-    public static synchronized CryptFactory getInstance()
+    public static CryptFactory getInstance()
     {
         if (instance==null) {
-            HBCIUtils.log("creating new crypt factory",HBCIUtils.LOG_DEBUG);
-            instance=new CryptFactory();
+            synchronized (CryptFactory.class) {
+                if (instance==null) {
+                    HBCIUtils.log("creating new crypt factory",HBCIUtils.LOG_DEBUG);
+                    instance=new CryptFactory();
+                }
+            }
         }
         return instance;
     }
@@ -31,12 +31,16 @@ import org.kapott.hbci.tools.ObjectFactory;
 public class SigFactory 
     extends ObjectFactory 
 {
-    private static SigFactory instance;
+    private static volatile SigFactory instance;
     
     public static SigFactory getInstance()
     {
         if (instance==null) {
-            instance=new SigFactory();
+            synchronized (SigFactory.class) {
+                if (instance==null) {
+                    instance=new SigFactory();
+                }
+            }
         }
         return instance;
     }
@@ -0,0 +1,246 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.sepa;
+
+import java.io.File;
+import java.io.InputStream;
+import java.text.DecimalFormat;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import javax.xml.XMLConstants;
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.transform.Source;
+import javax.xml.transform.stream.StreamSource;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+
+import org.kapott.hbci.exceptions.HBCI_Exception;
+
+/**
+ * Cache fuer die JAXB-Objekte der PAIN-Generatoren und -Parser.
+ *
+ * Das Erzeugen eines {@link JAXBContext} und das Kompilieren eines
+ * XML-Schemas sind teuer, beide Objekte sind aber thread-safe. Sie werden
+ * daher einmal pro PAIN-Version (bzw. pro Document-Klasse) erzeugt und
+ * prozessweit wiederverwendet. {@link Marshaller} und {@link Unmarshaller}
+ * sind nicht thread-safe und werden deshalb pro Thread gecached.
+ *
+ * Wie die Generatoren funktioniert die Klasse auch ohne initialisiertes
+ * HBCI-System und verwendet daher das Java-Logging.
+ */
+public final class JAXBCache
+{
+    private final static Logger LOG = Logger.getLogger(JAXBCache.class.getName());
+
+    private final static ConcurrentHashMap<Class<?>,JAXBContext> contexts = new ConcurrentHashMap<Class<?>,JAXBContext>();
+    private final static ConcurrentHashMap<String,Schema> schemas         = new ConcurrentHashMap<String,Schema>();
+
+    private final static ThreadLocal<Map<Class<?>,Marshaller>> marshallers = new ThreadLocal<Map<Class<?>,Marshaller>>()
+    {
+        protected Map<Class<?>,Marshaller> initialValue()
+        {
+            return new HashMap<Class<?>,Marshaller>();
+        }
+    };
+
+    private final static ThreadLocal<Map<Class<?>,Unmarshaller>> unmarshallers = new ThreadLocal<Map<Class<?>,Unmarshaller>>()
+    {
+        protected Map<Class<?>,Unmarshaller> initialValue()
+        {
+            return new HashMap<Class<?>,Unmarshaller>();
+        }
+    };
+
+    /**
+     * ct.
+     */
+    private JAXBCache()
+    {
+    }
+
+    /**
+     * Liefert den JAXB-Context fuer die Document-Klasse einer PAIN-Version.
+     * @param type die Document-Klasse.
+     * @return der JAXB-Context.
+     * @throws JAXBException
+     */
+    public static JAXBContext getContext(Class<?> type) throws JAXBException
+    {
+        JAXBContext ctx = contexts.get(type);
+        if (ctx == null)
+        {
+            // Doppelt erzeugte Contexte schaden nicht - es gewinnt der erste
+            LOG.fine("creating JAXB context for " + type.getName());
+            ctx = JAXBContext.newInstance(type);
+            JAXBContext old = contexts.putIfAbsent(type,ctx);
+            if (old != null)
+                ctx = old;
+        }
+        return ctx;
+    }
+
+    /**
+     * Liefert das kompilierte XML-Schema einer PAIN-Version.
+     * @param version die PAIN-Version.
+     * @return das Schema oder NULL, wenn fuer die Version keine Schema-Datei bekannt ist.
+     * @throws Exception
+     */
+    public static Schema getSchema(PainVersion version) throws Exception
+    {
+        String file = version.getFile();
+        if (file == null)
+            return null;
+
+        Schema schema = schemas.get(file);
+        if (schema == null)
+        {
+            Source source  = null;
+            InputStream is = JAXBCache.class.getClassLoader().getResourceAsStream(file);
+
+            if (is != null)
+            {
+                source = new StreamSource(is);
+            }
+            else
+            {
+                // Fallback auf File-Objekt
+                File f = new File(file);
+                if (f.isFile() && f.canRead())
+                    source = new StreamSource(f);
+            }
+
+            if (source == null)
+                throw new HBCI_Exception("schema validation activated against " + file + " - but schema file could not be found");
+
+            LOG.fine("compiling schema " + file);
+            try
+            {
+                // Die SchemaFactory ist nicht thread-safe - daher jedesmal eine neue
+                SchemaFactory schemaFactory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+                schema = schemaFactory.newSchema(source);
+            }
+            finally
+            {
+                if (is != null)
+                    is.close();
+            }
+
+            Schema old = schemas.putIfAbsent(file,schema);
+            if (old != null)
+                schema = old;
+        }
+        return schema;
+    }
+
+    /**
+     * Liefert den Marshaller des aktuellen Threads fuer die Document-Klasse.
+     * Da der Marshaller wiederverwendet wird, muss der Aufrufer alle Properties
+     * (inclusive Schema) bei jeder Verwendung neu setzen.
+     * @param type die Document-Klasse.
+     * @return der Marshaller.
+     * @throws JAXBException
+     */
+    public static Marshaller getMarshaller(Class<?> type) throws JAXBException
+    {
+        Map<Class<?>,Marshaller> map = marshallers.get();
+        Marshaller m = map.get(type);
+        if (m == null)
+        {
+            m = getContext(type).createMarshaller();
+            map.put(type,m);
+        }
+        return m;
+    }
+
+    /**
+     * Liefert den Unmarshaller des aktuellen Threads fuer die Document-Klasse.
+     * @param type die Document-Klasse.
+     * @return der Unmarshaller.
+     * @throws JAXBException
+     */
+    public static Unmarshaller getUnmarshaller(Class<?> type) throws JAXBException
+    {
+        Map<Class<?>,Unmarshaller> map = unmarshallers.get();
+        Unmarshaller u = map.get(type);
+        if (u == null)
+        {
+            u = getContext(type).createUnmarshaller();
+            map.put(type,u);
+        }
+        return u;
+    }
+
+    /**
+     * Liest ein PAIN-Dokument.
+     * Ersatz fuer {@link javax.xml.bind.JAXB#unmarshal(InputStream, Class)},
+     * der dort bei jedem Aufruf einen neuen JAXB-Context erzeugt.
+     * @param xml das XML.
+     * @param type die Document-Klasse.
+     * @return das Document.
+     */
+    public static <T> T unmarshal(InputStream xml, Class<T> type)
+    {
+        try
+        {
+            return getUnmarshaller(type).unmarshal(new StreamSource(xml),type).getValue();
+        }
+        catch (JAXBException e)
+        {
+            throw new HBCI_Exception("unable to parse " + type.getName(),e);
+        }
+    }
+
+    /**
+     * Erzeugt vorab die JAXB-Contexte aller bekannten PAIN-Versionen und
+     * optional auch deren Schemas. Der Aufruf ist nicht noetig, verschiebt
+     * aber die Kosten vom ersten SEPA-Auftrag z.B. in den Programmstart.
+     * @param withSchemas true, wenn auch die Schemas kompiliert werden sollen.
+     */
+    public static void warmup(boolean withSchemas)
+    {
+        for (PainVersion.Type t:PainVersion.Type.values())
+        {
+            List<PainVersion> versions = PainVersion.getKnownVersions(t);
+            for (PainVersion v:versions)
+            {
+                try
+                {
+                    getContext(Class.forName(getDocumentClass(v)));
+                    if (withSchemas)
+                        getSchema(v);
+                }
+                catch (Exception e)
+                {
+                    LOG.warning("unable to prepare JAXB context for " + v + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /* "org.kapott.hbci.sepa.jaxb.pain_001_003_03.Document" */
+    private static String getDocumentClass(PainVersion v)
+    {
+        StringBuilder sb = new StringBuilder();
+        sb.append(JAXBCache.class.getPackage().getName());
+        sb.append(".jaxb.pain_");
+        sb.append(v.getType().getValue());
+        sb.append("_");
+        sb.append(new DecimalFormat("000").format(v.getMajor()));
+        sb.append("_");
+        sb.append(new DecimalFormat("00").format(v.getMinor()));
+        sb.append(".Document");
+        return sb.toString();
+    }
+}
@@ -17,13 +17,13 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.kapott.hbci.GV.generators.ISEPAGenerator;
 import org.kapott.hbci.GV.parsers.ISEPAParser;
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
 
 /**
  * Kapselt das Parsen und Vergleichen von SEPA Pain-Versionen.
@@ -233,10 +233,26 @@ public class PainVersion implements Comparable<PainVersion>
      * @return der Name der Java-Klasse des zugehoerigen SEPA-Generators.
      */
     public String getGeneratorClass(String jobName)
+    {
+        return this.getGeneratorClass("Gen",jobName);
+    }
+    
+    /**
+     * Erzeugt den Namen der Java-Klasse des zugehoerigen Streaming-SEPA-Generators.
+     * @param jobName der Job-Name. Z.Bsp. "UebSEPA".
+     * @return der Name der Java-Klasse des zugehoerigen Streaming-SEPA-Generators.
+     */
+    public String getStreamGeneratorClass(String jobName)
+    {
+        return this.getGeneratorClass("Stream",jobName);
+    }
+    
+    private String getGeneratorClass(String prefix, String jobName)
     {
         StringBuilder sb = new StringBuilder();
         sb.append(ISEPAGenerator.class.getPackage().getName());
-        sb.append(".Gen");
+        sb.append(".");
+        sb.append(prefix);
         sb.append(jobName);
         sb.append(this.type.getValue());
         sb.append(new DecimalFormat(DF_MAJOR).format(this.major));
@@ -368,25 +384,29 @@ public class PainVersion implements Comparable<PainVersion>
      */
     public static PainVersion autodetect(InputStream xml)
     {
+        XMLStreamReader reader = null;
         try
         {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            factory.setIgnoringComments(true);
-            factory.setValidating(false);
-            factory.setNamespaceAware(true);
-            
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document doc = builder.parse(xml);
-            Node root = doc.getFirstChild(); // Das ist das Element mit dem Namen "Document"
-            
-            if (root == null)
-                throw new IllegalArgumentException("XML data did not contain a root element");
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD,Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES,Boolean.FALSE);
             
-            String uri = root.getNamespaceURI();
-            if (uri == null)
-                return null;
+            // Wir brauchen nur das erste Element. Das ist das Element mit dem Namen "Document".
+            // Der Rest des Dokuments muss daher gar nicht erst gelesen werden
+            reader = factory.createXMLStreamReader(xml);
+            while (reader.hasNext())
+            {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT)
+                    continue;
+                
+                String uri = reader.getNamespaceURI();
+                if (uri == null || uri.length() == 0)
+                    return null;
+                
+                return PainVersion.byURN(uri);
+            }
             
-            return PainVersion.byURN(uri);
+            throw new IllegalArgumentException("XML data did not contain a root element");
         }
         catch (IllegalArgumentException e)
         {
@@ -396,6 +416,20 @@ public class PainVersion implements Comparable<PainVersion>
         {
             throw new IllegalArgumentException(e2);
         }
+        finally
+        {
+            if (reader != null)
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch (XMLStreamException e)
+                {
+                    // ignore
+                }
+            }
+        }
     }
 
     /**
@@ -50,6 +50,7 @@ public final class HBCIMsgStatus
     public HBCIStatus segStatus;
     
     private Properties data;
+    private HBCIResponseIndex index;
     
     public HBCIMsgStatus()
     {
@@ -80,6 +81,7 @@ public final class HBCIMsgStatus
      
     private void extractStatusData()
     {
+        this.index=null;
         this.globStatus=new HBCIStatus();
         this.segStatus=new HBCIStatus();
 
@@ -130,6 +132,21 @@ public final class HBCIMsgStatus
     {
         return data;
     }
+
+    /** Liefert einen Index ber die Antwortsegmente und Rckgabecodes dieser
+        Nachricht, sortiert nach der Nummer des Segments in der gesendeten
+        Nachricht. Der Index wird beim ersten Aufruf erzeugt und danach
+        wiederverwendet, bis neue Daten gesetzt werden. Wird von der
+        <em>HBCI4Java</em>-Dialog-Engine beim Verteilen der Rckgabedaten
+        auf die einzelnen Auftrge verwendet.
+        @return der Index */
+    public HBCIResponseIndex getResponseIndex()
+    {
+        if (index==null) {
+            index=new HBCIResponseIndex(this);
+        }
+        return index;
+    }
     
     /** Gibt zurck, ob bei der Ausfhrung eines Nachrichtenaustauschs Exceptions
         aufgetreten sind. Diese Exceptions knnen entweder beim Erzeugen bzw.
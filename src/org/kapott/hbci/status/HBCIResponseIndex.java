@@ -0,0 +1,144 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.status;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+/**
+ * Index ueber die Antwortsegmente einer Nachricht.
+ *
+ * Beim Verteilen der Rueckgabedaten auf die Jobs einer Nachricht hat bisher
+ * jeder Job alle Schluessel der Antwort nach seinen "GVRes*.SegHead.ref"
+ * durchsucht und danach fuer jedes Antwortsegment nochmal alle Schluessel
+ * nach dessen Daten. Der Index wird pro Antwort einmal erzeugt und liefert
+ * die Antwortsegmente, deren Daten und die Rueckgabecodes direkt ueber die
+ * Segment-Referenz.
+ */
+public final class HBCIResponseIndex
+{
+    private final static String SUFFIX_REF = ".SegHead.ref";
+
+    // Segment-Referenz -> Header der Antwortsegmente ("GVRes_3"), sortiert nach Segmentnummer
+    private final Map<Integer,List<String>> headers = new HashMap<Integer,List<String>>();
+
+    // Header ("GVRes_3") -> alle Schluessel des Antwortsegmentes
+    private final Map<String,List<String>> keys = new HashMap<String,List<String>>();
+
+    // Segment-Referenz -> Rueckgabecodes
+    private final Map<String,List<HBCIRetVal>> retVals = new HashMap<String,List<HBCIRetVal>>();
+
+    /**
+     * ct.
+     * @param status der Status der Nachricht.
+     */
+    HBCIResponseIndex(HBCIMsgStatus status)
+    {
+        Properties data = status.getData();
+        Map<Integer,TreeMap<Integer,String>> sorted = new HashMap<Integer,TreeMap<Integer,String>>();
+
+        for (Enumeration<?> e=data.keys();e.hasMoreElements();)
+        {
+            String key = (String) e.nextElement();
+            if (!key.startsWith("GVRes"))
+                continue;
+
+            int dot = key.indexOf('.');
+            if (dot != -1)
+            {
+                String header = key.substring(0,dot);
+                List<String> list = keys.get(header);
+                if (list == null)
+                {
+                    list = new ArrayList<String>();
+                    keys.put(header,list);
+                }
+                list.add(key);
+            }
+
+            if (!key.endsWith(SUFFIX_REF))
+                continue;
+
+            // Nummer des Antwortsegments ermitteln
+            int resnum = 0;
+            if (key.startsWith("GVRes_"))
+                resnum = Integer.parseInt(key.substring(key.indexOf('_')+1,dot));
+
+            Integer ref = Integer.valueOf(data.getProperty(key));
+            TreeMap<Integer,String> map = sorted.get(ref);
+            if (map == null)
+            {
+                map = new TreeMap<Integer,String>();
+                sorted.put(ref,map);
+            }
+            map.put(resnum,key.substring(0,key.length()-SUFFIX_REF.length()));
+        }
+
+        for (Map.Entry<Integer,TreeMap<Integer,String>> entry:sorted.entrySet())
+        {
+            this.headers.put(entry.getKey(),new ArrayList<String>(entry.getValue().values()));
+        }
+
+        HBCIRetVal[] list = status.segStatus.getRetVals();
+        for (HBCIRetVal rv:list)
+        {
+            if (rv.segref == null)
+                continue;
+            List<HBCIRetVal> l = this.retVals.get(rv.segref);
+            if (l == null)
+            {
+                l = new ArrayList<HBCIRetVal>();
+                this.retVals.put(rv.segref,l);
+            }
+            l.add(rv);
+        }
+    }
+
+    /**
+     * Liefert die Header der Antwortsegmente, die sich auf das angegebene
+     * Segment der gesendeten Nachricht beziehen.
+     * @param segref die Segment-Nummer in der gesendeten Nachricht.
+     * @return die Header (z.B. "GVRes_3") in der Reihenfolge des Eintreffens. Niemals <code>null</code>.
+     */
+    public List<String> getHeaders(int segref)
+    {
+        List<String> list = this.headers.get(segref);
+        return list != null ? Collections.unmodifiableList(list) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Liefert alle Schluessel eines Antwortsegmentes.
+     * @param header der Header des Antwortsegmentes (z.B. "GVRes_3").
+     * @return die Schluessel (z.B. "GVRes_3.SegHead.ref") oder <code>null</code>,
+     * wenn der Header nicht direkt auf der obersten Ebene der Antwort liegt.
+     */
+    public List<String> getKeys(String header)
+    {
+        if (header.indexOf('.') != -1)
+            return null;
+        List<String> list = this.keys.get(header);
+        return list != null ? Collections.unmodifiableList(list) : Collections.<String>emptyList();
+    }
+
+    /**
+     * Liefert die Rueckgabecodes zu einem Segment der gesendeten Nachricht.
+     * @param segref die Segment-Nummer in der gesendeten Nachricht.
+     * @return die Rueckgabecodes. Niemals <code>null</code>.
+     */
+    public List<HBCIRetVal> getRetVals(String segref)
+    {
+        List<HBCIRetVal> list = this.retVals.get(segref);
+        return list != null ? Collections.unmodifiableList(list) : Collections.<HBCIRetVal>emptyList();
+    }
+}
@@ -56,7 +56,10 @@ import org.kapott.hbci.structures.Value;
     erzeugt werden, welche jeweils eine Transaktion darstellen. Jedes so erzeugte
     Objekt kann mit {@link #addEntry(DTAUS.Transaction)}
     zum Sammelauftrag hinzugefgt werden. Die Methode {@link #toString()} 
-    liefert schlielich den so erzeugten Sammelauftrag im DTAUS-Format.</p> */
+    liefert schlielich den so erzeugten Sammelauftrag im DTAUS-Format.</p>
+    <p>Die Kontodaten und Verwendungszwecke werden fr dieses Objekt im
+    {@link LogFilter} registriert und verworfen, sobald das Objekt nicht
+    mehr referenziert wird.</p> */
 // TODO: API ndern (Setter/Getter), damit wir sauber die LogFilter fr
 // kritische Daten setzen knnen
 public class DTAUS 
@@ -113,7 +116,7 @@ public class DTAUS
         /** Hinzufgen einer Verwendungszweckzeile zu diesem Auftrag. */
         public void addUsage(String st)
         {
-        	LogFilter.getInstance().addSecretData(st,"X",LogFilter.FILTER_MOST);
+        	LogFilter.getInstance().addSecretData(DTAUS.this,st,"X",LogFilter.FILTER_MOST);
             usage.add(st);
         }
         
@@ -259,12 +262,12 @@ public class DTAUS
      wenn kein Ausfhrungsdatum gesetzt werden soll (sofortige Ausfhrung) */
     public DTAUS(Konto myAccount,int type,Date execdate)
     {
-    	LogFilter.getInstance().addSecretData(myAccount.blz,"X",LogFilter.FILTER_MOST);
-    	LogFilter.getInstance().addSecretData(myAccount.customerid,"X",LogFilter.FILTER_IDS);
-    	LogFilter.getInstance().addSecretData(myAccount.name,"X",LogFilter.FILTER_IDS);
-    	LogFilter.getInstance().addSecretData(myAccount.name2,"X",LogFilter.FILTER_IDS);
-    	LogFilter.getInstance().addSecretData(myAccount.number,"X",LogFilter.FILTER_IDS);
-    	LogFilter.getInstance().addSecretData(myAccount.subnumber,"X",LogFilter.FILTER_MOST);
+    	LogFilter.getInstance().addSecretData(this,myAccount.blz,"X",LogFilter.FILTER_MOST);
+    	LogFilter.getInstance().addSecretData(this,myAccount.customerid,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,myAccount.name,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,myAccount.name2,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,myAccount.number,"X",LogFilter.FILTER_IDS);
+    	LogFilter.getInstance().addSecretData(this,myAccount.subnumber,"X",LogFilter.FILTER_MOST);
 
     	this.myAccount=myAccount;
         this.type=type;
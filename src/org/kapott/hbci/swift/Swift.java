@@ -28,6 +28,8 @@ import java.util.regex.Pattern;
 
 public class Swift
 {
+    private final static Pattern patternNLTag=Pattern.compile("\\r\\n(-|-\\r\\n)?:\\d{2}[A-Z]?:"); // Zu dem "(-)?" siehe TestBrokenMT940.java
+
     /* With this, a block always ends with \r\n- */
     public static String getOneBlock(StringBuffer stream)
     {
@@ -47,7 +49,6 @@ public class Swift
     public static String getTagValue(String st,String tag,int counter)
     {
         String  ret=null;
-        Pattern patternNLTag=Pattern.compile("\\r\\n(-|-\\r\\n)?:\\d{2}[A-Z]?:"); // Zu dem "(-)?" siehe TestBrokenMT940.java
         
         int endpos=0;
         while (true) {
@@ -143,10 +144,23 @@ public class Swift
     
     public static String decodeUmlauts(String st)
     {
-        String ret=st.replace('\133','\304');
-               ret=ret.replace('\134','\326');
-               ret=ret.replace('\135','\334');
-               ret=ret.replace('\176','\337');
-        return ret;
+        // in einem Durchlauf - und nur dann kopieren, wenn es was zu ersetzen gibt
+        char[] ret=null;
+        int    len=st.length();
+        for (int i=0;i<len;i++) {
+            char ch=st.charAt(i);
+            char replacement;
+            switch (ch) {
+                case '\133': replacement='\304'; break;
+                case '\134': replacement='\326'; break;
+                case '\135': replacement='\334'; break;
+                case '\176': replacement='\337'; break;
+                default: continue;
+            }
+            if (ret==null)
+                ret=st.toCharArray();
+            ret[i]=replacement;
+        }
+        return (ret!=null)?new String(ret):st;
     }
 }
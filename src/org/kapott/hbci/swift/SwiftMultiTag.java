@@ -0,0 +1,99 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.swift;
+
+import java.util.Arrays;
+
+/**
+ * Zerlegt ein "Multi-Tag" (z.B. den Wert von <code>:86:</code>) in einem
+ * Durchlauf in seine Unterfelder <code>?NN</code>.
+ *
+ * Liefert die gleichen Werte wie {@link Swift#packMulti(String)} gefolgt von
+ * {@link Swift#getMultiTagValue(String, String)} - ohne fuer jedes Unterfeld
+ * den kompletten Wert erneut zu durchsuchen. Die Instanz kann fuer mehrere
+ * Werte wiederverwendet werden, ist aber nicht thread-safe.
+ */
+public class SwiftMultiTag
+{
+    private char[] packed=new char[256];
+    private int    length;
+
+    // pro Code 00..99: Start und Ende des Wertes im gepackten Puffer
+    private final int[] starts=new int[100];
+    private final int[] ends=new int[100];
+
+    /**
+     * Zerlegt einen Wert.
+     * @param data die Daten.
+     * @param start Start-Position des Wertes in den Daten.
+     * @param end End-Position (exklusive) des Wertes in den Daten.
+     */
+    public void parse(String data,int start,int end)
+    {
+        // Zeilenumbrueche haben keine Bedeutung und werden entfernt
+        if (packed.length<end-start)
+            packed=new char[end-start];
+        length=0;
+        for (int i=start;i<end;i++) {
+            char ch=data.charAt(i);
+            if (ch=='\r' && i+1<end && data.charAt(i+1)=='\n') {
+                i++;
+                continue;
+            }
+            packed[length++]=ch;
+        }
+
+        Arrays.fill(starts,-1);
+        int open=-1;
+        for (int i=0;i+2<length;i++) {
+            if (packed[i]!='?' || !isDigit(packed[i+1]) || !isDigit(packed[i+2]))
+                continue;
+
+            // ein Wert geht bis zum naechsten Code
+            if (open!=-1) {
+                ends[open]=i;
+                open=-1;
+            }
+
+            // kommt ein Code mehrfach vor, zaehlt nur das erste Vorkommen
+            int code=(packed[i+1]-'0')*10+(packed[i+2]-'0');
+            if (starts[code]==-1) {
+                starts[code]=i+3;
+                open=code;
+            }
+            i+=2;
+        }
+        if (open!=-1)
+            ends[open]=length;
+    }
+
+    /**
+     * Liefert den Wert eines Unterfeldes.
+     * @param code der Code des Unterfeldes (0..99).
+     * @return der Wert oder <code>null</code>, wenn das Unterfeld fehlt.
+     */
+    public String getValue(int code)
+    {
+        int start=starts[code];
+        return (start!=-1)?new String(packed,start,ends[code]-start):null;
+    }
+
+    /**
+     * Liefert den kompletten Wert ohne Zeilenumbrueche.
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        return new String(packed,0,length);
+    }
+
+    private static boolean isDigit(char ch)
+    {
+        return ch>='0' && ch<='9';
+    }
+}
@@ -0,0 +1,177 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.swift;
+
+/**
+ * Zerlegt SWIFT-Daten (MT940/MT942) in einem einzigen Durchlauf in
+ * Bloecke (beginnend mit <code>:20:</code>) und Tags.
+ *
+ * Statt fuer jedes Tag den Block erneut von vorn zu durchsuchen (siehe
+ * {@link Swift#getTagValue(String, String, int)}), werden die Tags in der
+ * Reihenfolge ihres Auftretens als Ereignisse an einen {@link Handler}
+ * gemeldet. Dabei werden nur die Positionen des Wertes uebergeben - ob und
+ * wann daraus ein String erzeugt wird, entscheidet der Handler.
+ *
+ * Ein Tag beginnt wie bei {@link Swift#getTagValue(String, String, int)} mit
+ * einem Zeilenumbruch, gefolgt von <code>:NN:</code> bzw. <code>:NNX:</code>.
+ * Fehlerhafte Trenner der Form <code>CRLF-:NN:</code> und
+ * <code>CRLF-CRLF:NN:</code> werden toleriert.
+ */
+public class SwiftTokenizer
+{
+    /**
+     * Empfaengt die Ereignisse des Tokenizers.
+     */
+    public interface Handler
+    {
+        /**
+         * Ein neuer Block beginnt.
+         * @param data die kompletten Daten.
+         * @param start Start-Position des Blocks.
+         */
+        public void startBlock(String data,int start);
+
+        /**
+         * Ein Tag wurde gefunden.
+         * @param data die kompletten Daten.
+         * @param tag der Name des Tags (z.B. "61" oder "60F").
+         * @param start Start-Position des Wertes.
+         * @param end End-Position (exklusive) des Wertes.
+         */
+        public void tag(String data,String tag,int start,int end);
+
+        /**
+         * Der aktuelle Block ist zu Ende.
+         * @param data die kompletten Daten.
+         * @param end End-Position (exklusive) des Blocks.
+         */
+        public void endBlock(String data,int end);
+    }
+
+    // die haeufigsten Tags - dafuer muessen keine neuen Strings erzeugt werden
+    private final static String[] KNOWN_TAGS={"20","21","25","28C","60F","60M","61","86","62F","62M","64","65","13D","34F","90C","90D"};
+
+    private final static String BLOCK_START="\r\n:20:";
+
+    /**
+     * Zerlegt die Daten ab der angegebenen Position.
+     * @param data die Daten.
+     * @param from Start-Position.
+     * @param complete true, wenn die Daten vollstaendig sind. Bei false wird
+     * der letzte Block nicht gemeldet, da er evtl. noch nicht komplett ist
+     * (z.B. wenn die restlichen Daten erst mit der naechsten Nachricht kommen).
+     * @param handler der Handler fuer die Ereignisse.
+     * @return die Position, bis zu der die Daten verarbeitet wurden. Bei
+     * <code>complete=true</code> ist das immer die Laenge der Daten, sonst
+     * der Beginn des nicht gemeldeten letzten Blocks.
+     */
+    public static int tokenize(String data,int from,boolean complete,Handler handler)
+    {
+        int limit=data.length();
+        if (!complete) {
+            limit=data.lastIndexOf(BLOCK_START);
+            if (limit<=from)
+                return from;
+        }
+        if (from>=limit)
+            return limit;
+
+        int    blockStart=from;
+        String tag=null;
+        int    valueStart=0;
+
+        handler.startBlock(data,blockStart);
+        int i=from;
+        while (i<limit-1) {
+            if (data.charAt(i)!='\r' || data.charAt(i+1)!='\n') {
+                i++;
+                continue;
+            }
+
+            // moeglicher Beginn eines Tags
+            int colon=i+2;
+            if (colon<limit && data.charAt(colon)=='-') {
+                if (colon+1<limit && data.charAt(colon+1)==':')
+                    colon++;
+                else if (colon+3<limit && data.charAt(colon+1)=='\r' && data.charAt(colon+2)=='\n' && data.charAt(colon+3)==':')
+                    colon+=3;
+            }
+            int tagEnd=matchTag(data,colon,limit);
+            if (tagEnd==-1) {
+                i++;
+                continue;
+            }
+
+            String  name=tagName(data,colon+1,tagEnd);
+            boolean newBlock=name.equals("20") && i>blockStart;
+            if (tag!=null)
+                emit(data,handler,tag,valueStart,i,newBlock);
+            if (newBlock) {
+                handler.endBlock(data,i);
+                blockStart=i;
+                handler.startBlock(data,blockStart);
+            }
+
+            tag=name;
+            valueStart=tagEnd+1;
+            i=valueStart;
+        }
+
+        if (tag!=null)
+            emit(data,handler,tag,valueStart,limit,true);
+        handler.endBlock(data,limit);
+        return limit;
+    }
+
+    /* Der Wert des letzten Tags eines Blocks endet nicht an einem Tag-Trenner.
+     * Dort stehen u.U. noch Zeilenumbrueche und das Block-Ende-Zeichen "-" */
+    private static void emit(String data,Handler handler,String tag,int start,int end,boolean last)
+    {
+        if (last) {
+            while (end>start) {
+                char ch=data.charAt(end-1);
+                if (ch!='\r' && ch!='\n' && ch!='-')
+                    break;
+                end--;
+            }
+        }
+        handler.tag(data,tag,start,end);
+    }
+
+    /* prueft auf ":NN:" bzw. ":NNX:" an der angegebenen Position und liefert
+     * die Position des abschliessenden ":" oder -1 */
+    private static int matchTag(String data,int colon,int limit)
+    {
+        if (colon+3>=limit || data.charAt(colon)!=':')
+            return -1;
+        if (!isDigit(data.charAt(colon+1)) || !isDigit(data.charAt(colon+2)))
+            return -1;
+        char ch=data.charAt(colon+3);
+        if (ch==':')
+            return colon+3;
+        if (ch>='A' && ch<='Z' && colon+4<limit && data.charAt(colon+4)==':')
+            return colon+4;
+        return -1;
+    }
+
+    private static boolean isDigit(char ch)
+    {
+        return ch>='0' && ch<='9';
+    }
+
+    private static String tagName(String data,int start,int end)
+    {
+        int len=end-start;
+        for (int i=0;i<KNOWN_TAGS.length;i++) {
+            String known=KNOWN_TAGS[i];
+            if (known.length()==len && data.regionMatches(start,known,0,len))
+                return known;
+        }
+        return data.substring(start,end);
+    }
+}
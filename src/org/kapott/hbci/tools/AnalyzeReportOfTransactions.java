@@ -37,7 +37,6 @@ import org.kapott.hbci.callback.HBCICallbackUnsupported;
 import org.kapott.hbci.concurrent.DefaultHBCIPassportFactory;
 import org.kapott.hbci.concurrent.HBCIPassportFactory;
 import org.kapott.hbci.concurrent.HBCIRunnable;
-import org.kapott.hbci.concurrent.HBCIThreadFactory;
 import org.kapott.hbci.manager.FileSystemClassLoader;
 import org.kapott.hbci.manager.HBCIHandler;
 import org.kapott.hbci.manager.HBCIUtils;
@@ -143,9 +142,9 @@ public final class AnalyzeReportOfTransactions
         // nur "notdrftig" zu initialisieren. Leere Konfiguration, und keine Callback-Untersttzung.
         HBCIUtils.init(new Properties(), new HBCICallbackUnsupported());
 
-        // Die Verwendung der HBCIThreadFactory ist fr die korrekte Funktionsweise von HBCI4Java zwingend erforderlich
-        // (Alternativ msste manuell sichergestellt werden, dass jeder Thread in einer eigenen Thread-Gruppe luft.)
-        ExecutorService executor = Executors.newCachedThreadPool(new HBCIThreadFactory());
+        // Die HBCIRunnable bindet ihren HBCIContext selbst an den ausfuehrenden Thread. Daher
+        // genuegt ein beliebiger Thread-Pool - eine eigene Thread-Gruppe pro Thread ist nicht mehr noetig.
+        ExecutorService executor = Executors.newCachedThreadPool();
 
         // Einstellungen fr die Aufgabe erstellen
         Properties properties = HBCIUtils.loadPropertiesFile(new FileSystemClassLoader(),"/home/stefan.palme/temp/a.props");
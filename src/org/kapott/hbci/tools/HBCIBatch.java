@@ -22,8 +22,9 @@
 package org.kapott.hbci.tools;
 
 import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
@@ -31,10 +32,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.PrintWriter;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Enumeration;
-import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 import java.util.StringTokenizer;
 
@@ -127,26 +127,15 @@ public class HBCIBatch
     // speziell callback-klasse, um die ausgaben zu reduzieren und um die
     // nutzer-interaktion zu unterbinden, indem alle abgefragten daten auto-
     // tisch bergeben werden (aus args[1])
-    private static class MyCallback
+    static class MyCallback
         extends HBCICallbackConsole
     {
         private Properties answers;   // alle spezifizierten antwortdaten
 
-        public MyCallback(String[] args)
-            throws FileNotFoundException,IOException
+        public MyCallback(Properties answers,PrintStream outStream)
         {
-            // einlesen der answers-datei
-            answers=new Properties();
-            FileInputStream answerFile=new FileInputStream(args[1]);
-            answers.load(answerFile);
-            answerFile.close();
-            
-            // wenn ein logfile angegeben wurde, dann dieses als ausgabemedium
-            // fr stdout und stderr verwenden
-            if (args.length>=5) {
-                PrintStream outStream=new PrintStream(new FileOutputStream(args[4]));
-                System.setOut(outStream);
-                System.setErr(outStream);
+            this.answers=answers;
+            if (outStream!=null) {
                 this.setOutStream(outStream);
             }
         }
@@ -237,15 +226,36 @@ public class HBCIBatch
     private final static int STATE_NEED_JOBNAME=1;   // state-flags fr 
     private final static int STATE_NEED_JOBPARAMS=2; //   batch-file-parser
     
+    /* ein job aus der batch-datei */
+    public static class BatchJob
+    {
+        final String  id;           // job-bezeichner
+        final HBCIJob job;          // job-objekt
+        final String  resultMode;   // ausgabemodus ("props" oder "toString")
+        
+        BatchJob(String id,HBCIJob job,String resultMode)
+        {
+            this.id=id;
+            this.job=job;
+            this.resultMode=resultMode;
+        }
+    }
+    
     public static void main(String[] args)
         throws Exception
     {
         // initialisieren von hbci4java
-        Properties  props=new Properties();
-        InputStream istream=new FileInputStream(args[0]);
-        props.load(istream);
-        istream.close();
-        HBCIUtils.init(props, new MyCallback(args));
+        Properties props=loadProperties(args[0]);
+        
+        // wenn ein logfile angegeben wurde, dann dieses als ausgabemedium
+        // fr stdout und stderr verwenden
+        PrintStream outStream=null;
+        if (args.length>=5) {
+            outStream=new PrintStream(new FileOutputStream(args[4]));
+            System.setOut(outStream);
+            System.setErr(outStream);
+        }
+        HBCIUtils.init(props,new MyCallback(loadProperties(args[1]),outStream));
         
         // erzeugen des passport-objektes
         HBCIPassport passport=AbstractHBCIPassport.getInstance();
@@ -256,236 +266,266 @@ public class HBCIBatch
             HBCIHandler handler=new HBCIHandler(version.length()!=0?version:HBCIUtils.getParam("default.hbciversion"),passport);
             
             try {
-                // batch-datei ffnen
-                BufferedReader reader=new BufferedReader(new FileReader(args[2]));
-                String line;
+                // batch-datei einlesen und alle jobs zur job-queue hinzufgen
+                Map<String,BatchJob> jobs=readJobs(handler,args[2]);
+                
+                // alle batch-jobs ausfhren
+                handler.execute();
+                
+                // ergebnis-writer fr ok-jobs und fr fehlerhafte jobs
+                // erzeugen
+                PrintWriter writer=new PrintWriter(new FileWriter(args[3]));
+                PrintWriter errWriter=new PrintWriter(new FileWriter(args[3]+".err"));
                 
                 try {
-                    int       state=STATE_NEED_JOBNAME;
-                    boolean   lljob=false;           // low- oder high-level-job?
-                    HBCIJob   job=null;              // job-objekt
-                    String    jobid=null;            // job-bezeichner
-                    String    customerId=null;       // customer-id fr job
-                    Hashtable<String, Object> jobs=new Hashtable<String, Object>();  // liste aller jobs
-                        
-                    // batch-datei zeilenweise einlesen und auswerten
-                    while ((line=reader.readLine())!=null) {
-                        line=line.trim();
-                        // kommentare ignorieren
-                        if (line.startsWith("#")) {
-                            continue;
-                        }
+                    // alle jobs in der reihenfolge der batch-datei ausgeben
+                    for (BatchJob job:jobs.values()) {
+                        writeResult(writer,errWriter,job);
+                    }
+                } finally {
+                    writer.close();
+                    errWriter.close();
+                }
+            } finally {
+                handler.close();
+                passport=null;
+            }
+        } finally {
+            if (passport!=null) {
+                passport.close();
+            }
+        }
+    }
+    
+    /** Liest eine Property-Datei ein. */
+    static Properties loadProperties(String filename)
+        throws IOException
+    {
+        Properties  props=new Properties();
+        InputStream istream=new FileInputStream(filename);
+        try {
+            props.load(istream);
+        } finally {
+            istream.close();
+        }
+        return props;
+    }
+    
+    /** Liest die Batch-Datei ein, erzeugt alle darin definierten Jobs und fgt
+     *  sie zur Job-Queue des Handlers hinzu.
+     *  @param handler der Handler.
+     *  @param filename Dateiname der Batch-Datei.
+     *  @return die Jobs in der Reihenfolge der Batch-Datei. Schlssel ist der Job-Bezeichner. */
+    public static Map<String,BatchJob> readJobs(HBCIHandler handler,String filename)
+        throws IOException
+    {
+        // batch-datei ffnen
+        BufferedReader reader=new BufferedReader(new FileReader(filename));
+        String line;
+        
+        try {
+            int       state=STATE_NEED_JOBNAME;
+            boolean   lljob=false;           // low- oder high-level-job?
+            HBCIJob   job=null;              // job-objekt
+            String    jobid=null;            // job-bezeichner
+            String    customerId=null;       // customer-id fr job
+            Map<String,BatchJob> jobs=new LinkedHashMap<String,BatchJob>();  // liste aller jobs
+                
+            // batch-datei zeilenweise einlesen und auswerten
+            while ((line=reader.readLine())!=null) {
+                line=line.trim();
+                // kommentare ignorieren
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                
+                if (state==STATE_NEED_JOBNAME && line.length()!=0) {
+                    // es wird der beginn einer job-definition erwartet
+                    
+                    StringTokenizer tok=new StringTokenizer(line,":");
+                    // jobnamen extrahieren
+                    String          jobname=tok.nextToken().trim();
+                    
+                    if (jobname.equals("--")) {
+                        // wenn jobname="--", dann neue hbci-message erzeugen
+                        customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
+                        handler.newMsg(customerId);
+                    } else {
+                        // ansonsten handelt es sich um einen "richtigen" job
+                        String resultMode;
                         
-                        if (state==STATE_NEED_JOBNAME && line.length()!=0) {
-                            // es wird der beginn einer job-definition erwartet
+                        if (jobname.startsWith("_")) {
+                            // wenn jobname mit "_" beginnt, handelt es
+                            // sich um einen low-level-jobnamen
                             
-                            StringTokenizer tok=new StringTokenizer(line,":");
-                            // jobnamen extrahieren
-                            String          jobname=tok.nextToken().trim();
+                            job=handler.newLowlevelJob(jobname.substring(1));
+                            lljob=true;
                             
-                            if (jobname.equals("--")) {
-                                // wenn jobname="--", dann neue hbci-message erzeugen
-                                customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
-                                handler.newMsg(customerId);
-                            } else {
-                                // ansonsten handelt es sich um einen "richtigen" job
-                                String resultMode;
-                                
-                                if (jobname.startsWith("_")) {
-                                    // wenn jobname mit "_" beginnt, handelt es
-                                    // sich um einen low-level-jobnamen
-                                    
-                                    job=handler.newLowlevelJob(jobname.substring(1));
-                                    lljob=true;
-                                    
-                                    // zu einem low-level-job mssen zustzlich noch
-                                    // eine ID (zum spteren wiederfinden des jobs)
-                                    // und optional eine kunden-id festgelegt werden
-                                    jobid=tok.nextToken().trim();
-                                    resultMode="toString";
-                                    customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
-                                } else {
-                                    // wenn jobname nicht mit "_" beginnt, ist es
-                                    // ein high-level-job
-                                    
-                                    job=handler.newJob(jobname);
-                                    lljob=false;
-                                    
-                                    // zu einem high-level-job mssen zustzlich noch
-                                    // eine ID (zum spteren wiederfinden des jobs),
-                                    // ein modus fr die ausgabe der ergebisdaten
-                                    // und optional eine kunden-id festgelegt werden
-                                    jobid=tok.nextToken().trim();
-                                    resultMode=tok.nextToken().trim();
-                                    customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
-                                }
-                                
-                                // job in menge der jobs speichern 
-                                jobs.put(jobid,job);
-                                // ... und ausgabemodus fr diesen job merken
-                                jobs.put(jobid+"_resultMode",resultMode);
-                                state=STATE_NEED_JOBPARAMS;
-                            }
-                        } else if (state==STATE_NEED_JOBPARAMS) {
-                            // bis zur nchsten leerzeile oder dem dateienende
-                            // werden jetzt alle zeilen als job-parameter
-                            // interpretiert
+                            // zu einem low-level-job mssen zustzlich noch
+                            // eine ID (zum spteren wiederfinden des jobs)
+                            // und optional eine kunden-id festgelegt werden
+                            jobid=tok.nextToken().trim();
+                            resultMode="toString";
+                            customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
+                        } else {
+                            // wenn jobname nicht mit "_" beginnt, ist es
+                            // ein high-level-job
                             
-                            if (line.length()!=0) {
-                                StringTokenizer tok=new StringTokenizer(line,"=");
-                                
-                                // parameternamen und -wert holen
-                                String paramName=tok.nextToken().trim();
-                                if (!tok.hasMoreTokens()) {
-                                    continue;
-                                }
-                                String paramValue=tok.nextToken().trim();
-                                
-                                // fr low-level-jobs mssen die parameter mit
-                                // einem "_" beginnen, bei high-level-jobs
-                                // drfen sie *nicht* mit einem "_" beginnen
-                                if (paramName.startsWith("_")!=lljob) {
-                                    if (lljob) {
-                                        throw new HBCI_Exception("*** "+jobid+" is a lowlevel job, so parameter names have to start with '_'");
-                                    }
-                                    throw new HBCI_Exception("*** "+jobid+" is a highlevel job, so parameter names must not start with '_'");
-                                }
-                                
-                                // wenn es sich um einen low-level-job, den
-                                // fhrenden "_" beim parameter-namen entfernen 
-                                if (lljob) {
-                                    paramName=paramName.substring(1);
-                                }
-                                
-                                // wenn der parameter-wert mit einem "<" beginnt,
-                                // so soll der wert des parameter aus der datei
-                                // gelesen werden, die nach dem "<" spezifiziert
-                                // ist
-                                if (paramValue.startsWith("<")) {
-                                    // ffnen der datei
-                                    String          filename=paramValue.substring(1);
-                                    FileInputStream fin=new FileInputStream(filename);
-                                    
-                                    // puffer fr einlesen der datei
-                                    byte[]       buffer=new byte[2048];
-                                    int          len;
-                                    StringBuffer content=new StringBuffer();
-                                    
-                                    // datei in stringbuffer einlesen
-                                    while ((len=fin.read(buffer))>0) {
-                                        content.append(new String(buffer,0,len,"ISO-8859-1"));
-                                    }
-                                    
-                                    // datei schlieen
-                                    fin.close();
-                                    // parameterwert ist inhalt des stringbuffers
-                                    paramValue=content.toString();
-                                }
-                                
-                                // parameter fr aktuellen job setzen
-                                job.setParam(paramName,paramValue);
-                            } else {
-                                // leerzeile gefunden - damit ist die parameter-
-                                // spez. fr den aktuellen job beendet
-                                
-                                // aktuellen job zur job-queue hinzufgen
-                                job.addToQueue(customerId);
-                                state=STATE_NEED_JOBNAME;
-                            }
+                            job=handler.newJob(jobname);
+                            lljob=false;
+                            
+                            // zu einem high-level-job mssen zustzlich noch
+                            // eine ID (zum spteren wiederfinden des jobs),
+                            // ein modus fr die ausgabe der ergebisdaten
+                            // und optional eine kunden-id festgelegt werden
+                            jobid=tok.nextToken().trim();
+                            resultMode=tok.nextToken().trim();
+                            customerId=(tok.hasMoreTokens()?tok.nextToken().trim():null);
                         }
+                        
+                        // job und ausgabemodus in menge der jobs speichern 
+                        jobs.put(jobid,new BatchJob(jobid,job,resultMode));
+                        state=STATE_NEED_JOBPARAMS;
                     }
+                } else if (state==STATE_NEED_JOBPARAMS) {
+                    // bis zur nchsten leerzeile oder dem dateienende
+                    // werden jetzt alle zeilen als job-parameter
+                    // interpretiert
                     
-                    // wenn noch ein job "in bearbeitung" ist, der noch nicht
-                    // zur job-queue hinzugefgt wurde, dann das jetzt nachholen
-                    if (state==STATE_NEED_JOBPARAMS) {
-                        job.addToQueue(customerId);
-                    }
-                    
-                    // alle batch-jobs ausfhren
-                    handler.execute();
-                    
-                    // ergebnis-writer fr ok-jobs und fr fehlerhafte jobs
-                    // erzeugen
-                    PrintWriter writer=new PrintWriter(new FileWriter(args[3]));
-                    PrintWriter errWriter=new PrintWriter(new FileWriter(args[3]+".err"));
-                    
-                    try {
-                        // alle bekannten job-bezeichner (IDs) durchlaufen
-                        for (Enumeration<String> jobIds=jobs.keys();jobIds.hasMoreElements();) {
-                            jobid=jobIds.nextElement();
-                            if (jobid.endsWith("_resultMode")) {
-                                continue;
-                            }
-                            // den dazugehrigen job holen
-                            job=(HBCIJob)jobs.get(jobid);
-                            
-                            if (job.getJobResult().isOK()) {
-                                // wenn der job erfolgreich gelaufen ist
-                                
-                                // ausgabe von jobid
-                                writer.println("jobid:"+jobid);
-                                // ausgabe der hbci-status-meldungen zu diesem job
-                                writer.println("job status:");
-                                writer.println(job.getJobResult().getJobStatus());
-                                
-                                // ausgabe der job-ergebnisse
-                                writer.println("job result:");
-                                
-                                String resultMode=(String)jobs.get(jobid+"_resultMode");
-                                if (resultMode.equals("props")) {
-                                    // ausgabemodus="props": alle ergebnisdaten
-                                    // als lowlevel-properties ausgeben
-                                    
-                                    Properties result=job.getJobResult().getResultData();
-                                    if (result!=null) {
-                                        // array mit result-properties holen und
-                                        // sortieren
-                                        String[] keys=(String[])new ArrayList(result.keySet()).toArray(new String[0]);
-                                        Arrays.sort(keys);
-                                        
-                                        // ausgabe aller result-properties
-                                        for (int i=0;i<keys.length;i++) {
-                                            String name=keys[i];
-                                            String value=result.getProperty(name);
-                                            writer.println(name+"="+value);
-                                        }
-                                    }
-                                } else {
-                                    // ausgabemodus="toString": job-spezifische
-                                    // toString()-methode fr formatierung der
-                                    // ergebnisdaten aufrufen
-                                    writer.println(job.getJobResult());
-                                }
-                                
-                                // leerzeile einfgen
-                                writer.println();
-                            } else {
-                                // wenn ein job fehler erzeugt hatte, die fehlermeldungen
-                                // an die err-datei anhngen
-                                
-                                errWriter.println("jobid:"+jobid);
-                                errWriter.println("global status:");
-                                errWriter.println(job.getJobResult().getGlobStatus().getErrorString());
-                                errWriter.println("job status:");
-                                errWriter.println(job.getJobResult().getJobStatus().getErrorString());
-                                errWriter.println();
+                    if (line.length()!=0) {
+                        StringTokenizer tok=new StringTokenizer(line,"=");
+                        
+                        // parameternamen und -wert holen
+                        String paramName=tok.nextToken().trim();
+                        if (!tok.hasMoreTokens()) {
+                            continue;
+                        }
+                        String paramValue=tok.nextToken().trim();
+                        
+                        // fr low-level-jobs mssen die parameter mit
+                        // einem "_" beginnen, bei high-level-jobs
+                        // drfen sie *nicht* mit einem "_" beginnen
+                        if (paramName.startsWith("_")!=lljob) {
+                            if (lljob) {
+                                throw new HBCI_Exception("*** "+jobid+" is a lowlevel job, so parameter names have to start with '_'");
                             }
+                            throw new HBCI_Exception("*** "+jobid+" is a highlevel job, so parameter names must not start with '_'");
+                        }
+                        
+                        // wenn es sich um einen low-level-job, den
+                        // fhrenden "_" beim parameter-namen entfernen 
+                        if (lljob) {
+                            paramName=paramName.substring(1);
                         }
-                    } finally {
-                        writer.close();
-                        errWriter.close();
+                        
+                        // wenn der parameter-wert mit einem "<" beginnt,
+                        // so soll der wert des parameter aus der datei
+                        // gelesen werden, die nach dem "<" spezifiziert
+                        // ist
+                        if (paramValue.startsWith("<")) {
+                            paramValue=readFile(paramValue.substring(1));
+                        }
+                        
+                        // parameter fr aktuellen job setzen
+                        job.setParam(paramName,paramValue);
+                    } else {
+                        // leerzeile gefunden - damit ist die parameter-
+                        // spez. fr den aktuellen job beendet
+                        
+                        // aktuellen job zur job-queue hinzufgen
+                        job.addToQueue(customerId);
+                        state=STATE_NEED_JOBNAME;
                     }
-                } finally {
-                    reader.close();
                 }
-            } finally {
-                handler.close();
-                passport=null;
             }
+            
+            // wenn noch ein job "in bearbeitung" ist, der noch nicht
+            // zur job-queue hinzugefgt wurde, dann das jetzt nachholen
+            if (state==STATE_NEED_JOBPARAMS) {
+                job.addToQueue(customerId);
+            }
+            
+            return jobs;
         } finally {
-            if (passport!=null) {
-                passport.close();
+            reader.close();
+        }
+    }
+    
+    /** Liest den Inhalt einer Datei (ISO-8859-1) komplett ein. Die Gre ist
+     *  vorher bekannt, deshalb wird die Datei in einem Stck gelesen statt
+     *  blockweise an einen StringBuffer angehngt. */
+    static String readFile(String filename)
+        throws IOException
+    {
+        File            file=new File(filename);
+        DataInputStream in=new DataInputStream(new FileInputStream(file));
+        try {
+            byte[] content=new byte[(int)file.length()];
+            in.readFully(content);
+            return new String(content,"ISO-8859-1");
+        } finally {
+            in.close();
+        }
+    }
+    
+    /** Schreibt das Ergebnis eines Jobs in die Ausgabedatei bzw. bei
+     *  fehlerhaften Jobs in die Fehlerdatei. */
+    static void writeResult(PrintWriter writer,PrintWriter errWriter,BatchJob batchJob)
+    {
+        String  jobid=batchJob.id;
+        HBCIJob job=batchJob.job;
+        
+        if (job.getJobResult().isOK()) {
+            // wenn der job erfolgreich gelaufen ist
+            
+            // ausgabe von jobid
+            writer.println("jobid:"+jobid);
+            // ausgabe der hbci-status-meldungen zu diesem job
+            writer.println("job status:");
+            writer.println(job.getJobResult().getJobStatus());
+            
+            // ausgabe der job-ergebnisse
+            writer.println("job result:");
+            
+            if (batchJob.resultMode.equals("props")) {
+                // ausgabemodus="props": alle ergebnisdaten
+                // als lowlevel-properties ausgeben
+                
+                Properties result=job.getJobResult().getResultData();
+                if (result!=null) {
+                    // ausgabe aller result-properties, sortiert
+                    for (String name:sortedKeys(result)) {
+                        String value=result.getProperty(name);
+                        writer.println(name+"="+value);
+                    }
+                }
+            } else {
+                // ausgabemodus="toString": job-spezifische
+                // toString()-methode fr formatierung der
+                // ergebnisdaten aufrufen
+                writer.println(job.getJobResult());
             }
+            
+            // leerzeile einfgen
+            writer.println();
+        } else {
+            // wenn ein job fehler erzeugt hatte, die fehlermeldungen
+            // an die err-datei anhngen
+            
+            errWriter.println("jobid:"+jobid);
+            errWriter.println("global status:");
+            errWriter.println(job.getJobResult().getGlobStatus().getErrorString());
+            errWriter.println("job status:");
+            errWriter.println(job.getJobResult().getJobStatus().getErrorString());
+            errWriter.println();
         }
     }
+    
+    /** Liefert die Schlssel der Properties in sortierter Reihenfolge. */
+    static String[] sortedKeys(Properties props)
+    {
+        String[] keys=props.keySet().toArray(new String[props.size()]);
+        Arrays.sort(keys);
+        return keys;
+    }
 }
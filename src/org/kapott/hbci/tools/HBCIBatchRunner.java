@@ -0,0 +1,670 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.tools;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.kapott.hbci.GV.HBCIJob;
+import org.kapott.hbci.GV.HBCIJobImpl;
+import org.kapott.hbci.callback.HBCICallbackConsole;
+import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.manager.HBCIContext;
+import org.kapott.hbci.manager.HBCIHandler;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.passport.AbstractHBCIPassport;
+import org.kapott.hbci.passport.HBCIPassport;
+import org.kapott.hbci.status.HBCIExecStatus;
+import org.kapott.hbci.tools.HBCIBatch.BatchJob;
+
+/**
+ * Fuehrt die Batch-Dateien von {@link HBCIBatch} fuer viele Passports parallel aus.
+ * <pre>
+ *  args[0] - Manifest-Datei. Pro Zeile ein Passport:
+ *    # kommentar
+ *    id;configfile;answerfile;batchfile
+ *
+ *    id         - Bezeichner des Passports in der Ausgabe
+ *    configfile - Kernel-Parameter fuer das Passport (wie args[0] bei HBCIBatch)
+ *    answerfile - Antwortdatei fuer Callbacks (wie args[1] bei HBCIBatch)
+ *    batchfile  - Batch-Datei mit den Jobs (wie args[2] bei HBCIBatch)
+ *
+ *  args[1] - Dateiname der Ausgabedatei
+ *
+ *  [args[2]] - Property-File mit den Einstellungen des Runners. Die Datei
+ *    wird ausserdem fuer HBCIUtils.init() verwendet.
+ *    batch.threads=4           Anzahl der Passports, die gleichzeitig ausgefuehrt werden
+ *    batch.maxPerBLZ=2         max. Anzahl gleichzeitiger Passports pro BLZ
+ *    batch.maxPerHost=4        max. Anzahl gleichzeitiger Passports pro Host
+ *    batch.minInterval=0       min. Abstand in Millisekunden zwischen zwei
+ *                              Verbindungsaufbauten zum selben Host
+ *    batch.retries=2           Anzahl der Wiederholungen bei Fehlern
+ *    batch.retryDelay=1000     Wartezeit in Millisekunden vor der ersten
+ *                              Wiederholung, verdoppelt sich mit jedem Versuch
+ *    batch.format=text         Ausgabeformat: "text" (wie HBCIBatch, Fehler in
+ *                              der Datei mit dem Suffix ".err") oder "jsonl"
+ *                              (ein JSON-Objekt pro Zeile)
+ * </pre>
+ *
+ * <p>Das Ergebnis eines Jobs wird geschrieben, sobald der Job abgeschlossen ist -
+ * nicht erst nach Ausfuehrung aller Jobs. In der Ausgabe wird der Job-Bezeichner
+ * im Format "passport-id/jobid" angegeben.</p>
+ *
+ * <p>Wiederholt wird ein Passport nur, solange noch kein Job an die Bank gesendet
+ * wurde (z.B. bei Verbindungsfehlern oder Fehlern in der Dialog-Initialisierung).
+ * Damit werden Auftraege niemals doppelt ausgefuehrt.</p>
+ *
+ * <p>Am Ende werden Durchsatz und Laufzeiten auf der Konsole ausgegeben.</p>
+ */
+public class HBCIBatchRunner
+{
+    /**
+     * Ein Eintrag aus der Manifest-Datei.
+     */
+    protected static class Entry
+    {
+        private final String id;
+        private final String configFile;
+        private final String answerFile;
+        private final String batchFile;
+
+        /**
+         * ct.
+         * @param id Bezeichner des Passports.
+         * @param configFile Kernel-Parameter fuer das Passport.
+         * @param answerFile Antwortdatei fuer Callbacks.
+         * @param batchFile Batch-Datei mit den Jobs.
+         */
+        public Entry(String id,String configFile,String answerFile,String batchFile)
+        {
+            this.id=id;
+            this.configFile=configFile;
+            this.answerFile=answerFile;
+            this.batchFile=batchFile;
+        }
+    }
+
+    /**
+     * Nimmt die Ergebnisse der Jobs entgegen. Wird aus mehreren Threads aufgerufen.
+     */
+    protected interface ResultSink
+    {
+        /**
+         * Schreibt das Ergebnis eines abgeschlossenen Jobs.
+         * @param passportId Bezeichner des Passports.
+         * @param job der Job.
+         */
+        public void jobFinished(String passportId,BatchJob job);
+
+        /**
+         * Schreibt einen Fehler, durch den das Passport nicht ausgefuehrt werden konnte.
+         * @param passportId Bezeichner des Passports.
+         * @param e der Fehler.
+         */
+        public void passportFailed(String passportId,Exception e);
+
+        /**
+         * Schliesst die Ausgabe.
+         */
+        public void close();
+    }
+
+    /**
+     * Ausgabe im Format von {@link HBCIBatch}.
+     */
+    private static class TextSink implements ResultSink
+    {
+        private final PrintWriter writer;
+        private final PrintWriter errWriter;
+
+        private TextSink(String filename) throws IOException
+        {
+            this.writer=new PrintWriter(new FileWriter(filename));
+            this.errWriter=new PrintWriter(new FileWriter(filename+".err"));
+        }
+
+        public synchronized void jobFinished(String passportId,BatchJob job)
+        {
+            HBCIBatch.writeResult(writer,errWriter,new BatchJob(passportId+"/"+job.id,job.job,job.resultMode));
+            writer.flush();
+            errWriter.flush();
+        }
+
+        public synchronized void passportFailed(String passportId,Exception e)
+        {
+            errWriter.println("passport:"+passportId);
+            errWriter.println("error:");
+            errWriter.println(HBCIUtils.exception2StringShort(e));
+            errWriter.println();
+            errWriter.flush();
+        }
+
+        public synchronized void close()
+        {
+            writer.close();
+            errWriter.close();
+        }
+    }
+
+    /**
+     * Ausgabe als JSON-Objekt pro Zeile.
+     */
+    private static class JsonSink implements ResultSink
+    {
+        private final PrintWriter writer;
+
+        private JsonSink(String filename) throws IOException
+        {
+            this.writer=new PrintWriter(new FileWriter(filename));
+        }
+
+        public synchronized void jobFinished(String passportId,BatchJob job)
+        {
+            HBCIJob hbciJob=job.job;
+            boolean ok=hbciJob.getJobResult().isOK();
+
+            StringBuffer sb=new StringBuffer();
+            sb.append("{\"passport\":").append(quote(passportId));
+            sb.append(",\"jobid\":").append(quote(job.id));
+            sb.append(",\"job\":").append(quote(hbciJob.getName()));
+            sb.append(",\"ok\":").append(ok);
+            if (ok) {
+                sb.append(",\"status\":").append(quote(hbciJob.getJobResult().getJobStatus().toString()));
+                if (job.resultMode.equals("props")) {
+                    sb.append(",\"result\":{");
+                    Properties result=hbciJob.getJobResult().getResultData();
+                    if (result!=null) {
+                        String[] keys=HBCIBatch.sortedKeys(result);
+                        for (int i=0;i<keys.length;i++) {
+                            if (i!=0)
+                                sb.append(',');
+                            sb.append(quote(keys[i])).append(':').append(quote(result.getProperty(keys[i])));
+                        }
+                    }
+                    sb.append('}');
+                } else {
+                    sb.append(",\"result\":").append(quote(hbciJob.getJobResult().toString()));
+                }
+            } else {
+                sb.append(",\"globalStatus\":").append(quote(hbciJob.getJobResult().getGlobStatus().getErrorString()));
+                sb.append(",\"status\":").append(quote(hbciJob.getJobResult().getJobStatus().getErrorString()));
+            }
+            sb.append('}');
+
+            writer.println(sb.toString());
+            writer.flush();
+        }
+
+        public synchronized void passportFailed(String passportId,Exception e)
+        {
+            writer.println("{\"passport\":"+quote(passportId)+",\"ok\":false,\"error\":"+quote(HBCIUtils.exception2StringShort(e))+"}");
+            writer.flush();
+        }
+
+        public synchronized void close()
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Liefert den String als JSON-String inclusive Anfuehrungszeichen.
+     * Steuerzeichen werden als Escape-Sequenz ausgegeben.
+     * @param s der String.
+     * @return der JSON-String oder "null".
+     */
+    public static String quote(String s)
+    {
+        if (s==null)
+            return "null";
+
+        StringBuffer sb=new StringBuffer(s.length()+2);
+        sb.append('"');
+        for (int i=0;i<s.length();i++) {
+            char c=s.charAt(i);
+            switch (c) {
+                case '"':  sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c<0x20) {
+                        String hex=Integer.toHexString(c);
+                        sb.append("\\u0000",0,6-hex.length()).append(hex);
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+        return sb.toString();
+    }
+
+    /**
+     * Callback, das die Jobs eines Passports beobachtet und deren Ergebnisse
+     * an die Ausgabe uebergibt, sobald sie abgeschlossen sind.
+     */
+    protected static class RunnerCallback extends HBCIBatch.MyCallback
+    {
+        private final String     passportId;
+        private final ResultSink sink;
+
+        private Map<HBCIJob,BatchJob> jobs=Collections.emptyMap();
+        // job -> anzahl der nachrichten, in denen der job bisher gesendet wurde
+        private final Map<HBCIJob,Integer> rounds=new IdentityHashMap<HBCIJob,Integer>();
+        // bereits ausgegebene jobs
+        private final Map<HBCIJob,Boolean> written=new IdentityHashMap<HBCIJob,Boolean>();
+        private boolean sent=false;
+
+        private RunnerCallback(String passportId,Properties answers,ResultSink sink)
+        {
+            super(answers,null);
+            this.passportId=passportId;
+            this.sink=sink;
+        }
+
+        /**
+         * Legt die Jobs fest, deren Ergebnisse ausgegeben werden sollen.
+         * @param list die Jobs aus der Batch-Datei.
+         */
+        private synchronized void setJobs(Map<String,BatchJob> list)
+        {
+            this.jobs=new IdentityHashMap<HBCIJob,BatchJob>();
+            for (BatchJob job:list.values()) {
+                this.jobs.put(job.job,job);
+            }
+        }
+
+        /**
+         * Prueft, ob bereits ein Job an die Bank gesendet wurde.
+         * @return true, wenn mindestens ein Job gesendet wurde.
+         */
+        private synchronized boolean isSent()
+        {
+            return sent;
+        }
+
+        /**
+         * Schreibt alle Jobs, die noch nicht ausgegeben wurden - z.B. weil der
+         * Dialog abgebrochen wurde.
+         */
+        private synchronized void flush()
+        {
+            for (BatchJob job:jobs.values()) {
+                write(job);
+            }
+        }
+
+        public synchronized void status(HBCIPassport passport,int statusTag,Object[] objs)
+        {
+            if (statusTag==STATUS_SEND_TASK) {
+                sent=true;
+            } else if (statusTag==STATUS_SEND_TASK_DONE && objs!=null && objs.length!=0) {
+                BatchJob job=jobs.get(objs[0]);
+                if (job==null)
+                    return;
+
+                // der job ist fertig, wenn die bank keine weiteren daten
+                // angekuendigt hat (kein "3040" fuer die naechste runde)
+                Integer count=rounds.get(job.job);
+                int round=(count!=null)?count.intValue()+1:1;
+                rounds.put(job.job,Integer.valueOf(round));
+                if (!(job.job instanceof HBCIJobImpl) || !((HBCIJobImpl)job.job).needsContinue(round))
+                    write(job);
+            }
+        }
+
+        private void write(BatchJob job)
+        {
+            if (written.put(job.job,Boolean.TRUE)==null)
+                sink.jobFinished(passportId,job);
+        }
+    }
+
+    /**
+     * Begrenzt die Anzahl gleichzeitiger Passports pro BLZ und pro Host sowie
+     * den Abstand der Verbindungsaufbauten pro Host.
+     */
+    private static class Limiter
+    {
+        private final int maxPerBLZ;
+        private final int maxPerHost;
+        private final long minInterval;
+        private final ConcurrentHashMap<String,Semaphore> semaphores=new ConcurrentHashMap<String,Semaphore>();
+        private final Map<String,Long> nextStart=new HashMap<String,Long>();
+
+        private Limiter(int maxPerBLZ,int maxPerHost,long minInterval)
+        {
+            this.maxPerBLZ=maxPerBLZ;
+            this.maxPerHost=maxPerHost;
+            this.minInterval=minInterval;
+        }
+
+        /**
+         * Belegt die Limits fuer BLZ und Host. Muss mit {@link #release(String, String)}
+         * wieder freigegeben werden.
+         */
+        private void acquire(String blz,String host) throws InterruptedException
+        {
+            // immer erst BLZ, dann Host - sonst koennten sich zwei Threads gegenseitig blockieren
+            Semaphore s=get("blz:"+blz,maxPerBLZ);
+            s.acquire();
+            try {
+                get("host:"+host,maxPerHost).acquire();
+            } catch (InterruptedException e) {
+                s.release();
+                throw e;
+            }
+
+            if (minInterval>0) {
+                long wait;
+                synchronized (nextStart) {
+                    long now=System.currentTimeMillis();
+                    Long next=nextStart.get(host);
+                    long start=(next!=null)?Math.max(now,next.longValue()):now;
+                    nextStart.put(host,Long.valueOf(start+minInterval));
+                    wait=start-now;
+                }
+                if (wait>0)
+                    Thread.sleep(wait);
+            }
+        }
+
+        private void release(String blz,String host)
+        {
+            get("host:"+host,maxPerHost).release();
+            get("blz:"+blz,maxPerBLZ).release();
+        }
+
+        private Semaphore get(String key,int max)
+        {
+            Semaphore s=semaphores.get(key);
+            if (s==null) {
+                Semaphore n=new Semaphore(max,true);
+                s=semaphores.putIfAbsent(key,n);
+                if (s==null)
+                    s=n;
+            }
+            return s;
+        }
+    }
+
+    /**
+     * Laufzeit-Statistik.
+     */
+    private static class Statistics
+    {
+        private final List<Long> latencies=new ArrayList<Long>();
+        private int ok=0;
+        private int failed=0;
+        private int jobs=0;
+        private int retries=0;
+
+        private synchronized void add(boolean success,int numJobs,int numRetries,long latency)
+        {
+            if (success)
+                ok++;
+            else
+                failed++;
+            jobs+=numJobs;
+            retries+=numRetries;
+            latencies.add(Long.valueOf(latency));
+        }
+
+        private synchronized void print(long duration)
+        {
+            List<Long> sorted=new ArrayList<Long>(latencies);
+            Collections.sort(sorted);
+
+            double seconds=Math.max(duration,1)/1000.0;
+            System.out.println("passports: "+(ok+failed)+" (ok: "+ok+", failed: "+failed+", retries: "+retries+")");
+            System.out.println("jobs: "+jobs);
+            System.out.println("duration: "+duration+" ms");
+            System.out.println("throughput: "+format((ok+failed)/seconds)+" passports/s, "+format(jobs/seconds)+" jobs/s");
+            if (sorted.size()!=0) {
+                long sum=0;
+                for (Long l:sorted)
+                    sum+=l.longValue();
+                System.out.println("latency per passport (ms): min "+sorted.get(0)+
+                                   ", avg "+(sum/sorted.size())+
+                                   ", p50 "+percentile(sorted,50)+
+                                   ", p95 "+percentile(sorted,95)+
+                                   ", max "+sorted.get(sorted.size()-1));
+            }
+        }
+
+        private static long percentile(List<Long> sorted,int p)
+        {
+            int idx=(int)Math.ceil(p/100.0*sorted.size())-1;
+            return sorted.get(Math.max(0,idx)).longValue();
+        }
+
+        private static String format(double d)
+        {
+            return Double.toString(Math.round(d*100)/100.0);
+        }
+    }
+
+    private final Properties options;
+    private final ResultSink sink;
+    private final Limiter limiter;
+    private final Statistics stats=new Statistics();
+    private final int retries;
+    private final long retryDelay;
+
+    /**
+     * ct.
+     * @param options die Einstellungen des Runners.
+     * @param sink die Ausgabe.
+     */
+    protected HBCIBatchRunner(Properties options,ResultSink sink)
+    {
+        this.options=options;
+        this.sink=sink;
+        this.limiter=new Limiter(getInt("batch.maxPerBLZ",2),getInt("batch.maxPerHost",4),getInt("batch.minInterval",0));
+        this.retries=getInt("batch.retries",2);
+        this.retryDelay=getInt("batch.retryDelay",1000);
+    }
+
+    private int getInt(String name,int def)
+    {
+        String value=options.getProperty(name);
+        return (value!=null && value.trim().length()!=0)?Integer.parseInt(value.trim()):def;
+    }
+
+    public static void main(String[] args)
+        throws Exception
+    {
+        Properties options=(args.length>=3)?HBCIBatch.loadProperties(args[2]):new Properties();
+        HBCIUtils.init(options,new HBCICallbackConsole());
+
+        String format=options.getProperty("batch.format","text");
+        ResultSink sink=format.equals("jsonl")?(ResultSink)new JsonSink(args[1]):new TextSink(args[1]);
+
+        try {
+            new HBCIBatchRunner(options,sink).run(readManifest(args[0]));
+        } finally {
+            sink.close();
+            HBCIUtils.done();
+        }
+    }
+
+    /**
+     * Liest die Manifest-Datei ein.
+     * @param filename Dateiname.
+     * @return die Eintraege.
+     * @throws IOException
+     */
+    private static List<Entry> readManifest(String filename) throws IOException
+    {
+        List<Entry> entries=new ArrayList<Entry>();
+        BufferedReader reader=new BufferedReader(new FileReader(filename));
+        try {
+            String line;
+            while ((line=reader.readLine())!=null) {
+                line=line.trim();
+                if (line.length()==0 || line.startsWith("#"))
+                    continue;
+
+                String[] parts=line.split(";");
+                if (parts.length!=4)
+                    throw new HBCI_Exception("*** invalid manifest line, expected id;configfile;answerfile;batchfile: "+line);
+                entries.add(new Entry(parts[0].trim(),parts[1].trim(),parts[2].trim(),parts[3].trim()));
+            }
+        } finally {
+            reader.close();
+        }
+        return entries;
+    }
+
+    /**
+     * Fuehrt alle Passports aus und gibt am Ende die Statistik aus.
+     * @param entries die Eintraege aus der Manifest-Datei.
+     * @throws Exception
+     */
+    private void run(List<Entry> entries) throws Exception
+    {
+        long start=System.currentTimeMillis();
+
+        // der kontext wird pro passport explizit gebunden, deshalb genuegt
+        // ein normaler thread-pool (siehe HBCIContext)
+        ExecutorService pool=Executors.newFixedThreadPool(getInt("batch.threads",4));
+        try {
+            List<Future<?>> futures=new ArrayList<Future<?>>();
+            for (final Entry entry:entries) {
+                futures.add(pool.submit(new Runnable() {
+                    public void run()
+                    {
+                        runEntry(entry);
+                    }
+                }));
+            }
+            for (Future<?> f:futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+        }
+
+        stats.print(System.currentTimeMillis()-start);
+    }
+
+    /**
+     * Fuehrt ein Passport aus - bei Bedarf mehrfach. Wiederholt wird nur,
+     * solange das Callback noch kein {@code STATUS_SEND_TASK} erhalten hat.
+     * @param entry der Eintrag aus der Manifest-Datei.
+     */
+    protected void runEntry(final Entry entry)
+    {
+        long start=System.currentTimeMillis();
+        int  attempt=0;
+
+        while (true) {
+            attempt++;
+            RunnerCallback callback=null;
+            try {
+                final RunnerCallback cb=new RunnerCallback(entry.id,HBCIBatch.loadProperties(entry.answerFile),sink);
+                final HBCIContext    ctx=new HBCIContext(HBCIBatch.loadProperties(entry.configFile),cb);
+                final boolean        last=attempt>retries;
+                callback=cb;
+
+                int jobs=ctx.call(new Callable<Integer>() {
+                    public Integer call() throws Exception
+                    {
+                        return Integer.valueOf(execute(entry,cb,last));
+                    }
+                });
+                stats.add(true,jobs,attempt-1,System.currentTimeMillis()-start);
+                return;
+            } catch (Exception e) {
+                // wurde schon ein job gesendet, wuerde eine wiederholung die
+                // auftraege doppelt ausfuehren
+                boolean sent=(callback!=null && callback.isSent());
+                if (sent)
+                    callback.flush();
+
+                if (attempt<=retries && !sent) {
+                    long delay=retryDelay<<(attempt-1);
+                    HBCIUtils.log("passport "+entry.id+" failed (attempt "+attempt+"), retrying in "+delay+" ms: "+HBCIUtils.exception2StringShort(e),HBCIUtils.LOG_WARN);
+                    try {
+                        Thread.sleep(delay);
+                        continue;
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                HBCIUtils.log("passport "+entry.id+" failed: "+HBCIUtils.exception2StringShort(e),HBCIUtils.LOG_ERR);
+                sink.passportFailed(entry.id,e);
+                stats.add(false,0,attempt-1,System.currentTimeMillis()-start);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Fuehrt ein Passport einmal aus. Laeuft im Kontext des Passports.
+     * @param entry der Eintrag aus der Manifest-Datei.
+     * @param callback das Callback des Passports.
+     * @param last true, wenn das der letzte Versuch ist.
+     * @return die Anzahl der Jobs.
+     * @throws Exception
+     */
+    protected int execute(Entry entry,RunnerCallback callback,boolean last) throws Exception
+    {
+        HBCIPassport passport=AbstractHBCIPassport.getInstance();
+        try {
+            String blz=passport.getBLZ();
+            String host=passport.getHost();
+            limiter.acquire(blz,host);
+            try {
+                String version=passport.getHBCIVersion();
+                HBCIHandler handler=new HBCIHandler(version.length()!=0?version:HBCIUtils.getParam("default.hbciversion"),passport);
+                try {
+                    Map<String,BatchJob> jobs=HBCIBatch.readJobs(handler,entry.batchFile);
+                    callback.setJobs(jobs);
+
+                    HBCIExecStatus status=handler.execute();
+
+                    // solange noch nichts gesendet wurde (z.b. fehler bei der
+                    // dialog-initialisierung), kann gefahrlos wiederholt werden
+                    if (!status.isOK() && !callback.isSent() && !last)
+                        throw new HBCI_Exception(status.getErrorString());
+
+                    callback.flush();
+                    return jobs.size();
+                } finally {
+                    handler.close();
+                    passport=null;
+                }
+            } finally {
+                limiter.release(blz,host);
+            }
+        } finally {
+            if (passport!=null)
+                passport.close();
+        }
+    }
+}
@@ -21,15 +21,79 @@
 
 package org.kapott.hbci.tools;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.kapott.hbci.manager.HBCIUtils;
+
+/**
+ * Object-Pool fuer die Syntax-Elemente der Message-Engine.
+ *
+ * Frueher wurden die freien und die ausgegebenen Objekte in zwei ArrayLists
+ * verwaltet, auf die nur synchronized zugegriffen wurde. Jede Rueckgabe eines
+ * Objektes war ein <code>ArrayList.remove(Object)</code> in einer Liste mit
+ * bis zu 1024 Eintraegen - und das unter einem globalen Lock, um das sich alle
+ * parallel laufenden Dialoge streiten.
+ *
+ * Jetzt haelt jeder Thread ein kleines eigenes Magazin freier Objekte, auf das
+ * ohne Synchronisierung zugegriffen wird. Laeuft das Magazin ueber, landen die
+ * Objekte in einer gemeinsamen, lock-freien Queue, aus der sich alle Threads
+ * bedienen koennen. Die ausgegebenen Objekte werden in einer Hash-Map
+ * (ueber die Objekt-Identitaet) gemerkt, so dass die Rueckgabe in O(1) geht
+ * und ein Objekt nicht zweimal in den Pool gelangen kann.
+ *
+ * Damit Pool- oder Worker-Threads, die laenger leben als ein Dialog, nicht
+ * dauerhaft Objekte in ihrem Magazin festhalten, werden die Magazine des
+ * aktuellen Threads am Ende jedes Dialoges mit {@link #releaseMagazines()}
+ * in den gemeinsamen Pool geleert. Was dort keinen Platz mehr findet, wird
+ * verworfen.
+ *
+ * Mit dem Parameter <code>kernel.objpool.enabled=0</code> wird das Pooling
+ * komplett abgeschaltet, dann werden alle Objekte einfach neu erzeugt.
+ * Der Parameter wird beim Erzeugen des Pools gelesen.
+ */
 public class ObjectFactory 
 {
-    protected final Collection<Object> freeObjects;
-    protected final Collection<Object> usedObjects;
-    private   final int        maxPoolSize;
-    protected int              currentPoolSize;
+    private final static int MAGAZINE_SIZE=32;
+
+    // alle Pools, deren Magazine in releaseMagazines() geleert werden
+    private final static Map<ObjectFactory,Boolean> factories=
+        Collections.synchronizedMap(new WeakHashMap<ObjectFactory,Boolean>());
+
+    private final int maxPoolSize;
+    private final int magazineSize;
+    private final boolean enabled;
+
+    private final ConcurrentHashMap<Object,Boolean> usedObjects;
+    private final AtomicInteger                     usedCount;
+    private final ConcurrentLinkedQueue<Object>     sharedObjects;
+    private final AtomicInteger                     sharedCount;
+    private final ThreadLocal<Magazine>             magazine;
+
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+
+    /**
+     * Magazin mit freien Objekten eines Threads.
+     */
+    private final static class Magazine
+    {
+        private final Object[] objects;
+        private int size;
+
+        private Magazine(int capacity)
+        {
+            this.objects=new Object[capacity];
+            this.size=0;
+        }
+    }
     
     public ObjectFactory()
     {
@@ -38,83 +102,221 @@ public class ObjectFactory
     
     public ObjectFactory(int maxPoolSize)
     {
-        this.freeObjects=new ArrayList<Object>();
-        this.usedObjects=new ArrayList<Object>();
         this.maxPoolSize=maxPoolSize;
-        this.currentPoolSize=0;
+        this.magazineSize=Math.min(MAGAZINE_SIZE,maxPoolSize);
+        this.enabled=maxPoolSize>0 && HBCIUtils.getParam("kernel.objpool.enabled","1").equals("1");
+
+        this.usedObjects=new ConcurrentHashMap<Object,Boolean>();
+        this.usedCount=new AtomicInteger();
+        this.sharedObjects=new ConcurrentLinkedQueue<Object>();
+        this.sharedCount=new AtomicInteger();
+        this.magazine=new ThreadLocal<Magazine>() {
+            protected Magazine initialValue()
+            {
+                return new Magazine(magazineSize);
+            }
+        };
+
+        this.hits=new AtomicLong();
+        this.misses=new AtomicLong();
+
+        if (this.enabled)
+            factories.put(this,Boolean.TRUE);
+    }
+
+    /**
+     * Leert die Magazine des aktuellen Threads in allen Pools.
+     * Wird am Ende eines Dialoges aufgerufen.
+     */
+    public static void releaseMagazines()
+    {
+        synchronized (factories) {
+            for (Iterator<ObjectFactory> i=factories.keySet().iterator();i.hasNext();) {
+                i.next().releaseMagazine();
+            }
+        }
+    }
+
+    /**
+     * Leert das Magazin des aktuellen Threads in den gemeinsamen Pool.
+     * Objekte, die dort keinen Platz mehr finden, werden verworfen.
+     */
+    public void releaseMagazine()
+    {
+        if (!enabled)
+            return;
+
+        Magazine m=magazine.get();
+        magazine.remove();
+        for (int i=0;i<m.size;i++) {
+            if (sharedCount.incrementAndGet()<=maxPoolSize) {
+                sharedObjects.offer(m.objects[i]);
+            } else {
+                sharedCount.decrementAndGet();
+            }
+            m.objects[i]=null;
+        }
+        m.size=0;
     }
     
-    public synchronized Object getFreeObject()
+    /**
+     * Liefert ein freies Objekt aus dem Pool.
+     * @return ein freies Objekt oder <code>null</code>, wenn keines vorhanden
+     * ist - dann muss der Aufrufer ein neues Objekt erzeugen.
+     */
+    public Object getFreeObject()
     {
-    	if (freeObjects.isEmpty()) {
-    	    return null;
+        if (!enabled)
+            return null;
+
+        Magazine m=magazine.get();
+        if (m.size!=0) {
+            Object ret=m.objects[--m.size];
+            m.objects[m.size]=null;
+            hits.incrementAndGet();
+            return ret;
         }
-        
-    	Object ret=freeObjects.iterator().next();
-    	freeObjects.remove(ret);
-    	currentPoolSize--;
-    	// HBCIUtils.log("returning unused object, new: "+toString(),HBCIUtils.LOG_DEBUG);
-    	return ret;
+
+        Object ret=sharedObjects.poll();
+        if (ret!=null) {
+            sharedCount.decrementAndGet();
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return ret;
     }
     
-    public synchronized void addToUsedPool(Object o)
+    /**
+     * Merkt ein ausgegebenes Objekt vor, damit es spaeter mit
+     * {@link #unuseObject(Object)} in den Pool zurueckgegeben werden kann.
+     * @param o das Objekt.
+     */
+    public void addToUsedPool(Object o)
     {
-    	// HBCIUtils.log("trying to add object to used pool",HBCIUtils.LOG_DEBUG);
-    	if (o!=null && currentPoolSize<maxPoolSize) {
-    		usedObjects.add(o);
-    		currentPoolSize++;
-    		// HBCIUtils.log("ok; new: "+toString(),HBCIUtils.LOG_DEBUG);
-    	}
+        if (!enabled || o==null)
+            return;
+
+        if (usedCount.incrementAndGet()>maxPoolSize) {
+            // Pool voll - das Objekt wird nicht verwaltet
+            usedCount.decrementAndGet();
+            return;
+        }
+        if (usedObjects.put(o,Boolean.TRUE)!=null) {
+            // war schon vorgemerkt
+            usedCount.decrementAndGet();
+        }
     }
     
-    public synchronized void addToFreePool(Object o)
+    /**
+     * Gibt ein Objekt, das nicht ausgegeben wurde (z.B. weil dessen
+     * Initialisierung fehlschlug), direkt als freies Objekt zurueck.
+     * @param o das Objekt.
+     */
+    public void addToFreePool(Object o)
     {
-    	// HBCIUtils.log("trying to add object to free pool",HBCIUtils.LOG_DEBUG);
-    	if (o!=null && currentPoolSize<maxPoolSize) {
-    		freeObjects.add(o);
-    		currentPoolSize++;
-    		// HBCIUtils.log("ok; new: "+toString(),HBCIUtils.LOG_DEBUG);
-    	}
+        if (enabled && o!=null)
+            release(o);
     }
     
-    public synchronized void unuseObject(Object o)
+    /**
+     * Gibt ein mit {@link #addToUsedPool(Object)} vorgemerktes Objekt in den
+     * Pool zurueck. Objekte, die nicht vorgemerkt sind, werden ignoriert.
+     * @param o das Objekt.
+     */
+    public void unuseObject(Object o)
+    {
+        if (!enabled || o==null)
+            return;
+
+        if (usedObjects.remove(o)!=null) {
+            usedCount.decrementAndGet();
+            release(o);
+        }
+    }
+
+    private void release(Object o)
     {
-    	if (usedObjects.remove(o)) {
-    		freeObjects.add(o);
-    		// HBCIUtils.log("removed an object from used pool; new: "+toString(),HBCIUtils.LOG_DEBUG);
-    	}
+        Magazine m=magazine.get();
+        if (m.size<m.objects.length) {
+            m.objects[m.size++]=o;
+            return;
+        }
+
+        // Magazin voll - dann in den gemeinsamen Pool
+        if (sharedCount.incrementAndGet()<=maxPoolSize) {
+            sharedObjects.offer(o);
+        } else {
+            sharedCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * Prueft, ob das Pooling aktiv ist.
+     * @return true, wenn Objekte wiederverwendet werden.
+     */
+    public boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Liefert die Anzahl der Anfragen, die mit einem freien Objekt aus dem
+     * Pool bedient werden konnten.
+     * @return Anzahl der Treffer.
+     */
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    /**
+     * Liefert die Anzahl der Anfragen, fuer die kein freies Objekt vorhanden war.
+     * @return Anzahl der Fehlschlaege.
+     */
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    /**
+     * Liefert die Anzahl der aktuell ausgegebenen (vorgemerkten) Objekte.
+     * @return Anzahl der ausgegebenen Objekte.
+     */
+    public int getUsedSize()
+    {
+        return usedCount.get();
+    }
+
+    /**
+     * Liefert die Anzahl der freien Objekte im gemeinsamen Pool. Die Objekte
+     * in den Magazinen der einzelnen Threads sind nicht enthalten.
+     * @return Anzahl der freien Objekte im gemeinsamen Pool.
+     */
+    public int getFreeSize()
+    {
+        return sharedCount.get();
     }
     
     public String toString()
     {
         StringBuffer ret=new StringBuffer();
         
-        ret.append("used:").append(usedObjects.size()).append(" free:").append(freeObjects.size()).append(" maxsize:").append(maxPoolSize);
-        
-        /*
-        for (Iterator i=usedObjects.iterator();i.hasNext();) {
-            ret.append(System.getProperty("line.separator"));
-            
-            Object o=i.next();
-            if (o instanceof SyntaxElement)
-                ret.append("used: "+((SyntaxElement)o).toString(0));
-            else if (o instanceof MultipleSyntaxElements)
-                ret.append("used: "+((MultipleSyntaxElements)o).toString(0));
-            else 
-                ret.append("used: "+o.toString());
-        }
-        */
+        ret.append("used:").append(getUsedSize()).append(" free:").append(getFreeSize()).append(" maxsize:").append(maxPoolSize);
+        ret.append(" hits:").append(getHits()).append(" misses:").append(getMisses());
+        if (!enabled)
+            ret.append(" (disabled)");
         
         return ret.toString();
     }
     
-    public synchronized Collection<Object> getUsedObjects() 
+    public Collection<Object> getUsedObjects() 
     {
-        return usedObjects;
+        return Collections.unmodifiableSet(usedObjects.keySet());
     }
     
-    public synchronized Collection<Object> getFreeObjects()
+    public Collection<Object> getFreeObjects()
     {
-        return freeObjects;
+        return Collections.unmodifiableCollection(sharedObjects);
     }
 }
@@ -0,0 +1,222 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.bpd;
+
+import hbci4java.AbstractTest;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.HBCIKernelImpl;
+import org.kapott.hbci.manager.MsgGen;
+import org.kapott.hbci.passport.HBCIPassportPinTan;
+import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.factory.MSGFactory;
+import org.kapott.hbci.structures.Konto;
+
+/**
+ * Testet den Index ueber die BPD/UPD im Passport.
+ */
+public class TestBPDIndex extends AbstractTest
+{
+  /**
+   * Liefert Pseudo-BPD aus der angegebenen Datei.
+   * @param file der Dateiname.
+   * @param version die HBCI-Version.
+   * @return die Pseudo-BPD.
+   * @throws Exception
+   */
+  private Properties getBPD(String file, String version) throws Exception
+  {
+    String data = getFile(file);
+    HBCIKernelImpl kernel = new HBCIKernelImpl(null,version);
+    kernel.rawNewMsg("DialogInitAnon");
+
+    MsgGen gen = kernel.getMsgGen();
+    MSG msg = MSGFactory.getInstance().createMSG("DialogInitAnonRes",data,data.length(),gen);
+    Hashtable<String,String> ht = new Hashtable<String,String>();
+    msg.extractValues(ht);
+
+    // Prefix abschneiden
+    Properties bpd = new Properties();
+    for (Enumeration<String> e=ht.keys();e.hasMoreElements();)
+    {
+      String name = e.nextElement();
+      String value = ht.get(name);
+
+      if (name.startsWith("DialogInitAnonRes."))
+        name = name.replace("DialogInitAnonRes.","");
+      if (name.startsWith("BPD."))
+        name = name.replace("BPD.","");
+      bpd.put(name,value);
+    }
+
+    return bpd;
+  }
+
+  /**
+   * Die Restriktionen ueber alle Schluessel gesucht - so wie frueher im Passport.
+   * @param bpd die BPD.
+   * @param gvname der GV-Name.
+   * @param version die Version.
+   * @return die Restriktionen.
+   */
+  private Properties scanRestrictions(Properties bpd, String gvname, String version)
+  {
+    Properties result = new Properties();
+    String searchstring = gvname + "Par" + version;
+    for (Enumeration e=bpd.propertyNames();e.hasMoreElements();)
+    {
+      String key = (String) e.nextElement();
+      if (key.startsWith("Params") && key.indexOf("." + searchstring + ".Par") != -1)
+      {
+        int searchIdx = key.indexOf(searchstring);
+        result.setProperty(key.substring(key.indexOf(".",searchIdx + searchstring.length() + 4) + 1),bpd.getProperty(key));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Der Index muss die gleichen Parameter-Segmente und Restriktionen
+   * liefern wie die Suche ueber alle Schluessel.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    Properties bpd = getBPD("bpd/bpd2-formatted.txt","300");
+    HBCIPassportPinTan passport = new HBCIPassportPinTan(null,0);
+    passport.setBPD(bpd);
+
+    Properties segments = passport.getParamSegmentNames();
+    Assert.assertEquals("5",segments.getProperty("TAN2Step"));
+    Assert.assertEquals("6",segments.getProperty("KUmsZeit"));
+
+    for (Enumeration e=segments.propertyNames();e.hasMoreElements();)
+    {
+      String gvname = (String) e.nextElement();
+      String version = segments.getProperty(gvname);
+      Assert.assertEquals(gvname,scanRestrictions(bpd,gvname,version),passport.getJobRestrictions(gvname,version));
+      Assert.assertEquals(gvname,passport.getJobRestrictions(gvname,version),passport.getJobRestrictions(gvname + version));
+    }
+
+    // Das Ergebnis ist eine Kopie
+    passport.getJobRestrictions("KUmsZeit","6").clear();
+    Assert.assertEquals(scanRestrictions(bpd,"KUmsZeit","6"),passport.getJobRestrictions("KUmsZeit","6"));
+    Assert.assertEquals(0,passport.getJobRestrictions("GibtsNicht","1").size());
+
+    // HISHV: "N+RDH:3+PIN:1+RDH:7+RDH:9+RDH:10"
+    String[][] methods = passport.getSuppSecMethods();
+    Assert.assertEquals(5,methods.length);
+    Assert.assertEquals("PIN",methods[1][0]);
+    Assert.assertEquals("1",methods[1][1]);
+  }
+
+  /**
+   * Testet die Konten aus den UPD.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    Properties upd = new Properties();
+    upd.setProperty("KInfo.KTV.number","1234567890");
+    upd.setProperty("KInfo.KTV.KIK.blz","12345678");
+    upd.setProperty("KInfo.KTV.KIK.country","DE");
+    upd.setProperty("KInfo.cur","EUR");
+    upd.setProperty("KInfo.AllowedGV.code","HKSAL");
+    upd.setProperty("KInfo.AllowedGV_2.code","HKKAZ");
+    upd.setProperty("KInfo_2.KTV.number","987");
+    upd.setProperty("KInfo_2.name1","Max Mustermann");
+
+    HBCIPassportPinTan passport = new HBCIPassportPinTan(null,0);
+    Assert.assertEquals(0,passport.getAccounts().length);
+    passport.setUPD(upd);
+
+    Konto[] accounts = passport.getAccounts();
+    Assert.assertEquals(2,accounts.length);
+    Assert.assertEquals("12345678",accounts[0].blz);
+    Assert.assertEquals(2,accounts[0].allowedGVs.size());
+    Assert.assertEquals("HKKAZ",accounts[0].allowedGVs.get(1));
+    Assert.assertEquals("Max Mustermann",accounts[1].name);
+    Assert.assertNull(accounts[1].curr);
+    Assert.assertNull(accounts[1].allowedGVs);
+
+    // Aenderungen an den Konten duerfen den Index nicht veraendern
+    accounts[0].blz = "0";
+    accounts[0].allowedGVs.clear();
+    Assert.assertEquals("12345678",passport.getAccounts()[0].blz);
+    Assert.assertEquals(2,passport.getAccounts()[0].allowedGVs.size());
+
+    // Neue UPD
+    upd = new Properties();
+    upd.setProperty("KInfo.KTV.number","1");
+    passport.setUPD(upd);
+    Assert.assertEquals(1,passport.getAccounts().length);
+  }
+
+  /**
+   * Testet das Suchen der Konten ueber Kontonummer und IBAN.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    Properties upd = new Properties();
+    upd.setProperty("KInfo.KTV.number","0000123");
+    upd.setProperty("KInfo.KTV.KIK.blz","11111111");
+    upd.setProperty("KInfo_2.KTV.number","456");
+    upd.setProperty("KInfo_2.KTV.KIK.blz","22222222");
+    upd.setProperty("KInfo_2.KTV.iban","DE00222222220000000456");
+    upd.setProperty("KInfo_3.KTV.number","789");
+    upd.setProperty("KInfo_3.KTV.KIK.blz","33333333");
+    upd.setProperty("KInfo_3.KTV.iban","DE00111111110000000123");
+
+    HBCIPassportPinTan passport = new HBCIPassportPinTan(null,0);
+    passport.setUPD(upd);
+
+    // fuehrende Nullen werden ignoriert
+    Konto k = new Konto();
+    k.number = "123";
+    passport.fillAccountInfo(k);
+    Assert.assertEquals("11111111",k.blz);
+    Assert.assertEquals("0000123",k.number);
+
+    // Treffer ueber die IBAN
+    k = new Konto();
+    k.iban = "DE00222222220000000456";
+    passport.fillAccountInfo(k);
+    Assert.assertEquals("22222222",k.blz);
+    Assert.assertEquals("456",k.number);
+
+    // passen Nummer und IBAN zu verschiedenen Konten, gewinnt das erste
+    k = new Konto();
+    k.number = "789";
+    k.iban = "DE00222222220000000456";
+    passport.fillAccountInfo(k);
+    Assert.assertEquals("22222222",k.blz);
+
+    // nicht gefunden
+    k = new Konto();
+    k.number = "999";
+    passport.fillAccountInfo(k);
+    Assert.assertNull(k.blz);
+
+    // neue UPD
+    upd.setProperty("KInfo.KTV.KIK.blz","44444444");
+    passport.setUPD(upd);
+    k = new Konto();
+    k.number = "0123";
+    passport.fillAccountInfo(k);
+    Assert.assertEquals("44444444",k.blz);
+  }
+}
@@ -0,0 +1,165 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.comm;
+
+import hbci4java.AbstractTest;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedList;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.comm.Filter;
+import org.kapott.hbci.comm.FrameReader;
+import org.kapott.hbci.manager.HBCIUtils;
+
+/**
+ * Testet das Lesen von HBCI-Nachrichten per {@link FrameReader}.
+ */
+public class TestFrameReader extends AbstractTest
+{
+  /**
+   * Liefert eine Nachricht mit korrekter Groessenangabe im Nachrichtenkopf.
+   * @return die Nachricht.
+   */
+  private String getMessage()
+  {
+    String body = "HIRMG:2:2+0010::Nachricht entgegengenommen.'HNHBS:3:1+1'";
+    String head = "HNHBK:1:3+000000000000+300+4711+1+4711:1'";
+    String size = Integer.toString(head.length() + body.length());
+    head = head.substring(0,22 - size.length()) + size + head.substring(22);
+    return head + body;
+  }
+
+  /**
+   * Channel, der die Daten in festen Bloecken liefert und zwischen zwei
+   * Bloecken jeweils einmal 0 Bytes - wie ein Channel im Non-Blocking-Mode.
+   */
+  private static class ChunkedChannel implements ReadableByteChannel
+  {
+    private final LinkedList<byte[]> chunks = new LinkedList<byte[]>();
+    private boolean pause = false;
+
+    private ChunkedChannel(byte[] data, int chunkSize)
+    {
+      for (int pos=0;pos<data.length;pos+=chunkSize)
+      {
+        byte[] chunk = new byte[Math.min(chunkSize,data.length-pos)];
+        System.arraycopy(data,pos,chunk,0,chunk.length);
+        this.chunks.add(chunk);
+      }
+    }
+
+    public int read(ByteBuffer dst) throws IOException
+    {
+      if (this.chunks.isEmpty())
+        return -1;
+
+      this.pause = !this.pause;
+      if (this.pause)
+        return 0;
+
+      byte[] chunk = this.chunks.removeFirst();
+      int num = Math.min(chunk.length,dst.remaining());
+      dst.put(chunk,0,num);
+      if (num < chunk.length)
+      {
+        byte[] rest = new byte[chunk.length - num];
+        System.arraycopy(chunk,num,rest,0,rest.length);
+        this.chunks.addFirst(rest);
+      }
+      return num;
+    }
+
+    public boolean isOpen()
+    {
+      return true;
+    }
+
+    public void close()
+    {
+    }
+  }
+
+  /**
+   * Liest die Nachricht vollstaendig.
+   * @param reader der Reader.
+   * @param channel der Channel.
+   * @return Anzahl der Aufrufe, die keine vollstaendige Nachricht geliefert haben.
+   * @throws Exception
+   */
+  private int readAll(FrameReader reader, ReadableByteChannel channel) throws Exception
+  {
+    int pending = 0;
+    while (!reader.read(channel))
+      pending++;
+    return pending;
+  }
+
+  /**
+   * Liest eine unkodierte Nachricht in kleinen Bloecken.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    String msg = getMessage();
+    FrameReader reader = new FrameReader(Filter.getInstance("None"));
+    int pending = readAll(reader,new ChunkedChannel(msg.getBytes("ISO-8859-1"),7));
+    Assert.assertEquals(msg,reader.getMessage());
+    Assert.assertTrue(pending > 0);
+  }
+
+  /**
+   * Liest eine Base64-kodierte Nachricht.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    String msg = getMessage();
+    byte[] data = HBCIUtils.encodeBase64(msg.getBytes("ISO-8859-1")).getBytes("ISO-8859-1");
+    FrameReader reader = new FrameReader(Filter.getInstance("Base64"));
+    readAll(reader,new ChunkedChannel(data,5));
+    Assert.assertEquals(msg,reader.getMessage());
+  }
+
+  /**
+   * Bricht die Verbindung vor dem Ende der Nachricht ab, wird ein Fehler geworfen.
+   * @throws Exception
+   */
+  @Test(expected=EOFException.class)
+  public void test003() throws Exception
+  {
+    byte[] data = getMessage().getBytes("ISO-8859-1");
+    byte[] part = new byte[data.length - 10];
+    System.arraycopy(data,0,part,0,part.length);
+    readAll(new FrameReader(Filter.getInstance("None")),new ChunkedChannel(part,1024));
+  }
+
+  /**
+   * Die Daten nach dem Ende der Nachricht werden nicht gelesen.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    String msg = getMessage();
+    FrameReader reader = new FrameReader(Filter.getInstance("None"));
+    ChunkedChannel channel = new ChunkedChannel((msg + msg).getBytes("ISO-8859-1"),30);
+    readAll(reader,channel);
+    Assert.assertEquals(msg,reader.getMessage());
+
+    reader = new FrameReader(Filter.getInstance("None"));
+    readAll(reader,channel);
+    Assert.assertEquals(msg,reader.getMessage());
+  }
+}
@@ -0,0 +1,243 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.comm;
+
+import hbci4java.AbstractTest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.SocketAddress;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.kapott.hbci.comm.PinTanClient;
+import org.kapott.hbci.comm.PinTanClientConfig;
+import org.kapott.hbci.comm.PinTanURLConnectionClient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Testet den HTTP-Client fuer PIN/TAN gegen einen lokalen Stub-Server.
+ */
+public class TestPinTanClient extends AbstractTest
+{
+  private HttpServer server;
+  private List<InetSocketAddress> clients;
+
+  /**
+   * Startet den Stub-Server. Er antwortet mit dem umgekehrten Request-Body,
+   * bzw. mit HTTP 500, wenn der Body "error" lautet.
+   * @throws Exception
+   */
+  @Before
+  public void start() throws Exception
+  {
+    this.clients = new ArrayList<InetSocketAddress>();
+    this.server = HttpServer.create(new InetSocketAddress("127.0.0.1",0),0);
+    this.server.createContext("/hbci",new HttpHandler() {
+      public void handle(HttpExchange exchange) throws IOException
+      {
+        synchronized (clients)
+        {
+          clients.add(exchange.getRemoteAddress());
+        }
+        
+        String request = new String(readAll(exchange.getRequestBody()),"ISO-8859-1");
+        byte[] response = new StringBuffer(request).reverse().toString().getBytes("ISO-8859-1");
+        exchange.sendResponseHeaders(request.equals("error") ? 500 : 200,response.length);
+        OutputStream os = exchange.getResponseBody();
+        os.write(response);
+        os.close();
+      }
+    });
+    this.server.start();
+  }
+
+  /**
+   * Stoppt den Stub-Server.
+   * @throws Exception
+   */
+  @After
+  public void stop() throws Exception
+  {
+    this.server.stop(0);
+  }
+
+  /**
+   * Liest den Stream vollstaendig.
+   * @param is der Stream.
+   * @return die gelesenen Daten.
+   * @throws IOException
+   */
+  private static byte[] readAll(InputStream is) throws IOException
+  {
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    byte[] b = new byte[1024];
+    int read = 0;
+    while ((read = is.read(b)) != -1)
+      bos.write(b,0,read);
+    is.close();
+    return bos.toByteArray();
+  }
+
+  /**
+   * Erzeugt einen Client fuer den Stub-Server.
+   * @param keepAlive true, wenn Keep-Alive verwendet werden soll.
+   * @return der Client.
+   * @throws Exception
+   */
+  private PinTanClient create(boolean keepAlive) throws Exception
+  {
+    URL url = new URL("http","127.0.0.1",this.server.getAddress().getPort(),"/hbci");
+    PinTanClientConfig config = new PinTanClientConfig(url);
+    config.setConnectTimeout(5000);
+    config.setReadTimeout(5000);
+    config.setKeepAlive(keepAlive);
+    return new PinTanURLConnectionClient(config);
+  }
+
+  /**
+   * Sendet eine Nachricht und liefert die Antwort.
+   * @param client der Client.
+   * @param msg die Nachricht.
+   * @return die Antwort.
+   * @throws Exception
+   */
+  private String exchange(PinTanClient client, String msg) throws Exception
+  {
+    return new String(client.send(msg.getBytes("ISO-8859-1")).read(),"ISO-8859-1");
+  }
+
+  /**
+   * Aufeinanderfolgende Nachrichten verwenden dieselbe Verbindung.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    PinTanClient client = create(true);
+    Assert.assertEquals("'1:1:3+0TBKH",exchange(client,"HKBT0+3:1:1'"));
+    Assert.assertEquals("'2:1:3+SADKH",exchange(client,"HKDAS+3:1:2'"));
+    Assert.assertEquals("'3:1:3+LKAKH",exchange(client,"HKAKL+3:1:3'"));
+    client.close();
+
+    Assert.assertEquals(3,this.clients.size());
+    Assert.assertEquals(this.clients.get(0),this.clients.get(1));
+    Assert.assertEquals(this.clients.get(0),this.clients.get(2));
+  }
+
+  /**
+   * Ohne Keep-Alive wird fuer jede Nachricht eine neue Verbindung aufgebaut.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    PinTanClient client = create(false);
+    Assert.assertEquals("cba",exchange(client,"abc"));
+    Assert.assertEquals("fed",exchange(client,"def"));
+    client.close();
+
+    Assert.assertEquals(2,this.clients.size());
+    Assert.assertFalse(this.clients.get(0).equals(this.clients.get(1)));
+  }
+
+  /**
+   * Ein HTTP-Fehler wird beim Lesen der Antwort gemeldet. Die Verbindung
+   * kann danach weiter verwendet werden.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    PinTanClient client = create(true);
+    PinTanClient.Response response = client.send("error".getBytes("ISO-8859-1"));
+    try
+    {
+      response.read();
+      Assert.fail("HTTP error not reported");
+    }
+    catch (IOException e)
+    {
+      // erwartet
+    }
+    Assert.assertEquals("cba",exchange(client,"abc"));
+    client.close();
+
+    Assert.assertEquals(2,this.clients.size());
+    Assert.assertEquals(this.clients.get(0),this.clients.get(1));
+  }
+
+  /**
+   * Ohne expliziten Proxy wird der ProxySelector der JVM gefragt,
+   * mit explizitem Proxy nicht.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    final List<URI> selected = new ArrayList<URI>();
+    ProxySelector previous = ProxySelector.getDefault();
+    ProxySelector.setDefault(new ProxySelector() {
+      public List<Proxy> select(URI uri)
+      {
+        // Je nach JDK wird zusaetzlich fuer den Socket selbst gefragt
+        // ("socket://..."). Relevant sind nur die HTTP-Anfragen.
+        String scheme = uri.getScheme();
+        if ("http".equalsIgnoreCase(scheme) || "https".equalsIgnoreCase(scheme))
+        {
+          synchronized (selected)
+          {
+            selected.add(uri);
+          }
+        }
+        List<Proxy> result = new ArrayList<Proxy>();
+        result.add(Proxy.NO_PROXY);
+        return result;
+      }
+      public void connectFailed(URI uri, SocketAddress sa, IOException ioe)
+      {
+      }
+    });
+    try
+    {
+      Assert.assertNull(new PinTanClientConfig(new URL("https://127.0.0.1/hbci")).getProxy());
+
+      PinTanClient client = create(false);
+      Assert.assertEquals("cba",exchange(client,"abc"));
+      client.close();
+      Assert.assertEquals(1,selected.size());
+      Assert.assertEquals(this.server.getAddress().getPort(),selected.get(0).getPort());
+
+      URL url = new URL("http","127.0.0.1",this.server.getAddress().getPort(),"/hbci");
+      PinTanClientConfig config = new PinTanClientConfig(url);
+      config.setProxy(Proxy.NO_PROXY);
+      client = new PinTanURLConnectionClient(config);
+      Assert.assertEquals("fed",exchange(client,"def"));
+      client.close();
+      Assert.assertEquals(1,selected.size());
+    }
+    finally
+    {
+      ProxySelector.setDefault(previous);
+    }
+  }
+}
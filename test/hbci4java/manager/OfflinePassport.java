@@ -0,0 +1,127 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.manager;
+
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Properties;
+
+import org.kapott.hbci.callback.HBCICallbackConsole;
+import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.manager.HBCIContext;
+import org.kapott.hbci.manager.HBCIKernelImpl;
+import org.kapott.hbci.manager.MsgGen;
+import org.kapott.hbci.passport.HBCIPassport;
+import org.kapott.hbci.passport.HBCIPassportPinTan;
+import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.factory.MSGFactory;
+
+/**
+ * PIN/TAN-Passport mit vorgegebenen BPD und UPD. Damit kann ein HBCIHandler
+ * ohne Passport-Datei und ohne Verbindung zur Bank erzeugt werden.
+ * Die Dialoge werden an den angegebenen Port auf localhost geschickt.
+ */
+public class OfflinePassport extends HBCIPassportPinTan
+{
+  /**
+   * ct.
+   * @param bpd die Antwort auf eine anonyme Dialog-Initialisierung mit den BPD (HBCI 3.0).
+   * @param blz die BLZ. Das Limit fuer parallele Dialoge gilt pro BLZ.
+   * @param port der Port, an den die Dialoge geschickt werden.
+   * @throws Exception
+   */
+  public OfflinePassport(String bpd, String blz, int port) throws Exception
+  {
+    super(null,0);
+
+    setCountry("DE");
+    setBLZ(blz);
+    setHost("127.0.0.1/hbci");
+    setPort(new Integer(port));
+    setUserId("user");
+    setCustomerId("user");
+    setFilterType("Base64");
+    setProxy("");
+    setProxyUser("");
+    setProxyPass("");
+    setHBCIVersion("300");
+    setSysId("1234");
+    setSigId(new Long(1));
+
+    Properties p = parseBPD(bpd);
+    p.setProperty("_hbciversion","300");
+    setBPD(p);
+
+    Properties upd = new Properties();
+    upd.setProperty("UPA.version","1");
+    upd.setProperty("_hbciversion","300");
+    upd.setProperty("_fetchedMetaInfo","1");
+    setUPD(upd);
+  }
+
+  /**
+   * Erzeugt einen Kontext, dessen Callback PIN und PIN/TAN-Verfahren liefert.
+   * Nach allem anderen fragt er nicht interaktiv, sondern wirft eine Exception.
+   * @return der Kontext.
+   */
+  public static HBCIContext createContext()
+  {
+    Properties props = new Properties();
+    props.setProperty("log.loglevel.default","0");
+    props.setProperty("bpd.maxage.days","0");
+    return new HBCIContext(props,new HBCICallbackConsole() {
+      public void callback(HBCIPassport passport, int reason, String msg, int datatype, StringBuffer retData)
+      {
+        if (reason == NEED_PT_PIN)
+          retData.replace(0,retData.length(),"12345");
+        else if (reason == NEED_PT_SECMECH)
+          retData.replace(0,retData.length(),"999");
+        else if (reason != NEED_CONNECTION && reason != CLOSE_CONNECTION)
+          throw new HBCI_Exception("unexpected callback " + reason + ": " + msg);
+      }
+
+      public void status(HBCIPassport passport, int statusTag, Object[] o)
+      {
+      }
+    });
+  }
+
+  /**
+   * Extrahiert die BPD aus der Nachricht.
+   * @param data die Nachricht.
+   * @return die BPD.
+   * @throws Exception
+   */
+  private static Properties parseBPD(String data) throws Exception
+  {
+    HBCIKernelImpl kernel = new HBCIKernelImpl(null,"300");
+    kernel.rawNewMsg("DialogInitAnon");
+
+    MsgGen gen = kernel.getMsgGen();
+    MSG msg = MSGFactory.getInstance().createMSG("DialogInitAnonRes",data,data.length(),gen);
+    Hashtable<String,String> ht = new Hashtable<String,String>();
+    msg.extractValues(ht);
+
+    Properties bpd = new Properties();
+    for (Enumeration<String> e=ht.keys();e.hasMoreElements();)
+    {
+      String name = e.nextElement();
+      if (name.startsWith("DialogInitAnonRes.BPD."))
+        bpd.put(name.substring("DialogInitAnonRes.BPD.".length()),ht.get(name));
+    }
+    return bpd;
+  }
+
+  /**
+   * @see org.kapott.hbci.passport.HBCIPassportPinTan#saveChanges()
+   */
+  public void saveChanges()
+  {
+    // keine Passport-Datei
+  }
+}
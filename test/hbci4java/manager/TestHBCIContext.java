@@ -0,0 +1,361 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.manager;
+
+import hbci4java.AbstractTest;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.GV.HBCIJob;
+import org.kapott.hbci.GV.HBCIJobImpl;
+import org.kapott.hbci.callback.HBCICallbackConsole;
+import org.kapott.hbci.manager.HBCIContext;
+import org.kapott.hbci.manager.HBCIHandler;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.manager.HBCIUtilsInternal;
+
+/**
+ * Testet den expliziten Ausfuehrungs-Kontext.
+ */
+public class TestHBCIContext extends AbstractTest
+{
+  /**
+   * Erzeugt einen Kontext mit einem Test-Parameter.
+   * @param value der Wert des Parameters "test.value".
+   * @return der Kontext.
+   */
+  private HBCIContext create(String value)
+  {
+    Properties props = new Properties();
+    props.setProperty("test.value",value);
+    props.setProperty("log.loglevel.default","0");
+    return new HBCIContext(props,new HBCICallbackConsole());
+  }
+
+  /**
+   * Fuehrt den Code in einem Thread mit eigener ThreadGroup aus.
+   * @param r der Code.
+   * @throws Exception
+   */
+  private void runIsolated(final Runnable r) throws Exception
+  {
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    Thread t = new Thread(new ThreadGroup("test-context"),"test-context-thread") {
+      public void run()
+      {
+        try
+        {
+          r.run();
+        }
+        catch (Throwable t)
+        {
+          error.set(t);
+        }
+      }
+    };
+    t.start();
+    t.join();
+    if (error.get() != null)
+      throw new Exception(error.get());
+  }
+
+  /**
+   * Bindet einen Kontext ohne ThreadGroup-Registrierung.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    runIsolated(new Runnable() {
+      public void run()
+      {
+        Assert.assertNull(HBCIContext.current());
+
+        HBCIContext ctx = create("a");
+        HBCIContext prev = ctx.enter();
+        try
+        {
+          Assert.assertNull(prev);
+          Assert.assertSame(ctx,HBCIContext.current());
+          Assert.assertEquals("a",HBCIUtils.getParam("test.value"));
+          Assert.assertSame(ctx.getCallback(),HBCIUtilsInternal.getCallback());
+
+          // Verschachtelt
+          create("b").run(new Runnable() {
+            public void run()
+            {
+              Assert.assertEquals("b",HBCIUtils.getParam("test.value"));
+            }
+          });
+          Assert.assertEquals("a",HBCIUtils.getParam("test.value"));
+        }
+        finally
+        {
+          HBCIContext.leave(prev);
+        }
+        Assert.assertNull(HBCIContext.current());
+      }
+    });
+  }
+
+  /**
+   * Ohne gebundenen Kontext gilt der der ThreadGroup.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    runIsolated(new Runnable() {
+      public void run()
+      {
+        Properties props = new Properties();
+        props.setProperty("test.value","group");
+        HBCIUtils.initThread(props,new HBCICallbackConsole());
+        try
+        {
+          HBCIContext group = HBCIContext.current();
+          Assert.assertNotNull(group);
+          Assert.assertEquals("group",HBCIUtils.getParam("test.value"));
+
+          create("bound").run(new Runnable() {
+            public void run()
+            {
+              Assert.assertEquals("bound",HBCIUtils.getParam("test.value"));
+            }
+          });
+          Assert.assertSame(group,HBCIContext.current());
+        }
+        finally
+        {
+          HBCIUtils.doneThread();
+        }
+        Assert.assertNull(HBCIContext.current());
+      }
+    });
+  }
+
+  /**
+   * Ein gebundenes Runnable funktioniert auch in einem Thread-Pool.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    final AtomicReference<String> value = new AtomicReference<String>();
+    ExecutorService pool = Executors.newSingleThreadExecutor();
+    try
+    {
+      pool.submit(create("pool").wrap(new Runnable() {
+        public void run()
+        {
+          value.set(HBCIUtils.getParam("test.value"));
+        }
+      })).get();
+    }
+    finally
+    {
+      pool.shutdown();
+    }
+    Assert.assertEquals("pool",value.get());
+  }
+
+  /**
+   * Beim Aendern der Locale wird der gebundene Kontext ersetzt.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    runIsolated(new Runnable() {
+      public void run()
+      {
+        HBCIContext ctx = create("a");
+        HBCIContext prev = ctx.enter();
+        try
+        {
+          HBCIUtils.setParam("kernel.locale.language","en");
+          HBCIUtils.setParam("kernel.locale.country","GB");
+          HBCIUtils.initLocale();
+
+          HBCIContext current = HBCIContext.current();
+          Assert.assertNotSame(ctx,current);
+          Assert.assertEquals(new Locale("en","GB"),current.getLocale());
+          Assert.assertEquals(new Locale("en","GB"),HBCIUtils.getLocale());
+          Assert.assertEquals("a",HBCIUtils.getParam("test.value"));
+        }
+        finally
+        {
+          HBCIContext.leave(prev);
+        }
+      }
+    });
+  }
+
+  /**
+   * Auch Methoden des Handlers, die keinen Job erzeugen oder ausfuehren,
+   * binden den Kontext des Handlers.
+   * @throws Exception
+   */
+  @Test
+  public void test005() throws Exception
+  {
+    final HBCIContext ctx = OfflinePassport.createContext();
+    final String bpd = getFile("bpd/bpd2-raw.txt");
+    final AtomicReference<HBCIHandler> handler = new AtomicReference<HBCIHandler>();
+    ctx.run(new Runnable() {
+      public void run()
+      {
+        try
+        {
+          handler.set(new HBCIHandler("300",new OfflinePassport(bpd,"10000001",1),ctx));
+        }
+        catch (RuntimeException re)
+        {
+          throw re;
+        }
+        catch (Exception e)
+        {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    // Pool-Thread ausserhalb der ThreadGroup, fuer die HBCIUtils.init aufgerufen wurde
+    ExecutorService pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        return new Thread(new ThreadGroup("test-pool"),r);
+      }
+    });
+    try
+    {
+      final HBCIHandler h = handler.get();
+      List<String> params = pool.submit(new Callable<List<String>>() {
+        public List<String> call() throws Exception
+        {
+          Assert.assertNull(HBCIContext.current());
+          h.createEmptyDialog("a");
+          h.newMsg("a");
+          Assert.assertTrue(h.isSupported("SaldoReq"));
+          Assert.assertEquals("14",h.getLowlevelJobRestrictions("Ueb").getProperty("maxusage"));
+          List<String> result = h.getLowlevelJobParameterNames("Ueb");
+          h.reset();
+          Assert.assertNull(HBCIContext.current());
+          return result;
+        }
+      }).get();
+      Assert.assertTrue(params.contains("My.number"));
+    }
+    finally
+    {
+      pool.shutdown();
+      handler.get().close();
+    }
+  }
+
+  /**
+   * Jobs binden den Kontext ihres Handlers, so dass Parameter auch aus
+   * einem fremden Thread gesetzt werden koennen.
+   * @throws Exception
+   */
+  @Test
+  public void test006() throws Exception
+  {
+    final HBCIContext ctx = OfflinePassport.createContext();
+    final String bpd = getFile("bpd/bpd2-raw.txt");
+    final AtomicReference<HBCIHandler> handler = new AtomicReference<HBCIHandler>();
+    final AtomicReference<HBCIJob> job = new AtomicReference<HBCIJob>();
+    ctx.run(new Runnable() {
+      public void run()
+      {
+        try
+        {
+          HBCIHandler h = new HBCIHandler("300",new OfflinePassport(bpd,"10000001",1),ctx);
+          handler.set(h);
+          job.set(h.newJob("SaldoReq"));
+        }
+        catch (RuntimeException re)
+        {
+          throw re;
+        }
+        catch (Exception e)
+        {
+          throw new RuntimeException(e);
+        }
+      }
+    });
+
+    ExecutorService pool = Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r)
+      {
+        return new Thread(new ThreadGroup("test-pool"),r);
+      }
+    });
+    try
+    {
+      final HBCIJob j = job.get();
+      pool.submit(new Callable<Void>() {
+        public Void call() throws Exception
+        {
+          Assert.assertNull(HBCIContext.current());
+          j.setParam("my.number","1234");
+          j.setParam("my.blz","10000001");
+          Assert.assertNull(HBCIContext.current());
+          return null;
+        }
+      }).get();
+
+      boolean found = false;
+      Properties params = ((HBCIJobImpl) j).getLowlevelParams();
+      for (Object key:params.keySet())
+      {
+        if (key.toString().endsWith(".KTV.number"))
+        {
+          Assert.assertEquals("1234",params.getProperty(key.toString()));
+          found = true;
+        }
+      }
+      Assert.assertTrue(found);
+    }
+    finally
+    {
+      pool.shutdown();
+      handler.get().close();
+    }
+  }
+
+  /**
+   * Ohne jeden Kontext liefern Meldungen die Texte der Default-Locale
+   * und Log-Ausgaben werden verworfen.
+   * @throws Exception
+   */
+  @Test
+  public void test007() throws Exception
+  {
+    runIsolated(new Runnable() {
+      public void run()
+      {
+        Assert.assertNull(HBCIContext.current());
+        String msg = HBCIUtilsInternal.getLocMsg("EXCMSG_PARAM_EMPTY");
+        Assert.assertNotNull(msg);
+        Assert.assertFalse(msg.equals("EXCMSG_PARAM_EMPTY"));
+        HBCIUtils.log("no context",HBCIUtils.LOG_ERR);
+        Assert.assertFalse(HBCIUtils.isLogEnabled(HBCIUtils.LOG_ERR));
+      }
+    });
+  }
+}
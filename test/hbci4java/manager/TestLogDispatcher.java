@@ -0,0 +1,233 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.manager;
+
+import hbci4java.AbstractTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.callback.HBCICallbackConsole;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.manager.LogDispatcher;
+
+/**
+ * Testet die (asynchrone) Zustellung der Log-Ausgaben.
+ */
+public class TestLogDispatcher extends AbstractTest
+{
+  /**
+   * Sammelt die Log-Ausgaben.
+   */
+  private static class Collector extends HBCICallbackConsole
+  {
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+    private final List<StackTraceElement> traces = Collections.synchronizedList(new ArrayList<StackTraceElement>());
+
+    /**
+     * @see org.kapott.hbci.callback.HBCICallbackConsole#log(java.lang.String, int, java.util.Date, java.lang.StackTraceElement)
+     */
+    public void log(String msg, int level, Date date, StackTraceElement trace)
+    {
+      // nur die Ausgaben des Tests selbst, nicht die des Kernels
+      if (!msg.startsWith("test "))
+        return;
+      lines.add(msg);
+      threads.add(LogDispatcher.getOriginThread());
+      traces.add(trace);
+    }
+  }
+
+  /**
+   * Fuehrt den Code in einer eigenen ThreadGroup mit eigenen Parametern aus.
+   * @param props die Kernel-Parameter.
+   * @param callback der Callback.
+   * @param r der auszufuehrende Code.
+   * @return der Thread, in dem der Code lief.
+   * @throws Exception
+   */
+  private Thread run(final Properties props, final Collector callback, final Runnable r) throws Exception
+  {
+    ThreadGroup group = new ThreadGroup("test-log");
+    Thread t = new Thread(group,"test-log-thread") {
+      public void run()
+      {
+        HBCIUtils.initThread(props,callback);
+        try
+        {
+          r.run();
+        }
+        finally
+        {
+          HBCIUtils.doneThread();
+        }
+      }
+    };
+    t.start();
+    t.join();
+    return t;
+  }
+
+  /**
+   * Asynchron zugestellte Ausgaben muessen vollstaendig, in der richtigen
+   * Reihenfolge und mit dem erzeugenden Thread ankommen.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    Properties props = new Properties();
+    props.setProperty("log.loglevel.default","4");
+    props.setProperty("log.filter","0");
+    props.setProperty("log.async","1");
+    Collector callback = new Collector();
+
+    Thread t = run(props,callback,new Runnable() {
+      public void run()
+      {
+        for (int i=0;i<10000;i++)
+          HBCIUtils.log("test " + i,HBCIUtils.LOG_DEBUG);
+        HBCIUtils.log("test nicht ausgeben",HBCIUtils.LOG_DEBUG2);
+      }
+    });
+
+    // doneThread() wartet, bis alles zugestellt ist
+    Assert.assertEquals(10000,callback.lines.size());
+    for (int i=0;i<10000;i++)
+    {
+      Assert.assertEquals("test " + i,callback.lines.get(i));
+      Assert.assertSame(t,callback.threads.get(i));
+    }
+  }
+
+  /**
+   * Level-Pruefung und Aufruf-Stelle.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    Properties props = new Properties();
+    props.setProperty("log.loglevel.default","3");
+    props.setProperty("log.trace","0");
+    final Collector callback = new Collector();
+    final boolean[] enabled = new boolean[2];
+
+    run(props,callback,new Runnable() {
+      public void run()
+      {
+        enabled[0] = HBCIUtils.isLogEnabled(HBCIUtils.LOG_INFO);
+        enabled[1] = HBCIUtils.isLogEnabled(HBCIUtils.LOG_DEBUG);
+        HBCIUtils.log("test ohne trace",HBCIUtils.LOG_INFO);
+
+        // geaenderte Log-Parameter muessen sofort wirken
+        HBCIUtils.setParam("log.trace","1");
+        HBCIUtils.log("test mit trace",HBCIUtils.LOG_INFO);
+      }
+    });
+
+    Assert.assertTrue(enabled[0]);
+    Assert.assertFalse(enabled[1]);
+    Assert.assertEquals(2,callback.lines.size());
+    Assert.assertNull(callback.traces.get(0));
+    Assert.assertNotNull(callback.traces.get(1));
+    Assert.assertTrue(callback.traces.get(1).getClassName().startsWith(TestLogDispatcher.class.getName()));
+    Assert.assertEquals("run",callback.traces.get(1).getMethodName());
+  }
+
+  /**
+   * Ist der Puffer voll, muss die Reihenfolge trotzdem erhalten bleiben.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    Properties props = new Properties();
+    props.setProperty("log.loglevel.default","4");
+    props.setProperty("log.filter","0");
+    props.setProperty("log.async","1");
+
+    // Der Callback haelt den Hintergrund-Thread beim ersten Eintrag auf,
+    // bis der Puffer voll ist
+    Collector callback = new Collector() {
+      public void log(String msg, int level, Date date, StackTraceElement trace)
+      {
+        if (msg.equals("test 0"))
+        {
+          try
+          {
+            Thread.sleep(500L);
+          }
+          catch (InterruptedException e)
+          {
+            // ignore
+          }
+        }
+        super.log(msg,level,date,trace);
+      }
+    };
+
+    run(props,callback,new Runnable() {
+      public void run()
+      {
+        for (int i=0;i<20000;i++)
+          HBCIUtils.log("test " + i,HBCIUtils.LOG_DEBUG);
+      }
+    });
+
+    Assert.assertEquals(20000,callback.lines.size());
+    for (int i=0;i<20000;i++)
+      Assert.assertEquals("test " + i,callback.lines.get(i));
+  }
+
+  /**
+   * Wartet der Callback auf eine Sperre, die der loggende Thread haelt,
+   * darf es bei vollem Puffer nicht zum Deadlock kommen.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    Properties props = new Properties();
+    props.setProperty("log.loglevel.default","4");
+    props.setProperty("log.filter","0");
+    props.setProperty("log.async","1");
+
+    final Object lock = new Object();
+    Collector callback = new Collector() {
+      public void log(String msg, int level, Date date, StackTraceElement trace)
+      {
+        synchronized (lock)
+        {
+          super.log(msg,level,date,trace);
+        }
+      }
+    };
+
+    run(props,callback,new Runnable() {
+      public void run()
+      {
+        synchronized (lock)
+        {
+          for (int i=0;i<5000;i++)
+            HBCIUtils.log("test " + i,HBCIUtils.LOG_DEBUG);
+        }
+      }
+    });
+
+    Assert.assertEquals(5000,callback.lines.size());
+    Assert.assertEquals(5000,new HashSet<String>(callback.lines).size());
+  }
+}
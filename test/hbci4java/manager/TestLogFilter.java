@@ -0,0 +1,131 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.manager;
+
+import hbci4java.AbstractTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.LogFilter;
+
+/**
+ * Testet das Filtern sensibler Daten aus Log-Ausgaben.
+ */
+public class TestLogFilter extends AbstractTest
+{
+  /**
+   * Filter-Level, Ersatz-Texte und Freigabe pro Besitzer.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    LogFilter filter = LogFilter.getInstance();
+    Object owner = new Object();
+    try
+    {
+      filter.addSecretData(owner,"12345","X",LogFilter.FILTER_SECRETS);
+      filter.addSecretData(owner,"1234567890","*",LogFilter.FILTER_IDS);
+      filter.addSecretData(owner,"Mustermann","[name]",LogFilter.FILTER_IDS);
+      filter.addSecretData(owner,"50010517",null,LogFilter.FILTER_MOST);
+
+      String line = "pin=12345 konto=1234567890 name=Mustermann blz=50010517";
+      Assert.assertEquals(line,filter.filterLine(line,LogFilter.FILTER_NONE));
+      Assert.assertEquals("pin=XXXXX konto=XXXXX67890 name=Mustermann blz=50010517",filter.filterLine(line,LogFilter.FILTER_SECRETS));
+      Assert.assertEquals("pin=XXXXX konto=********** name=[name] blz=50010517",filter.filterLine(line,LogFilter.FILTER_IDS));
+      Assert.assertEquals("pin=XXXXX konto=********** name=[name] blz=XXXXXXXX",filter.filterLine(line,LogFilter.FILTER_MOST));
+      Assert.assertNull(filter.filterLine(null,LogFilter.FILTER_MOST));
+
+      // mehrfache und direkt aufeinander folgende Treffer
+      Assert.assertEquals("XXXXXXXXXX-XXXXX",filter.filterLine("1234512345-12345",LogFilter.FILTER_SECRETS));
+    }
+    finally
+    {
+      filter.releaseSecretData(owner);
+    }
+    Assert.assertEquals("pin=12345",filter.filterLine("pin=12345",LogFilter.FILTER_MOST));
+  }
+
+  /**
+   * Ueberlappende Daten (Fehlschlag im Automaten) muessen gefunden werden.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    LogFilter filter = LogFilter.getInstance();
+    Object owner = new Object();
+    try
+    {
+      filter.addSecretData(owner,"abcd","X",LogFilter.FILTER_SECRETS);
+      filter.addSecretData(owner,"bce","Y",LogFilter.FILTER_SECRETS);
+      Assert.assertEquals("aYYY",filter.filterLine("abce",LogFilter.FILTER_SECRETS));
+      Assert.assertEquals("XXXXe",filter.filterLine("abcde",LogFilter.FILTER_SECRETS));
+      Assert.assertEquals("abXXXX",filter.filterLine("ababcd",LogFilter.FILTER_SECRETS));
+    }
+    finally
+    {
+      filter.releaseSecretData(owner);
+    }
+  }
+
+  /**
+   * Die Daten mehrerer Besitzer werden gemeinsam gefiltert, aber einzeln
+   * freigegeben.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    LogFilter filter = LogFilter.getInstance();
+    Object owner1 = new Object();
+    Object owner2 = new Object();
+    try
+    {
+      filter.addSecretData(owner1,"11111","X",LogFilter.FILTER_SECRETS);
+      filter.addSecretData(owner2,"22222","Y",LogFilter.FILTER_SECRETS);
+      filter.addSecretData("33333","Z",LogFilter.FILTER_SECRETS);
+      Assert.assertEquals("XXXXX YYYYY ZZZZZ",filter.filterLine("11111 22222 33333",LogFilter.FILTER_SECRETS));
+
+      filter.releaseSecretData(owner1);
+      Assert.assertEquals("11111 YYYYY ZZZZZ",filter.filterLine("11111 22222 33333",LogFilter.FILTER_SECRETS));
+
+      // neue Daten eines Besitzers wirken sofort
+      filter.addSecretData(owner2,"44444","W",LogFilter.FILTER_SECRETS);
+      Assert.assertEquals("YYYYY WWWWW",filter.filterLine("22222 44444",LogFilter.FILTER_SECRETS));
+    }
+    finally
+    {
+      filter.releaseSecretData(owner1);
+      filter.releaseSecretData(owner2);
+      filter.releaseSecretData(null);
+    }
+    Assert.assertEquals("22222 33333",filter.filterLine("22222 33333",LogFilter.FILTER_SECRETS));
+  }
+
+  /**
+   * Die Daten eines nicht mehr referenzierten Besitzers werden verworfen.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    LogFilter filter = LogFilter.getInstance();
+    Object owner = new Object();
+    filter.addSecretData(owner,"55555","X",LogFilter.FILTER_SECRETS);
+    Assert.assertEquals("XXXXX",filter.filterLine("55555",LogFilter.FILTER_SECRETS));
+
+    owner = null;
+    for (int i=0;i<50 && !filter.filterLine("55555",LogFilter.FILTER_SECRETS).equals("55555");i++)
+    {
+      System.gc();
+      Thread.sleep(20L);
+    }
+    Assert.assertEquals("55555",filter.filterLine("55555",LogFilter.FILTER_SECRETS));
+  }
+}
@@ -0,0 +1,350 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.manager;
+
+import hbci4java.AbstractTest;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.HBCIContext;
+import org.kapott.hbci.manager.HBCIHandler;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.passport.HBCIPassportInternal;
+import org.kapott.hbci.status.HBCIDialogStatus;
+import org.kapott.hbci.status.HBCIExecStatus;
+
+/**
+ * Testet das parallele Ausfuehren von Dialogen mit {@link HBCIHandler#execute(Executor)}.
+ */
+public class TestParallelDialogs extends AbstractTest
+{
+  /**
+   * Stub-Server, der jede Verbindung annimmt, kurz offen haelt und wieder schliesst.
+   * Er zaehlt die Verbindungen und wie viele davon maximal gleichzeitig offen waren.
+   */
+  private static class Server extends Thread
+  {
+    private final ServerSocket socket;
+    private final AtomicInteger count = new AtomicInteger();
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger max = new AtomicInteger();
+
+    /**
+     * ct.
+     * @throws Exception
+     */
+    private Server() throws Exception
+    {
+      this.socket = new ServerSocket(0,50,InetAddress.getByName("127.0.0.1"));
+      this.setDaemon(true);
+      this.start();
+    }
+
+    /**
+     * @see java.lang.Thread#run()
+     */
+    public void run()
+    {
+      try
+      {
+        while (true)
+        {
+          final Socket s = this.socket.accept();
+          count.incrementAndGet();
+          int n = active.incrementAndGet();
+          synchronized (max)
+          {
+            if (n > max.get())
+              max.set(n);
+          }
+          Thread t = new Thread() {
+            public void run()
+            {
+              try
+              {
+                Thread.sleep(300L);
+                s.close();
+              }
+              catch (Exception e)
+              {
+                // ignore
+              }
+              finally
+              {
+                active.decrementAndGet();
+              }
+            }
+          };
+          t.setDaemon(true);
+          t.start();
+        }
+      }
+      catch (Exception e)
+      {
+        // Server beendet
+      }
+    }
+
+    /**
+     * Beendet den Server.
+     * @throws Exception
+     */
+    private void close() throws Exception
+    {
+      this.socket.close();
+    }
+  }
+
+  /**
+   * Erzeugt einen Handler fuer die angegebene BLZ.
+   * @param ctx der Kontext.
+   * @param blz die BLZ.
+   * @param port der Port des Stub-Servers.
+   * @param customerIds die Kunden-IDs, fuer die leere Dialoge angelegt werden.
+   * @return der Handler.
+   * @throws Exception
+   */
+  private HBCIHandler createHandler(final HBCIContext ctx, final String blz, final int port, final String... customerIds) throws Exception
+  {
+    final String bpd = getFile("bpd/bpd2-raw.txt");
+    return ctx.call(new Callable<HBCIHandler>() {
+      public HBCIHandler call() throws Exception
+      {
+        HBCIHandler handler = new HBCIHandler("300",new OfflinePassport(bpd,blz,port),ctx);
+        for (String id:customerIds)
+          handler.createEmptyDialog(id);
+        return handler;
+      }
+    });
+  }
+
+  /**
+   * Fuehrt die Dialoge aus. Bleibt die Ausfuehrung haengen (z.Bsp. weil das
+   * Limit fuer parallele Dialoge nicht freigegeben wurde), schlaegt der Test fehl.
+   * @param handler der Handler.
+   * @param executor der Executor oder <code>null</code> fuer serielle Ausfuehrung.
+   * @return der Status.
+   * @throws Exception
+   */
+  private HBCIExecStatus execute(final HBCIHandler handler, final Executor executor) throws Exception
+  {
+    FutureTask<HBCIExecStatus> task = new FutureTask<HBCIExecStatus>(new Callable<HBCIExecStatus>() {
+      public HBCIExecStatus call() throws Exception
+      {
+        return (executor != null) ? handler.execute(executor) : handler.execute();
+      }
+    });
+    Thread t = new Thread(task);
+    t.setDaemon(true);
+    t.start();
+    return task.get(60L,TimeUnit.SECONDS);
+  }
+
+  /**
+   * Prueft, ob der Dialog gefuehrt wurde und am Stub-Server gescheitert ist.
+   * @param status der Status.
+   * @param customerId die Kunden-ID des Dialoges.
+   */
+  private void assertFailed(HBCIExecStatus status, String customerId)
+  {
+    HBCIDialogStatus dialog = status.getDialogStatus(customerId);
+    Assert.assertNotNull("no dialog for " + customerId,dialog);
+    Assert.assertFalse(dialog.isOK());
+    Assert.assertTrue(dialog.initStatus.hasExceptions());
+  }
+
+  /**
+   * Challenge und External-ID werden pro Dialog gespeichert, andere Daten im Passport.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    final HBCIPassportInternal passport = new OfflinePassport(getFile("bpd/bpd2-raw.txt"),"10000002",1);
+    final CyclicBarrier barrier = new CyclicBarrier(2);
+    final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+
+    Thread[] threads = new Thread[2];
+    for (int i=0;i<threads.length;++i)
+    {
+      final String id = "customer" + i;
+      threads[i] = new Thread() {
+        public void run()
+        {
+          try
+          {
+            passport.beginDialogScope(id);
+            try
+            {
+              passport.setPersistentData("pintan_challenge","challenge-" + id);
+              passport.setPersistentData("externalid","ext-" + id);
+              passport.setPersistentData("termueb_" + id,id);
+              barrier.await(10L,TimeUnit.SECONDS);
+
+              Assert.assertEquals(id,passport.getCustomerId());
+              Assert.assertEquals("challenge-" + id,passport.getPersistentData("pintan_challenge"));
+              Assert.assertEquals("ext-" + id,passport.getPersistentData("externalid"));
+              barrier.await(10L,TimeUnit.SECONDS);
+
+              passport.setPersistentData("pintan_challenge",null);
+              Assert.assertNull(passport.getPersistentData("pintan_challenge"));
+            }
+            finally
+            {
+              passport.endDialogScope();
+            }
+          }
+          catch (Throwable t)
+          {
+            error.set(t);
+          }
+        }
+      };
+      threads[i].start();
+    }
+    for (Thread t:threads)
+      t.join();
+    if (error.get() != null)
+      throw new Exception(error.get());
+
+    // Dialog-Daten sind mit dem Dialog weg, der Rest ist im Passport
+    Assert.assertNull(passport.getPersistentData("externalid"));
+    Assert.assertEquals("customer0",passport.getPersistentData("termueb_customer0"));
+    Assert.assertEquals("customer1",passport.getPersistentData("termueb_customer1"));
+
+    // Ohne Dialog-Scope wie bisher im Passport
+    passport.setPersistentData("externalid","serial");
+    Assert.assertEquals("serial",passport.getPersistentData("externalid"));
+  }
+
+  /**
+   * Ohne Executor werden die Dialoge nacheinander gefuehrt.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    Server server = new Server();
+    try
+    {
+      HBCIContext ctx = OfflinePassport.createContext();
+      HBCIHandler handler = createHandler(ctx,"10000003",server.socket.getLocalPort(),"a","b","c");
+      HBCIExecStatus status = execute(handler,null);
+      handler.close();
+
+      for (String id:new String[]{"a","b","c"})
+        assertFailed(status,id);
+      Assert.assertEquals(3,server.count.get());
+      Assert.assertEquals(1,server.max.get());
+    }
+    finally
+    {
+      server.close();
+    }
+  }
+
+  /**
+   * Mit Executor werden die Dialoge parallel gefuehrt, begrenzt durch das Limit.
+   * Die Plaetze werden nach Fehlern wieder freigegeben.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    Server server = new Server();
+    ExecutorService pool = Executors.newFixedThreadPool(4);
+    try
+    {
+      final HBCIContext ctx = OfflinePassport.createContext();
+      ctx.run(new Runnable() {
+        public void run()
+        {
+          HBCIUtils.setParam("client.connection.maxParallelDialogs.10000004","2");
+        }
+      });
+
+      for (int round=1;round<=2;++round)
+      {
+        HBCIHandler handler = createHandler(ctx,"10000004",server.socket.getLocalPort(),"a","b","c","d");
+        HBCIExecStatus status = execute(handler,pool);
+        handler.close();
+
+        for (String id:new String[]{"a","b","c","d"})
+          assertFailed(status,id);
+        Assert.assertEquals(4 * round,server.count.get());
+        Assert.assertEquals(2,server.max.get());
+      }
+    }
+    finally
+    {
+      pool.shutdown();
+      server.close();
+    }
+  }
+
+  /**
+   * Lehnt der Executor einen Dialog ab, wird das Limit ebenfalls wieder freigegeben.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    Server server = new Server();
+    ExecutorService pool = Executors.newFixedThreadPool(2);
+    try
+    {
+      final HBCIContext ctx = OfflinePassport.createContext();
+      ctx.run(new Runnable() {
+        public void run()
+        {
+          HBCIUtils.setParam("client.connection.maxParallelDialogs.10000005","1");
+        }
+      });
+
+      HBCIHandler handler = createHandler(ctx,"10000005",server.socket.getLocalPort(),"a","b");
+      HBCIExecStatus status = execute(handler,new Executor() {
+        public void execute(Runnable command)
+        {
+          throw new RejectedExecutionException("full");
+        }
+      });
+      Assert.assertTrue(status.getExceptions("a").get(0) instanceof RejectedExecutionException);
+      Assert.assertTrue(status.getExceptions("b").get(0) instanceof RejectedExecutionException);
+      Assert.assertEquals(0,server.count.get());
+
+      // Das Limit von 1 ist wieder frei
+      handler.createEmptyDialog("a");
+      handler.createEmptyDialog("b");
+      status = execute(handler,pool);
+      handler.close();
+      assertFailed(status,"a");
+      assertFailed(status,"b");
+      Assert.assertEquals(2,server.count.get());
+      Assert.assertEquals(1,server.max.get());
+    }
+    finally
+    {
+      pool.shutdown();
+      server.close();
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package hbci4java.manager;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.HBCIKernelImpl;
+import org.kapott.hbci.manager.SyntaxRegistry;
+import org.w3c.dom.Document;
+
+import hbci4java.AbstractTest;
+
+/**
+ * Testet den prozessweiten Cache fuer die HBCI-Syntax-Spezifikationen.
+ */
+public class TestSyntaxRegistry extends AbstractTest {
+
+    /**
+     * Zwei Kernel mit der gleichen HBCI-Version muessen das gleiche
+     * Syntax-Dokument verwenden.
+     */
+    @Test
+    public void test001() {
+        HBCIKernelImpl k1 = new HBCIKernelImpl(null,"300");
+        HBCIKernelImpl k2 = new HBCIKernelImpl(null,"300");
+        Assert.assertSame(k1.getMsgGen().getSyntax(),k2.getMsgGen().getSyntax());
+        Assert.assertNotSame(k1.getMsgGen(),k2.getMsgGen());
+
+        HBCIKernelImpl k3 = new HBCIKernelImpl(null,"plus");
+        Assert.assertNotSame(k1.getMsgGen().getSyntax(),k3.getMsgGen().getSyntax());
+    }
+
+    /**
+     * Testet das Vorladen und Entladen.
+     */
+    @Test
+    public void test002() {
+        SyntaxRegistry.unloadAll();
+        Assert.assertEquals(0,SyntaxRegistry.getLoaded().size());
+
+        SyntaxRegistry.warmup("220","300");
+        Assert.assertEquals(2,SyntaxRegistry.getLoaded().size());
+
+        Document doc = SyntaxRegistry.getSyntax("300");
+        Assert.assertTrue(SyntaxRegistry.unload("300"));
+        Assert.assertFalse(SyntaxRegistry.unload("300"));
+        Assert.assertNotSame(doc,SyntaxRegistry.getSyntax("300"));
+
+        Assert.assertEquals(0,SyntaxRegistry.unloadUnused(60000L));
+        SyntaxRegistry.unloadAll();
+        Assert.assertEquals(0,SyntaxRegistry.getLoaded().size());
+    }
+}
@@ -0,0 +1,104 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.msg;
+
+import hbci4java.AbstractTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.HBCIKernelImpl;
+import org.kapott.hbci.protocol.ElementDef;
+import org.kapott.hbci.protocol.ElementRef;
+import org.kapott.hbci.protocol.Grammar;
+
+/**
+ * Testet die kompilierte Form der Syntax-Spezifikation.
+ */
+public class TestGrammar extends AbstractTest
+{
+  /**
+   * Kernel mit dem gleichen Syntax-Dokument muessen die gleiche
+   * kompilierte Syntax verwenden.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    HBCIKernelImpl k1 = new HBCIKernelImpl(null,"300");
+    HBCIKernelImpl k2 = new HBCIKernelImpl(null,"300");
+    Assert.assertSame(k1.getMsgGen().getGrammar(),k2.getMsgGen().getGrammar());
+    Assert.assertSame(k1.getMsgGen().getGrammar(),Grammar.getInstance(k1.getMsgGen().getSyntax()));
+    Assert.assertEquals("300",k1.getHBCIVersion(0));
+  }
+
+  /**
+   * Prueft die kompilierten Referenzen, Werte und Segment-Kennungen.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    Grammar grammar = new HBCIKernelImpl(null,"300").getMsgGen().getGrammar();
+    Assert.assertNull(grammar.getDef("gibtsnicht"));
+
+    ElementDef def = grammar.getDef("Saldo5");
+    Assert.assertEquals("HKSAL",def.getSegCode());
+    Assert.assertEquals("5",def.getSegVersion());
+
+    ElementRef[] refs = def.getRefs();
+    Assert.assertEquals(5,refs.length);
+
+    ElementRef head = refs[0];
+    Assert.assertEquals(ElementRef.KIND_DEG,head.getKind());
+    Assert.assertEquals("SegHead",head.getName());
+    Assert.assertSame(grammar.getDef("SegHeadUser"),head.getDef());
+
+    ElementRef max = def.getRef("maxentries");
+    Assert.assertEquals(ElementRef.KIND_DE,max.getKind());
+    Assert.assertEquals("Num",max.getType());
+    Assert.assertEquals(3,max.getIndex());
+    Assert.assertEquals(4,max.getMaxSize());
+    Assert.assertTrue(max.isOptional());
+    Assert.assertNull(max.getDef());
+  }
+
+  /**
+   * Prueft den Index von Segment-Code und -Version auf die moeglichen Referenzen.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    Grammar grammar = new HBCIKernelImpl(null,"300").getMsgGen().getGrammar();
+
+    // In der SF "Params" kommen fuer HIKAZS:5 nur das passende Segment
+    // und die Segmente ohne festen Code (Templates) in Frage
+    ElementDef params = grammar.getDef("Params");
+    ElementRef[] refs = params.getRefs();
+    int[] candidates = params.getRefCandidates("HIKAZS","5");
+    boolean found = false;
+    for (int i=0;i<candidates.length;i++)
+    {
+      ElementDef def = refs[candidates[i]].getDef();
+      if (def.getId().equals("KUmsZeitPar5"))
+        found = true;
+      else
+        Assert.assertEquals("",def.getSegCode());
+      if (i > 0)
+        Assert.assertTrue(candidates[i] > candidates[i-1]);
+    }
+    Assert.assertTrue(found);
+    Assert.assertTrue(candidates.length < refs.length / 10);
+
+    int[] open = params.getRefCandidates("HIXYZ","1");
+    for (int i=0;i<open.length;i++)
+    {
+      Assert.assertEquals("",refs[open[i]].getDef().getSegCode());
+    }
+  }
+}
@@ -0,0 +1,92 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.msg;
+
+import hbci4java.AbstractTest;
+
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.comm.Comm;
+import org.kapott.hbci.comm.Filter;
+import org.kapott.hbci.manager.HBCIKernelImpl;
+import org.kapott.hbci.protocol.DE;
+import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.protocol.MsgBuffer;
+import org.kapott.hbci.protocol.SyntaxElement;
+import org.kapott.hbci.protocol.factory.MSGFactory;
+
+/**
+ * Testet die serialisierte Form von Nachrichten.
+ */
+public class TestMsgBuffer extends AbstractTest
+{
+  /**
+   * Kodierung und Kuerzen des Puffers.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    MsgBuffer buffer = new MsgBuffer(1);
+    buffer.append("HNHBK:1:3+").append('\u00e4').append("+\u20ac+x");
+    buffer.setLength(buffer.length()-2);
+    Assert.assertEquals("HNHBK:1:3+\u00e4+\u20ac",buffer.toString());
+    Assert.assertArrayEquals(buffer.toString().getBytes(Comm.ENCODING),buffer.getBytes());
+    Assert.assertSame(buffer.getBytes(),buffer.getBytes());
+
+    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+    buffer.writeTo(bos);
+    Assert.assertArrayEquals(buffer.getBytes(),bos.toByteArray());
+
+    // die Filter muessen das gleiche liefern wie mit Strings
+    Assert.assertArrayEquals(Filter.getInstance("Base64").encode(buffer.toString()),Filter.getInstance("Base64").encode(buffer).getBytes());
+    Assert.assertSame(buffer,Filter.getInstance("None").encode(buffer));
+  }
+
+  /**
+   * Die Nachricht wird nur einmal serialisiert - bis sie geaendert wird.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    HBCIKernelImpl kernel = new HBCIKernelImpl(null,"300");
+    kernel.rawNewMsg("DialogEndAnon");
+    kernel.rawSet("MsgHead.dialogid","4711");
+    kernel.rawSet("MsgHead.msgnum","2");
+    kernel.rawSet("DialogEndS.dialogid","4711");
+    kernel.rawSet("MsgTail.msgnum","2");
+    MSG msg = kernel.getMsgGen().generate("DialogEndAnon");
+    try
+    {
+      MsgBuffer b1 = msg.toBuffer();
+      Assert.assertSame(b1,msg.toBuffer());
+      Assert.assertTrue(b1.toString().indexOf("+4711'") != -1);
+      Assert.assertEquals(b1.length(),Integer.parseInt(msg.getValueOfDE("DialogEndAnon.MsgHead.msgsize")));
+
+      // Aenderung ueber die Nachricht
+      msg.propagateValue("DialogEndAnon.DialogEndS.dialogid","0815",SyntaxElement.DONT_TRY_TO_CREATE,SyntaxElement.ALLOW_OVERWRITE);
+      MsgBuffer b2 = msg.toBuffer();
+      Assert.assertNotSame(b1,b2);
+      Assert.assertTrue(b2.toString().indexOf("+0815'") != -1);
+
+      // Aenderung direkt am Datenelement
+      ((DE)msg.getElement("DialogEndAnon.DialogEndS.dialogid")).setValue("4712");
+      MsgBuffer b3 = msg.toBuffer();
+      Assert.assertNotSame(b2,b3);
+      Assert.assertTrue(b3.toString().indexOf("+4712'") != -1);
+      Assert.assertEquals(b3.toString(),msg.toString(0));
+    }
+    finally
+    {
+      MSGFactory.getInstance().unuseObject(msg);
+    }
+  }
+}
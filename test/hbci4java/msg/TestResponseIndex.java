@@ -0,0 +1,101 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.msg;
+
+import hbci4java.AbstractTest;
+
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.status.HBCIMsgStatus;
+import org.kapott.hbci.status.HBCIResponseIndex;
+import org.kapott.hbci.status.HBCIRetVal;
+
+/**
+ * Testet den Index ueber die Antwortsegmente einer Nachricht.
+ */
+public class TestResponseIndex extends AbstractTest
+{
+  /**
+   * Liefert eine Antwort mit drei Antwortsegmenten und Rueckgabecodes
+   * zu den Segmenten 3 und 4 der gesendeten Nachricht.
+   * @return die Antwort.
+   */
+  private Properties getData()
+  {
+    Properties data = new Properties();
+    data.setProperty("GVRes_10.SegHead.ref","3");
+    data.setProperty("GVRes_10.SegHead.code","HIKAZ");
+    data.setProperty("GVRes_10.booked","abc");
+    data.setProperty("GVRes_2.SegHead.ref","3");
+    data.setProperty("GVRes_2.booked","def");
+    data.setProperty("GVRes.SegHead.ref","4");
+    data.setProperty("GVRes.Saldo.value","100");
+
+    data.setProperty("RetSeg.SegHead.ref","3");
+    data.setProperty("RetSeg.RetVal.code","3040");
+    data.setProperty("RetSeg.RetVal.parm","offset");
+    data.setProperty("RetSeg.RetVal_2.code","0020");
+    data.setProperty("RetSeg_2.SegHead.ref","4");
+    data.setProperty("RetSeg_2.RetVal.code","0020");
+    return data;
+  }
+
+  /**
+   * Die Antwortsegmente werden nach Segment-Referenz und in der
+   * Reihenfolge des Eintreffens geliefert.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    HBCIMsgStatus status = new HBCIMsgStatus();
+    status.setData(getData());
+
+    HBCIResponseIndex index = status.getResponseIndex();
+    Assert.assertSame(index,status.getResponseIndex());
+
+    List<String> headers = index.getHeaders(3);
+    Assert.assertEquals(2,headers.size());
+    Assert.assertEquals("GVRes_2",headers.get(0));
+    Assert.assertEquals("GVRes_10",headers.get(1));
+    Assert.assertEquals("GVRes",index.getHeaders(4).get(0));
+    Assert.assertEquals(0,index.getHeaders(5).size());
+
+    List<String> keys = index.getKeys("GVRes_10");
+    Assert.assertEquals(3,keys.size());
+    Assert.assertTrue(keys.contains("GVRes_10.booked"));
+    Assert.assertFalse(index.getKeys("GVRes").contains("GVRes_2.booked"));
+    Assert.assertNull(index.getKeys("GVRes.Saldo"));
+  }
+
+  /**
+   * Die Rueckgabecodes werden nach Segment-Referenz geliefert.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    HBCIMsgStatus status = new HBCIMsgStatus();
+    status.setData(getData());
+
+    HBCIResponseIndex index = status.getResponseIndex();
+    List<HBCIRetVal> retvals = index.getRetVals("3");
+    Assert.assertEquals(2,retvals.size());
+    Assert.assertEquals("3040",retvals.get(0).code);
+    Assert.assertEquals("offset",retvals.get(0).params[0]);
+    Assert.assertEquals(1,index.getRetVals("4").size());
+    Assert.assertEquals(0,index.getRetVals("5").size());
+
+    // Neue Daten - neuer Index
+    status.addData(new Properties());
+    Assert.assertNotSame(index,status.getResponseIndex());
+  }
+}
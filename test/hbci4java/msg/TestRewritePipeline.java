@@ -0,0 +1,155 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.msg;
+
+import hbci4java.AbstractTest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.exceptions.HBCI_Exception;
+import org.kapott.hbci.manager.MsgGen;
+import org.kapott.hbci.protocol.MSG;
+import org.kapott.hbci.rewrite.Rewrite;
+import org.kapott.hbci.rewrite.RewriteContext;
+import org.kapott.hbci.rewrite.RewritePipeline;
+import org.kapott.hbci.rewrite.RewritePipeline.Timing;
+
+/**
+ * Testet die Kette der Rewriter-Module.
+ */
+public class TestRewritePipeline extends AbstractTest
+{
+  /**
+   * Rewriter, der sich merkt, welche Daten er gesehen hat.
+   */
+  public static class Recorder extends Rewrite
+  {
+    private final static List<String> seen = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Merkt sich Context und Nachrichtenname.
+     * @param phase die Phase.
+     */
+    private static void record(String phase)
+    {
+      RewriteContext ctx = getContext();
+      seen.add(phase + ":" + (ctx != null ? ctx.getData("msgName") : null) + ":" + getData("msgName"));
+    }
+
+    /**
+     * @see org.kapott.hbci.rewrite.Rewrite#incomingClearText(java.lang.String, org.kapott.hbci.manager.MsgGen)
+     */
+    public String incomingClearText(String st, MsgGen gen)
+    {
+      record("clear");
+      return st;
+    }
+
+    /**
+     * @see org.kapott.hbci.rewrite.Rewrite#incomingData(org.kapott.hbci.protocol.MSG, org.kapott.hbci.manager.MsgGen)
+     */
+    public MSG incomingData(MSG msg, MsgGen gen)
+    {
+      record("data");
+      setData("msgName","Rewritten");
+      return msg;
+    }
+  }
+
+  /**
+   * Die Kette wird nur einmal erzeugt und ruft nur die Rewriter auf,
+   * die die jeweilige Phase implementieren.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    String names = " KUmsDelimiters, WrongSequenceNumbers ,";
+    RewritePipeline pipeline = RewritePipeline.getInstance(names);
+    Assert.assertSame(pipeline,RewritePipeline.getInstance(names));
+
+    String st = pipeline.incomingClearText("HNHBK:1:3+x'HIRMG:5:2+y'",null,null);
+    Assert.assertEquals("HNHBK:1:3+x'HIRMG:2:2+y'",st);
+    Assert.assertEquals("x",pipeline.incomingCrypted("x",null,null));
+
+    List<Timing> timings = pipeline.getTimings();
+    Assert.assertEquals(2,timings.size());
+    for (Timing t:timings)
+    {
+      if (t.getName().equals("WrongSequenceNumbers"))
+        Assert.assertEquals(1,t.getCalls());
+      else if (t.getName().equals("KUmsDelimiters"))
+        Assert.assertEquals(0,t.getCalls());
+      else
+        Assert.fail("unknown rewriter " + t.getName());
+    }
+  }
+
+  /**
+   * Unbekannte Rewriter.
+   * @throws Exception
+   */
+  @Test(expected=HBCI_Exception.class)
+  public void test002() throws Exception
+  {
+    RewritePipeline.getInstance("GibtsNicht");
+  }
+
+  /**
+   * Die Daten einer Nachricht landen im Context und nicht in den globalen Daten.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    Rewrite.setData("msgName","Global");
+
+    RewriteContext ctx = new RewriteContext();
+    ctx.setData("msgName","Synch");
+
+    RewritePipeline pipeline = RewritePipeline.getInstance("WrongSequenceNumbers");
+    String st = pipeline.incomingClearText("HNHBK:1:3+x'HIRMG:5:2+y'",null,ctx);
+    Assert.assertEquals("HNHBK:1:3+x'HIRMG:2:2+y'",st);
+
+    // nach dem Durchlauf gelten wieder die globalen Daten
+    Assert.assertEquals("Global",Rewrite.getData("msgName"));
+    Assert.assertEquals("Synch",ctx.getData("msgName"));
+  }
+
+  /**
+   * Die Rewriter sehen waehrend des Durchlaufs die Daten aus dem Context.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    Rewrite.setData("msgName","Global");
+    Recorder.seen.clear();
+
+    RewriteContext ctx = new RewriteContext();
+    ctx.setData("msgName","Synch");
+
+    RewritePipeline pipeline = RewritePipeline.getInstance(Recorder.class.getName());
+    pipeline.incomingClearText("HNHBK:1:3+x'",null,ctx);
+    pipeline.incomingData(null,null,ctx);
+    pipeline.incomingClearText("HNHBK:1:3+x'",null,null);
+
+    Assert.assertEquals(3,Recorder.seen.size());
+    Assert.assertEquals("clear:Synch:Synch",Recorder.seen.get(0));
+    Assert.assertEquals("data:Synch:Synch",Recorder.seen.get(1));
+    Assert.assertEquals("clear:null:Global",Recorder.seen.get(2));
+
+    // setData() im Rewriter schreibt in den Context
+    Assert.assertEquals("Rewritten",ctx.getData("msgName"));
+    Assert.assertEquals("Global",Rewrite.getData("msgName"));
+  }
+}
@@ -0,0 +1,53 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.sepa;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.validation.Schema;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.sepa.JAXBCache;
+import org.kapott.hbci.sepa.PainVersion;
+import org.kapott.hbci.sepa.jaxb.pain_001_003_03.Document;
+
+/**
+ * Tests fuer den Cache der JAXB-Contexte und Schemas.
+ */
+public class TestJAXBCache
+{
+    /**
+     * Das Schema wird pro PAIN-Version nur einmal kompiliert.
+     * @throws Exception
+     */
+    @Test
+    public void test001() throws Exception
+    {
+        Schema s1 = JAXBCache.getSchema(PainVersion.PAIN_001_003_03);
+        Assert.assertNotNull(s1);
+        Assert.assertSame(s1,JAXBCache.getSchema(PainVersion.PAIN_001_003_03));
+        Assert.assertNotSame(s1,JAXBCache.getSchema(PainVersion.PAIN_008_003_02));
+
+        // Ohne Schema-Datei gibts auch kein Schema
+        Assert.assertNull(JAXBCache.getSchema(PainVersion.byURN("urn:iso:std:iso:20022:tech:xsd:pain.001.009.09")));
+    }
+
+    /**
+     * Der JAXB-Context wird pro Document-Klasse nur einmal erzeugt,
+     * die Marshaller pro Thread.
+     * @throws Exception
+     */
+    @Test
+    public void test002() throws Exception
+    {
+        JAXBContext ctx = JAXBCache.getContext(Document.class);
+        Assert.assertSame(ctx,JAXBCache.getContext(Document.class));
+        Assert.assertSame(JAXBCache.getMarshaller(Document.class),JAXBCache.getMarshaller(Document.class));
+        Assert.assertSame(JAXBCache.getUnmarshaller(Document.class),JAXBCache.getUnmarshaller(Document.class));
+    }
+}
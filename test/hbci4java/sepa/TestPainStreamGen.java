@@ -0,0 +1,200 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.sepa;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.GV.generators.AbstractSEPAStreamGenerator;
+import org.kapott.hbci.GV.generators.ISEPAGenerator;
+import org.kapott.hbci.GV.generators.SEPAGeneratorFactory;
+import org.kapott.hbci.exceptions.InvalidArgumentException;
+import org.kapott.hbci.sepa.PainVersion;
+
+/**
+ * Testet die Streaming-Generatoren gegen die JAXB-Generatoren.
+ */
+public class TestPainStreamGen
+{
+    /**
+     * Liefert die Parameter einer Sammel-Ueberweisung.
+     * @param count Anzahl der Buchungen.
+     * @return die Parameter.
+     */
+    private Properties createUeb(int count)
+    {
+        Properties props = new Properties();
+        props.setProperty("src.bic",  "ABCDEFAA123");
+        props.setProperty("src.iban", "DE1234567890");
+        props.setProperty("src.name", "Max Mustermann");
+        props.setProperty("sepaid",   "abcde");
+        props.setProperty("date",     "2014-02-01");
+        props.setProperty("batchbook","1");
+        for (int i=0;i<count;++i)
+        {
+            props.setProperty("dst[" + i + "].iban",  "DE098765432" + i);
+            props.setProperty("dst[" + i + "].name",  "SEPAstian & <Co> " + i);
+            props.setProperty("btg[" + i + "].value", i + ".5");
+            props.setProperty("btg[" + i + "].curr",  "EUR");
+            props.setProperty("usage[" + i + "]",     "Verwendungszweck " + i);
+            if (i % 2 == 0)
+            {
+                props.setProperty("dst[" + i + "].bic",     "ABCDEFAA123");
+                props.setProperty("endtoendid[" + i + "]",  "e2e" + i);
+                props.setProperty("purposecode[" + i + "]", "SALA");
+            }
+        }
+        return props;
+    }
+
+    /**
+     * Liefert die Parameter einer Sammel-Lastschrift.
+     * @param count Anzahl der Buchungen.
+     * @return die Parameter.
+     */
+    private Properties createLast(int count)
+    {
+        Properties props = new Properties();
+        props.setProperty("src.iban",     "DE1234567890");
+        props.setProperty("src.name",     "Max Mustermann");
+        props.setProperty("sepaid",       "abcde");
+        props.setProperty("pmtinfid",     "fghij");
+        props.setProperty("targetdate",   "2014-02-01");
+        props.setProperty("type",         "CORE");
+        props.setProperty("sequencetype", "FRST");
+        for (int i=0;i<count;++i)
+        {
+            props.setProperty("dst[" + i + "].iban",        "DE098765432" + i);
+            props.setProperty("dst[" + i + "].name",        "SEPAstian " + i);
+            props.setProperty("btg[" + i + "].value",       "1" + i + ".05");
+            props.setProperty("btg[" + i + "].curr",        "EUR");
+            props.setProperty("creditorid[" + i + "]",      "DE98ZZZ09999999999");
+            props.setProperty("mandateid[" + i + "]",       "m" + i);
+            props.setProperty("manddateofsig[" + i + "]",   "2013-11-23");
+            props.setProperty("amendmandindic[" + i + "]",  i % 2 == 0 ? "true" : "false");
+            if (i % 2 == 0)
+                props.setProperty("dst[" + i + "].bic",     "ABCDEFAA123");
+        }
+        return props;
+    }
+
+    /**
+     * Erzeugt das XML mit dem Generator.
+     * @param gen der Generator.
+     * @param props die Parameter.
+     * @return das XML, der Zeitstempel ist entfernt.
+     * @throws Exception
+     */
+    private String generate(ISEPAGenerator gen, Properties props) throws Exception
+    {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        gen.generate(props, bos, false);
+        return bos.toString(ISEPAGenerator.ENCODING).replaceAll("<CreDtTm>[^<]*</CreDtTm>","<CreDtTm/>");
+    }
+
+    /**
+     * Vergleicht das XML des Streaming-Generators mit dem des JAXB-Generators.
+     * @param jobname der Job-Name.
+     * @param version die PAIN-Version.
+     * @param props die Parameter.
+     * @throws Exception
+     */
+    private void compare(String jobname, PainVersion version, Properties props) throws Exception
+    {
+        String formatted = System.getProperty("sepa.pain.formatted");
+        try
+        {
+            for (String f : new String[]{"false","true"})
+            {
+                System.setProperty("sepa.pain.formatted",f);
+                String jaxb   = generate(SEPAGeneratorFactory.get(jobname,version),props);
+                String stream = generate(SEPAGeneratorFactory.getStreaming(jobname,version),props);
+                Assert.assertEquals(jaxb,stream);
+            }
+        }
+        finally
+        {
+            if (formatted != null)
+                System.setProperty("sepa.pain.formatted",formatted);
+            else
+                System.clearProperty("sepa.pain.formatted");
+        }
+    }
+
+    /**
+     * Das XML der Ueberweisungen muss identisch mit dem des JAXB-Generators sein.
+     * @throws Exception
+     */
+    @Test
+    public void test001() throws Exception
+    {
+        compare("UebSEPA",PainVersion.PAIN_001_003_03,createUeb(5));
+
+        // Einzelbuchung ohne Index
+        Properties props = new Properties();
+        props.setProperty("src.iban",   "DE1234567890");
+        props.setProperty("dst.iban",   "DE0987654321");
+        props.setProperty("dst.name",   "SEPAstian");
+        props.setProperty("btg.value",  "100.00");
+        props.setProperty("btg.curr",   "EUR");
+        props.setProperty("sepaid",     "abcde");
+        compare("UebSEPA",PainVersion.PAIN_001_003_03,props);
+    }
+
+    /**
+     * Das XML der Lastschriften muss identisch mit dem des JAXB-Generators sein.
+     * @throws Exception
+     */
+    @Test
+    public void test002() throws Exception
+    {
+        compare("LastSEPA",PainVersion.PAIN_008_003_02,createLast(4));
+    }
+
+    /**
+     * Testet die Summen und die Struktur des Streaming-Generators.
+     * @throws Exception
+     */
+    @Test
+    public void test003() throws Exception
+    {
+        AbstractSEPAStreamGenerator gen = SEPAGeneratorFactory.getStreaming("UebSEPA",PainVersion.PAIN_001_003_03);
+        Assert.assertNotNull(gen);
+        Assert.assertNull(SEPAGeneratorFactory.getStreaming("UebSEPA",PainVersion.PAIN_001_002_03));
+
+        Properties props = createUeb(3);
+        props.remove("src.name");
+        String xml = generate(gen,props);
+
+        Assert.assertTrue(xml.startsWith("<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?><Document xmlns=\"urn:iso:std:iso:20022:tech:xsd:pain.001.003.03\""));
+        Assert.assertTrue(xml.contains("<GrpHdr><MsgId>abcde</MsgId><CreDtTm/><NbOfTxs>3</NbOfTxs><CtrlSum>4.5</CtrlSum><InitgPty/></GrpHdr>"));
+        Assert.assertTrue(xml.contains("<PmtInfId>abcde</PmtInfId><PmtMtd>TRF</PmtMtd><BtchBookg>true</BtchBookg><NbOfTxs>3</NbOfTxs><CtrlSum>4.5</CtrlSum>"));
+        Assert.assertTrue(xml.contains("<ReqdExctnDt>2014-02-01</ReqdExctnDt><Dbtr/>"));
+        Assert.assertTrue(xml.contains("<CdtTrfTxInf><PmtId><EndToEndId>NOTPROVIDED</EndToEndId></PmtId><Amt><InstdAmt Ccy=\"EUR\">1.5</InstdAmt></Amt><Cdtr><Nm>SEPAstian &amp; &lt;Co&gt; 1</Nm></Cdtr>"));
+        Assert.assertTrue(xml.endsWith("</CdtTrfTxInf></PmtInf></CstmrCdtTrfInitn></Document>"));
+
+        // Schema-Validierung
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        gen.generate(createUeb(3),bos,true);
+        Assert.assertTrue(bos.size() > 0);
+    }
+
+    /**
+     * Gemischte Waehrungen sind nicht erlaubt.
+     * @throws Exception
+     */
+    @Test(expected=InvalidArgumentException.class)
+    public void test004() throws Exception
+    {
+        Properties props = createUeb(2);
+        props.setProperty("btg[1].curr","USD");
+        generate(SEPAGeneratorFactory.getStreaming("UebSEPA",PainVersion.PAIN_001_003_03),props);
+    }
+}
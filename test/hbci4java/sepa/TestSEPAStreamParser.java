@@ -0,0 +1,195 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.sepa;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.GV.generators.SEPAGeneratorFactory;
+import org.kapott.hbci.GV.parsers.ISEPAParser;
+import org.kapott.hbci.GV.parsers.SEPAParserFactory;
+import org.kapott.hbci.GV.parsers.SEPAStreamParser;
+import org.kapott.hbci.GV.parsers.SepaRecord;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.sepa.PainVersion;
+
+import hbci4java.AbstractTest;
+
+/**
+ * Testet den StAX-basierten Parser.
+ */
+public class TestSEPAStreamParser extends AbstractTest
+{
+    /**
+     * Erzeugt eine Sammel-Ueberweisung.
+     * @return das XML.
+     * @throws Exception
+     */
+    private byte[] createUeb() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("src.bic",  "ABCDEFAA123");
+        props.setProperty("src.iban", "DE1234567890");
+        props.setProperty("src.name", "Max Mustermann");
+        props.setProperty("sepaid",   "abcde");
+        props.setProperty("pmtinfid", "fghij");
+        props.setProperty("date",     "2014-02-01");
+        for (int i=0;i<3;++i)
+        {
+            props.setProperty("dst[" + i + "].iban",  "DE098765432" + i);
+            props.setProperty("dst[" + i + "].name",  "SEPAstian & Co " + i);
+            props.setProperty("btg[" + i + "].value", "1" + i + ".50");
+            props.setProperty("btg[" + i + "].curr",  "EUR");
+            props.setProperty("usage[" + i + "]",     "Verwendungszweck " + i);
+        }
+        props.setProperty("dst[1].bic",      "BBBBBBBB123");
+        props.setProperty("endtoendid[1]",   "e2e");
+        props.setProperty("purposecode[1]",  "SALA");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        SEPAGeneratorFactory.getStreaming("UebSEPA",PainVersion.PAIN_001_003_03).generate(props,bos,false);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Erzeugt eine Lastschrift.
+     * @return das XML.
+     * @throws Exception
+     */
+    private byte[] createLast() throws Exception
+    {
+        Properties props = new Properties();
+        props.setProperty("src.iban",       "DE1234567890");
+        props.setProperty("src.name",       "Max Mustermann");
+        props.setProperty("sepaid",         "abcde");
+        props.setProperty("targetdate",     "2014-02-01");
+        props.setProperty("type",           "COR1");
+        props.setProperty("sequencetype",   "RCUR");
+        props.setProperty("dst.iban",       "DE0987654321");
+        props.setProperty("dst.name",       "SEPAstian");
+        props.setProperty("btg.value",      "100");
+        props.setProperty("btg.curr",       "EUR");
+        props.setProperty("creditorid",     "DE98ZZZ09999999999");
+        props.setProperty("mandateid",      "0987654321");
+        props.setProperty("manddateofsig",  "2013-11-23");
+        props.setProperty("amendmandindic", "true");
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        SEPAGeneratorFactory.getStreaming("LastSEPA",PainVersion.PAIN_008_003_02).generate(props,bos,false);
+        return bos.toByteArray();
+    }
+
+    /**
+     * Parst das XML.
+     * @param xml das XML.
+     * @param records hier landen die Transaktionen.
+     * @return die PAIN-Version.
+     */
+    private PainVersion parse(byte[] xml, final List<SepaRecord> records)
+    {
+        return new SEPAStreamParser().parse(new ByteArrayInputStream(xml),new SEPAStreamParser.Handler()
+        {
+            public void handle(SepaRecord record)
+            {
+                records.add(record);
+            }
+        });
+    }
+
+    /**
+     * Testet das Parsen einer Sammel-Ueberweisung.
+     * @throws Exception
+     */
+    @Test
+    public void test001() throws Exception
+    {
+        List<SepaRecord> records = new ArrayList<SepaRecord>();
+        Assert.assertEquals(PainVersion.PAIN_001_003_03,parse(createUeb(),records));
+        Assert.assertEquals(3,records.size());
+
+        for (SepaRecord r:records)
+        {
+            Assert.assertEquals("fghij",r.pmtinfid);
+            Assert.assertEquals("Max Mustermann",r.srcname);
+            Assert.assertEquals("DE1234567890",r.srciban);
+            Assert.assertEquals("ABCDEFAA123",r.srcbic);
+            Assert.assertEquals("EUR",r.curr);
+            Assert.assertEquals(HBCIUtils.string2DateISO("2014-02-01"),r.date);
+            Assert.assertNull(r.targetdate);
+            Assert.assertNull(r.creditorid);
+        }
+
+        SepaRecord r = records.get(1);
+        Assert.assertEquals("SEPAstian & Co 1",r.dstname);
+        Assert.assertEquals("DE0987654321",r.dstiban);
+        Assert.assertEquals("BBBBBBBB123",r.dstbic);
+        Assert.assertEquals(new BigDecimal("11.50"),r.value);
+        Assert.assertEquals("Verwendungszweck 1",r.usage);
+        Assert.assertEquals("e2e",r.endtoendid);
+        Assert.assertEquals("SALA",r.purposecode);
+
+        r = records.get(2);
+        Assert.assertNull(r.dstbic);
+        Assert.assertNull(r.purposecode);
+        Assert.assertEquals("NOTPROVIDED",r.endtoendid);
+    }
+
+    /**
+     * Testet das Parsen einer Lastschrift.
+     * @throws Exception
+     */
+    @Test
+    public void test002() throws Exception
+    {
+        List<SepaRecord> records = new ArrayList<SepaRecord>();
+        Assert.assertEquals(PainVersion.PAIN_008_003_02,parse(createLast(),records));
+        Assert.assertEquals(1,records.size());
+
+        SepaRecord r = records.get(0);
+        Assert.assertEquals("abcde",r.pmtinfid);
+        Assert.assertEquals("DE1234567890",r.srciban);
+        Assert.assertNull(r.srcbic);
+        Assert.assertEquals("SEPAstian",r.dstname);
+        Assert.assertEquals("DE0987654321",r.dstiban);
+        Assert.assertEquals(new BigDecimal("100"),r.value);
+        Assert.assertEquals("COR1",r.type);
+        Assert.assertEquals("RCUR",r.sequencetype);
+        Assert.assertEquals("DE98ZZZ09999999999",r.creditorid);
+        Assert.assertEquals("0987654321",r.mandateid);
+        Assert.assertEquals(HBCIUtils.string2DateISO("2013-11-23"),r.manddateofsig);
+        Assert.assertEquals(HBCIUtils.string2DateISO("2014-02-01"),r.targetdate);
+        Assert.assertNull(r.date);
+    }
+
+    /**
+     * Die Properties muessen identisch mit denen der JAXB-Parser sein.
+     * @throws Exception
+     */
+    @Test
+    public void test003() throws Exception
+    {
+        byte[][] docs = new byte[][]{createUeb(),createLast()};
+        PainVersion[] versions = new PainVersion[]{PainVersion.PAIN_001_003_03,PainVersion.PAIN_008_003_02};
+        for (int i=0;i<docs.length;++i)
+        {
+            List<Properties> expected = new ArrayList<Properties>();
+            ISEPAParser parser = SEPAParserFactory.get(versions[i]);
+            parser.parse(new ByteArrayInputStream(docs[i]),expected);
+
+            List<Properties> actual = new ArrayList<Properties>();
+            new SEPAStreamParser().parse(new ByteArrayInputStream(docs[i]),actual);
+            Assert.assertEquals(expected,actual);
+        }
+    }
+}
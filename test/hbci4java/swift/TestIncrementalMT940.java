@@ -0,0 +1,110 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.swift;
+
+import hbci4java.AbstractTest;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.GV_Result.GVRKUms;
+import org.kapott.hbci.GV_Result.GVRKUms.BTag;
+import org.kapott.hbci.exceptions.HBCI_Exception;
+
+/**
+ * Testet das Parsen der MT940-Daten, waehrend sie stueckweise eintreffen.
+ */
+public class TestIncrementalMT940 extends AbstractTest
+{
+  private final static String DAY1 = "\r\n:20:STARTUMS\r\n:25:50010517/0123456789\r\n:28C:1\r\n:60F:C140301EUR10,00\r\n:61:1403010301CR5,00NTRFNONREF\r\n:86:166?00GUTSCHRIFT?20EREF+1\r\n:62F:C140301EUR15,00\r\n-";
+  private final static String DAY2 = "\r\n:20:STARTUMS\r\n:25:50010517/0123456789\r\n:28C:2\r\n:60F:C140302EUR15,00\r\n:61:1403020302DR2,50NTRFNONREF\r\n:86:166?00LASTSCHRIFT?20EREF+2\r\n:62F:C140302EUR12,50\r\n-";
+
+  /**
+   * Sammelt die gemeldeten Buchungstage.
+   */
+  private static class Listener implements GVRKUms.DayListener
+  {
+    private List<BTag> days = new ArrayList<BTag>();
+
+    /**
+     * @see org.kapott.hbci.GV_Result.GVRKUms.DayListener#dayParsed(org.kapott.hbci.GV_Result.GVRKUms.BTag, boolean)
+     */
+    public void dayParsed(BTag day, boolean booked)
+    {
+      Assert.assertTrue(booked);
+      days.add(day);
+    }
+  }
+
+  /**
+   * Jeder Buchungstag muss gemeldet werden, sobald der naechste beginnt.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    GVRKUms result = new GVRKUms();
+    Listener l = new Listener();
+    result.setDayListener(l);
+
+    // der erste Tag ist erst komplett, wenn der zweite beginnt
+    String data = DAY1 + DAY2;
+    int split = data.indexOf(":28C:2");
+    result.appendMT940Data(data.substring(0,40));
+    Assert.assertEquals(0,l.days.size());
+    result.appendMT940Data(data.substring(40,split));
+    Assert.assertEquals(1,l.days.size());
+    Assert.assertEquals(1,l.days.get(0).lines.size());
+    Assert.assertEquals(15.0d,l.days.get(0).end.value.getDoubleValue(),0.001d);
+
+    // den letzten Tag gibt es erst beim Abruf der Daten
+    result.appendMT940Data(data.substring(split));
+    Assert.assertEquals(1,l.days.size());
+    List<BTag> days = result.getDataPerDay();
+    Assert.assertEquals(2,days.size());
+    Assert.assertEquals(2,l.days.size());
+    Assert.assertSame(days.get(1),l.days.get(1));
+    Assert.assertEquals(0,result.restMT940.length());
+
+    // erneuter Abruf darf nichts doppelt liefern
+    Assert.assertEquals(2,result.getFlatData().size());
+    Assert.assertEquals(2,l.days.size());
+  }
+
+  /**
+   * Ein Fehler beim stueckweisen Parsen wird erst beim Abruf gemeldet.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    GVRKUms result = new GVRKUms();
+    Listener l = new Listener();
+    result.setDayListener(l);
+
+    String broken = DAY2.replace("\r\n:25:50010517/0123456789","");
+    result.appendMT940Data(DAY1);
+    result.appendMT940Data(broken);
+    result.appendMT940Data(DAY1);
+    Assert.assertEquals(1,l.days.size());
+
+    try
+    {
+      result.getDataPerDay();
+      Assert.fail("missing exception");
+    }
+    catch (HBCI_Exception e)
+    {
+      // erwartet
+    }
+    Assert.assertEquals(1,l.days.size());
+    Assert.assertEquals(broken + DAY1,result.restMT940.toString());
+  }
+}
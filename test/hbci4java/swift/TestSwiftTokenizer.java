@@ -0,0 +1,114 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.swift;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.swift.Swift;
+import org.kapott.hbci.swift.SwiftMultiTag;
+import org.kapott.hbci.swift.SwiftTokenizer;
+
+/**
+ * Testet das Zerlegen von MT940-Daten in einem Durchlauf.
+ */
+public class TestSwiftTokenizer
+{
+    /**
+     * Sammelt die Ereignisse als Strings.
+     */
+    private static class Recorder implements SwiftTokenizer.Handler
+    {
+        private List<String> events = new ArrayList<String>();
+
+        public void startBlock(String data, int start)
+        {
+            events.add("start");
+        }
+
+        public void tag(String data, String tag, int start, int end)
+        {
+            events.add(tag + "=" + data.substring(start,end));
+        }
+
+        public void endBlock(String data, int end)
+        {
+            events.add("end");
+        }
+    }
+
+    /**
+     * Bloecke, Tags und die tolerierten Trenner.
+     * @throws Exception
+     */
+    @Test
+    public void test001() throws Exception
+    {
+        String st = ":20:STARTUMS\r\n:25:12345678/1234\r\n:60F:C140106EUR1,00\r\n-:61:1401060106CR5,00N062NONREF\r\n:86:051?00TEXT\r\n-\r\n:62F:C140106EUR6,00\r\n-" +
+                    "\r\n:20:STARTUMS\r\n:25:12345678/1234\r\n:62F:C140107EUR6,00\r\n\r\n";
+        Recorder r = new Recorder();
+        Assert.assertEquals(st.length(),SwiftTokenizer.tokenize(st,0,true,r));
+
+        // das erste ":20:" steht nicht nach einem Zeilenumbruch und ist daher kein Tag
+        String[] expected = {"start","25=12345678/1234","60F=C140106EUR1,00","61=1401060106CR5,00N062NONREF","86=051?00TEXT","62F=C140106EUR6,00","end",
+                             "start","20=STARTUMS","25=12345678/1234","62F=C140107EUR6,00","end"};
+        Assert.assertEquals(expected.length,r.events.size());
+        for (int i=0;i<expected.length;i++)
+            Assert.assertEquals(expected[i],r.events.get(i));
+    }
+
+    /**
+     * Bei unvollstaendigen Daten darf der letzte Block nicht gemeldet werden.
+     * @throws Exception
+     */
+    @Test
+    public void test002() throws Exception
+    {
+        String st = "\r\n:20:A\r\n:25:1/2\r\n-\r\n:20:B\r\n:25:3/4";
+        Recorder r = new Recorder();
+        int pos = SwiftTokenizer.tokenize(st,0,false,r);
+        Assert.assertEquals(st.indexOf("\r\n:20:B"),pos);
+        Assert.assertEquals("[start, 20=A, 25=1/2, end]",r.events.toString());
+
+        // und beim naechsten Aufruf ab dort weiter
+        r = new Recorder();
+        Assert.assertEquals(st.length(),SwiftTokenizer.tokenize(st,pos,true,r));
+        Assert.assertEquals("[start, 20=B, 25=3/4, end]",r.events.toString());
+
+        // nur ein (unvollstaendiger) Block
+        r = new Recorder();
+        Assert.assertEquals(0,SwiftTokenizer.tokenize("\r\n:20:A\r\n:25:1/2",0,false,r));
+        Assert.assertEquals(0,r.events.size());
+    }
+
+    /**
+     * Die Unterfelder eines Multi-Tags muessen die gleichen Werte liefern
+     * wie {@link Swift#getMultiTagValue(String, String)}.
+     * @throws Exception
+     */
+    @Test
+    public void test003() throws Exception
+    {
+        String st = "166?00SEPA-UEBERW?20EREF+1\r\n23?21SVWZ+A?B?2\r\n2x?20DOPPELT?30DEUTDEFF?31DE12?2";
+        SwiftMultiTag multi = new SwiftMultiTag();
+        multi.parse(st,3,st.length());
+
+        String packed = Swift.packMulti(st.substring(3));
+        Assert.assertEquals(packed,multi.toString());
+        for (int i=0;i<100;i++)
+        {
+            String code = (i < 10 ? "0" : "") + i;
+            Assert.assertEquals(code,Swift.getMultiTagValue(packed,code),multi.getValue(i));
+        }
+        Assert.assertEquals("EREF+123",multi.getValue(20));
+        Assert.assertEquals("SVWZ+A?B",multi.getValue(21));
+        Assert.assertEquals("DE12?2",multi.getValue(31));
+    }
+}
@@ -0,0 +1,224 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.tools;
+
+import hbci4java.AbstractTest;
+import hbci4java.manager.OfflinePassport;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.callback.HBCICallback;
+import org.kapott.hbci.manager.HBCIContext;
+import org.kapott.hbci.manager.HBCIHandler;
+import org.kapott.hbci.tools.HBCIBatch;
+import org.kapott.hbci.tools.HBCIBatchRunner;
+
+/**
+ * Testet {@link HBCIBatch} und {@link HBCIBatchRunner}.
+ */
+public class TestHBCIBatch extends AbstractTest
+{
+  /**
+   * Erzeugt eine temporaere Datei mit dem angegebenen Inhalt.
+   * @param content der Inhalt.
+   * @return die Datei.
+   * @throws Exception
+   */
+  private File createFile(String content) throws Exception
+  {
+    File file = File.createTempFile("hbci4java-batch",".txt");
+    file.deleteOnExit();
+    OutputStream os = new FileOutputStream(file);
+    try
+    {
+      os.write(content.getBytes("ISO-8859-1"));
+    }
+    finally
+    {
+      os.close();
+    }
+    return file;
+  }
+
+  /**
+   * Die Jobs werden in der Reihenfolge der Batch-Datei geliefert.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    final File batch = createFile(
+      "# Kommentar\n" +
+      "_Saldo:z\n" +
+      "_KTV.number=1\n" +
+      "_KTV.KIK.country=DE\n" +
+      "_KTV.KIK.blz=10000010\n" +
+      "_allaccounts=N\n" +
+      "\n" +
+      "_Saldo:a:customer2\n" +
+      "_KTV.number=2\n" +
+      "_KTV.KIK.country=DE\n" +
+      "_KTV.KIK.blz=10000010\n" +
+      "_allaccounts=N\n" +
+      "\n" +
+      "--\n" +
+      "_Saldo:m\n" +
+      "_KTV.number=3\n" +
+      "_KTV.KIK.country=DE\n" +
+      "_KTV.KIK.blz=10000010\n" +
+      "_allaccounts=N\n");
+
+    final HBCIContext ctx = OfflinePassport.createContext();
+    final String bpd = getFile("bpd/bpd2-raw.txt");
+    HBCIHandler handler = ctx.call(new Callable<HBCIHandler>() {
+      public HBCIHandler call() throws Exception
+      {
+        return new HBCIHandler("300",new OfflinePassport(bpd,"10000010",1),ctx);
+      }
+    });
+    try
+    {
+      Map<String,HBCIBatch.BatchJob> jobs = HBCIBatch.readJobs(handler,batch.getAbsolutePath());
+      Assert.assertEquals(Arrays.asList("z","a","m"),new ArrayList<String>(jobs.keySet()));
+    }
+    finally
+    {
+      handler.close();
+    }
+  }
+
+  /**
+   * Steuerzeichen werden in JSON escaped.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    Assert.assertEquals("null",HBCIBatchRunner.quote(null));
+    Assert.assertEquals("\"\"",HBCIBatchRunner.quote(""));
+    Assert.assertEquals("\"a\\\"b\\\\c\"",HBCIBatchRunner.quote("a\"b\\c"));
+    Assert.assertEquals("\"\\n\\r\\t\"",HBCIBatchRunner.quote("\n\r\t"));
+    Assert.assertEquals("\"\\u0000\\u0001\\u001f \"",HBCIBatchRunner.quote("\u0000\u0001\u001f "));
+    Assert.assertEquals("\"\u00e4\u20ac\"",HBCIBatchRunner.quote("\u00e4\u20ac"));
+  }
+
+  /**
+   * Runner, dessen Ausfuehrung eines Passports immer scheitert.
+   */
+  private static class FailingRunner extends HBCIBatchRunner
+  {
+    /**
+     * Sammelt die Fehler der Passports.
+     */
+    private static class Sink implements ResultSink
+    {
+      private final List<Exception> failed = new ArrayList<Exception>();
+
+      public void jobFinished(String passportId, HBCIBatch.BatchJob job)
+      {
+      }
+
+      public void passportFailed(String passportId, Exception e)
+      {
+        failed.add(e);
+      }
+
+      public void close()
+      {
+      }
+    }
+
+    private final boolean send;
+    private final Sink sink;
+    private int attempts = 0;
+
+    /**
+     * ct.
+     * @param send true, wenn vor dem Fehler ein Job gesendet wurde.
+     */
+    private FailingRunner(boolean send)
+    {
+      this(send,new Sink());
+    }
+
+    /**
+     * ct.
+     * @param send true, wenn vor dem Fehler ein Job gesendet wurde.
+     * @param sink die Ausgabe.
+     */
+    private FailingRunner(boolean send, Sink sink)
+    {
+      super(createOptions(),sink);
+      this.send = send;
+      this.sink = sink;
+    }
+
+    /**
+     * Liefert die Einstellungen mit 2 Wiederholungen ohne Wartezeit.
+     * @return die Einstellungen.
+     */
+    private static Properties createOptions()
+    {
+      Properties options = new Properties();
+      options.setProperty("batch.retries","2");
+      options.setProperty("batch.retryDelay","0");
+      return options;
+    }
+
+    /**
+     * Fuehrt das Passport aus.
+     * @throws Exception
+     */
+    private void run() throws Exception
+    {
+      File empty = File.createTempFile("hbci4java-batch",".properties");
+      empty.deleteOnExit();
+      runEntry(new Entry("test",empty.getAbsolutePath(),empty.getAbsolutePath(),empty.getAbsolutePath()));
+    }
+
+    /**
+     * Simuliert einen Verbindungsabbruch, optional nach dem Senden eines Jobs.
+     */
+    protected int execute(Entry entry, RunnerCallback callback, boolean last) throws Exception
+    {
+      attempts++;
+      if (send)
+        callback.status(null,HBCICallback.STATUS_SEND_TASK,(Object[]) null);
+      throw new Exception("connection lost");
+    }
+  }
+
+  /**
+   * Vor dem Senden eines Jobs wird wiederholt, danach nie.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    FailingRunner runner = new FailingRunner(false);
+    runner.run();
+    Assert.assertEquals(3,runner.attempts);
+    Assert.assertEquals(1,runner.sink.failed.size());
+
+    runner = new FailingRunner(true);
+    runner.run();
+    Assert.assertEquals(1,runner.attempts);
+    Assert.assertEquals(1,runner.sink.failed.size());
+    Assert.assertEquals("connection lost",runner.sink.failed.get(0).getMessage());
+  }
+}
@@ -0,0 +1,147 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package hbci4java.tools;
+
+import hbci4java.AbstractTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.kapott.hbci.manager.HBCIUtils;
+import org.kapott.hbci.tools.ObjectFactory;
+
+/**
+ * Testet den Object-Pool.
+ */
+public class TestObjectFactory extends AbstractTest
+{
+  /**
+   * Zurueckgegebene Objekte muessen wiederverwendet werden - aber nur einmal.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    ObjectFactory pool = new ObjectFactory(10);
+    Assert.assertNull(pool.getFreeObject());
+    Assert.assertEquals(1,pool.getMisses());
+
+    Object o = new Object();
+    pool.addToUsedPool(o);
+    Assert.assertEquals(1,pool.getUsedSize());
+
+    // doppelte Rueckgabe darf das Objekt nicht zweimal in den Pool bringen
+    pool.unuseObject(o);
+    pool.unuseObject(o);
+    Assert.assertEquals(0,pool.getUsedSize());
+
+    Assert.assertSame(o,pool.getFreeObject());
+    Assert.assertNull(pool.getFreeObject());
+    Assert.assertEquals(1,pool.getHits());
+    Assert.assertEquals(2,pool.getMisses());
+
+    // nicht vorgemerkte Objekte werden ignoriert
+    pool.unuseObject(new Object());
+    Assert.assertNull(pool.getFreeObject());
+  }
+
+  /**
+   * Freie Objekte eines Threads muessen ueber den gemeinsamen Pool auch
+   * in anderen Threads verfuegbar sein, sobald das Magazin voll ist.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    final ObjectFactory pool = new ObjectFactory(100);
+    for (int i=0;i<50;i++)
+    {
+      Object o = new Object();
+      pool.addToUsedPool(o);
+      pool.unuseObject(o);
+    }
+    Assert.assertTrue(pool.getFreeSize() > 0);
+
+    final int[] found = new int[1];
+    Thread t = new Thread() {
+      public void run()
+      {
+        while (pool.getFreeObject() != null)
+          found[0]++;
+      }
+    };
+    t.start();
+    t.join();
+    Assert.assertEquals(0,pool.getFreeSize());
+    Assert.assertTrue(found[0] > 0 && found[0] < 50);
+  }
+
+  /**
+   * Bei abgeschaltetem Pooling darf nichts wiederverwendet werden.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    HBCIUtils.setParam("kernel.objpool.enabled","0");
+    try
+    {
+      ObjectFactory pool = new ObjectFactory(10);
+      Assert.assertFalse(pool.isEnabled());
+      Object o = new Object();
+      pool.addToUsedPool(o);
+      pool.unuseObject(o);
+      Assert.assertNull(pool.getFreeObject());
+      Assert.assertEquals(0,pool.getUsedSize());
+    }
+    finally
+    {
+      HBCIUtils.setParam("kernel.objpool.enabled",null);
+    }
+  }
+
+  /**
+   * Nach releaseMagazines() haelt der Thread keine Objekte mehr fest,
+   * der gemeinsame Pool bleibt begrenzt.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    final ObjectFactory pool = new ObjectFactory(5);
+    Thread t = new Thread() {
+      public void run()
+      {
+        for (int i=0;i<5;i++)
+        {
+          Object o = new Object();
+          pool.addToUsedPool(o);
+          pool.unuseObject(o);
+        }
+        ObjectFactory.releaseMagazines();
+      }
+    };
+    t.start();
+    t.join();
+    Assert.assertEquals(5,pool.getFreeSize());
+
+    // das Magazin des Test-Threads fasst 5 Objekte, der gemeinsame Pool
+    // ist bereits voll - der Rest wird verworfen
+    for (int i=0;i<8;i++)
+    {
+      Object o = new Object();
+      pool.addToUsedPool(o);
+      pool.unuseObject(o);
+    }
+    pool.releaseMagazine();
+    Assert.assertEquals(5,pool.getFreeSize());
+    int found = 0;
+    while (pool.getFreeObject() != null)
+      found++;
+    Assert.assertEquals(5,found);
+  }
+}
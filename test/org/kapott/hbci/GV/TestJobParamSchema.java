@@ -0,0 +1,136 @@
+/**********************************************************************
+ *
+ * Copyright (c) by Olaf Willuhn
+ * All rights reserved
+ *
+ **********************************************************************/
+
+package org.kapott.hbci.GV;
+
+import hbci4java.AbstractTest;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Testet das gecachte Parameter-Schema der Jobs.
+ * Liegt im Package der Jobs, da das Schema nicht oeffentlich ist.
+ */
+public class TestJobParamSchema extends AbstractTest
+{
+  /**
+   * Registriert die Parameter so, wie es ein Job-Konstruktor tun wuerde.
+   * @param b der Builder.
+   * @param defValue Default-Wert fuer "btg.curr".
+   * @return das Schema.
+   */
+  private JobParamSchema build(JobParamSchema.Builder b, String defValue)
+  {
+    b.add("src.iban","My.iban",null,0,false);
+    b.add("btg.value","sepa.btg.value",null,0,true);
+    b.add("btg.curr","sepa.btg.curr",defValue,0,true);
+    b.add("src.iban","My.iban2","X",3,false);
+    return b.build();
+  }
+
+  /**
+   * Jobs mit identischen Parametern verwenden dasselbe Schema.
+   * @throws Exception
+   */
+  @Test
+  public void test001() throws Exception
+  {
+    JobParamSchema s1 = build(new JobParamSchema.Builder(getClass(),"Test001Ueb1"),"EUR");
+    JobParamSchema s2 = build(new JobParamSchema.Builder(getClass(),"Test001Ueb1"),"EUR");
+    Assert.assertSame(s1,s2);
+
+    // Andere Segment-Version, anderes Schema
+    JobParamSchema s3 = build(new JobParamSchema.Builder(getClass(),"Test001Ueb2"),"EUR");
+    Assert.assertNotSame(s1,s3);
+    Assert.assertEquals("Test001Ueb2.sepa.btg.value",s3.get("btg.value").destinations[0]);
+  }
+
+  /**
+   * Parameter werden nach Frontend-Namen zusammengefasst, in der Reihenfolge der Registrierung.
+   * @throws Exception
+   */
+  @Test
+  public void test002() throws Exception
+  {
+    JobParamSchema s = build(new JobParamSchema.Builder(getClass(),"Test002Ueb1"),"EUR");
+
+    JobParamSchema.Param[] params = s.getParams();
+    Assert.assertEquals(3,params.length);
+    Assert.assertEquals("src.iban",params[0].name);
+    Assert.assertEquals("btg.value",params[1].name);
+    Assert.assertEquals("btg.curr",params[2].name);
+
+    JobParamSchema.Param iban = s.get("src.iban");
+    Assert.assertArrayEquals(new String[]{"Test002Ueb1.My.iban","Test002Ueb1.My.iban2"},iban.destinations);
+    Assert.assertArrayEquals(new String[]{null,"X"},iban.defValues);
+    Assert.assertEquals(3,iban.logFilterLevel);
+    Assert.assertFalse(iban.indexed);
+
+    JobParamSchema.Param curr = s.get("btg.curr");
+    Assert.assertTrue(curr.indexed);
+    Assert.assertEquals("EUR",curr.defValues[0]);
+    Assert.assertEquals("Test002Ueb1.sepa.btg[2].curr",curr.getDestination(0,2));
+    Assert.assertEquals("Test002Ueb1.sepa.btg.curr",curr.getDestination(0,null));
+
+    Assert.assertNull(s.get("btg.unknown"));
+  }
+
+  /**
+   * Weicht ein Job vom gecachten Schema ab, erhaelt er ein eigenes.
+   * Der Cache bleibt davon unberuehrt.
+   * @throws Exception
+   */
+  @Test
+  public void test003() throws Exception
+  {
+    JobParamSchema cached = build(new JobParamSchema.Builder(getClass(),"Test003Ueb1"),"EUR");
+
+    // Default-Wert z.Bsp. aus den BPD
+    JobParamSchema other = build(new JobParamSchema.Builder(getClass(),"Test003Ueb1"),"CHF");
+    Assert.assertNotSame(cached,other);
+    Assert.assertEquals("CHF",other.get("btg.curr").defValues[0]);
+    Assert.assertEquals("X",other.get("src.iban").defValues[1]);
+
+    // Weniger Parameter als im Cache
+    JobParamSchema.Builder b = new JobParamSchema.Builder(getClass(),"Test003Ueb1");
+    b.add("src.iban","My.iban",null,0,false);
+    JobParamSchema shorter = b.build();
+    Assert.assertNotSame(cached,shorter);
+    Assert.assertEquals(1,shorter.getParams().length);
+
+    Assert.assertSame(cached,build(new JobParamSchema.Builder(getClass(),"Test003Ueb1"),"EUR"));
+  }
+
+  /**
+   * Nachtraeglich hinzugefuegte Parameter erweitern das Schema ohne den Cache zu veraendern.
+   * @throws Exception
+   */
+  @Test
+  public void test004() throws Exception
+  {
+    JobParamSchema cached = build(new JobParamSchema.Builder(getClass(),"Test004Ueb1"),"EUR");
+
+    JobParamSchema.Builder b = new JobParamSchema.Builder(cached);
+    b.add("usage","sepa.usage",null,0,true);
+    JobParamSchema extended = b.build();
+
+    Assert.assertNotSame(cached,extended);
+    Assert.assertEquals(4,extended.getParams().length);
+    Assert.assertEquals("usage",extended.getParams()[3].name);
+    Assert.assertEquals("Test004Ueb1.sepa.usage",extended.get("usage").destinations[0]);
+    Assert.assertNotNull(extended.get("btg.value"));
+
+    Assert.assertNull(cached.get("usage"));
+    Assert.assertSame(cached,build(new JobParamSchema.Builder(getClass(),"Test004Ueb1"),"EUR"));
+
+    // Umbenennen fuer eine andere Segment-Version
+    JobParamSchema renamed = extended.rename("Test004Ueb2");
+    Assert.assertEquals("Test004Ueb2.sepa.usage",renamed.get("usage").destinations[0]);
+    Assert.assertEquals("Test004Ueb2.My.iban2",renamed.get("src.iban").destinations[1]);
+  }
+}